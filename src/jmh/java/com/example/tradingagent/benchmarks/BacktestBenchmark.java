@@ -0,0 +1,65 @@
+package com.example.tradingagent.benchmarks;
+
+import com.example.tradingagent.services.BacktestEngine;
+import com.example.tradingagent.services.BacktestTimeline;
+import com.example.tradingagent.services.CandleSeries;
+import com.example.tradingagent.services.N8nSignalService;
+import com.example.tradingagent.services.RiskManagementService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import ru.tinkoff.piapi.contract.v1.Instrument;
+
+import java.time.Instant;
+
+/**
+ * Бэктест одного тикера на синтетических свечах M15/H1, без обращения к API.
+ * runBacktest - то же, что BacktestEngine.runBacktest после загрузки свечей: построение ленты + прогон;
+ * replay - только прогон по готовой ленте (то, что повторяет оптимизатор на каждую комбинацию).
+ */
+@State(Scope.Benchmark)
+public class BacktestBenchmark {
+
+    private static final long START_EPOCH_SECOND = 1_700_000_000L;
+
+    @Param({"20", "60"})
+    public int days;
+
+    private BacktestEngine engine;
+    private Instrument instrument;
+    private CandleSeries candlesM15;
+    private CandleSeries candlesH1;
+    private Instant endDate;
+    private BacktestTimeline timeline;
+
+    @Setup
+    public void setUp() {
+        // Данные подаются напрямую, поэтому сервис и провайдер рыночных данных не нужны
+        engine = new BacktestEngine(null, new RiskManagementService(), new N8nSignalService(), null);
+        instrument = SyntheticCandles.instrument();
+        // Круглосуточные свечи: 96 M15 и 24 H1 в день, H1 - с запасом на разгон индикаторов
+        candlesM15 = SyntheticCandles.generate(days * 96, START_EPOCH_SECOND, 900L, 250.0, SyntheticCandles.SEED);
+        int warmupHours = 200;
+        candlesH1 = SyntheticCandles.generate(days * 24 + warmupHours,
+                START_EPOCH_SECOND - warmupHours * 3600L, 3600L, 250.0, SyntheticCandles.SEED + 1);
+        endDate = Instant.ofEpochSecond(START_EPOCH_SECOND + days * 86_400L);
+        timeline = buildTimeline();
+    }
+
+    @Benchmark
+    public BacktestEngine.BacktestResult runBacktest() {
+        return engine.replay(buildTimeline(), null, null, null, null);
+    }
+
+    @Benchmark
+    public BacktestEngine.BacktestResult replay() {
+        return engine.replay(timeline, null, null, null, null);
+    }
+
+    private BacktestTimeline buildTimeline() {
+        return engine.buildTimeline(SyntheticCandles.FIGI, SyntheticCandles.TICKER, instrument,
+                candlesM15, candlesH1, endDate);
+    }
+}
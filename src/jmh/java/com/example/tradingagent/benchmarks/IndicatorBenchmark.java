@@ -0,0 +1,35 @@
+package com.example.tradingagent.benchmarks;
+
+import com.example.tradingagent.services.CandleSeries;
+import com.example.tradingagent.services.TechnicalIndicatorService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+
+/**
+ * Полный расчет индикаторов по серии свечей (как при каждом сканировании тикера).
+ */
+@State(Scope.Benchmark)
+public class IndicatorBenchmark {
+
+    @Param({"120", "500", "2000"})
+    public int bars;
+
+    private TechnicalIndicatorService indicatorService;
+    private CandleSeries series;
+
+    @Setup
+    public void setUp() {
+        indicatorService = new TechnicalIndicatorService();
+        series = SyntheticCandles.generate(bars, 1_700_000_000L, 3600L, 250.0, SyntheticCandles.SEED);
+    }
+
+    @Benchmark
+    public Map<String, Double> calculateIndicators() {
+        return indicatorService.calculateIndicators(series, SyntheticCandles.TICKER, SyntheticCandles.FIGI);
+    }
+}
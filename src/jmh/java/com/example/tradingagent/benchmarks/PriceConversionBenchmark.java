@@ -0,0 +1,53 @@
+package com.example.tradingagent.benchmarks;
+
+import com.example.tradingagent.FixedPoint;
+import com.example.tradingagent.TinkoffApiUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import ru.tinkoff.piapi.contract.v1.Quotation;
+
+import java.math.BigDecimal;
+
+/**
+ * Конвертация Quotation и округление до шага цены: BigDecimal против фиксированной точки.
+ */
+@State(Scope.Benchmark)
+public class PriceConversionBenchmark {
+
+    private Quotation quotation;
+    private BigDecimal price;
+    private BigDecimal step;
+    private long priceNanos;
+    private long stepNanos;
+
+    @Setup
+    public void setUp() {
+        quotation = Quotation.newBuilder().setUnits(287).setNano(435_000_000).build();
+        price = new BigDecimal("287.4371234");
+        step = new BigDecimal("0.01");
+        priceNanos = FixedPoint.fromBigDecimal(price);
+        stepNanos = FixedPoint.fromBigDecimal(step);
+    }
+
+    @Benchmark
+    public BigDecimal quotationToBigDecimal() {
+        return TinkoffApiUtils.quotationToBigDecimal(quotation);
+    }
+
+    @Benchmark
+    public long quotationToNanos() {
+        return TinkoffApiUtils.quotationToNanos(quotation);
+    }
+
+    @Benchmark
+    public BigDecimal roundToStep() {
+        return TinkoffApiUtils.roundToStep(price, step);
+    }
+
+    @Benchmark
+    public long roundToStepNanos() {
+        return TinkoffApiUtils.roundToStep(priceNanos, stepNanos);
+    }
+}
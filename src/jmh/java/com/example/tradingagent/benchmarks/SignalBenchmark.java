@@ -0,0 +1,41 @@
+package com.example.tradingagent.benchmarks;
+
+import com.example.tradingagent.dto.TradeRequest;
+import com.example.tradingagent.services.CandleSeries;
+import com.example.tradingagent.services.N8nSignalService;
+import com.example.tradingagent.services.TechnicalIndicatorService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+
+/**
+ * Генерация сигнала по готовым индикаторам H1 и M15 (без расчета самих индикаторов).
+ */
+@State(Scope.Benchmark)
+public class SignalBenchmark {
+
+    private N8nSignalService signalService;
+    private Map<String, Double> indicatorsH1;
+    private Map<String, Double> indicatorsM15;
+    private double currentPrice;
+
+    @Setup
+    public void setUp() {
+        signalService = new N8nSignalService();
+        TechnicalIndicatorService indicatorService = new TechnicalIndicatorService();
+        CandleSeries h1 = SyntheticCandles.generate(500, 1_700_000_000L, 3600L, 250.0, SyntheticCandles.SEED);
+        CandleSeries m15 = SyntheticCandles.generate(500, 1_700_000_000L, 900L, 250.0, SyntheticCandles.SEED + 1);
+        indicatorsH1 = indicatorService.calculateIndicators(h1, SyntheticCandles.TICKER, SyntheticCandles.FIGI);
+        indicatorsM15 = indicatorService.calculateIndicators(m15, SyntheticCandles.TICKER, SyntheticCandles.FIGI);
+        currentPrice = m15.getLastClose();
+    }
+
+    @Benchmark
+    public TradeRequest generateTradeSignal() {
+        return signalService.generateTradeSignal(SyntheticCandles.FIGI, SyntheticCandles.TICKER,
+                indicatorsH1, indicatorsM15, null, null, currentPrice);
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.tradingagent.benchmarks;
+
+import com.example.tradingagent.services.CandleSeries;
+import ru.tinkoff.piapi.contract.v1.Instrument;
+import ru.tinkoff.piapi.contract.v1.Quotation;
+
+import java.util.SplittableRandom;
+
+/**
+ * Синтетические свечи для бенчмарков: случайное блуждание с фиксированным seed,
+ * чередованием трендовых участков и флэта, чтобы стратегия действительно входила в сделки.
+ * Одинаковый seed - одинаковые данные, результаты прогонов сравнимы между собой.
+ */
+final class SyntheticCandles {
+
+    static final long SEED = 42L;
+    static final String FIGI = "BBG004730N88";
+    static final String TICKER = "SBER";
+
+    private SyntheticCandles() {
+    }
+
+    /**
+     * Серия из bars свечей с шагом stepSeconds, начиная с startEpochSecond.
+     */
+    static CandleSeries generate(int bars, long startEpochSecond, long stepSeconds, double startPrice, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        long[] times = new long[bars];
+        double[] open = new double[bars];
+        double[] high = new double[bars];
+        double[] low = new double[bars];
+        double[] close = new double[bars];
+        double[] volume = new double[bars];
+
+        double price = startPrice;
+        double drift = 0.0;
+        for (int i = 0; i < bars; i++) {
+            // Каждые 50 свечей меняется режим: рост, падение или флэт
+            if (i % 50 == 0) {
+                drift = (random.nextInt(3) - 1) * 0.0015;
+            }
+            double change = drift + (random.nextDouble() - 0.5) * 0.004;
+            double o = price;
+            double c = roundToCents(Math.max(1.0, o * (1.0 + change)));
+            double wick = o * random.nextDouble() * 0.002;
+            times[i] = startEpochSecond + i * stepSeconds;
+            open[i] = o;
+            close[i] = c;
+            high[i] = roundToCents(Math.max(o, c) + wick);
+            low[i] = roundToCents(Math.max(0.01, Math.min(o, c) - wick));
+            volume[i] = 1_000 + random.nextInt(10_000);
+            price = c;
+        }
+        return CandleSeries.of(times, open, high, low, close, volume);
+    }
+
+    /**
+     * Инструмент с лотом 1 и шагом цены 0.01 (как у большинства blue chips).
+     */
+    static Instrument instrument() {
+        return Instrument.newBuilder()
+                .setFigi(FIGI)
+                .setTicker(TICKER)
+                .setLot(1)
+                .setMinPriceIncrement(Quotation.newBuilder().setUnits(0).setNano(10_000_000).build())
+                .build();
+    }
+
+    private static double roundToCents(double value) {
+        return Math.round(value * 100.0) / 100.0;
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.tradingagent;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Цены и суммы с фиксированной точкой в long: значение хранится в нано-единицах (10^-9),
+ * ровно как Quotation/MoneyValue в Tinkoff API (units + nano).
+ * Все операции - статические над примитивным long, без аллокаций, поэтому подходят для циклов по свечам.
+ * Округление везде HALF_UP, как у BigDecimal в остальном коде.
+ * Диапазон: примерно ±9.2 млрд единиц, этого достаточно для цен и сумм счета.
+ */
+public final class FixedPoint {
+
+    public static final int SCALE_DIGITS = 9;
+    public static final long SCALE = 1_000_000_000L;
+    public static final long ZERO = 0L;
+    public static final long ONE = SCALE;
+
+    private FixedPoint() {
+    }
+
+    /**
+     * Значение из целой части и nano (как в Quotation).
+     */
+    public static long of(long units, int nano) {
+        return Math.addExact(Math.multiplyExact(units, SCALE), nano);
+    }
+
+    /**
+     * Целое число единиц (например, количество бумаг или рублей).
+     */
+    public static long ofUnits(long units) {
+        return Math.multiplyExact(units, SCALE);
+    }
+
+    public static long units(long value) {
+        return value / SCALE;
+    }
+
+    public static int nano(long value) {
+        return (int) (value % SCALE);
+    }
+
+    public static long fromBigDecimal(BigDecimal value) {
+        return value.setScale(SCALE_DIGITS, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    /**
+     * BigDecimal для границы с API/JSON: лишние нули убираются, но не меньше двух знаков после запятой.
+     */
+    public static BigDecimal toBigDecimal(long value) {
+        BigDecimal result = BigDecimal.valueOf(value, SCALE_DIGITS).stripTrailingZeros();
+        return result.scale() < 2 ? result.setScale(2, RoundingMode.UNNECESSARY) : result;
+    }
+
+    /**
+     * Из double (цены свечей и индикаторы) - с округлением до 9 знаков.
+     */
+    public static long fromDouble(double value) {
+        return Math.round(value * SCALE);
+    }
+
+    public static double toDouble(long value) {
+        return (double) value / SCALE;
+    }
+
+    /**
+     * Произведение двух значений с фиксированной точкой (цена * множитель).
+     * Если произведение не помещается в 64 бита (суммы от ~9 единиц на множитель), делится как 128-битное.
+     *
+     * @throws ArithmeticException если результат не помещается в long
+     */
+    public static long multiply(long a, long b) {
+        long high = Math.multiplyHigh(a, b);
+        long low = a * b;
+        if (high == (low >> 63)) {
+            return divideRoundHalfUp(low, SCALE);
+        }
+        long absA = Math.abs(a);
+        long absB = Math.abs(b);
+        return divideWideRoundHalfUp(Math.unsignedMultiplyHigh(absA, absB), absA * absB, SCALE, (a < 0) != (b < 0));
+    }
+
+    /**
+     * Умножение на целое количество (цена * количество бумаг) - точное.
+     */
+    public static long times(long value, long quantity) {
+        return Math.multiplyExact(value, quantity);
+    }
+
+    /**
+     * Частное двух значений с фиксированной точкой, HALF_UP до 9 знаков.
+     * Числитель масштабируется на 10^9; для сумм от ~9 единиц он не помещается в 64 бита
+     * и делится как 128-битный - тоже без аллокаций.
+     *
+     * @throws ArithmeticException при делении на ноль или если результат не помещается в long
+     */
+    public static long divide(long dividend, long divisor) {
+        if (divisor == 0) {
+            throw new ArithmeticException("Деление на ноль");
+        }
+        long high = Math.multiplyHigh(dividend, SCALE);
+        long low = dividend * SCALE;
+        if (high == (low >> 63)) {
+            return divideRoundHalfUp(low, divisor);
+        }
+        long absDividend = Math.abs(dividend);
+        return divideWideRoundHalfUp(Math.unsignedMultiplyHigh(absDividend, SCALE), absDividend * SCALE,
+                Math.abs(divisor), (dividend < 0) != (divisor < 0));
+    }
+
+    /**
+     * Округление до шага цены, эквивалент TinkoffApiUtils.roundToStep(BigDecimal, BigDecimal):
+     * price / step с округлением HALF_UP до целого, умноженное обратно на шаг.
+     */
+    public static long roundToStep(long price, long step) {
+        if (step == 0) {
+            return price; // Не можем округлить, если шаг нулевой
+        }
+        return Math.multiplyExact(divideRoundHalfUp(price, step), step);
+    }
+
+    /**
+     * Деление беззнакового 128-битного (high:low) на беззнаковый 64-битный делитель с округлением HALF_UP.
+     * Сдвиг-вычитание по битам: 64 итерации без аллокаций. Math.abs(Long.MIN_VALUE) читается как 2^63 без знака.
+     */
+    private static long divideWideRoundHalfUp(long high, long low, long divisor, boolean negative) {
+        if (Long.compareUnsigned(high, divisor) >= 0) {
+            throw new ArithmeticException("Переполнение FixedPoint");
+        }
+        long quotient = 0;
+        long remainder = high;
+        for (int bit = 63; bit >= 0; bit--) {
+            // Остаток меньше делителя, поэтому после сдвига выходит не больше чем на один бит за 64
+            boolean carry = remainder < 0;
+            remainder = (remainder << 1) | ((low >>> bit) & 1);
+            quotient <<= 1;
+            if (carry || Long.compareUnsigned(remainder, divisor) >= 0) {
+                remainder -= divisor;
+                quotient |= 1;
+            }
+        }
+        if (quotient < 0) {
+            throw new ArithmeticException("Переполнение FixedPoint");
+        }
+        if (Long.compareUnsigned(remainder, divisor - remainder) >= 0) {
+            quotient = Math.addExact(quotient, 1);
+        }
+        return negative ? -quotient : quotient;
+    }
+
+    /**
+     * Целочисленное деление с округлением HALF_UP (половина - от нуля), как RoundingMode.HALF_UP.
+     */
+    private static long divideRoundHalfUp(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        long remainder = dividend % divisor;
+        if (remainder != 0) {
+            long absRemainder = Math.abs(remainder);
+            long absDivisor = Math.abs(divisor);
+            if (absRemainder >= absDivisor - absRemainder) {
+                quotient += (dividend < 0) == (divisor < 0) ? 1 : -1;
+            }
+        }
+        return quotient;
+    }
+}
@@ -25,6 +25,18 @@ public class TinkoffApiUtils {
         return units.add(nano);
     }
 
+    /**
+     * Быстрая конвертация Quotation в double без BigDecimal (для индикаторов и бэктеста).
+     * @param quotation объект Quotation
+     * @return double представление цены
+     */
+    public static double quotationToDouble(Quotation quotation) {
+        if (quotation == null) {
+            return 0.0;
+        }
+        return quotation.getUnits() + quotation.getNano() / 1_000_000_000.0;
+    }
+
     /**
      * НОВЫЙ МЕТОД: Конвертирует объект MoneyValue из API в BigDecimal.
      * @param moneyValue объект MoneyValue
@@ -41,13 +53,48 @@ public class TinkoffApiUtils {
 
     /**
      * Конвертирует BigDecimal в объект Quotation для отправки в API.
+     * Дробная часть округляется HALF_UP до 9 знаков (точность Quotation).
      * @param value BigDecimal значение
      * @return объект Quotation
      */
     public static Quotation bigDecimalToQuotation(BigDecimal value) {
-        long units = value.longValue();
-        int nano = value.remainder(BigDecimal.ONE).multiply(BigDecimal.valueOf(1_000_000_000)).intValue();
-        return Quotation.newBuilder().setUnits(units).setNano(nano).build();
+        return nanosToQuotation(FixedPoint.fromBigDecimal(value));
+    }
+
+    /**
+     * Quotation в значение с фиксированной точкой (нано-единицы, см. FixedPoint). Без аллокаций.
+     * @param quotation объект Quotation
+     * @return цена в нано-единицах
+     */
+    public static long quotationToNanos(Quotation quotation) {
+        if (quotation == null) {
+            return FixedPoint.ZERO;
+        }
+        return FixedPoint.of(quotation.getUnits(), quotation.getNano());
+    }
+
+    /**
+     * MoneyValue в значение с фиксированной точкой (нано-единицы, см. FixedPoint).
+     * @param moneyValue объект MoneyValue
+     * @return сумма в нано-единицах
+     */
+    public static long moneyValueToNanos(MoneyValue moneyValue) {
+        if (moneyValue == null) {
+            return FixedPoint.ZERO;
+        }
+        return FixedPoint.of(moneyValue.getUnits(), moneyValue.getNano());
+    }
+
+    /**
+     * Значение с фиксированной точкой в Quotation для отправки в API.
+     * @param nanos цена в нано-единицах
+     * @return объект Quotation
+     */
+    public static Quotation nanosToQuotation(long nanos) {
+        return Quotation.newBuilder()
+                .setUnits(FixedPoint.units(nanos))
+                .setNano(FixedPoint.nano(nanos))
+                .build();
     }
 
     /**
@@ -62,4 +109,14 @@ public class TinkoffApiUtils {
         }
         return price.divide(step, 0, RoundingMode.HALF_UP).multiply(step);
     }
+
+    /**
+     * Округляет цену до ближайшего шага в фиксированной точке (то же правило HALF_UP, без BigDecimal).
+     * @param priceNanos Цена в нано-единицах.
+     * @param stepNanos Минимальный шаг цены в нано-единицах.
+     * @return Округленная цена в нано-единицах.
+     */
+    public static long roundToStep(long priceNanos, long stepNanos) {
+        return FixedPoint.roundToStep(priceNanos, stepNanos);
+    }
 }
@@ -1,11 +1,11 @@
 package com.example.tradingagent.controllers;
 
-import com.example.tradingagent.entities.MarketSnapshot;
 import com.example.tradingagent.entities.PositionEntity;
 import com.example.tradingagent.entities.TradeDecision;
 import com.example.tradingagent.repositories.MarketSnapshotRepository;
 import com.example.tradingagent.repositories.PositionEntityRepository;
 import com.example.tradingagent.repositories.TradeDecisionRepository;
+import com.example.tradingagent.services.StatisticsRollupService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -13,6 +13,7 @@ import org.springframework.web.bind.annotation.*;
 import java.math.BigDecimal;
 import java.time.Instant;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -28,14 +29,17 @@ public class DashboardController {
     private final MarketSnapshotRepository snapshotRepository;
     private final TradeDecisionRepository decisionRepository;
     private final PositionEntityRepository positionRepository;
+    private final StatisticsRollupService rollupService;
 
     @Autowired
     public DashboardController(MarketSnapshotRepository snapshotRepository,
                          TradeDecisionRepository decisionRepository,
-                         PositionEntityRepository positionRepository) {
+                         PositionEntityRepository positionRepository,
+                         StatisticsRollupService rollupService) {
         this.snapshotRepository = snapshotRepository;
         this.decisionRepository = decisionRepository;
         this.positionRepository = positionRepository;
+        this.rollupService = rollupService;
     }
 
     /**
@@ -45,55 +49,30 @@ public class DashboardController {
     public ResponseEntity<?> getOverview(
             @RequestParam(defaultValue = "24") int hours) {
         try {
-            Instant from = Instant.now().minusSeconds(hours * 3600L);
+            Instant now = Instant.now();
+            Instant from = now.minusSeconds(hours * 3600L);
             
-            // Статистика решений
-            List<TradeDecision> decisions = decisionRepository.findByTimestampAfter(from);
-            long buyDecisions = decisions.stream()
-                    .filter(d -> d.getDecision() == TradeDecision.DecisionType.BUY)
-                    .count();
-            long sellDecisions = decisions.stream()
-                    .filter(d -> d.getDecision() == TradeDecision.DecisionType.SELL)
-                    .count();
-            long holdDecisions = decisions.stream()
-                    .filter(d -> d.getDecision() == TradeDecision.DecisionType.HOLD)
-                    .count();
-            long ignoreDecisions = decisions.stream()
-                    .filter(d -> d.getDecision() == TradeDecision.DecisionType.IGNORE)
-                    .count();
-            
-            // Статистика позиций
-            List<PositionEntity> positions = positionRepository.findByTimestampAfter(from);
-            BigDecimal totalPnL = positions.stream()
-                    .map(PositionEntity::getPnlAbsolute)
-                    .filter(pnl -> pnl != null)
-                    .reduce(BigDecimal.ZERO, BigDecimal::add);
-            
-            long closedPositions = positions.stream()
-                    .filter(p -> p.getExitOrder() != null)
-                    .count();
-            
-            long winningTrades = positions.stream()
-                    .filter(p -> p.getPnlAbsolute() != null && p.getPnlAbsolute().compareTo(BigDecimal.ZERO) > 0)
-                    .count();
+            // Статистика решений и позиций из часовых/суточных агрегатов
+            StatisticsRollupService.DecisionTotals decisions = rollupService.getDecisionTotals(from, now);
+            StatisticsRollupService.PositionTotals positions = rollupService.getPositionTotals(from, now);
             
             // Последние снимки рынка
-            List<MarketSnapshot> recentSnapshots = snapshotRepository.findTop10ByOrderByTimestampDesc();
+            List<MarketSnapshotRepository.SnapshotSummary> recentSnapshots = snapshotRepository.findTop10ByOrderByTimestampDesc();
             
             Map<String, Object> response = new HashMap<>();
             response.put("periodHours", hours);
             response.put("decisions", Map.of(
-                    "total", decisions.size(),
-                    "buy", buyDecisions,
-                    "sell", sellDecisions,
-                    "hold", holdDecisions,
-                    "ignore", ignoreDecisions
+                    "total", decisions.getTotal(),
+                    "buy", decisions.getCount(TradeDecision.DecisionType.BUY),
+                    "sell", decisions.getCount(TradeDecision.DecisionType.SELL),
+                    "hold", decisions.getCount(TradeDecision.DecisionType.HOLD),
+                    "ignore", decisions.getCount(TradeDecision.DecisionType.IGNORE)
             ));
             response.put("positions", Map.of(
-                    "total", positions.size(),
-                    "closed", closedPositions,
-                    "winning", winningTrades,
-                    "totalPnL", totalPnL
+                    "total", positions.getOpened(),
+                    "closed", positions.getClosed(),
+                    "winning", positions.getWins(),
+                    "totalPnL", positions.getPnl()
             ));
             response.put("recentSnapshots", recentSnapshots.stream()
                     .map(s -> Map.of(
@@ -120,15 +99,12 @@ public class DashboardController {
             @RequestParam(defaultValue = "7") int days) {
         try {
             Instant from = Instant.now().minusSeconds(days * 86400L);
-            List<PositionEntity> positions = positionRepository.findByTimestampAfter(from);
             
-            // Группируем по дням
-            Map<String, BigDecimal> dailyPnL = positions.stream()
-                    .filter(p -> p.getExitOrder() != null && p.getPnlAbsolute() != null)
-                    .collect(Collectors.groupingBy(
-                            p -> p.getTimestamp().toString().substring(0, 10),
-                            Collectors.reducing(BigDecimal.ZERO, PositionEntity::getPnlAbsolute, BigDecimal::add)
-                    ));
+            // Группируем по дням на стороне БД
+            Map<String, BigDecimal> dailyPnL = new LinkedHashMap<>();
+            for (PositionEntityRepository.DailyPnl day : positionRepository.sumClosedPnlByDayAfter(from)) {
+                dailyPnL.put(day.getDay().toString(), day.getPnl());
+            }
             
             return ResponseEntity.ok(dailyPnL);
         } catch (Exception e) {
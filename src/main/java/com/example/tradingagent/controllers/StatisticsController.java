@@ -1,19 +1,24 @@
 package com.example.tradingagent.controllers;
 
-import com.example.tradingagent.entities.PositionEntity;
 import com.example.tradingagent.entities.TradeDecision;
 import com.example.tradingagent.repositories.PositionEntityRepository;
-import com.example.tradingagent.repositories.TradeDecisionRepository;
+import com.example.tradingagent.services.AuditFeedService;
+import com.example.tradingagent.services.AuditWriter;
+import com.example.tradingagent.services.SnapshotCompactionService;
+import com.example.tradingagent.services.StatisticsRollupService;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
-import java.math.BigDecimal;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneId;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -24,18 +29,31 @@ import java.util.Map;
 @RequestMapping("/api/statistics")
 public class StatisticsController {
 
-    private final TradeDecisionRepository tradeDecisionRepository;
+    private static final Logger logger = LoggerFactory.getLogger(StatisticsController.class);
+
+    private static final String NDJSON = "application/x-ndjson";
+
     private final PositionEntityRepository positionRepository;
+    private final AuditWriter auditWriter;
+    private final StatisticsRollupService rollupService;
+    private final AuditFeedService feedService;
+    private final SnapshotCompactionService compactionService;
 
     @Autowired
-    public StatisticsController(TradeDecisionRepository tradeDecisionRepository,
-                                PositionEntityRepository positionRepository) {
-        this.tradeDecisionRepository = tradeDecisionRepository;
+    public StatisticsController(PositionEntityRepository positionRepository,
+                                AuditWriter auditWriter,
+                                StatisticsRollupService rollupService,
+                                AuditFeedService feedService,
+                                SnapshotCompactionService compactionService) {
         this.positionRepository = positionRepository;
+        this.auditWriter = auditWriter;
+        this.rollupService = rollupService;
+        this.feedService = feedService;
+        this.compactionService = compactionService;
     }
 
     /**
-     * Получает статистику решений за период.
+     * Получает статистику решений за период (из часовых/суточных агрегатов, точность - час).
      */
     @GetMapping("/decisions")
     public ResponseEntity<?> getDecisionsStats(
@@ -45,24 +63,17 @@ public class StatisticsController {
             Instant start = from != null ? Instant.parse(from) : Instant.now().minusSeconds(86400 * 7); // По умолчанию 7 дней
             Instant end = to != null ? Instant.parse(to) : Instant.now();
 
-            List<TradeDecision> decisions = tradeDecisionRepository.findByTimestampBetween(start, end);
+            StatisticsRollupService.DecisionTotals decisions = rollupService.getDecisionTotals(start, end);
 
             Map<String, Object> stats = new HashMap<>();
-            stats.put("total", decisions.size());
-            stats.put("buy", decisions.stream().filter(d -> d.getDecision() == TradeDecision.DecisionType.BUY).count());
-            stats.put("sell", decisions.stream().filter(d -> d.getDecision() == TradeDecision.DecisionType.SELL).count());
-            stats.put("hold", decisions.stream().filter(d -> d.getDecision() == TradeDecision.DecisionType.HOLD).count());
-            stats.put("ignore", decisions.stream().filter(d -> d.getDecision() == TradeDecision.DecisionType.IGNORE).count());
+            stats.put("total", decisions.getTotal());
+            stats.put("buy", decisions.getCount(TradeDecision.DecisionType.BUY));
+            stats.put("sell", decisions.getCount(TradeDecision.DecisionType.SELL));
+            stats.put("hold", decisions.getCount(TradeDecision.DecisionType.HOLD));
+            stats.put("ignore", decisions.getCount(TradeDecision.DecisionType.IGNORE));
 
             // Статистика по причинам игнора
-            Map<String, Long> ignoreReasons = new HashMap<>();
-            decisions.stream()
-                .filter(d -> d.getDecision() == TradeDecision.DecisionType.IGNORE)
-                .forEach(d -> {
-                    String reason = d.getReasonCode() != null ? d.getReasonCode() : "UNKNOWN";
-                    ignoreReasons.put(reason, ignoreReasons.getOrDefault(reason, 0L) + 1);
-                });
-            stats.put("ignoreReasons", ignoreReasons);
+            stats.put("ignoreReasons", decisions.getIgnoreReasons());
 
             return ResponseEntity.ok(stats);
         } catch (Exception e) {
@@ -81,39 +92,17 @@ public class StatisticsController {
             Instant start = from != null ? Instant.parse(from) : Instant.now().minusSeconds(86400 * 30); // По умолчанию 30 дней
             Instant end = to != null ? Instant.parse(to) : Instant.now();
 
-            List<PositionEntity> positions = positionRepository.findByTimestampBetween(start, end)
-                .stream()
-                .filter(p -> p.getExitOrder() != null) // Только закрытые позиции
-                .toList();
+            // Только закрытые позиции, агрегация в БД
+            PositionEntityRepository.ClosedPositionSummary summary = positionRepository.summarizeClosedBetween(start, end);
 
             Map<String, Object> stats = new HashMap<>();
-            stats.put("totalClosed", positions.size());
-
-            int profitable = 0;
-            int losing = 0;
-            BigDecimal totalPnL = BigDecimal.ZERO;
-            BigDecimal totalProfit = BigDecimal.ZERO;
-            BigDecimal totalLoss = BigDecimal.ZERO;
-
-            for (PositionEntity position : positions) {
-                if (position.getPnlAbsolute() != null) {
-                    totalPnL = totalPnL.add(position.getPnlAbsolute());
-                    if (position.getPnlAbsolute().compareTo(BigDecimal.ZERO) > 0) {
-                        profitable++;
-                        totalProfit = totalProfit.add(position.getPnlAbsolute());
-                    } else if (position.getPnlAbsolute().compareTo(BigDecimal.ZERO) < 0) {
-                        losing++;
-                        totalLoss = totalLoss.add(position.getPnlAbsolute());
-                    }
-                }
-            }
-
-            stats.put("profitable", profitable);
-            stats.put("losing", losing);
-            stats.put("totalPnL", totalPnL);
-            stats.put("totalProfit", totalProfit);
-            stats.put("totalLoss", totalLoss);
-            stats.put("winRate", positions.size() > 0 ? (double) profitable / positions.size() * 100 : 0);
+            stats.put("totalClosed", summary.closedCount());
+            stats.put("profitable", summary.winCount());
+            stats.put("losing", summary.lossCount());
+            stats.put("totalPnL", summary.pnlSum());
+            stats.put("totalProfit", summary.profitSum());
+            stats.put("totalLoss", summary.lossSum());
+            stats.put("winRate", summary.winRate());
 
             return ResponseEntity.ok(stats);
         } catch (Exception e) {
@@ -122,24 +111,99 @@ public class StatisticsController {
     }
 
     /**
-     * Получает последние решения.
+     * Получает последние решения (первая страница ленты, вместе с тикером и ценой снимка).
      */
     @GetMapping("/decisions/latest")
     public ResponseEntity<?> getLatestDecisions(@RequestParam(defaultValue = "50") int limit) {
         try {
-            Instant start = Instant.now().minusSeconds(86400 * 7); // Последние 7 дней
-            List<TradeDecision> decisions = tradeDecisionRepository.findByTimestampBetween(start, Instant.now())
-                .stream()
-                .sorted((a, b) -> b.getTimestamp().compareTo(a.getTimestamp()))
-                .limit(limit)
-                .toList();
-
-            return ResponseEntity.ok(decisions);
+            return ResponseEntity.ok(feedService.getDecisions(null, limit).items());
         } catch (Exception e) {
             return ResponseEntity.internalServerError().body("Ошибка: " + e.getMessage());
         }
     }
 
+    /**
+     * Лента решений от новых к старым: следующая страница - с cursor = nextCursor предыдущей.
+     */
+    @GetMapping("/decisions/feed")
+    public ResponseEntity<?> getDecisionsFeed(@RequestParam(required = false) String cursor,
+                                              @RequestParam(defaultValue = "100") int limit) {
+        try {
+            return ResponseEntity.ok(feedService.getDecisions(cursor, limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().body("Ошибка: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Лента снимков рынка от новых к старым.
+     */
+    @GetMapping("/snapshots/feed")
+    public ResponseEntity<?> getSnapshotsFeed(@RequestParam(required = false) String cursor,
+                                              @RequestParam(defaultValue = "100") int limit) {
+        try {
+            return ResponseEntity.ok(feedService.getSnapshots(cursor, limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().body("Ошибка: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Выгрузка решений за период в NDJSON (строка - решение), потоком из курсора БД.
+     * По умолчанию - последние сутки.
+     */
+    @GetMapping("/decisions/export")
+    public void exportDecisions(@RequestParam(required = false) String from,
+                                @RequestParam(required = false) String to,
+                                HttpServletResponse response) throws IOException {
+        Instant end = to != null ? Instant.parse(to) : Instant.now();
+        Instant start = from != null ? Instant.parse(from) : end.minusSeconds(86400);
+        prepareExport(response, "decisions", start, end);
+        long rows = feedService.exportDecisions(start, end, response.getOutputStream());
+        logger.info("Выгрузка решений {} - {}: {} строк", start, end, rows);
+    }
+
+    /**
+     * Выгрузка снимков рынка за период в NDJSON, потоком из курсора БД. По умолчанию - последние сутки.
+     */
+    @GetMapping("/snapshots/export")
+    public void exportSnapshots(@RequestParam(required = false) String from,
+                                @RequestParam(required = false) String to,
+                                HttpServletResponse response) throws IOException {
+        Instant end = to != null ? Instant.parse(to) : Instant.now();
+        Instant start = from != null ? Instant.parse(from) : end.minusSeconds(86400);
+        prepareExport(response, "snapshots", start, end);
+        long rows = feedService.exportSnapshots(start, end, response.getOutputStream());
+        logger.info("Выгрузка снимков {} - {}: {} строк", start, end, rows);
+    }
+
+    /**
+     * Часовые агрегаты снимков тикера (история старше срока хранения снимков). По умолчанию - 90 дней.
+     */
+    @GetMapping("/snapshots/hourly")
+    public ResponseEntity<?> getHourlySnapshots(@RequestParam String ticker,
+                                                @RequestParam(required = false) String from,
+                                                @RequestParam(required = false) String to) {
+        try {
+            Instant end = to != null ? Instant.parse(to) : Instant.now();
+            Instant start = from != null ? Instant.parse(from) : end.minusSeconds(86400L * 90);
+            return ResponseEntity.ok(compactionService.getHourly(ticker, start, end));
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().body("Ошибка: " + e.getMessage());
+        }
+    }
+
+    private static void prepareExport(HttpServletResponse response, String name, Instant start, Instant end) {
+        response.setContentType(NDJSON);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.setHeader("Content-Disposition", "attachment; filename=" + name + "_"
+                + start.getEpochSecond() + "_" + end.getEpochSecond() + ".ndjson");
+    }
+
     /**
      * Получает дневную статистику.
      */
@@ -150,31 +214,27 @@ public class StatisticsController {
             Instant startOfDay = targetDate.atStartOfDay(ZoneId.systemDefault()).toInstant();
             Instant endOfDay = targetDate.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant();
 
-            // Статистика решений
-            List<TradeDecision> decisions = tradeDecisionRepository.findByTimestampBetween(startOfDay, endOfDay);
-            
-            // Статистика позиций
-            List<PositionEntity> positions = positionRepository.findByTimestampBetween(startOfDay, endOfDay)
-                .stream()
-                .filter(p -> p.getExitOrder() != null)
-                .toList();
+            // Статистика решений и позиций из агрегатов
+            StatisticsRollupService.DecisionTotals decisions = rollupService.getDecisionTotals(startOfDay, endOfDay);
+            StatisticsRollupService.PositionTotals positions = rollupService.getPositionTotals(startOfDay, endOfDay);
 
             Map<String, Object> stats = new HashMap<>();
             stats.put("date", targetDate.toString());
-            stats.put("decisions", decisions.size());
-            stats.put("closedPositions", positions.size());
-            
-            BigDecimal dailyPnL = BigDecimal.ZERO;
-            for (PositionEntity position : positions) {
-                if (position.getPnlAbsolute() != null) {
-                    dailyPnL = dailyPnL.add(position.getPnlAbsolute());
-                }
-            }
-            stats.put("dailyPnL", dailyPnL);
+            stats.put("decisions", decisions.getTotal());
+            stats.put("closedPositions", positions.getClosed());
+            stats.put("dailyPnL", positions.getPnl());
 
             return ResponseEntity.ok(stats);
         } catch (Exception e) {
             return ResponseEntity.internalServerError().body("Ошибка: " + e.getMessage());
         }
     }
+
+    /**
+     * Метрики фоновой записи аудита (очередь, пачки, синхронные записи при переполнении).
+     */
+    @GetMapping("/audit-writer")
+    public ResponseEntity<?> getAuditWriterMetrics() {
+        return ResponseEntity.ok(auditWriter.getMetrics());
+    }
 }
@@ -0,0 +1,23 @@
+package com.example.tradingagent.dto;
+
+import com.example.tradingagent.entities.TradeDecision;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Решение вместе с полями своего снимка рынка - строка ленты и выгрузки решений
+ * (собирается в одном запросе с join, без ленивой загрузки снимка на каждое решение).
+ */
+public record DecisionFeedItem(UUID id,
+                               Instant timestamp,
+                               TradeDecision.DecisionType decision,
+                               String reasonCode,
+                               String reasonDetails,
+                               UUID snapshotId,
+                               String ticker,
+                               BigDecimal priceClose,
+                               BigDecimal rsiValue,
+                               BigDecimal adxValue) {
+}
@@ -0,0 +1,9 @@
+package com.example.tradingagent.dto;
+
+import java.util.List;
+
+/**
+ * Страница ленты: элементы от новых к старым и курсор следующей страницы (null - страница последняя).
+ */
+public record FeedPage<T>(List<T> items, String nextCursor) {
+}
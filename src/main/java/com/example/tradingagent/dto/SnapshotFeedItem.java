@@ -0,0 +1,20 @@
+package com.example.tradingagent.dto;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Снимок рынка - строка ленты и выгрузки снимков (неуправляемый DTO, не копится в контексте персистентности).
+ */
+public record SnapshotFeedItem(UUID id,
+                               Instant timestamp,
+                               String ticker,
+                               BigDecimal priceClose,
+                               BigDecimal currentPrice,
+                               BigDecimal rsiValue,
+                               BigDecimal adxValue,
+                               BigDecimal macdValue,
+                               BigDecimal atrValue,
+                               BigDecimal emaValue) {
+}
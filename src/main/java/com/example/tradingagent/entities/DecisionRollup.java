@@ -0,0 +1,100 @@
+package com.example.tradingagent.entities;
+
+import jakarta.persistence.*;
+
+/**
+ * Агрегат решений за час или сутки: число решений по тикеру, типу решения и причине игнора.
+ * Обновляется инкрементально при записи решений (StatisticsRollupService), статистика читает агрегаты,
+ * а не все решения за период. Начало интервала - epoch-секунды UTC.
+ */
+@Entity
+@Table(name = "decision_rollup", uniqueConstraints = @UniqueConstraint(
+        name = "uk_decision_rollup_bucket",
+        columnNames = {"granularity", "bucket_epoch", "ticker", "decision", "reason_code"}))
+public class DecisionRollup {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, length = 10)
+    @Enumerated(EnumType.STRING)
+    private RollupGranularity granularity;
+
+    @Column(name = "bucket_epoch", nullable = false)
+    private long bucketEpoch;
+
+    @Column(nullable = false, length = 20)
+    private String ticker;
+
+    @Column(nullable = false, length = 20)
+    @Enumerated(EnumType.STRING)
+    private TradeDecision.DecisionType decision;
+
+    // Причина только для IGNORE (для остальных - пустая строка), иначе ключей столько же, сколько решений
+    @Column(name = "reason_code", nullable = false, length = 100)
+    private String reasonCode;
+
+    @Column(name = "decision_count", nullable = false)
+    private long decisionCount;
+
+    public DecisionRollup() {
+    }
+
+    // Getters and Setters
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public RollupGranularity getGranularity() {
+        return granularity;
+    }
+
+    public void setGranularity(RollupGranularity granularity) {
+        this.granularity = granularity;
+    }
+
+    public long getBucketEpoch() {
+        return bucketEpoch;
+    }
+
+    public void setBucketEpoch(long bucketEpoch) {
+        this.bucketEpoch = bucketEpoch;
+    }
+
+    public String getTicker() {
+        return ticker;
+    }
+
+    public void setTicker(String ticker) {
+        this.ticker = ticker;
+    }
+
+    public TradeDecision.DecisionType getDecision() {
+        return decision;
+    }
+
+    public void setDecision(TradeDecision.DecisionType decision) {
+        this.decision = decision;
+    }
+
+    public String getReasonCode() {
+        return reasonCode;
+    }
+
+    public void setReasonCode(String reasonCode) {
+        this.reasonCode = reasonCode;
+    }
+
+    public long getDecisionCount() {
+        return decisionCount;
+    }
+
+    public void setDecisionCount(long decisionCount) {
+        this.decisionCount = decisionCount;
+    }
+}
@@ -9,7 +9,11 @@ import java.util.UUID;
  * Снимок рынка - записывается каждый раз, когда бот анализирует тикер.
  */
 @Entity
-@Table(name = "market_snapshot")
+@Table(name = "market_snapshot", indexes = {
+        // Ленты, выгрузки и сжатие идут по (timestamp, id), история тикера - по (ticker, timestamp)
+        @Index(name = "idx_market_snapshot_timestamp", columnList = "timestamp, id"),
+        @Index(name = "idx_market_snapshot_ticker_timestamp", columnList = "ticker, timestamp")
+})
 public class MarketSnapshot {
 
     @Id
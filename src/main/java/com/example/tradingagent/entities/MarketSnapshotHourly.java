@@ -0,0 +1,141 @@
+package com.example.tradingagent.entities;
+
+import jakarta.persistence.*;
+import java.math.BigDecimal;
+
+/**
+ * Часовой агрегат снимков рынка по тикеру - то, что остается от market_snapshot после сжатия старой истории
+ * (SnapshotCompactionService): цена закрытия снимков как OHLC за час, средние индикаторы и число снимков.
+ */
+@Entity
+@Table(name = "market_snapshot_hourly", uniqueConstraints = @UniqueConstraint(
+        name = "uk_market_snapshot_hourly_bucket",
+        columnNames = {"ticker", "bucket_epoch"}))
+public class MarketSnapshotHourly {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, length = 20)
+    private String ticker;
+
+    @Column(name = "bucket_epoch", nullable = false)
+    private long bucketEpoch;
+
+    @Column(name = "price_open", precision = 19, scale = 4)
+    private BigDecimal priceOpen;
+
+    @Column(name = "price_high", precision = 19, scale = 4)
+    private BigDecimal priceHigh;
+
+    @Column(name = "price_low", precision = 19, scale = 4)
+    private BigDecimal priceLow;
+
+    @Column(name = "price_close", precision = 19, scale = 4)
+    private BigDecimal priceClose;
+
+    @Column(name = "rsi_avg", precision = 10, scale = 4)
+    private BigDecimal rsiAvg;
+
+    @Column(name = "adx_avg", precision = 10, scale = 4)
+    private BigDecimal adxAvg;
+
+    @Column(name = "atr_avg", precision = 19, scale = 4)
+    private BigDecimal atrAvg;
+
+    @Column(name = "sample_count", nullable = false)
+    private long sampleCount;
+
+    public MarketSnapshotHourly() {
+    }
+
+    // Getters and Setters
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getTicker() {
+        return ticker;
+    }
+
+    public void setTicker(String ticker) {
+        this.ticker = ticker;
+    }
+
+    public long getBucketEpoch() {
+        return bucketEpoch;
+    }
+
+    public void setBucketEpoch(long bucketEpoch) {
+        this.bucketEpoch = bucketEpoch;
+    }
+
+    public BigDecimal getPriceOpen() {
+        return priceOpen;
+    }
+
+    public void setPriceOpen(BigDecimal priceOpen) {
+        this.priceOpen = priceOpen;
+    }
+
+    public BigDecimal getPriceHigh() {
+        return priceHigh;
+    }
+
+    public void setPriceHigh(BigDecimal priceHigh) {
+        this.priceHigh = priceHigh;
+    }
+
+    public BigDecimal getPriceLow() {
+        return priceLow;
+    }
+
+    public void setPriceLow(BigDecimal priceLow) {
+        this.priceLow = priceLow;
+    }
+
+    public BigDecimal getPriceClose() {
+        return priceClose;
+    }
+
+    public void setPriceClose(BigDecimal priceClose) {
+        this.priceClose = priceClose;
+    }
+
+    public BigDecimal getRsiAvg() {
+        return rsiAvg;
+    }
+
+    public void setRsiAvg(BigDecimal rsiAvg) {
+        this.rsiAvg = rsiAvg;
+    }
+
+    public BigDecimal getAdxAvg() {
+        return adxAvg;
+    }
+
+    public void setAdxAvg(BigDecimal adxAvg) {
+        this.adxAvg = adxAvg;
+    }
+
+    public BigDecimal getAtrAvg() {
+        return atrAvg;
+    }
+
+    public void setAtrAvg(BigDecimal atrAvg) {
+        this.atrAvg = atrAvg;
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    public void setSampleCount(long sampleCount) {
+        this.sampleCount = sampleCount;
+    }
+}
@@ -9,7 +9,7 @@ import java.util.UUID;
  * Учет позиций для отслеживания PnL.
  */
 @Entity
-@Table(name = "positions")
+@Table(name = "positions", indexes = @Index(name = "idx_positions_timestamp", columnList = "timestamp"))
 public class PositionEntity {
 
     @Id
@@ -0,0 +1,142 @@
+package com.example.tradingagent.entities;
+
+import jakarta.persistence.*;
+import java.math.BigDecimal;
+
+/**
+ * Агрегат позиций за час или сутки по тикеру. Интервал - по времени входа (как фильтр по timestamp позиции
+ * в статистике): открытые позиции, закрытые, прибыльные/убыточные и суммы PnL по закрытым.
+ */
+@Entity
+@Table(name = "position_rollup", uniqueConstraints = @UniqueConstraint(
+        name = "uk_position_rollup_bucket",
+        columnNames = {"granularity", "bucket_epoch", "ticker"}))
+public class PositionRollup {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, length = 10)
+    @Enumerated(EnumType.STRING)
+    private RollupGranularity granularity;
+
+    @Column(name = "bucket_epoch", nullable = false)
+    private long bucketEpoch;
+
+    @Column(nullable = false, length = 20)
+    private String ticker;
+
+    @Column(name = "opened_count", nullable = false)
+    private long openedCount;
+
+    @Column(name = "closed_count", nullable = false)
+    private long closedCount;
+
+    @Column(name = "win_count", nullable = false)
+    private long winCount;
+
+    @Column(name = "loss_count", nullable = false)
+    private long lossCount;
+
+    @Column(name = "pnl_sum", nullable = false, precision = 19, scale = 4)
+    private BigDecimal pnlSum;
+
+    @Column(name = "profit_sum", nullable = false, precision = 19, scale = 4)
+    private BigDecimal profitSum;
+
+    @Column(name = "loss_sum", nullable = false, precision = 19, scale = 4)
+    private BigDecimal lossSum;
+
+    public PositionRollup() {
+    }
+
+    // Getters and Setters
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public RollupGranularity getGranularity() {
+        return granularity;
+    }
+
+    public void setGranularity(RollupGranularity granularity) {
+        this.granularity = granularity;
+    }
+
+    public long getBucketEpoch() {
+        return bucketEpoch;
+    }
+
+    public void setBucketEpoch(long bucketEpoch) {
+        this.bucketEpoch = bucketEpoch;
+    }
+
+    public String getTicker() {
+        return ticker;
+    }
+
+    public void setTicker(String ticker) {
+        this.ticker = ticker;
+    }
+
+    public long getOpenedCount() {
+        return openedCount;
+    }
+
+    public void setOpenedCount(long openedCount) {
+        this.openedCount = openedCount;
+    }
+
+    public long getClosedCount() {
+        return closedCount;
+    }
+
+    public void setClosedCount(long closedCount) {
+        this.closedCount = closedCount;
+    }
+
+    public long getWinCount() {
+        return winCount;
+    }
+
+    public void setWinCount(long winCount) {
+        this.winCount = winCount;
+    }
+
+    public long getLossCount() {
+        return lossCount;
+    }
+
+    public void setLossCount(long lossCount) {
+        this.lossCount = lossCount;
+    }
+
+    public BigDecimal getPnlSum() {
+        return pnlSum;
+    }
+
+    public void setPnlSum(BigDecimal pnlSum) {
+        this.pnlSum = pnlSum;
+    }
+
+    public BigDecimal getProfitSum() {
+        return profitSum;
+    }
+
+    public void setProfitSum(BigDecimal profitSum) {
+        this.profitSum = profitSum;
+    }
+
+    public BigDecimal getLossSum() {
+        return lossSum;
+    }
+
+    public void setLossSum(BigDecimal lossSum) {
+        this.lossSum = lossSum;
+    }
+}
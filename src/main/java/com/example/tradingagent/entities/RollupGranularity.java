@@ -0,0 +1,26 @@
+package com.example.tradingagent.entities;
+
+/**
+ * Размер интервала агрегатов статистики.
+ */
+public enum RollupGranularity {
+    HOUR(3_600),
+    DAY(86_400);
+
+    private final long seconds;
+
+    RollupGranularity(long seconds) {
+        this.seconds = seconds;
+    }
+
+    public long getSeconds() {
+        return seconds;
+    }
+
+    /**
+     * Начало интервала (epoch-секунды UTC), в который попадает момент epochSecond.
+     */
+    public long bucketOf(long epochSecond) {
+        return Math.floorDiv(epochSecond, seconds) * seconds;
+    }
+}
@@ -9,7 +9,10 @@ import java.util.UUID;
  * Записываем результат работы стратегии, даже если сделка не открылась.
  */
 @Entity
-@Table(name = "trade_decision")
+@Table(name = "trade_decision", indexes = {
+        @Index(name = "idx_trade_decision_timestamp", columnList = "timestamp, id"),
+        @Index(name = "idx_trade_decision_decision_timestamp", columnList = "decision, timestamp")
+})
 public class TradeDecision {
 
     @Id
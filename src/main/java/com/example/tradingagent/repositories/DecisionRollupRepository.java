@@ -0,0 +1,14 @@
+package com.example.tradingagent.repositories;
+
+import com.example.tradingagent.entities.DecisionRollup;
+import com.example.tradingagent.entities.RollupGranularity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface DecisionRollupRepository extends JpaRepository<DecisionRollup, Long> {
+    List<DecisionRollup> findByGranularityAndBucketEpochGreaterThanEqualAndBucketEpochLessThan(
+            RollupGranularity granularity, long fromEpoch, long toEpoch);
+}
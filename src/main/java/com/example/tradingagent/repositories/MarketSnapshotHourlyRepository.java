@@ -0,0 +1,13 @@
+package com.example.tradingagent.repositories;
+
+import com.example.tradingagent.entities.MarketSnapshotHourly;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface MarketSnapshotHourlyRepository extends JpaRepository<MarketSnapshotHourly, Long> {
+    List<MarketSnapshotHourly> findByTickerAndBucketEpochGreaterThanEqualAndBucketEpochLessThanOrderByBucketEpoch(
+            String ticker, long fromEpoch, long toEpoch);
+}
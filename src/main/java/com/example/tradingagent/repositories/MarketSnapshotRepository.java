@@ -1,16 +1,72 @@
 package com.example.tradingagent.repositories;
 
+import com.example.tradingagent.dto.SnapshotFeedItem;
 import com.example.tradingagent.entities.MarketSnapshot;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.math.BigDecimal;
 import java.time.Instant;
 import java.util.List;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 @Repository
 public interface MarketSnapshotRepository extends JpaRepository<MarketSnapshot, UUID> {
     List<MarketSnapshot> findByTickerOrderByTimestampDesc(String ticker);
     List<MarketSnapshot> findByTimestampBetween(Instant start, Instant end);
-    List<MarketSnapshot> findTop10ByOrderByTimestampDesc();
+
+    /**
+     * Последние снимки только с полями для дашборда (select по колонкам, без остальных индикаторов).
+     */
+    List<SnapshotSummary> findTop10ByOrderByTimestampDesc();
+
+    String FEED_SELECT = "select new com.example.tradingagent.dto.SnapshotFeedItem(s.id, s.timestamp, s.ticker, " +
+            "s.priceClose, s.currentPrice, s.rsiValue, s.adxValue, s.macdValue, s.atrValue, s.emaValue) " +
+            "from MarketSnapshot s ";
+
+    /**
+     * Первая страница ленты снимков (от новых к старым).
+     */
+    @Query(FEED_SELECT + "order by s.timestamp desc, s.id desc")
+    List<SnapshotFeedItem> findFeedFirst(Pageable pageable);
+
+    /**
+     * Следующая страница ленты: снимки строго старше курсора (timestamp, id).
+     */
+    @Query(FEED_SELECT + "where s.timestamp < :timestamp or (s.timestamp = :timestamp and s.id < :id) " +
+           "order by s.timestamp desc, s.id desc")
+    List<SnapshotFeedItem> findFeedAfter(@Param("timestamp") Instant timestamp, @Param("id") UUID id, Pageable pageable);
+
+    /**
+     * Снимки за период курсором БД (вызывать в транзакции и закрывать поток).
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"))
+    @Query(FEED_SELECT + "where s.timestamp >= :from and s.timestamp < :to order by s.timestamp, s.id")
+    Stream<SnapshotFeedItem> streamFeed(@Param("from") Instant from, @Param("to") Instant to);
+
+    @Query("select min(s.timestamp) from MarketSnapshot s")
+    Instant findOldestTimestamp();
+
+    /**
+     * Удаляет снимки за [from, to) - сначала должны быть удалены ссылающиеся на них решения.
+     */
+    @Modifying
+    @Query("delete from MarketSnapshot s where s.timestamp >= :from and s.timestamp < :to")
+    int deleteByTimestampRange(@Param("from") Instant from, @Param("to") Instant to);
+
+    interface SnapshotSummary {
+        String getTicker();
+        Instant getTimestamp();
+        BigDecimal getPriceClose();
+        BigDecimal getAdxValue();
+        BigDecimal getRsiValue();
+    }
 }
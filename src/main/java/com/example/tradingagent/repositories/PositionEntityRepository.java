@@ -1,10 +1,16 @@
 package com.example.tradingagent.repositories;
 
 import com.example.tradingagent.entities.PositionEntity;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.math.BigDecimal;
 import java.time.Instant;
+import java.time.LocalDate;
 import java.util.List;
 import java.util.UUID;
 
@@ -13,4 +19,58 @@ public interface PositionEntityRepository extends JpaRepository<PositionEntity,
     List<PositionEntity> findByExitOrderIsNull();
     List<PositionEntity> findByTimestampBetween(Instant start, Instant end);
     List<PositionEntity> findByTimestampAfter(Instant start);
+
+    /**
+     * Позиции с входом до before - страницами; порядок задается в pageable.
+     */
+    Slice<PositionEntity> findByTimestampBefore(Instant before, Pageable pageable);
+
+    /**
+     * Итоги закрытых позиций с входом в [start, end] одной агрегирующей строкой (без загрузки позиций).
+     * Позиции без PnL входят только в closed.
+     */
+    @Query("select count(p) as closed, " +
+           "sum(case when p.pnlAbsolute > 0 then 1 else 0 end) as wins, " +
+           "sum(case when p.pnlAbsolute < 0 then 1 else 0 end) as losses, " +
+           "sum(p.pnlAbsolute) as pnl, " +
+           "sum(case when p.pnlAbsolute > 0 then p.pnlAbsolute end) as profit, " +
+           "sum(case when p.pnlAbsolute < 0 then p.pnlAbsolute end) as loss " +
+           "from PositionEntity p where p.exitOrder is not null and p.timestamp between :start and :end")
+    ClosedPositionSummary summarizeClosedBetween(@Param("start") Instant start, @Param("end") Instant end);
+
+    /**
+     * PnL закрытых позиций по дням входа (UTC) начиная с from.
+     */
+    @Query("select cast(p.timestamp as LocalDate) as day, sum(p.pnlAbsolute) as pnl " +
+           "from PositionEntity p where p.exitOrder is not null and p.pnlAbsolute is not null and p.timestamp > :from " +
+           "group by cast(p.timestamp as LocalDate) order by cast(p.timestamp as LocalDate)")
+    List<DailyPnl> sumClosedPnlByDayAfter(@Param("from") Instant from);
+
+    /**
+     * Суммы по пустой выборке приходят как null - геттеры по умолчанию приводят их к нулю.
+     */
+    interface ClosedPositionSummary {
+        Long getClosed();
+        Long getWins();
+        Long getLosses();
+        BigDecimal getPnl();
+        BigDecimal getProfit();
+        BigDecimal getLoss();
+
+        default long closedCount() { return getClosed() != null ? getClosed() : 0L; }
+        default long winCount() { return getWins() != null ? getWins() : 0L; }
+        default long lossCount() { return getLosses() != null ? getLosses() : 0L; }
+        default BigDecimal pnlSum() { return getPnl() != null ? getPnl() : BigDecimal.ZERO; }
+        default BigDecimal profitSum() { return getProfit() != null ? getProfit() : BigDecimal.ZERO; }
+        default BigDecimal lossSum() { return getLoss() != null ? getLoss() : BigDecimal.ZERO; }
+
+        default double winRate() {
+            return closedCount() > 0 ? (double) winCount() / closedCount() * 100 : 0;
+        }
+    }
+
+    interface DailyPnl {
+        LocalDate getDay();
+        BigDecimal getPnl();
+    }
 }
@@ -0,0 +1,14 @@
+package com.example.tradingagent.repositories;
+
+import com.example.tradingagent.entities.PositionRollup;
+import com.example.tradingagent.entities.RollupGranularity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface PositionRollupRepository extends JpaRepository<PositionRollup, Long> {
+    List<PositionRollup> findByGranularityAndBucketEpochGreaterThanEqualAndBucketEpochLessThan(
+            RollupGranularity granularity, long fromEpoch, long toEpoch);
+}
@@ -1,16 +1,72 @@
 package com.example.tradingagent.repositories;
 
+import com.example.tradingagent.dto.DecisionFeedItem;
 import com.example.tradingagent.entities.TradeDecision;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.Instant;
 import java.util.List;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 @Repository
 public interface TradeDecisionRepository extends JpaRepository<TradeDecision, UUID> {
     List<TradeDecision> findByTimestampBetween(Instant start, Instant end);
     List<TradeDecision> findByTimestampAfter(Instant start);
     List<TradeDecision> findByDecision(TradeDecision.DecisionType decision);
+
+    /**
+     * Поля решений для первичного построения агрегатов (без загрузки снимков целиком).
+     */
+    @Query("select s.ticker as ticker, d.decision as decision, d.reasonCode as reasonCode, d.timestamp as timestamp " +
+           "from TradeDecision d join d.snapshot s where d.timestamp < :before order by d.timestamp, d.id")
+    Slice<DecisionRollupSource> findRollupSourceBefore(@Param("before") Instant before, Pageable pageable);
+
+    String FEED_SELECT = "select new com.example.tradingagent.dto.DecisionFeedItem(d.id, d.timestamp, d.decision, " +
+            "d.reasonCode, d.reasonDetails, s.id, s.ticker, s.priceClose, s.rsiValue, s.adxValue) " +
+            "from TradeDecision d join d.snapshot s ";
+
+    /**
+     * Первая страница ленты решений (от новых к старым).
+     */
+    @Query(FEED_SELECT + "order by d.timestamp desc, d.id desc")
+    List<DecisionFeedItem> findFeedFirst(Pageable pageable);
+
+    /**
+     * Следующая страница ленты: решения строго старше курсора (timestamp, id) - keyset вместо offset.
+     */
+    @Query(FEED_SELECT + "where d.timestamp < :timestamp or (d.timestamp = :timestamp and d.id < :id) " +
+           "order by d.timestamp desc, d.id desc")
+    List<DecisionFeedItem> findFeedAfter(@Param("timestamp") Instant timestamp, @Param("id") UUID id, Pageable pageable);
+
+    /**
+     * Решения за период курсором БД (вызывать в транзакции и закрывать поток).
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"))
+    @Query(FEED_SELECT + "where d.timestamp >= :from and d.timestamp < :to order by d.timestamp, d.id")
+    Stream<DecisionFeedItem> streamFeed(@Param("from") Instant from, @Param("to") Instant to);
+
+    /**
+     * Удаляет решения по снимкам за [from, to) (внешний ключ snapshot_id не даст удалить снимки раньше).
+     */
+    @Modifying
+    @Query("delete from TradeDecision d where d.snapshot.id in " +
+           "(select s.id from MarketSnapshot s where s.timestamp >= :from and s.timestamp < :to)")
+    int deleteBySnapshotTimestampRange(@Param("from") Instant from, @Param("to") Instant to);
+
+    interface DecisionRollupSource {
+        String getTicker();
+        TradeDecision.DecisionType getDecision();
+        String getReasonCode();
+        Instant getTimestamp();
+    }
 }
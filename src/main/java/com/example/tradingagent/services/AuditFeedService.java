@@ -0,0 +1,171 @@
+package com.example.tradingagent.services;
+
+import com.example.tradingagent.dto.DecisionFeedItem;
+import com.example.tradingagent.dto.FeedPage;
+import com.example.tradingagent.dto.SnapshotFeedItem;
+import com.example.tradingagent.repositories.MarketSnapshotRepository;
+import com.example.tradingagent.repositories.TradeDecisionRepository;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Ленты решений и снимков рынка для клиентов, листающих историю:
+ * - страницы по курсору (timestamp, id) - запрос по индексу с той же ценой на любой глубине, без OFFSET;
+ * - выгрузка NDJSON за период курсором БД - строки пишутся в ответ по мере чтения, память не растет с объемом.
+ * Строки - DTO из одного запроса с join к снимку, ленивые связи не трогаются.
+ */
+@Service
+public class AuditFeedService {
+
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    private final TradeDecisionRepository tradeDecisionRepository;
+    private final MarketSnapshotRepository marketSnapshotRepository;
+    private final ObjectWriter rowWriter;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate readOnlyTransaction;
+
+    public AuditFeedService(TradeDecisionRepository tradeDecisionRepository,
+                            MarketSnapshotRepository marketSnapshotRepository,
+                            ObjectMapper objectMapper,
+                            PlatformTransactionManager transactionManager) {
+        this.tradeDecisionRepository = tradeDecisionRepository;
+        this.marketSnapshotRepository = marketSnapshotRepository;
+        this.objectMapper = objectMapper;
+        // Сброс в сеть - буферами ответа, а не после каждой строки
+        this.rowWriter = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    /**
+     * Страница решений от новых к старым.
+     *
+     * @param cursor nextCursor предыдущей страницы или null для первой
+     * @throws IllegalArgumentException если курсор не разбирается
+     */
+    public FeedPage<DecisionFeedItem> getDecisions(String cursor, int limit) {
+        Pageable page = PageRequest.of(0, clamp(limit));
+        Cursor after = Cursor.decode(cursor);
+        List<DecisionFeedItem> items = after == null
+                ? tradeDecisionRepository.findFeedFirst(page)
+                : tradeDecisionRepository.findFeedAfter(after.timestamp(), after.id(), page);
+        return toPage(items, page.getPageSize(), item -> new Cursor(item.timestamp(), item.id()));
+    }
+
+    /**
+     * Страница снимков рынка от новых к старым.
+     *
+     * @throws IllegalArgumentException если курсор не разбирается
+     */
+    public FeedPage<SnapshotFeedItem> getSnapshots(String cursor, int limit) {
+        Pageable page = PageRequest.of(0, clamp(limit));
+        Cursor after = Cursor.decode(cursor);
+        List<SnapshotFeedItem> items = after == null
+                ? marketSnapshotRepository.findFeedFirst(page)
+                : marketSnapshotRepository.findFeedAfter(after.timestamp(), after.id(), page);
+        return toPage(items, page.getPageSize(), item -> new Cursor(item.timestamp(), item.id()));
+    }
+
+    /**
+     * Пишет решения за [from, to) в out построчно (NDJSON, от старых к новым).
+     *
+     * @return число выгруженных строк
+     */
+    public long exportDecisions(Instant from, Instant to, OutputStream out) throws IOException {
+        return export(() -> tradeDecisionRepository.streamFeed(from, to), out);
+    }
+
+    /**
+     * Пишет снимки рынка за [from, to) в out построчно (NDJSON, от старых к новым).
+     *
+     * @return число выгруженных строк
+     */
+    public long exportSnapshots(Instant from, Instant to, OutputStream out) throws IOException {
+        return export(() -> marketSnapshotRepository.streamFeed(from, to), out);
+    }
+
+    private long export(Supplier<Stream<?>> query, OutputStream out) throws IOException {
+        // Генератор не закрывает поток ответа: его закрывает контейнер
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(out);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        // Строки разделяются только переводом строки (по умолчанию между корневыми значениями пишется пробел)
+        generator.setRootValueSeparator(null);
+        long[] written = {0};
+        try {
+            // Курсор БД живет только внутри транзакции
+            readOnlyTransaction.executeWithoutResult(status -> {
+                try (Stream<?> rows = query.get()) {
+                    rows.forEach(row -> {
+                        try {
+                            rowWriter.writeValue(generator, row);
+                            generator.writeRaw('\n');
+                            written[0]++;
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                }
+            });
+        } catch (UncheckedIOException e) {
+            // Клиент оборвал соединение или ошибка записи
+            throw e.getCause();
+        } finally {
+            generator.flush();
+        }
+        return written[0];
+    }
+
+    private static <T> FeedPage<T> toPage(List<T> items, int limit, Function<T, Cursor> cursorOf) {
+        // Неполная страница - последняя
+        String next = items.size() < limit ? null : cursorOf.apply(items.get(items.size() - 1)).encode();
+        return new FeedPage<>(items, next);
+    }
+
+    private static int clamp(int limit) {
+        return Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+    }
+
+    /**
+     * Позиция в ленте: (timestamp, id) последнего элемента страницы, для клиента - непрозрачная строка.
+     */
+    private record Cursor(Instant timestamp, UUID id) {
+
+        String encode() {
+            String raw = timestamp + "|" + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static Cursor decode(String cursor) {
+            if (cursor == null || cursor.isBlank()) {
+                return null;
+            }
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int separator = raw.indexOf('|');
+                return new Cursor(Instant.parse(raw.substring(0, separator)), UUID.fromString(raw.substring(separator + 1)));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Некорректный курсор: " + cursor);
+            }
+        }
+    }
+}
@@ -24,21 +24,28 @@ public class AuditService {
     private final TradeDecisionRepository tradeDecisionRepository;
     private final OrderEntityRepository orderEntityRepository;
     private final PositionEntityRepository positionEntityRepository;
+    private final AuditWriter auditWriter;
+    private final StatisticsRollupService rollupService;
 
     public AuditService(MarketSnapshotRepository marketSnapshotRepository,
                        TradeDecisionRepository tradeDecisionRepository,
                        OrderEntityRepository orderEntityRepository,
-                       PositionEntityRepository positionEntityRepository) {
+                       PositionEntityRepository positionEntityRepository,
+                       AuditWriter auditWriter,
+                       StatisticsRollupService rollupService) {
         this.marketSnapshotRepository = marketSnapshotRepository;
         this.tradeDecisionRepository = tradeDecisionRepository;
         this.orderEntityRepository = orderEntityRepository;
         this.positionEntityRepository = positionEntityRepository;
+        this.auditWriter = auditWriter;
+        this.rollupService = rollupService;
     }
 
     /**
      * Сохраняет снимок рынка при анализе тикера.
+     * Запись асинхронная (AuditWriter): возвращенный снимок можно сразу передавать в saveTradeDecision,
+     * id у него появится после записи.
      */
-    @Transactional
     public MarketSnapshot saveMarketSnapshot(String ticker, Map<String, Double> indicators, BigDecimal priceClose) {
         try {
             MarketSnapshot snapshot = new MarketSnapshot(Instant.now(), ticker, priceClose);
@@ -64,7 +71,9 @@ public class AuditService {
                 }
             }
             
-            return marketSnapshotRepository.save(snapshot);
+            // При audit.async.enabled=false AuditWriter пишет сразу
+            auditWriter.enqueue(snapshot);
+            return snapshot;
         } catch (Exception e) {
             logger.error("Ошибка сохранения снимка рынка для {}: ", ticker, e);
             return null;
@@ -72,16 +81,16 @@ public class AuditService {
     }
 
     /**
-     * Сохраняет решение стратегии (ВАЖНО: даже если сделка не открылась).
+     * Сохраняет решение стратегии (ВАЖНО: даже если сделка не открылась). Запись асинхронная, как у снимков.
      */
-    @Transactional
     public TradeDecision saveTradeDecision(MarketSnapshot snapshot, 
                                           TradeDecision.DecisionType decision,
                                           String reasonCode,
                                           String reasonDetails) {
         try {
             TradeDecision tradeDecision = new TradeDecision(snapshot, decision, reasonCode, reasonDetails);
-            return tradeDecisionRepository.save(tradeDecision);
+            auditWriter.enqueue(tradeDecision);
+            return tradeDecision;
         } catch (Exception e) {
             logger.error("Ошибка сохранения решения о торговле: ", e);
             return null;
@@ -142,8 +151,9 @@ public class AuditService {
     @Transactional
     public PositionEntity createPosition(OrderEntity entryOrder, BigDecimal entryPrice) {
         try {
-            PositionEntity position = new PositionEntity(entryOrder, entryPrice);
-            return positionEntityRepository.save(position);
+            PositionEntity position = positionEntityRepository.save(new PositionEntity(entryOrder, entryPrice));
+            rollupService.recordPositionOpened(position);
+            return position;
         } catch (Exception e) {
             logger.error("Ошибка создания позиции: ", e);
             return null;
@@ -180,6 +190,7 @@ public class AuditService {
             }
             
             positionEntityRepository.save(position);
+            rollupService.recordPositionClosed(position);
         } catch (Exception e) {
             logger.error("Ошибка закрытия позиции {}: ", position.getId(), e);
         }
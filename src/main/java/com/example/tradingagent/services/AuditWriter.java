@@ -0,0 +1,257 @@
+package com.example.tradingagent.services;
+
+import com.example.tradingagent.entities.MarketSnapshot;
+import com.example.tradingagent.entities.TradeDecision;
+import com.example.tradingagent.repositories.MarketSnapshotRepository;
+import com.example.tradingagent.repositories.TradeDecisionRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Фоновая запись снимков рынка и решений: AuditService кладет записи в ограниченную очередь,
+ * поток audit-writer сбрасывает их пачками (до audit.batch-size) в одной транзакции - Hibernate
+ * отправляет их JDBC-батчем (hibernate.jdbc.batch_size). UUID генерируются на стороне приложения,
+ * поэтому вставка не требует обращений к БД за идентификатором. В той же транзакции обновляются
+ * агрегаты решений (StatisticsRollupService).
+ * Противодавление: если очередь полна дольше audit.offer-timeout-ms, вызывающий сам дописывает очередь
+ * и затем свою запись (медленнее, но без потерь). При остановке прием в очередь прекращается, очередь дописывается,
+ * и только после этого записи идут синхронно.
+ * Порядок записи всегда совпадает с порядком постановки: все записи идут под writeLock, а синхронная запись -
+ * только после записанной очереди, поэтому решение не попадет в БД раньше своего снимка.
+ */
+@Service
+public class AuditWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuditWriter.class);
+
+    private final MarketSnapshotRepository marketSnapshotRepository;
+    private final TradeDecisionRepository tradeDecisionRepository;
+    private final StatisticsRollupService rollupService;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final long offerTimeoutMillis;
+    private final BlockingQueue<Object> queue;
+    private final Thread writerThread;
+    // Одна запись в БД за раз: поток записи, противодавление и остановка не обгоняют друг друга.
+    // ReentrantLock, а не synchronized: вызывающие бывают виртуальными потоками
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private volatile boolean running = true;
+
+    // Метрики
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong synchronousWrites = new AtomicLong();
+    private volatile long lastFlushMillis;
+    private volatile long maxFlushMillis;
+
+    public AuditWriter(MarketSnapshotRepository marketSnapshotRepository,
+                       TradeDecisionRepository tradeDecisionRepository,
+                       StatisticsRollupService rollupService,
+                       PlatformTransactionManager transactionManager,
+                       @Value("${audit.async.enabled:true}") boolean enabled,
+                       @Value("${audit.queue.capacity:10000}") int queueCapacity,
+                       @Value("${audit.batch-size:100}") int batchSize,
+                       @Value("${audit.flush-interval-ms:200}") long flushIntervalMillis,
+                       @Value("${audit.offer-timeout-ms:500}") long offerTimeoutMillis) {
+        this.marketSnapshotRepository = marketSnapshotRepository;
+        this.tradeDecisionRepository = tradeDecisionRepository;
+        this.rollupService = rollupService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.writerThread = new Thread(this::run, "audit-writer");
+        this.writerThread.setDaemon(true);
+        if (enabled) {
+            writerThread.start();
+        }
+    }
+
+    /**
+     * Ставит снимок или решение в очередь на запись. Решение должно ставиться после своего снимка:
+     * очередь FIFO, и снимок всегда записывается раньше (в той же пачке или в предыдущей).
+     */
+    public void enqueue(Object record) {
+        if (!enabled) {
+            writeNow(record);
+            return;
+        }
+        if (running) {
+            enqueued.incrementAndGet();
+            try {
+                if (queue.offer(record, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    if (!running) {
+                        // Остановка началась после проверки выше: дописываем сами, чтобы запись не осталась в очереди
+                        flushQueue();
+                    }
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // Очередь переполнена (БД не успевает): пишем сами, замедляя производителя
+            synchronousWrites.incrementAndGet();
+        }
+        writeLock.lock();
+        try {
+            // Сначала все, что поставлено раньше (в том числе снимок этого решения), затем сама запись
+            flushQueue();
+            writeNow(record);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("queueDepth", queue.size());
+        metrics.put("queueRemainingCapacity", queue.remainingCapacity());
+        metrics.put("enqueued", enqueued.get());
+        metrics.put("written", written.get());
+        metrics.put("failed", failed.get());
+        metrics.put("batches", batches.get());
+        metrics.put("synchronousWrites", synchronousWrites.get());
+        metrics.put("lastFlushMillis", lastFlushMillis);
+        metrics.put("maxFlushMillis", maxFlushMillis);
+        return metrics;
+    }
+
+    /**
+     * Останавливает прием в очередь, дописывает оставшееся в ней; дальнейшие записи идут синхронно после него.
+     */
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (!enabled) {
+            return;
+        }
+        // Без interrupt: текущая пачка дописывается, цикл завершится по таймауту poll
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!queue.isEmpty()) {
+            logger.info("Запись {} оставшихся записей аудита при остановке", queue.size());
+        }
+        flushQueue();
+    }
+
+    private void run() {
+        List<Object> batch = new ArrayList<>(batchSize);
+        while (running) {
+            // Выборка и запись пачки - под writeLock: синхронная запись не вклинится между ними
+            writeLock.lock();
+            try {
+                Object first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                logger.error("Ошибка потока записи аудита: ", e);
+            } finally {
+                batch.clear();
+                writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Дописывает все, что сейчас в очереди, пачками по batchSize.
+     */
+    private void flushQueue() {
+        writeLock.lock();
+        try {
+            List<Object> batch = new ArrayList<>(batchSize);
+            while (queue.drainTo(batch, batchSize) > 0) {
+                flush(batch);
+                batch.clear();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void flush(List<Object> records) {
+        long started = System.nanoTime();
+        List<MarketSnapshot> snapshots = new ArrayList<>();
+        List<TradeDecision> decisions = new ArrayList<>();
+        for (Object record : records) {
+            if (record instanceof MarketSnapshot snapshot) {
+                snapshots.add(snapshot);
+            } else if (record instanceof TradeDecision decision) {
+                decisions.add(decision);
+            }
+        }
+        try {
+            // Снимки раньше решений: решения пачки ссылаются на снимки этой же пачки
+            transactionTemplate.executeWithoutResult(status -> {
+                marketSnapshotRepository.saveAll(snapshots);
+                tradeDecisionRepository.saveAll(decisions);
+                rollupService.recordDecisions(decisions);
+            });
+            written.addAndGet(records.size());
+        } catch (Exception e) {
+            logger.warn("Пачка аудита ({} записей) не записана: {}. Запись по одной", records.size(), e.getMessage());
+            // Транзакция откатилась, а UUID уже присвоены: сбрасываем, чтобы save снова делал вставку, а не merge
+            snapshots.forEach(snapshot -> snapshot.setId(null));
+            decisions.forEach(decision -> decision.setId(null));
+            records.forEach(this::writeNow);
+        }
+        batches.incrementAndGet();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        lastFlushMillis = elapsed;
+        if (elapsed > maxFlushMillis) {
+            maxFlushMillis = elapsed;
+        }
+    }
+
+    private void writeNow(Object record) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                if (record instanceof MarketSnapshot snapshot) {
+                    marketSnapshotRepository.save(snapshot);
+                } else if (record instanceof TradeDecision decision) {
+                    tradeDecisionRepository.save(decision);
+                    rollupService.recordDecisions(List.of(decision));
+                }
+            });
+            written.incrementAndGet();
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            logger.error("Ошибка записи аудита {}: {}", record.getClass().getSimpleName(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.tradingagent.services;
+
+import com.example.tradingagent.dto.TradeRequest;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+import ru.tinkoff.piapi.contract.v1.Share;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * Автономный торговый цикл без похода в n8n: сразу после закрытия бара M15 (trading.autonomous.cron)
+ * сканирует вселенную, считает сигнал N8nSignalService по каждому тикеру (та же логика, что в n8n и бэктесте)
+ * и отправляет прошедшие порог сигналы на исполнение одним пакетом (TradeSignalService).
+ * n8n/LLM - необязательная стадия подтверждения: если задан trading.autonomous.confirm-url, сигналы
+ * отправляются туда, и исполняются только вернувшиеся в ответе (вето). Выключен по умолчанию.
+ * Цикл идет в собственном потоке, а не в потоке планировщика Spring: долгий скан или ожидание подтверждения
+ * не задерживают другие @Scheduled задачи. Если прошлый цикл еще идет, бар пропускается.
+ */
+@Service
+public class AutonomousTradingLoop {
+
+    private static final Logger logger = LoggerFactory.getLogger(AutonomousTradingLoop.class);
+
+    private final boolean enabled;
+    private final String confirmUrl;
+    private final boolean confirmFailOpen;
+    private final TinkoffInstrumentsService instrumentsService;
+    private final PortfolioMirror portfolioMirror;
+    private final MarketScanService marketScanService;
+    private final N8nSignalService n8nSignalService;
+    private final TradeSignalService tradeSignalService;
+    private final RestTemplate restTemplate;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final ExecutorService cycleExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "autonomous-loop");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public AutonomousTradingLoop(@Value("${trading.autonomous.enabled:false}") boolean enabled,
+                                 @Value("${trading.autonomous.confirm-url:}") String confirmUrl,
+                                 @Value("${trading.autonomous.confirm-timeout-ms:30000}") int confirmTimeoutMillis,
+                                 @Value("${trading.autonomous.confirm-fail-open:false}") boolean confirmFailOpen,
+                                 TinkoffInstrumentsService instrumentsService,
+                                 PortfolioMirror portfolioMirror,
+                                 MarketScanService marketScanService,
+                                 N8nSignalService n8nSignalService,
+                                 TradeSignalService tradeSignalService) {
+        this.enabled = enabled;
+        this.confirmUrl = confirmUrl;
+        this.confirmFailOpen = confirmFailOpen;
+        this.instrumentsService = instrumentsService;
+        this.portfolioMirror = portfolioMirror;
+        this.marketScanService = marketScanService;
+        this.n8nSignalService = n8nSignalService;
+        this.tradeSignalService = tradeSignalService;
+
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(confirmTimeoutMillis);
+        requestFactory.setReadTimeout(confirmTimeoutMillis);
+        this.restTemplate = new RestTemplate(requestFactory);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        cycleExecutor.shutdownNow();
+    }
+
+    /**
+     * Запуск цикла на закрытии бара: по умолчанию через 5 секунд после границы 15 минут,
+     * чтобы последняя минутная свеча бара успела прийти в хаб. Поток планировщика только передает цикл в свой поток.
+     */
+    @Scheduled(cron = "${trading.autonomous.cron:5 0/15 * * * *}")
+    public void scheduleCycle() {
+        if (!enabled) {
+            return;
+        }
+        if (!running.compareAndSet(false, true)) {
+            logger.warn("Предыдущий автономный цикл еще не завершен - бар пропущен");
+            return;
+        }
+        try {
+            cycleExecutor.execute(() -> {
+                try {
+                    runCycle();
+                } finally {
+                    running.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Приложение останавливается
+            running.set(false);
+        }
+    }
+
+    void runCycle() {
+        long started = System.currentTimeMillis();
+        try {
+            List<Share> shares = instrumentsService.getBlueChips();
+            Set<String> portfolioFigis = portfolioMirror.getOpenFigis();
+            List<Map<String, Object>> marketData = marketScanService.scan(shares, portfolioFigis, Optional.empty());
+
+            List<TradeRequest> signals = new ArrayList<>();
+            for (Map<String, Object> data : marketData) {
+                TradeRequest signal = evaluate(data);
+                if (n8nSignalService.canExecuteSignal(signal)) {
+                    signals.add(signal);
+                }
+            }
+            logger.info("Автономный цикл: {} тикеров, {} сигналов", marketData.size(), signals.size());
+            if (signals.isEmpty()) {
+                return;
+            }
+
+            List<TradeRequest> confirmed = confirm(signals);
+            if (confirmed.isEmpty()) {
+                return;
+            }
+            List<Map<String, Object>> results = tradeSignalService.executeBatch(confirmed);
+            for (Map<String, Object> result : results) {
+                logger.info("Автономный сигнал {} {}: {} {}", result.get("action"), result.get("ticker"),
+                        result.get("status"), result.getOrDefault("message", ""));
+            }
+        } catch (Exception e) {
+            logger.error("Ошибка автономного цикла: ", e);
+        } finally {
+            logger.info("Автономный цикл занял {} мс", System.currentTimeMillis() - started);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private TradeRequest evaluate(Map<String, Object> data) {
+        Map<String, Double> indicatorsH1 = (Map<String, Double>) data.get("indicators_h1");
+        Map<String, Double> indicatorsM15 = (Map<String, Double>) data.get("indicators_m15");
+        Map<String, Object> orderBook = (Map<String, Object>) data.get("order_book");
+        double currentPrice = indicatorsM15.getOrDefault("current_price", 0.0);
+        return n8nSignalService.generateTradeSignal((String) data.get("instrument_figi"), (String) data.get("ticker"),
+                indicatorsH1, indicatorsM15, orderBook, null, currentPrice);
+    }
+
+    /**
+     * Стадия подтверждения n8n/LLM: POST массива сигналов, в ответе - подтвержденные (по instrument_figi).
+     * Без confirm-url все сигналы считаются подтвержденными. При ошибке - по trading.autonomous.confirm-fail-open.
+     */
+    private List<TradeRequest> confirm(List<TradeRequest> signals) {
+        if (confirmUrl == null || confirmUrl.isBlank()) {
+            return signals;
+        }
+        try {
+            TradeRequest[] response = restTemplate.postForObject(confirmUrl, signals, TradeRequest[].class);
+            Set<String> approved = response == null ? Set.of() : Arrays.stream(response)
+                    .map(TradeRequest::getInstrumentFigi)
+                    .collect(Collectors.toSet());
+            List<TradeRequest> confirmed = signals.stream()
+                    .filter(signal -> approved.contains(signal.getInstrumentFigi()))
+                    .toList();
+            logger.info("Подтверждение n8n: {} из {} сигналов", confirmed.size(), signals.size());
+            return confirmed;
+        } catch (Exception e) {
+            logger.error("Подтверждение n8n недоступно: {}. Сигналы {}", e.getMessage(),
+                    confirmFailOpen ? "исполняются без подтверждения" : "отброшены");
+            return confirmFailOpen ? signals : List.of();
+        }
+    }
+}
@@ -1,25 +1,24 @@
 package com.example.tradingagent.services;
 
-import com.example.tradingagent.TinkoffApi;
+import com.example.tradingagent.FixedPoint;
 import com.example.tradingagent.TinkoffApiUtils;
 import com.example.tradingagent.dto.TradeRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 import ru.tinkoff.piapi.contract.v1.CandleInterval;
-import ru.tinkoff.piapi.contract.v1.HistoricCandle;
 import ru.tinkoff.piapi.contract.v1.Instrument;
-import ru.tinkoff.piapi.core.InvestApi;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.Instant;
-import java.time.temporal.ChronoUnit;
+import java.time.Duration;
 import java.util.*;
 
 /**
  * Backtesting Engine для тестирования стратегии на исторических данных.
- * Прогоняет TechnicalIndicatorService по историческим данным и симулирует сделки без отправки в API.
+ * Прогоняет индикаторы по историческим данным (инкрементально, через IncrementalIndicatorEngine)
+ * и симулирует сделки без отправки в API.
  * Соответствует логике реальных торгов из TinkoffOrderService.
  */
 @Service
@@ -34,26 +33,26 @@ public class BacktestEngine {
     private static final BigDecimal MIN_PROFIT_TO_COMMISSION_RATIO = new BigDecimal("3.0");
     private static final BigDecimal ESTIMATED_COMMISSION_RATE = new BigDecimal("0.0005"); // 0.05%
     private static final BigDecimal INITIAL_BALANCE = new BigDecimal("10000.00"); // Начальный баланс 100k руб
-    private static final long COOLDOWN_MINUTES = 0; // Коулдаун после сделки
+    private static final long COOLDOWN_MINUTES = 0; // Коулдаун после сделки (в симулированном времени)
+    // Те же константы в фиксированной точке для цикла по свечам
+    private static final long COMMISSION_RATE = FixedPoint.fromBigDecimal(ESTIMATED_COMMISSION_RATE);
+    private static final long MIN_PROFIT_TO_COMMISSION_RATIO_NANOS = FixedPoint.fromBigDecimal(MIN_PROFIT_TO_COMMISSION_RATIO);
+    private static final long RATIO_STEP = FixedPoint.fromBigDecimal(new BigDecimal("0.01"));
+    private static final long PERCENT_RATIO_STEP = FixedPoint.fromBigDecimal(new BigDecimal("0.0001"));
 
     private final TinkoffMarketDataService marketDataService;
-    private final TechnicalIndicatorService indicatorService;
     private final RiskManagementService riskManagementService;
-    private final TradingStateMachine stateMachine;
     private final N8nSignalService n8nSignalService;
-    private final InvestApi api;
+    private final InstrumentRegistry instrumentRegistry;
 
     public BacktestEngine(TinkoffMarketDataService marketDataService, 
-                         TechnicalIndicatorService indicatorService,
                          RiskManagementService riskManagementService,
-                         TradingStateMachine stateMachine,
-                         N8nSignalService n8nSignalService) {
+                         N8nSignalService n8nSignalService,
+                         InstrumentRegistry instrumentRegistry) {
         this.marketDataService = marketDataService;
-        this.indicatorService = indicatorService;
+        this.instrumentRegistry = instrumentRegistry;
         this.riskManagementService = riskManagementService;
-        this.stateMachine = stateMachine;
         this.n8nSignalService = n8nSignalService;
-        this.api = TinkoffApi.getApi();
     }
 
     /**
@@ -167,12 +166,26 @@ public class BacktestEngine {
                                      BigDecimal atrMultiplierStopLoss, 
                                      BigDecimal atrMultiplierTakeProfit, 
                                      BigDecimal atrMultiplierBreakeven) {
+        BacktestTimeline timeline = buildTimeline(figi, ticker, days);
+        if (timeline == null) {
+            return null;
+        }
+        return replay(timeline, sharedBalance, atrMultiplierStopLoss, atrMultiplierTakeProfit, atrMultiplierBreakeven);
+    }
+
+    /**
+     * Строит ленту бэктеста: загружает свечи M15/H1, прогоняет индикаторы и генерирует сигналы.
+     * Результат не зависит от множителей ATR, поэтому оптимизатор строит его один раз на тикер.
+     *
+     * @return лента или null, если данных недостаточно
+     */
+    public BacktestTimeline buildTimeline(String figi, String ticker, int days) {
         logger.info("Запуск бэктеста для {} за {} дней", ticker, days);
         
         // Получаем информацию об инструменте
         Instrument instrument;
         try {
-            instrument = api.getInstrumentsService().getInstrumentByFigiSync(figi);
+            instrument = instrumentRegistry.getInstrument(figi);
         } catch (Exception e) {
             logger.error("Ошибка получения инструмента: {}", e.getMessage());
             return null;
@@ -185,96 +198,283 @@ public class BacktestEngine {
         Instant endDate = Instant.now();
         
         // Получаем свечи M15 (основной таймфрейм для торговли)
-        List<HistoricCandle> candlesM15 = marketDataService.getHistoricCandles(
+        CandleSeries candlesM15 = marketDataService.getCandleSeries(
             figi, daysM15, CandleInterval.CANDLE_INTERVAL_15_MIN, endDate);
         
         if (candlesM15.size() < 120) {
             logger.warn("Недостаточно M15 свечей для бэктеста: {} (требуется минимум 120)", candlesM15.size());
             return null;
         }
-
-        Instant startDate = Instant.ofEpochSecond(candlesM15.get(0).getTime().getSeconds());
-        
-        // Используем переданные параметры или значения по умолчанию
-        BigDecimal stopLossMultiplier = atrMultiplierStopLoss != null ? atrMultiplierStopLoss : ATR_MULTIPLIER_STOP_LOSS;
-        BigDecimal takeProfitMultiplier = atrMultiplierTakeProfit != null ? atrMultiplierTakeProfit : ATR_MULTIPLIER_TAKE_PROFIT;
-        BigDecimal breakevenMultiplier = atrMultiplierBreakeven != null ? atrMultiplierBreakeven : ATR_MULTIPLIER_BREAKEVEN;
-        
-        // Используем общий баланс или создаем локальный для этого тикера
-        boolean useSharedBalance = sharedBalance != null;
-        
-        // Локальные переменные для отслеживания баланса этого тикера (для статистики)
-        BigDecimal tickerInitialBalance = useSharedBalance && sharedBalance != null 
-            ? sharedBalance.getAvailableBalance() 
-            : INITIAL_BALANCE;
-        BigDecimal tickerFinalBalance = tickerInitialBalance;
-        
-        // Локальные переменные для работы с балансом (если не используется общий)
-        BigDecimal availableBalance = useSharedBalance ? null : INITIAL_BALANCE;
-        BigDecimal lockedBalance = useSharedBalance ? null : BigDecimal.ZERO;
-        BigDecimal totalBalance = useSharedBalance ? null : INITIAL_BALANCE;
-        BigDecimal peakBalance = useSharedBalance ? null : INITIAL_BALANCE;
-        BigDecimal maxDrawdown = useSharedBalance ? null : BigDecimal.ZERO;
-        BigDecimal maxDrawdownPercent = useSharedBalance ? null : BigDecimal.ZERO;
-        
-        List<Trade> trades = new ArrayList<>();
-        Position currentPosition = null;
-        Instant lastTradeTime = null; // Время последней сделки для коулдауна
-        
-        // Сбрасываем состояние для этого тикера
-        stateMachine.resetToScanning(figi);
         
         // Получаем H1 свечи один раз за весь период (оптимизация)
-        List<HistoricCandle> allCandlesH1 = marketDataService.getHistoricCandles(
+        CandleSeries allCandlesH1 = marketDataService.getCandleSeries(
             figi, daysH1, CandleInterval.CANDLE_INTERVAL_HOUR, endDate);
         
+        return buildTimeline(figi, ticker, instrument, candlesM15, allCandlesH1, endDate);
+    }
+
+    /**
+     * Строит ленту по уже загруженным свечам (без обращения к API).
+     * Используется buildTimeline(figi, ticker, days) и бенчмарками на синтетических свечах.
+     *
+     * @param candlesM15 Свечи M15 (торговый таймфрейм)
+     * @param allCandlesH1 Свечи H1 за тот же период (для индикаторов)
+     * @return лента или null, если данных недостаточно
+     */
+    public BacktestTimeline buildTimeline(String figi, String ticker, Instrument instrument,
+                                          CandleSeries candlesM15, CandleSeries allCandlesH1, Instant endDate) {
+        if (candlesM15.size() < 120) {
+            logger.warn("Недостаточно M15 свечей для бэктеста: {} (требуется минимум 120)", candlesM15.size());
+            return null;
+        }
+
+        Instant startDate = Instant.ofEpochSecond(candlesM15.getTime(0));
+        
         if (allCandlesH1.size() < 120) {
             logger.warn("Недостаточно H1 свечей для расчета индикаторов: {} (требуется минимум 120)", allCandlesH1.size());
             return null;
         }
         
+        // Выравнивание H1 относительно M15: индексная карта строится один раз
+        MultiTimeframeAligner aligner = new MultiTimeframeAligner(candlesM15)
+            .addTimeframe(CandleInterval.CANDLE_INTERVAL_HOUR, allCandlesH1);
+        
+        int size = candlesM15.size();
+        long[] times = new long[size];
+        double[] close = new double[size];
+        boolean[] tradable = new boolean[size];
+        double[] atrH1 = new double[size];
+        byte[] signals = new byte[size];
+        for (int i = 0; i < size; i++) {
+            times[i] = candlesM15.getTime(i);
+            close[i] = candlesM15.getClose(i);
+        }
+        
+        // Индикаторы считаются инкрементально: каждый бар обновляет состояние за O(1)
+        // вместо пересчета всей истории на каждой итерации
+        IncrementalIndicatorEngine indicatorsM15Engine = new IncrementalIndicatorEngine();
+        IncrementalIndicatorEngine indicatorsH1Engine = new IncrementalIndicatorEngine();
+        for (int j = 0; j < 120; j++) {
+            indicatorsM15Engine.addBar(candlesM15, j);
+        }
+        
         // Проходим по M15 свечам, начиная с индекса 120 (чтобы были индикаторы)
         // Для каждой M15 свечи получаем актуальные H1 и M15 индикаторы
-        for (int i = 120; i < candlesM15.size(); i++) {
-            HistoricCandle currentCandle = candlesM15.get(i);
-            BigDecimal currentPrice = TinkoffApiUtils.quotationToBigDecimal(currentCandle.getClose());
-            Instant currentTime = Instant.ofEpochSecond(currentCandle.getTime().getSeconds());
+        for (int i = 120; i < size; i++) {
+            // Количество H1 свечей до текущего момента (для расчета H1 индикаторов)
+            int availableH1 = aligner.availableBars(CandleInterval.CANDLE_INTERVAL_HOUR, i);
+            
+            // Досылаем в H1 движок только новые бары
+            while (indicatorsH1Engine.getBarCount() < availableH1) {
+                indicatorsH1Engine.addBar(allCandlesH1, indicatorsH1Engine.getBarCount());
+            }
             
-            // Фильтруем H1 свечи до текущего момента (для расчета H1 индикаторов)
-            List<HistoricCandle> candlesH1 = allCandlesH1.stream()
-                .filter(c -> {
-                    Instant candleTime = Instant.ofEpochSecond(c.getTime().getSeconds());
-                    return !candleTime.isAfter(currentTime);
-                })
-                .toList();
+            // M15 движок получает текущую свечу (история 0..i)
+            indicatorsM15Engine.addBar(candlesM15, i);
             
-            if (candlesH1.size() < 120) {
+            if (availableH1 < 120) {
                 continue;
             }
             
             // Рассчитываем H1 индикаторы
-            Map<String, Double> indicatorsH1 = indicatorService.calculateIndicators(candlesH1, ticker, figi);
+            Map<String, Double> indicatorsH1 = indicatorsH1Engine.getIndicators(ticker);
             
             if (indicatorsH1.isEmpty()) {
                 continue;
             }
             
-            // Получаем M15 свечи до текущего момента (для расчета M15 индикаторов)
-            List<HistoricCandle> candlesM15ForIndicators = candlesM15.subList(0, i + 1);
+            // Рассчитываем M15 индикаторы
+            Map<String, Double> indicatorsM15 = indicatorsM15Engine.getIndicators(ticker);
             
-            if (candlesM15ForIndicators.size() < 120) {
+            if (indicatorsM15.isEmpty()) {
                 continue;
             }
             
-            // Рассчитываем M15 индикаторы
-            Map<String, Double> indicatorsM15 = indicatorService.calculateIndicators(candlesM15ForIndicators, ticker, figi);
+            tradable[i] = true;
+            atrH1[i] = indicatorsH1.getOrDefault("atr_14", 0.0);
             
-            if (indicatorsM15.isEmpty()) {
+            // Используем N8nSignalService для генерации сигнала
+            // В бэктесте order_book и news не учитываются (null)
+            TradeRequest tradeRequest = n8nSignalService.generateTradeSignal(
+                figi, ticker, indicatorsH1, indicatorsM15, null, null, close[i]);
+            
+            // Проверяем, можно ли исполнять сигнал (confidence_score >= 0.8)
+            if (!n8nSignalService.canExecuteSignal(tradeRequest)) {
                 continue;
             }
             
+            String action = tradeRequest.getAction();
+            if ("BUY".equalsIgnoreCase(action)) {
+                signals[i] = BacktestTimeline.SIGNAL_BUY;
+            } else if ("SELL".equalsIgnoreCase(action)) {
+                signals[i] = BacktestTimeline.SIGNAL_SELL;
+            }
+        }
+        
+        return new BacktestTimeline(figi, ticker, instrument, startDate, endDate,
+            times, close, tradable, atrH1, signals);
+    }
+
+    /**
+     * Проигрывает логику входа/выхода/трейлинга по готовой ленте.
+     * Не обращается к API и не меняет общее состояние (кроме переданного счета),
+     * поэтому разные комбинации параметров можно проигрывать параллельно по одной ленте.
+     * Состояния торговли ведет собственный TradingStateMachine прогона на симулированных часах,
+     * живой бот и другие бэктесты его не видят.
+     *
+     * @param timeline Лента, построенная buildTimeline
+     * @param sharedBalance Общий счет для всех тикеров (null для отдельного баланса на тикер)
+     * @param atrMultiplierStopLoss Множитель ATR для стоп-лосса (null для значения по умолчанию)
+     * @param atrMultiplierTakeProfit Множитель ATR для тейк-профита (null для значения по умолчанию)
+     * @param atrMultiplierBreakeven Множитель ATR для безубытка (null для значения по умолчанию)
+     * @return Результат бэктеста
+     */
+    public BacktestResult replay(BacktestTimeline timeline,
+                                 BacktestLedger sharedBalance,
+                                 BigDecimal atrMultiplierStopLoss,
+                                 BigDecimal atrMultiplierTakeProfit,
+                                 BigDecimal atrMultiplierBreakeven) {
+        SimulatedClock clock = new SimulatedClock(timeline.getStartDate());
+        TradingStateMachine stateMachine = newRunStateMachine(clock);
+        TickerReplay replay = new TickerReplay(timeline, sharedBalance, clock, stateMachine,
+            atrMultiplierStopLoss, atrMultiplierTakeProfit, atrMultiplierBreakeven);
+        for (int i = 0; i < timeline.size(); i++) {
+            replay.step(i);
+        }
+        return replay.finish();
+    }
+
+    /**
+     * Портфельный бэктест: свечи всех тикеров сливаются по времени (k-way merge)
+     * и проигрываются в одном цикле на одном счете. Капитал расходуется в порядке
+     * рыночного времени, а не в порядке работы потоков, поэтому результат воспроизводим.
+     * При совпадении времени свечи обрабатываются в порядке тикеров в списке.
+     * Ленты (индикаторы и сигналы) строятся заранее и могут считаться параллельно.
+     *
+     * @param timelines Ленты по тикерам
+     * @param ledger Общий счет портфеля
+     * @return Результаты по тикерам (в порядке лент); итоги портфеля - в ledger
+     */
+    public List<BacktestResult> runPortfolio(List<BacktestTimeline> timelines,
+                                             BacktestLedger ledger,
+                                             BigDecimal atrMultiplierStopLoss,
+                                             BigDecimal atrMultiplierTakeProfit,
+                                             BigDecimal atrMultiplierBreakeven) {
+        List<TickerReplay> replays = new ArrayList<>(timelines.size());
+        // Одни часы и один автомат состояний на весь прогон: свечи идут в порядке времени
+        SimulatedClock clock = new SimulatedClock(Instant.EPOCH);
+        TradingStateMachine stateMachine = newRunStateMachine(clock);
+        // Курсор: {номер тикера, индекс свечи}
+        PriorityQueue<int[]> queue = new PriorityQueue<>(Math.max(1, timelines.size()), (a, b) -> {
+            int byTime = Long.compare(timelines.get(a[0]).getTime(a[1]), timelines.get(b[0]).getTime(b[1]));
+            return byTime != 0 ? byTime : Integer.compare(a[0], b[0]);
+        });
+        for (int t = 0; t < timelines.size(); t++) {
+            BacktestTimeline timeline = timelines.get(t);
+            replays.add(new TickerReplay(timeline, ledger, clock, stateMachine,
+                atrMultiplierStopLoss, atrMultiplierTakeProfit, atrMultiplierBreakeven));
+            if (timeline.size() > 0) {
+                queue.add(new int[]{t, 0});
+            }
+        }
+        
+        while (!queue.isEmpty()) {
+            int[] cursor = queue.poll();
+            replays.get(cursor[0]).step(cursor[1]);
+            cursor[1]++;
+            if (cursor[1] < timelines.get(cursor[0]).size()) {
+                queue.add(cursor);
+            }
+        }
+        
+        // Сначала закрываем все позиции, затем собираем результаты - итоговый баланс одинаков для всех тикеров
+        for (TickerReplay replay : replays) {
+            replay.closeAtEnd();
+        }
+        List<BacktestResult> results = new ArrayList<>(replays.size());
+        for (TickerReplay replay : replays) {
+            results.add(replay.buildResult());
+        }
+        return results;
+    }
+
+    /**
+     * Автомат состояний для одного прогона бэктеста: свои часы и коулдаун бэктеста,
+     * без общего состояния со Spring-бином живой торговли.
+     */
+    private TradingStateMachine newRunStateMachine(SimulatedClock clock) {
+        return new TradingStateMachine(clock, Duration.ofMinutes(COOLDOWN_MINUTES));
+    }
+
+    /**
+     * Пошаговая симуляция торговли по одному тикеру.
+     * Один шаг - одна свеча ленты; finish() закрывает позицию в конце периода и собирает результат.
+     * Цены, PnL и комиссии считаются в фиксированной точке (FixedPoint, нано-единицы):
+     * цикл по свечам не создает BigDecimal, в BigDecimal переводятся только итоговые сделки и результат.
+     */
+    private class TickerReplay {
+        private final BacktestTimeline timeline;
+        private final String figi;
+        private final String ticker;
+        private final BacktestLedger ledger;
+        private final SimulatedClock clock;
+        private final TradingStateMachine stateMachine;
+        private final int lotSize;
+        private final long minPriceIncrement;
+        private final long stopLossMultiplier;
+        private final long takeProfitMultiplier;
+        private final long breakevenMultiplier;
+        
+        // Начальный баланс для статистики тикера
+        private final BigDecimal tickerInitialBalance;
+        
+        private final List<Trade> trades = new ArrayList<>();
+        private Position currentPosition = null;
+
+        TickerReplay(BacktestTimeline timeline, BacktestLedger sharedBalance,
+                     SimulatedClock clock, TradingStateMachine stateMachine,
+                     BigDecimal atrMultiplierStopLoss,
+                     BigDecimal atrMultiplierTakeProfit,
+                     BigDecimal atrMultiplierBreakeven) {
+            this.timeline = timeline;
+            this.figi = timeline.getFigi();
+            this.ticker = timeline.getTicker();
+            this.clock = clock;
+            this.stateMachine = stateMachine;
+            Instrument instrument = timeline.getInstrument();
+            this.lotSize = instrument.getLot();
+            this.minPriceIncrement = TinkoffApiUtils.quotationToNanos(instrument.getMinPriceIncrement());
+            
+            // Сбрасываем состояние для этого тикера
+            stateMachine.resetToScanning(figi);
+            
+            // Используем переданные параметры или значения по умолчанию
+            this.stopLossMultiplier = FixedPoint.fromBigDecimal(
+                atrMultiplierStopLoss != null ? atrMultiplierStopLoss : ATR_MULTIPLIER_STOP_LOSS);
+            this.takeProfitMultiplier = FixedPoint.fromBigDecimal(
+                atrMultiplierTakeProfit != null ? atrMultiplierTakeProfit : ATR_MULTIPLIER_TAKE_PROFIT);
+            this.breakevenMultiplier = FixedPoint.fromBigDecimal(
+                atrMultiplierBreakeven != null ? atrMultiplierBreakeven : ATR_MULTIPLIER_BREAKEVEN);
+            
+            // Используем общий счет или создаем отдельный для этого тикера
+            this.ledger = sharedBalance != null ? sharedBalance : new BacktestLedger(INITIAL_BALANCE);
+            this.tickerInitialBalance = sharedBalance != null ? sharedBalance.getAvailableBalance() : INITIAL_BALANCE;
+        }
+
+        /**
+         * Обрабатывает свечу ленты с индексом i.
+         */
+        void step(int i) {
+            Instant currentTime = Instant.ofEpochSecond(timeline.getTime(i));
+            // Время бэктеста двигается по свечам (коулдаун считается в симулированном времени)
+            clock.advanceTo(currentTime);
+            if (!timeline.isTradable(i)) {
+                return;
+            }
+            long currentPrice = timeline.getCloseNanos(i);
+            long atr = FixedPoint.fromDouble(timeline.getAtrH1(i));
+            
             // Если есть открытая позиция - проверяем SL/TP и трейлинг стоп
-            // Пропускаем проверку canTrade() для инструментов с открытыми позициями
             if (currentPosition != null) {
                 // Проверяем, что состояние ACTIVE (позиция открыта)
                 TradingStateMachine.TradingStateType state = stateMachine.getState(figi);
@@ -283,105 +483,47 @@ public class BacktestEngine {
                     logger.warn("Несоответствие состояния для {}: позиция открыта, но состояние {}", figi, state);
                     currentPosition = null;
                     stateMachine.resetToScanning(figi);
-                    continue;
+                    return;
                 }
-                // Обновляем трейлинг стоп с безубытком (используем H1 индикаторы для ATR)
-                updateTrailingStop(currentPosition, currentPrice, indicatorsH1, instrument, 
+                // Обновляем трейлинг стоп с безубытком (используем H1 ATR)
+                updateTrailingStop(currentPosition, currentPrice, atr, minPriceIncrement,
                                   stopLossMultiplier, breakevenMultiplier);
                 
                 // Проверка стоп-лосса и тейк-профита
-                boolean shouldExit = false;
-                String exitReason = "";
+                String exitReason = null;
                 
                 if (currentPosition.isLong) {
                     // LONG позиция
-                    if (currentPrice.compareTo(currentPosition.stopLoss) <= 0) {
-                        shouldExit = true;
+                    if (currentPrice <= currentPosition.stopLoss) {
                         exitReason = "STOP_LOSS";
-                    } else if (currentPrice.compareTo(currentPosition.takeProfit) >= 0) {
-                        shouldExit = true;
+                    } else if (currentPrice >= currentPosition.takeProfit) {
                         exitReason = "TAKE_PROFIT";
                     }
                 } else {
                     // SHORT позиция
-                    if (currentPrice.compareTo(currentPosition.stopLoss) >= 0) {
-                        shouldExit = true;
+                    if (currentPrice >= currentPosition.stopLoss) {
                         exitReason = "STOP_LOSS";
-                    } else if (currentPrice.compareTo(currentPosition.takeProfit) <= 0) {
-                        shouldExit = true;
+                    } else if (currentPrice <= currentPosition.takeProfit) {
                         exitReason = "TAKE_PROFIT";
                     }
                 }
                 
-                if (shouldExit) {
-                    // Закрываем позицию
-                    // В реальной торговле: возвращаем заблокированные средства + PnL - комиссия за выход
-                    BigDecimal quantity = BigDecimal.valueOf(currentPosition.lots * instrument.getLot());
-                    BigDecimal entryValue = currentPosition.entryPrice.multiply(quantity); // БЕЗ комиссии за вход
-                    BigDecimal exitValue = currentPrice.multiply(quantity);
-                    
-                    // Gross PnL (без учета комиссий)
-                    BigDecimal grossPnL = currentPosition.isLong 
-                        ? exitValue.subtract(entryValue)
-                        : entryValue.subtract(exitValue);
-                    
-                    // Комиссия за выход
-                    BigDecimal exitCommission = exitValue.multiply(ESTIMATED_COMMISSION_RATE);
-                    
-                    // Net PnL (с учетом комиссии за выход)
-                    // Комиссия за вход уже была вычтена при открытии из availableBalance
-                    BigDecimal netPnL = grossPnL.subtract(exitCommission);
-                    
-                    // Возвращаем заблокированные средства + Net PnL
-                    // lockedBalance = entryValue (без комиссии)
-                    // netPnL уже учитывает комиссию за выход
-                    if (useSharedBalance && sharedBalance != null) {
-                        sharedBalance.closePosition(entryValue, netPnL);
-                    } else if (availableBalance != null && lockedBalance != null) {
-                        availableBalance = availableBalance.add(lockedBalance).add(netPnL);
-                        lockedBalance = BigDecimal.ZERO;
-                        totalBalance = availableBalance;
-                    }
-                    
-                    // Для расчета процента используем стоимость входа + комиссия за вход
-                    BigDecimal entryValueWithCommission = entryValue.multiply(
-                        BigDecimal.ONE.add(ESTIMATED_COMMISSION_RATE));
-                    BigDecimal pnlPercent = netPnL.divide(entryValueWithCommission, 4, RoundingMode.HALF_UP)
-                        .multiply(BigDecimal.valueOf(100));
-                    
-                    boolean wasLoss = netPnL.compareTo(BigDecimal.ZERO) < 0;
-                    
-                    trades.add(new Trade(
-                        currentPosition.entryTime,
-                        currentTime,
-                        currentPosition.entryPrice,
-                        currentPrice,
-                        quantity,
-                        netPnL,
-                        pnlPercent,
-                        exitReason
-                    ));
+                if (exitReason != null) {
+                    long netPnL = closePosition(currentPrice, currentTime, exitReason);
                     
                     // STATE MACHINE: Переход в COOLDOWN
-                    stateMachine.setCooldown(figi, wasLoss);
-                    lastTradeTime = currentTime;
-                    currentPosition = null;
+                    stateMachine.setCooldown(figi, netPnL < 0);
                 } else {
-                    // Обновляем общий баланс с учетом текущего unrealized PnL
-                    BigDecimal quantity = BigDecimal.valueOf(currentPosition.lots * instrument.getLot());
-                    BigDecimal entryValue = currentPosition.entryPrice.multiply(quantity);
-                    BigDecimal currentValue = currentPrice.multiply(quantity);
+                    // Переоценка позиции: общий баланс = свободные + заблокированные + unrealized PnL
+                    long quantity = currentPosition.lots * lotSize;
+                    long entryValue = FixedPoint.times(currentPosition.entryPrice, quantity);
+                    long currentValue = FixedPoint.times(currentPrice, quantity);
                     
-                    BigDecimal unrealizedPnL = currentPosition.isLong
-                        ? currentValue.subtract(entryValue)
-                        : entryValue.subtract(currentValue);
-                    
-                    // Общий баланс = свободные + заблокированные + unrealized PnL
-                    if (useSharedBalance && sharedBalance != null) {
-                        sharedBalance.updateUnrealizedPnL(entryValue, unrealizedPnL);
-                    } else if (availableBalance != null && lockedBalance != null) {
-                        totalBalance = availableBalance.add(lockedBalance).add(unrealizedPnL);
-                    }
+                    long unrealizedPnL = currentPosition.isLong
+                        ? currentValue - entryValue
+                        : entryValue - currentValue;
+                    ledger.updateUnrealizedPnL(currentPosition.unrealizedPnL, unrealizedPnL);
+                    currentPosition.unrealizedPnL = unrealizedPnL;
                 }
             } else {
                 // Нет позиции - проверяем состояние и ищем точку входа
@@ -393,120 +535,69 @@ public class BacktestEngine {
                     state == TradingStateMachine.TradingStateType.EXIT_PENDING) {
                     logger.warn("Несоответствие: позиции нет, но состояние {} для {}. Сбрасываем в SCANNING.", state, figi);
                     stateMachine.resetToScanning(figi);
-                    state = TradingStateMachine.TradingStateType.SCANNING;
-                }
-                
-                // Проверяем коулдаун
-                if (state == TradingStateMachine.TradingStateType.COOLDOWN) {
-                    if (lastTradeTime != null) {
-                        long minutesSinceTrade = ChronoUnit.MINUTES.between(lastTradeTime, currentTime);
-                        if (minutesSinceTrade < COOLDOWN_MINUTES) {
-                            continue; // Все еще в коулдауне
-                        }
-                    }
-                    // Коулдаун истек, состояние автоматически обновлено в stateMachine.getState()
-                    // Обновляем переменную state для дальнейших проверок
-                    state = stateMachine.getState(figi);
-                    // После истечения коулдауна состояние должно быть SCANNING
-                    if (state != TradingStateMachine.TradingStateType.SCANNING) {
-                        logger.warn("После истечения коулдауна состояние {} для {} не SCANNING. Принудительно сбрасываем.", state, figi);
-                        stateMachine.resetToScanning(figi);
-                        state = TradingStateMachine.TradingStateType.SCANNING;
-                    }
                 }
                 
-                // Проверяем, можно ли торговать (должно быть SCANNING)
+                // Коулдаун истекает внутри stateMachine.getState() по симулированным часам
                 if (!stateMachine.canTrade(figi)) {
-                    // Если не можем торговать, пропускаем эту итерацию
-                    // Это может быть если состояние еще не SCANNING (например, после истечения коулдауна)
-                    continue;
-                }
-                
-                // Используем N8nSignalService для генерации сигнала
-                // В бэктесте order_book и news не учитываются (null)
-                TradeRequest tradeRequest = n8nSignalService.generateTradeSignal(
-                    figi, ticker, indicatorsH1, indicatorsM15, null, null, currentPrice.doubleValue());
-                
-                // Проверяем, можно ли исполнять сигнал (confidence_score >= 0.8)
-                if (!n8nSignalService.canExecuteSignal(tradeRequest)) {
-                    continue;
+                    return; // Все еще в коулдауне
                 }
                 
-                String action = tradeRequest.getAction();
-                if ("BUY".equalsIgnoreCase(action) || "SELL".equalsIgnoreCase(action)) {
+                byte signal = timeline.getSignal(i);
+                if (signal != BacktestTimeline.SIGNAL_NONE) {
                     // STATE MACHINE: Переход в ENTRY_PENDING
                     stateMachine.setEntryPending(figi, "backtest_" + currentTime.toEpochMilli());
                     
                     // Рассчитываем стоп-лосс и тейк-профит
-                    double atr = indicatorsH1.getOrDefault("atr_14", 0.0);
-                    if (atr == 0.0) {
+                    if (atr == 0) {
                         stateMachine.resetToScanning(figi);
-                        continue;
+                        return;
                     }
                     
-                    BigDecimal stopLossOffset = BigDecimal.valueOf(atr).multiply(stopLossMultiplier);
-                    BigDecimal takeProfitOffset = BigDecimal.valueOf(atr).multiply(takeProfitMultiplier);
+                    long stopLossOffset = FixedPoint.multiply(atr, stopLossMultiplier);
+                    long takeProfitOffset = FixedPoint.multiply(atr, takeProfitMultiplier);
                     
-                    boolean isLong = "BUY".equalsIgnoreCase(action);
-                    BigDecimal stopLossPrice = isLong 
-                        ? currentPrice.subtract(stopLossOffset)
-                        : currentPrice.add(stopLossOffset);
-                    BigDecimal takeProfitPrice = isLong
-                        ? currentPrice.add(takeProfitOffset)
-                        : currentPrice.subtract(takeProfitOffset);
+                    boolean isLong = signal == BacktestTimeline.SIGNAL_BUY;
+                    long stopLossPrice = isLong 
+                        ? currentPrice - stopLossOffset
+                        : currentPrice + stopLossOffset;
+                    long takeProfitPrice = isLong
+                        ? currentPrice + takeProfitOffset
+                        : currentPrice - takeProfitOffset;
                     
                     // Используем RiskManagementService для расчета размера позиции
-                    BigDecimal currentAvailableBalance = (useSharedBalance && sharedBalance != null)
-                        ? sharedBalance.getAvailableBalance() 
-                        : (availableBalance != null ? availableBalance : INITIAL_BALANCE);
                     long lotsToTrade = riskManagementService.calculateSafeLotSize(
-                        currentAvailableBalance, currentPrice, stopLossPrice, instrument);
+                        ledger.getAvailableBalanceNanos(), currentPrice, lotSize);
                     
                     if (lotsToTrade == 0) {
                         stateMachine.resetToScanning(figi);
-                        continue;
+                        return;
                     }
                     
                     // ПРОВЕРКА ЭКОНОМИКИ (как в реальной торговле)
-                    if (!isEconomicallyViable(ticker, currentPrice, takeProfitPrice, lotsToTrade, instrument.getLot())) {
+                    if (!isEconomicallyViable(currentPrice, takeProfitPrice, lotsToTrade, lotSize)) {
                         stateMachine.resetToScanning(figi);
-                        continue;
+                        return;
                     }
                     
                     // Проверка достаточности средств
-                    BigDecimal tradeAmount = currentPrice.multiply(BigDecimal.valueOf(lotsToTrade * instrument.getLot()));
-                    BigDecimal entryCommission = tradeAmount.multiply(ESTIMATED_COMMISSION_RATE);
+                    long tradeAmount = FixedPoint.times(currentPrice, lotsToTrade * lotSize);
+                    long entryCommission = FixedPoint.multiply(tradeAmount, COMMISSION_RATE);
                     
-                    if (useSharedBalance && sharedBalance != null) {
-                        // Используем синхронизированный общий баланс
-                        if (!sharedBalance.openPosition(tradeAmount, entryCommission)) {
-                            stateMachine.resetToScanning(figi);
-                            continue; // Недостаточно средств
-                        }
-                    } else if (availableBalance != null && lockedBalance != null) {
-                        // Локальный баланс для этого тикера
-                        if (availableBalance.compareTo(tradeAmount.add(entryCommission)) < 0) {
-                            stateMachine.resetToScanning(figi);
-                            continue;
-                        }
-                        availableBalance = availableBalance.subtract(tradeAmount).subtract(entryCommission);
-                        lockedBalance = lockedBalance.add(tradeAmount);
-                        if (totalBalance != null) {
-                            totalBalance = availableBalance.add(lockedBalance);
-                        }
+                    if (!ledger.openPosition(tradeAmount, entryCommission)) {
+                        stateMachine.resetToScanning(figi);
+                        return; // Недостаточно средств
                     }
                     
                     // Открываем позицию
-                    BigDecimal minPriceIncrement = TinkoffApiUtils.quotationToBigDecimal(instrument.getMinPriceIncrement());
-                    BigDecimal roundedSl = TinkoffApiUtils.roundToStep(stopLossPrice, minPriceIncrement);
-                    BigDecimal roundedTp = TinkoffApiUtils.roundToStep(takeProfitPrice, minPriceIncrement);
+                    long roundedSl = FixedPoint.roundToStep(stopLossPrice, minPriceIncrement);
+                    long roundedTp = FixedPoint.roundToStep(takeProfitPrice, minPriceIncrement);
                     
                     // В реальной торговле:
                     // - Средства блокируются (но остаются в балансе как заблокированные)
                     // - Комиссия за вход вычитается брокером автоматически при исполнении из availableBalance
                     // - entryPrice - это средняя цена входа БЕЗ комиссии (как в брокерском API)
                     // Для бэктеста используем цену закрытия свечи как цену исполнения
-                    BigDecimal executionPrice = currentPrice; // В реальности может быть проскальзывание
+                    long executionPrice = currentPrice; // В реальности может быть проскальзывание
                     
                     currentPosition = new Position(
                         currentTime,
@@ -521,139 +612,131 @@ public class BacktestEngine {
                     stateMachine.setActive(figi);
                 }
             }
-            
-            // Обновляем пик и просадку на основе общего баланса (только для локального баланса)
-            if (!useSharedBalance && totalBalance != null && peakBalance != null && maxDrawdown != null) {
-                if (totalBalance.compareTo(peakBalance) > 0) {
-                    peakBalance = totalBalance;
-                }
-                BigDecimal drawdown = peakBalance.subtract(totalBalance);
-                if (drawdown.compareTo(maxDrawdown) > 0) {
-                    maxDrawdown = drawdown;
-                    if (maxDrawdownPercent != null && peakBalance.compareTo(BigDecimal.ZERO) > 0) {
-                        maxDrawdownPercent = drawdown.divide(peakBalance, 4, RoundingMode.HALF_UP)
-                                .multiply(BigDecimal.valueOf(100));
-                    }
-                }
-            }
         }
-        
-        // Закрываем последнюю позицию, если есть
-        if (currentPosition != null) {
-            HistoricCandle lastCandle = candlesM15.get(candlesM15.size() - 1);
-            BigDecimal lastPrice = TinkoffApiUtils.quotationToBigDecimal(lastCandle.getClose());
-            Instant lastTime = Instant.ofEpochSecond(lastCandle.getTime().getSeconds());
-            
-            BigDecimal quantity = BigDecimal.valueOf(currentPosition.lots * instrument.getLot());
-            BigDecimal entryValue = currentPosition.entryPrice.multiply(quantity); // БЕЗ комиссии за вход
-            BigDecimal exitValue = lastPrice.multiply(quantity);
+
+        /**
+         * Закрывает текущую позицию по цене exitPrice и записывает сделку.
+         * В реальной торговле: возвращаем заблокированные средства + PnL - комиссия за выход.
+         *
+         * @return Net PnL сделки (нано-единицы)
+         */
+        private long closePosition(long exitPrice, Instant exitTime, String reason) {
+            long quantity = currentPosition.lots * lotSize;
+            long entryValue = FixedPoint.times(currentPosition.entryPrice, quantity); // БЕЗ комиссии за вход
+            long exitValue = FixedPoint.times(exitPrice, quantity);
             
-            // Gross PnL
-            BigDecimal grossPnL = currentPosition.isLong
-                ? exitValue.subtract(entryValue)
-                : entryValue.subtract(exitValue);
+            // Gross PnL (без учета комиссий)
+            long grossPnL = currentPosition.isLong
+                ? exitValue - entryValue
+                : entryValue - exitValue;
             
             // Комиссия за выход
-            BigDecimal exitCommission = exitValue.multiply(ESTIMATED_COMMISSION_RATE);
+            long exitCommission = FixedPoint.multiply(exitValue, COMMISSION_RATE);
             
-            // Net PnL (комиссия за вход уже вычтена при открытии)
-            BigDecimal netPnL = grossPnL.subtract(exitCommission);
+            // Net PnL (с учетом комиссии за выход)
+            // Комиссия за вход уже была вычтена при открытии из availableBalance
+            long netPnL = grossPnL - exitCommission;
             
-            // Возвращаем заблокированные средства + PnL
-            if (useSharedBalance && sharedBalance != null) {
-                sharedBalance.closePosition(entryValue, netPnL);
-            } else if (availableBalance != null && lockedBalance != null) {
-                availableBalance = availableBalance.add(lockedBalance).add(netPnL);
-                lockedBalance = BigDecimal.ZERO;
-                if (totalBalance != null) {
-                    totalBalance = availableBalance;
-                }
-            }
+            // Возвращаем заблокированные средства (entryValue без комиссии) + Net PnL
+            ledger.closePosition(entryValue, netPnL, currentPosition.unrealizedPnL);
             
-            // Для расчета процента используем стоимость входа + комиссия за вход
-            BigDecimal entryValueWithCommission = entryValue.multiply(
-                BigDecimal.ONE.add(ESTIMATED_COMMISSION_RATE));
-            BigDecimal pnlPercent = netPnL.divide(entryValueWithCommission, 4, RoundingMode.HALF_UP)
-                .multiply(BigDecimal.valueOf(100));
+            // Для расчета процента используем стоимость входа + комиссия за вход (раз на сделку)
+            long entryValueWithCommission = FixedPoint.multiply(entryValue, FixedPoint.ONE + COMMISSION_RATE);
+            long pnlPercent = FixedPoint.times(
+                FixedPoint.roundToStep(FixedPoint.divide(netPnL, entryValueWithCommission), PERCENT_RATIO_STEP), 100);
             
             trades.add(new Trade(
                 currentPosition.entryTime,
-                lastTime,
-                currentPosition.entryPrice,
-                lastPrice,
-                quantity,
-                netPnL,
-                pnlPercent,
-                "END_OF_PERIOD"
+                exitTime,
+                FixedPoint.toBigDecimal(currentPosition.entryPrice),
+                FixedPoint.toBigDecimal(exitPrice),
+                BigDecimal.valueOf(quantity),
+                FixedPoint.toBigDecimal(netPnL),
+                FixedPoint.toBigDecimal(pnlPercent),
+                reason
             ));
+            currentPosition = null;
+            return netPnL;
         }
-        
-        // Подсчитываем статистику
-        int winningTrades = 0;
-        int losingTrades = 0;
-        for (Trade trade : trades) {
-            if (trade.getPnL().compareTo(BigDecimal.ZERO) > 0) {
-                winningTrades++;
-            } else {
-                losingTrades++;
+
+        /**
+         * Закрывает позицию в конце периода и формирует результат.
+         */
+        BacktestResult finish() {
+            closeAtEnd();
+            return buildResult();
+        }
+
+        /**
+         * Закрывает открытую позицию по последней цене периода (END_OF_PERIOD).
+         */
+        void closeAtEnd() {
+            // Закрываем последнюю позицию, если есть
+            if (currentPosition != null) {
+                int lastIndex = timeline.size() - 1;
+                closePosition(timeline.getCloseNanos(lastIndex),
+                    Instant.ofEpochSecond(timeline.getTime(lastIndex)), "END_OF_PERIOD");
             }
         }
+
+        /**
+         * Собирает статистику по сделкам тикера.
+         */
+        BacktestResult buildResult() {
+            // Подсчитываем статистику
+            int winningTrades = 0;
+            int losingTrades = 0;
+            for (Trade trade : trades) {
+                if (trade.getPnL().compareTo(BigDecimal.ZERO) > 0) {
+                    winningTrades++;
+                } else {
+                    losingTrades++;
+                }
+            }
         
-        // Получаем финальные значения баланса
-        BigDecimal finalMaxDrawdown;
-        BigDecimal finalMaxDrawdownPercent;
-        
-        if (useSharedBalance && sharedBalance != null) {
-            tickerFinalBalance = sharedBalance.getTotalBalance();
-            finalMaxDrawdown = sharedBalance.getMaxDrawdown();
-            finalMaxDrawdownPercent = sharedBalance.getMaxDrawdownPercent();
-        } else {
-            tickerFinalBalance = totalBalance != null ? totalBalance : tickerInitialBalance;
-            finalMaxDrawdown = maxDrawdown != null ? maxDrawdown : BigDecimal.ZERO;
-            finalMaxDrawdownPercent = maxDrawdownPercent != null ? maxDrawdownPercent : BigDecimal.ZERO;
+            return new BacktestResult(
+                ticker,
+                timeline.getStartDate(),
+                timeline.getEndDate(),
+                tickerInitialBalance,
+                ledger.getTotalBalance(),
+                trades.size(),
+                winningTrades,
+                losingTrades,
+                ledger.getMaxDrawdown(),
+                ledger.getMaxDrawdownPercent(),
+                trades
+            );
         }
-        
-        return new BacktestResult(
-            ticker,
-            startDate,
-            endDate,
-            tickerInitialBalance,
-            tickerFinalBalance,
-            trades.size(),
-            winningTrades,
-            losingTrades,
-            finalMaxDrawdown,
-            finalMaxDrawdownPercent,
-            trades
-        );
     }
     
     /**
      * ПРОВЕРКА РЕНТАБЕЛЬНОСТИ (как в TinkoffOrderService)
-     * Возвращает false, если комиссия съест прибыль.
+     * Возвращает false, если комиссия съест прибыль. Цены - в нано-единицах (FixedPoint).
      */
-    private boolean isEconomicallyViable(String ticker, BigDecimal entryPrice, BigDecimal takeProfitPrice, long lots, int lotSize) {
+    private boolean isEconomicallyViable(long entryPrice, long takeProfitPrice, long lots, int lotSize) {
         if (lots == 0) return false;
 
-        BigDecimal volume = entryPrice.multiply(BigDecimal.valueOf(lots * lotSize));
+        long quantity = lots * lotSize;
+        long volume = FixedPoint.times(entryPrice, quantity);
         // Комиссия за круг (вход + выход)
-        BigDecimal totalCommission = volume.multiply(ESTIMATED_COMMISSION_RATE).multiply(BigDecimal.valueOf(2));
+        long totalCommission = FixedPoint.times(FixedPoint.multiply(volume, COMMISSION_RATE), 2);
 
         // Потенциал движения (грязная прибыль)
-        BigDecimal potentialProfit = takeProfitPrice.subtract(entryPrice).abs().multiply(BigDecimal.valueOf(lots * lotSize));
+        long potentialProfit = FixedPoint.times(Math.abs(takeProfitPrice - entryPrice), quantity);
         // Чистая прибыль (прогноз)
-        BigDecimal netProfit = potentialProfit.subtract(totalCommission);
+        long netProfit = potentialProfit - totalCommission;
 
-        // Соотношение Прибыль / Комиссия
-        BigDecimal ratio = (totalCommission.compareTo(BigDecimal.ZERO) == 0) 
-            ? BigDecimal.valueOf(100) 
-            : potentialProfit.divide(totalCommission, 2, RoundingMode.HALF_UP);
+        // Соотношение Прибыль / Комиссия (округление до 0.01, как раньше)
+        long ratio = (totalCommission == 0)
+            ? FixedPoint.ofUnits(100)
+            : FixedPoint.roundToStep(FixedPoint.divide(potentialProfit, totalCommission), RATIO_STEP);
 
-        if (ratio.compareTo(MIN_PROFIT_TO_COMMISSION_RATIO) < 0) {
+        if (ratio < MIN_PROFIT_TO_COMMISSION_RATIO_NANOS) {
             return false;
         }
 
-        if (netProfit.compareTo(BigDecimal.ZERO) <= 0) {
+        if (netProfit <= 0) {
             return false;
         }
 
@@ -661,75 +744,76 @@ public class BacktestEngine {
     }
     
     /**
-     * Обновляет трейлинг стоп с безубытком (как в TinkoffOrderService)
+     * Обновляет трейлинг стоп с безубытком (как в TinkoffOrderService). Цены - в нано-единицах (FixedPoint).
      */
-    private void updateTrailingStop(Position position, BigDecimal currentPrice, 
-                                    Map<String, Double> indicators, Instrument instrument,
-                                    BigDecimal stopLossMultiplier, BigDecimal breakevenMultiplier) {
-        double atrValue = indicators.getOrDefault("atr_14", 0.0);
-        if (atrValue == 0.0) return;
+    private void updateTrailingStop(Position position, long currentPrice,
+                                    long atrValue, long minPriceIncrement,
+                                    long stopLossMultiplier, long breakevenMultiplier) {
+        if (atrValue == 0) return;
         
-        BigDecimal minPriceIncrement = TinkoffApiUtils.quotationToBigDecimal(instrument.getMinPriceIncrement());
-        BigDecimal atrMultiplier = BigDecimal.valueOf(atrValue).multiply(breakevenMultiplier);
+        long atrMultiplier = FixedPoint.multiply(atrValue, breakevenMultiplier);
+        long breakevenOffset = FixedPoint.times(minPriceIncrement, 5);
         
         if (position.isLong) {
-            BigDecimal priceGain = currentPrice.subtract(position.entryPrice);
+            long priceGain = currentPrice - position.entryPrice;
             
             // Если цена ушла в плюс на breakevenMultiplier * ATR, переносим стоп в безубыток
-            if (priceGain.compareTo(atrMultiplier) >= 0) {
-                BigDecimal breakevenStop = position.entryPrice.add(minPriceIncrement.multiply(BigDecimal.valueOf(5)));
-                BigDecimal roundedBreakeven = TinkoffApiUtils.roundToStep(breakevenStop, minPriceIncrement);
+            if (priceGain >= atrMultiplier) {
+                long roundedBreakeven = FixedPoint.roundToStep(position.entryPrice + breakevenOffset, minPriceIncrement);
                 
-                if (roundedBreakeven.compareTo(position.stopLoss) > 0) {
+                if (roundedBreakeven > position.stopLoss) {
                     position.stopLoss = roundedBreakeven;
                 }
             } else {
                 // Обычный трейлинг: стоп на stopLossMultiplier * ATR от текущей цены
-                BigDecimal newStopLossPrice = currentPrice.subtract(BigDecimal.valueOf(atrValue).multiply(stopLossMultiplier));
-                BigDecimal roundedNewSl = TinkoffApiUtils.roundToStep(newStopLossPrice, minPriceIncrement);
+                long newStopLossPrice = currentPrice - FixedPoint.multiply(atrValue, stopLossMultiplier);
+                long roundedNewSl = FixedPoint.roundToStep(newStopLossPrice, minPriceIncrement);
                 
                 // Обновляем только если новый стоп выше старого и выше безубытка
-                BigDecimal minStop = position.entryPrice.add(minPriceIncrement.multiply(BigDecimal.valueOf(5)));
-                if (roundedNewSl.compareTo(minStop) > 0 && roundedNewSl.compareTo(position.stopLoss) > 0) {
+                long minStop = position.entryPrice + breakevenOffset;
+                if (roundedNewSl > minStop && roundedNewSl > position.stopLoss) {
                     position.stopLoss = roundedNewSl;
                 }
             }
         } else {
             // SHORT позиция
-            BigDecimal priceGain = position.entryPrice.subtract(currentPrice);
+            long priceGain = position.entryPrice - currentPrice;
             
             // Если цена ушла в плюс на breakevenMultiplier * ATR, переносим стоп в безубыток
-            if (priceGain.compareTo(atrMultiplier) >= 0) {
-                BigDecimal breakevenStop = position.entryPrice.subtract(minPriceIncrement.multiply(BigDecimal.valueOf(5)));
-                BigDecimal roundedBreakeven = TinkoffApiUtils.roundToStep(breakevenStop, minPriceIncrement);
+            if (priceGain >= atrMultiplier) {
+                long roundedBreakeven = FixedPoint.roundToStep(position.entryPrice - breakevenOffset, minPriceIncrement);
                 
-                if (roundedBreakeven.compareTo(position.stopLoss) < 0) {
+                if (roundedBreakeven < position.stopLoss) {
                     position.stopLoss = roundedBreakeven;
                 }
             } else {
                 // Обычный трейлинг: стоп на stopLossMultiplier * ATR от текущей цены
-                BigDecimal newStopLossPrice = currentPrice.add(BigDecimal.valueOf(atrValue).multiply(stopLossMultiplier));
-                BigDecimal roundedNewSl = TinkoffApiUtils.roundToStep(newStopLossPrice, minPriceIncrement);
+                long newStopLossPrice = currentPrice + FixedPoint.multiply(atrValue, stopLossMultiplier);
+                long roundedNewSl = FixedPoint.roundToStep(newStopLossPrice, minPriceIncrement);
                 
                 // Обновляем только если новый стоп ниже старого и ниже безубытка
-                BigDecimal maxStop = position.entryPrice.subtract(minPriceIncrement.multiply(BigDecimal.valueOf(5)));
-                if (roundedNewSl.compareTo(maxStop) < 0 && roundedNewSl.compareTo(position.stopLoss) < 0) {
+                long maxStop = position.entryPrice - breakevenOffset;
+                if (roundedNewSl < maxStop && roundedNewSl < position.stopLoss) {
                     position.stopLoss = roundedNewSl;
                 }
             }
         }
     }
     
+    /**
+     * Открытая позиция бэктеста. Цены и PnL - в нано-единицах (FixedPoint).
+     */
     private static class Position {
         final Instant entryTime;
-        final BigDecimal entryPrice;
+        final long entryPrice;
         final long lots;
-        BigDecimal stopLoss; // Изменяемый для трейлинга
-        final BigDecimal takeProfit;
+        long stopLoss; // Изменяемый для трейлинга
+        final long takeProfit;
         final boolean isLong;
+        long unrealizedPnL; // Последняя переоценка, учтенная в счете
         
-        Position(Instant entryTime, BigDecimal entryPrice, long lots,
-                BigDecimal stopLoss, BigDecimal takeProfit, boolean isLong) {
+        Position(Instant entryTime, long entryPrice, long lots,
+                long stopLoss, long takeProfit, boolean isLong) {
             this.entryTime = entryTime;
             this.entryPrice = entryPrice;
             this.lots = lots;
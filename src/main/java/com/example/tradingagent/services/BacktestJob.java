@@ -0,0 +1,237 @@
+package com.example.tradingagent.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Асинхронная задача бэктеста (run, run-all или optimize).
+ * Хранит статус, прогресс, результат и подписчиков SSE.
+ */
+public class BacktestJob {
+
+    private static final Logger logger = LoggerFactory.getLogger(BacktestJob.class);
+
+    public enum Type {
+        RUN,
+        RUN_ALL,
+        OPTIMIZE
+    }
+
+    public enum Status {
+        PENDING,    // В очереди
+        RUNNING,    // Выполняется
+        COMPLETED,  // Завершена успешно
+        FAILED,     // Завершена с ошибкой
+        CANCELLED   // Отменена пользователем
+    }
+
+    private final String id = UUID.randomUUID().toString();
+    private final Type type;
+    private final Map<String, Object> parameters;
+    private final Instant createdAt = Instant.now();
+    private final AtomicInteger done = new AtomicInteger();
+    private final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+
+    private volatile Status status = Status.PENDING;
+    private volatile String stage = "queued";
+    private volatile int total;
+    private volatile Instant finishedAt;
+    private volatile Map<String, Object> result;
+    private volatile String error;
+    private volatile boolean badRequest;
+    private volatile CompletableFuture<Map<String, Object>> future;
+
+    public BacktestJob(Type type, Map<String, Object> parameters) {
+        this.type = type;
+        this.parameters = parameters;
+    }
+
+    public String getId() { return id; }
+    public Type getType() { return type; }
+    public Map<String, Object> getParameters() { return parameters; }
+    public Instant getCreatedAt() { return createdAt; }
+    public Status getStatus() { return status; }
+    public String getStage() { return stage; }
+    public int getDone() { return done.get(); }
+    public int getTotal() { return total; }
+    public Instant getFinishedAt() { return finishedAt; }
+    public Map<String, Object> getResult() { return result; }
+    public String getError() { return error; }
+
+    /**
+     * true, если задача завершилась из-за некорректного запроса (тикер не найден, мало данных).
+     */
+    public boolean isBadRequest() { return badRequest; }
+
+    public CompletableFuture<Map<String, Object>> getFuture() { return future; }
+
+    void setFuture(CompletableFuture<Map<String, Object>> future) {
+        this.future = future;
+    }
+
+    public boolean isCancelled() {
+        return status == Status.CANCELLED;
+    }
+
+    public boolean isFinished() {
+        return status == Status.COMPLETED || status == Status.FAILED || status == Status.CANCELLED;
+    }
+
+    synchronized void markRunning() {
+        if (status == Status.PENDING) {
+            status = Status.RUNNING;
+        }
+    }
+
+    /**
+     * Начало нового этапа (например, подготовка тикеров или перебор комбинаций).
+     */
+    void startStage(String stage, int total) {
+        this.stage = stage;
+        this.total = total;
+        this.done.set(0);
+        broadcast("progress", progressEvent(null));
+    }
+
+    /**
+     * Завершен один элемент этапа (тикер или комбинация параметров).
+     */
+    void itemDone(String item) {
+        done.incrementAndGet();
+        broadcast("progress", progressEvent(item));
+    }
+
+    void complete(Map<String, Object> result) {
+        synchronized (this) {
+            if (isFinished()) {
+                return;
+            }
+            this.result = result;
+            finish(Status.COMPLETED);
+        }
+        publishFinished();
+    }
+
+    void fail(String error, boolean badRequest) {
+        synchronized (this) {
+            if (isFinished()) {
+                return;
+            }
+            this.error = error;
+            this.badRequest = badRequest;
+            finish(Status.FAILED);
+        }
+        publishFinished();
+    }
+
+    boolean cancel() {
+        synchronized (this) {
+            if (isFinished()) {
+                return false;
+            }
+            finish(Status.CANCELLED);
+        }
+        CompletableFuture<Map<String, Object>> current = future;
+        if (current != null) {
+            current.cancel(true);
+        }
+        publishFinished();
+        return true;
+    }
+
+    /**
+     * Переход в конечный статус (под this): проверка и смена статуса атомарны, поэтому
+     * из гонки отмены с завершением выигрывает первый переход, а второй ничего не меняет.
+     */
+    private void finish(Status finalStatus) {
+        this.status = finalStatus;
+        this.finishedAt = Instant.now();
+    }
+
+    /**
+     * Итоговый статус подписчикам - один раз, потоком, выполнившим переход (вне блокировки: отправка SSE может ждать сеть).
+     */
+    private void publishFinished() {
+        broadcast("status", toStatusMap());
+        for (SseEmitter emitter : emitters) {
+            // Подписчик, добавленный параллельно, мог быть уже завершен в subscribe
+            if (emitters.remove(emitter)) {
+                emitter.complete();
+            }
+        }
+    }
+
+    /**
+     * Подписка на события задачи. Для завершенной задачи сразу отправляется итоговый статус.
+     */
+    void subscribe(SseEmitter emitter) {
+        emitter.onCompletion(() -> emitters.remove(emitter));
+        emitter.onTimeout(() -> emitters.remove(emitter));
+        emitter.onError(e -> emitters.remove(emitter));
+        emitters.add(emitter);
+        send(emitter, "status", toStatusMap());
+        if (isFinished() && emitters.remove(emitter)) {
+            emitter.complete();
+        }
+    }
+
+    /**
+     * Краткое состояние задачи (без результата) для опроса и SSE.
+     */
+    public Map<String, Object> toStatusMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("jobId", id);
+        map.put("type", type);
+        map.put("status", status);
+        map.put("stage", stage);
+        map.put("done", done.get());
+        map.put("total", total);
+        map.put("createdAt", createdAt);
+        if (finishedAt != null) {
+            map.put("finishedAt", finishedAt);
+        }
+        if (error != null) {
+            map.put("error", error);
+        }
+        return map;
+    }
+
+    private Map<String, Object> progressEvent(String item) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("jobId", id);
+        event.put("stage", stage);
+        event.put("done", done.get());
+        event.put("total", total);
+        if (item != null) {
+            event.put("item", item);
+        }
+        return event;
+    }
+
+    private void broadcast(String eventName, Object data) {
+        for (SseEmitter emitter : emitters) {
+            send(emitter, eventName, data);
+        }
+    }
+
+    private void send(SseEmitter emitter, String eventName, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(eventName).data(data));
+        } catch (IOException | IllegalStateException e) {
+            // Клиент отключился - просто убираем подписчика
+            logger.debug("SSE подписчик задачи {} отключен: {}", id, e.getMessage());
+            emitters.remove(emitter);
+        }
+    }
+}
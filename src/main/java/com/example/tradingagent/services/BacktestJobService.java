@@ -0,0 +1,496 @@
+package com.example.tradingagent.services;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.tinkoff.piapi.contract.v1.CandleInterval;
+import ru.tinkoff.piapi.contract.v1.Share;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Асинхронные задачи бэктеста: submit / poll / cancel и прогресс через Server-Sent Events.
+ * Все задачи используют один общий ограниченный пул воркеров (по числу ядер),
+ * поэтому параллельные запросы не плодят новые пулы потоков и не перегружают CPU.
+ * Сами задачи координируются в отдельном небольшом пуле: координатор только ждет
+ * результаты воркеров и не занимает их потоки.
+ */
+@Service
+public class BacktestJobService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BacktestJobService.class);
+
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("10000.00");
+    // Завершенные задачи хранятся час, затем удаляются
+    private static final Duration FINISHED_JOB_RETENTION = Duration.ofHours(1);
+    private static final long SSE_TIMEOUT_MS = Duration.ofMinutes(30).toMillis();
+
+    private final BacktestEngine backtestEngine;
+    private final TinkoffInstrumentsService instrumentsService;
+    private final InstrumentRegistry instrumentRegistry;
+    private final ExecutorService workerPool;
+    private final ExecutorService jobPool;
+    private final ConcurrentHashMap<String, BacktestJob> jobs = new ConcurrentHashMap<>();
+
+    public BacktestJobService(BacktestEngine backtestEngine,
+                              TinkoffInstrumentsService instrumentsService,
+                              InstrumentRegistry instrumentRegistry,
+                              @Value("${backtest.workers:0}") int workers,
+                              @Value("${backtest.jobs.max-concurrent:2}") int maxConcurrentJobs,
+                              @Value("${backtest.workers.queue-capacity:10000}") int queueCapacity) {
+        this.backtestEngine = backtestEngine;
+        this.instrumentsService = instrumentsService;
+        this.instrumentRegistry = instrumentRegistry;
+        int workerCount = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        // При переполнении очереди задача выполняется в потоке координатора - естественное торможение
+        this.workerPool = new ThreadPoolExecutor(workerCount, workerCount, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), namedThreads("backtest-worker-"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        this.jobPool = Executors.newFixedThreadPool(Math.max(1, maxConcurrentJobs), namedThreads("backtest-job-"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobPool.shutdownNow();
+        workerPool.shutdownNow();
+    }
+
+    /**
+     * Бэктест одного тикера.
+     */
+    public BacktestJob submitRun(String ticker, int days, String interval) {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("ticker", ticker);
+        parameters.put("days", days);
+        parameters.put("interval", interval);
+        return submit(new BacktestJob(BacktestJob.Type.RUN, parameters),
+                job -> executeRun(job, ticker, days, interval));
+    }
+
+    /**
+     * Портфельный бэктест по всем blue chips.
+     */
+    public BacktestJob submitRunAll(int days, String interval) {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("days", days);
+        parameters.put("interval", interval);
+        return submit(new BacktestJob(BacktestJob.Type.RUN_ALL, parameters),
+                job -> executeRunAll(job, days, interval));
+    }
+
+    /**
+     * Оптимизация множителей ATR по сетке параметров.
+     */
+    public BacktestJob submitOptimize(int days, String interval,
+                                      double stopLossMin, double stopLossMax, double stopLossStep,
+                                      double takeProfitMin, double takeProfitMax, double takeProfitStep,
+                                      double breakevenMin, double breakevenMax, double breakevenStep) {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("days", days);
+        parameters.put("interval", interval);
+        parameters.put("stopLoss", List.of(stopLossMin, stopLossMax, stopLossStep));
+        parameters.put("takeProfit", List.of(takeProfitMin, takeProfitMax, takeProfitStep));
+        parameters.put("breakeven", List.of(breakevenMin, breakevenMax, breakevenStep));
+        return submit(new BacktestJob(BacktestJob.Type.OPTIMIZE, parameters),
+                job -> executeOptimize(job, days,
+                        stopLossMin, stopLossMax, stopLossStep,
+                        takeProfitMin, takeProfitMax, takeProfitStep,
+                        breakevenMin, breakevenMax, breakevenStep));
+    }
+
+    public BacktestJob getJob(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    /**
+     * Отмена задачи. Уже запущенные расчеты по тикерам/комбинациям досчитываются,
+     * новые не начинаются.
+     *
+     * @return false, если задача не найдена или уже завершена
+     */
+    public boolean cancel(String jobId) {
+        BacktestJob job = jobs.get(jobId);
+        if (job == null) {
+            return false;
+        }
+        boolean cancelled = job.cancel();
+        if (cancelled) {
+            logger.info("Задача бэктеста {} отменена", jobId);
+        }
+        return cancelled;
+    }
+
+    /**
+     * Подписка на прогресс задачи (SSE): события progress и status.
+     *
+     * @return null, если задача не найдена
+     */
+    public SseEmitter subscribe(String jobId) {
+        BacktestJob job = jobs.get(jobId);
+        if (job == null) {
+            return null;
+        }
+        SseEmitter emitter = new SseEmitter(SSE_TIMEOUT_MS);
+        job.subscribe(emitter);
+        return emitter;
+    }
+
+    private BacktestJob submit(BacktestJob job, JobTask task) {
+        evictFinishedJobs();
+        jobs.put(job.getId(), job);
+        job.setFuture(CompletableFuture.supplyAsync(() -> {
+            if (job.isCancelled()) {
+                return null;
+            }
+            job.markRunning();
+            try {
+                Map<String, Object> result = task.execute(job);
+                job.complete(result);
+                return result;
+            } catch (IllegalArgumentException e) {
+                job.fail(e.getMessage(), true);
+            } catch (CancellationException e) {
+                // Статус CANCELLED уже выставлен в cancel()
+            } catch (Exception e) {
+                logger.error("Ошибка задачи бэктеста {}: {}", job.getId(), e.getMessage(), e);
+                job.fail(e.getMessage(), false);
+            }
+            return null;
+        }, jobPool));
+        logger.info("Задача бэктеста {} ({}) поставлена в очередь: {}", job.getId(), job.getType(), job.getParameters());
+        return job;
+    }
+
+    private void evictFinishedJobs() {
+        Instant threshold = Instant.now().minus(FINISHED_JOB_RETENTION);
+        jobs.values().removeIf(job -> job.isFinished()
+                && job.getFinishedAt() != null
+                && job.getFinishedAt().isBefore(threshold));
+    }
+
+    private Map<String, Object> executeRun(BacktestJob job, String ticker, int days, String interval) {
+        // Получаем FIGI по тикеру
+        Share share = instrumentRegistry.getShareByTicker(ticker);
+
+        if (share == null) {
+            throw new IllegalArgumentException("Инструмент с тикером " + ticker + " не найден");
+        }
+
+        job.startStage("tickers", 1);
+        BacktestEngine.BacktestResult result = backtestEngine.runBacktest(
+                share.getFigi(),
+                share.getTicker(),
+                days,
+                parseInterval(interval),
+                null, // null = отдельный баланс для одного тикера
+                null, // atrMultiplierStopLoss - используем значение по умолчанию
+                null, // atrMultiplierTakeProfit - используем значение по умолчанию
+                null); // atrMultiplierBreakeven - используем значение по умолчанию
+        job.itemDone(share.getTicker());
+
+        if (result == null) {
+            throw new IllegalArgumentException("Недостаточно данных для бэктеста");
+        }
+
+        // Формируем ответ
+        Map<String, Object> response = new HashMap<>();
+        response.put("ticker", result.getTicker());
+        response.put("startDate", result.getStartDate());
+        response.put("endDate", result.getEndDate());
+        response.put("initialBalance", result.getInitialBalance());
+        response.put("finalBalance", result.getFinalBalance());
+        response.put("totalPnL", result.getTotalPnL());
+        response.put("totalPnLPercent", result.getTotalPnLPercent());
+        response.put("totalTrades", result.getTotalTrades());
+        response.put("winningTrades", result.getWinningTrades());
+        response.put("losingTrades", result.getLosingTrades());
+        response.put("winRate", result.getTotalTrades() > 0
+                ? (double) result.getWinningTrades() / result.getTotalTrades() * 100
+                : 0.0);
+        response.put("maxDrawdown", result.getMaxDrawdown());
+        response.put("maxDrawdownPercent", result.getMaxDrawdownPercent());
+        response.put("trades", result.getTrades().stream().map(trade -> {
+            Map<String, Object> tradeMap = new HashMap<>();
+            tradeMap.put("entryTime", trade.getEntryTime());
+            tradeMap.put("exitTime", trade.getExitTime());
+            tradeMap.put("entryPrice", trade.getEntryPrice());
+            tradeMap.put("exitPrice", trade.getExitPrice());
+            tradeMap.put("quantity", trade.getQuantity());
+            tradeMap.put("pnl", trade.getPnL());
+            tradeMap.put("pnlPercent", trade.getPnLPercent());
+            tradeMap.put("reason", trade.getReason());
+            return tradeMap;
+        }).toList());
+        return response;
+    }
+
+    private Map<String, Object> executeRunAll(BacktestJob job, int days, String interval) {
+        List<Share> shares = instrumentsService.getBlueChips();
+
+        // Индикаторы и сигналы считаются параллельно по тикерам
+        List<BacktestTimeline> timelines = buildTimelines(job, shares, days);
+
+        // Сделки проигрываются в одном цикле по времени всех тикеров на общем счете (детерминированно)
+        job.startStage("portfolio", 1);
+        BacktestLedger sharedBalance = new BacktestLedger(INITIAL_BALANCE);
+        List<BacktestEngine.BacktestResult> results = backtestEngine.runPortfolio(
+                timelines,
+                sharedBalance,
+                null, // atrMultiplierStopLoss - используем значение по умолчанию
+                null, // atrMultiplierTakeProfit - используем значение по умолчанию
+                null); // atrMultiplierBreakeven - используем значение по умолчанию
+        job.itemDone("portfolio");
+
+        if (results.isEmpty()) {
+            throw new IllegalArgumentException("Не удалось выполнить бэктест ни для одного тикера");
+        }
+
+        // Агрегируем результаты - используем общий счет для всех тикеров
+        BigDecimal totalFinalBalance = sharedBalance.getTotalBalance();
+        BigDecimal totalPnL = totalFinalBalance.subtract(INITIAL_BALANCE);
+        BigDecimal totalPnLPercent = INITIAL_BALANCE.compareTo(BigDecimal.ZERO) > 0
+                ? totalPnL.divide(INITIAL_BALANCE, 4, RoundingMode.HALF_UP).multiply(BigDecimal.valueOf(100))
+                : BigDecimal.ZERO;
+
+        // Сохраняем результаты по тикерам
+        List<Map<String, Object>> tickerResults = results.stream()
+                .map(result -> {
+                    Map<String, Object> tickerResult = new HashMap<>();
+                    tickerResult.put("ticker", result.getTicker());
+                    tickerResult.put("finalBalance", result.getFinalBalance());
+                    tickerResult.put("totalPnL", result.getTotalPnL());
+                    tickerResult.put("totalPnLPercent", result.getTotalPnLPercent());
+                    tickerResult.put("totalTrades", result.getTotalTrades());
+                    tickerResult.put("winningTrades", result.getWinningTrades());
+                    tickerResult.put("losingTrades", result.getLosingTrades());
+                    tickerResult.put("winRate", result.getTotalTrades() > 0
+                            ? (double) result.getWinningTrades() / result.getTotalTrades() * 100
+                            : 0.0);
+                    tickerResult.put("maxDrawdown", result.getMaxDrawdown());
+                    tickerResult.put("maxDrawdownPercent", result.getMaxDrawdownPercent());
+                    return tickerResult;
+                })
+                .collect(Collectors.toList());
+
+        int totalTrades = results.stream()
+                .mapToInt(BacktestEngine.BacktestResult::getTotalTrades)
+                .sum();
+        int totalWinningTrades = results.stream()
+                .mapToInt(BacktestEngine.BacktestResult::getWinningTrades)
+                .sum();
+        int totalLosingTrades = results.stream()
+                .mapToInt(BacktestEngine.BacktestResult::getLosingTrades)
+                .sum();
+
+        // Общее количество сделок из всех тикеров
+        int totalAllTrades = results.stream()
+                .mapToInt(r -> r.getTrades().size())
+                .sum();
+
+        // Формируем ответ
+        Map<String, Object> summary = new HashMap<>();
+        summary.put("totalTickers", results.size());
+        summary.put("initialBalance", INITIAL_BALANCE);
+        summary.put("totalFinalBalance", totalFinalBalance);
+        summary.put("totalPnL", totalPnL);
+        summary.put("totalPnLPercent", totalPnLPercent);
+        summary.put("totalTrades", totalTrades);
+        summary.put("totalWinningTrades", totalWinningTrades);
+        summary.put("totalLosingTrades", totalLosingTrades);
+        summary.put("overallWinRate", totalTrades > 0
+                ? (double) totalWinningTrades / totalTrades * 100
+                : 0.0);
+        summary.put("maxDrawdown", sharedBalance.getMaxDrawdown());
+        summary.put("maxDrawdownPercent", sharedBalance.getMaxDrawdownPercent());
+        summary.put("totalAllTrades", totalAllTrades);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("summary", summary);
+        response.put("tickerResults", tickerResults);
+        response.put("days", days);
+        response.put("interval", interval);
+        return response;
+    }
+
+    private Map<String, Object> executeOptimize(BacktestJob job, int days,
+                                                double stopLossMin, double stopLossMax, double stopLossStep,
+                                                double takeProfitMin, double takeProfitMax, double takeProfitStep,
+                                                double breakevenMin, double breakevenMax, double breakevenStep) {
+        List<Share> shares = instrumentsService.getBlueChips();
+
+        // Генерируем все комбинации параметров
+        List<Map<String, BigDecimal>> parameterCombinations = new ArrayList<>();
+        for (double sl = stopLossMin; sl <= stopLossMax; sl += stopLossStep) {
+            for (double tp = takeProfitMin; tp <= takeProfitMax; tp += takeProfitStep) {
+                for (double be = breakevenMin; be <= breakevenMax; be += breakevenStep) {
+                    Map<String, BigDecimal> params = new HashMap<>();
+                    params.put("stopLoss", BigDecimal.valueOf(sl));
+                    params.put("takeProfit", BigDecimal.valueOf(tp));
+                    params.put("breakeven", BigDecimal.valueOf(be));
+                    parameterCombinations.add(params);
+                }
+            }
+        }
+
+        logger.info("Начинаем оптимизацию: {} комбинаций параметров для {} тикеров",
+                parameterCombinations.size(), shares.size());
+
+        // Шаг 1: лента индикаторов и сигналов строится один раз на тикер (параллельно по тикерам).
+        // Она не зависит от множителей ATR, поэтому свечи и индикаторы больше не пересчитываются на каждую комбинацию
+        List<BacktestTimeline> timelines = buildTimelines(job, shares, days);
+
+        if (timelines.isEmpty()) {
+            throw new IllegalArgumentException("Не удалось подготовить данные ни для одного тикера");
+        }
+
+        // Шаг 2: перебор параметров - только повторное проигрывание выходов/трейлинга по готовым лентам
+        job.startStage("combinations", parameterCombinations.size());
+        List<CompletableFuture<Map<String, Object>>> optimizationFutures = parameterCombinations.stream()
+                .map(params -> CompletableFuture.supplyAsync(() -> {
+                    if (job.isCancelled()) {
+                        return null;
+                    }
+                    try {
+                        // Создаем общий счет для этой комбинации параметров
+                        BacktestLedger sharedBalance = new BacktestLedger(INITIAL_BALANCE);
+
+                        // Портфельный прогон всех тикеров с этими параметрами (слияние по времени)
+                        List<BacktestEngine.BacktestResult> results = backtestEngine.runPortfolio(
+                                timelines,
+                                sharedBalance,
+                                params.get("stopLoss"),
+                                params.get("takeProfit"),
+                                params.get("breakeven"));
+
+                        if (results.isEmpty()) {
+                            return null;
+                        }
+
+                        BigDecimal finalBalance = sharedBalance.getTotalBalance();
+                        BigDecimal totalPnL = finalBalance.subtract(INITIAL_BALANCE);
+                        int totalTrades = results.stream()
+                                .mapToInt(BacktestEngine.BacktestResult::getTotalTrades)
+                                .sum();
+
+                        Map<String, Object> result = new HashMap<>();
+                        result.put("stopLoss", params.get("stopLoss"));
+                        result.put("takeProfit", params.get("takeProfit"));
+                        result.put("breakeven", params.get("breakeven"));
+                        result.put("finalBalance", finalBalance);
+                        result.put("totalPnL", totalPnL);
+                        result.put("totalPnLPercent", totalPnL.divide(INITIAL_BALANCE, 4, RoundingMode.HALF_UP)
+                                .multiply(BigDecimal.valueOf(100)));
+                        result.put("totalTrades", totalTrades);
+                        result.put("maxDrawdown", sharedBalance.getMaxDrawdown());
+                        result.put("maxDrawdownPercent", sharedBalance.getMaxDrawdownPercent());
+
+                        return result;
+                    } catch (Exception e) {
+                        logger.error("Ошибка оптимизации для параметров {}: {}", params, e.getMessage());
+                        return null;
+                    } finally {
+                        job.itemDone(params.get("stopLoss") + "/" + params.get("takeProfit") + "/" + params.get("breakeven"));
+                    }
+                }, workerPool))
+                .collect(Collectors.toList());
+
+        // Ждем завершения всех оптимизаций
+        List<Map<String, Object>> optimizationResults = joinAll(job, optimizationFutures);
+
+        if (optimizationResults.isEmpty()) {
+            throw new IllegalArgumentException("Не удалось выполнить оптимизацию ни для одной комбинации параметров");
+        }
+
+        // Находим оптимальную комбинацию (максимальный финальный баланс)
+        Map<String, Object> bestResult = optimizationResults.stream()
+                .max(Comparator.comparing(r -> (BigDecimal) r.get("finalBalance")))
+                .orElseThrow(() -> new IllegalArgumentException("Не удалось найти оптимальную комбинацию"));
+
+        // Формируем ответ
+        Map<String, Object> bestParameters = new HashMap<>();
+        bestParameters.put("atrMultiplierStopLoss", bestResult.get("stopLoss"));
+        bestParameters.put("atrMultiplierTakeProfit", bestResult.get("takeProfit"));
+        bestParameters.put("atrMultiplierBreakeven", bestResult.get("breakeven"));
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("bestParameters", bestParameters);
+        response.put("bestResult", bestResult);
+        response.put("totalCombinations", parameterCombinations.size());
+        response.put("successfulCombinations", optimizationResults.size());
+
+        // Сортируем результаты по финальному балансу (топ-10)
+        List<Map<String, Object>> topResults = optimizationResults.stream()
+                .sorted((a, b) -> ((BigDecimal) b.get("finalBalance")).compareTo((BigDecimal) a.get("finalBalance")))
+                .limit(10)
+                .collect(Collectors.toList());
+        response.put("top10Results", topResults);
+        return response;
+    }
+
+    /**
+     * Строит ленты бэктеста параллельно по тикерам в общем пуле (порядок тикеров сохраняется).
+     */
+    private List<BacktestTimeline> buildTimelines(BacktestJob job, List<Share> shares, int days) {
+        job.startStage("tickers", shares.size());
+        List<CompletableFuture<BacktestTimeline>> futures = shares.stream()
+                .map(share -> CompletableFuture.supplyAsync(() -> {
+                    if (job.isCancelled()) {
+                        return null;
+                    }
+                    try {
+                        return backtestEngine.buildTimeline(share.getFigi(), share.getTicker(), days);
+                    } catch (Exception e) {
+                        // Пропускаем ошибки для отдельных тикеров
+                        logger.error("Ошибка подготовки данных для {}: {}", share.getTicker(), e.getMessage());
+                        return null;
+                    } finally {
+                        job.itemDone(share.getTicker());
+                    }
+                }, workerPool))
+                .collect(Collectors.toList());
+        return joinAll(job, futures);
+    }
+
+    private <T> List<T> joinAll(BacktestJob job, List<CompletableFuture<T>> futures) {
+        List<T> results = futures.stream()
+                .map(CompletableFuture::join)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        if (job.isCancelled()) {
+            throw new CancellationException("Задача " + job.getId() + " отменена");
+        }
+        return results;
+    }
+
+    private static CandleInterval parseInterval(String interval) {
+        try {
+            return CandleInterval.valueOf("CANDLE_INTERVAL_" + interval);
+        } catch (IllegalArgumentException e) {
+            return CandleInterval.CANDLE_INTERVAL_HOUR;
+        }
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @FunctionalInterface
+    private interface JobTask {
+        Map<String, Object> execute(BacktestJob job);
+    }
+}
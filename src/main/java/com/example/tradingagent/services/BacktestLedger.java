@@ -0,0 +1,130 @@
+package com.example.tradingagent.services;
+
+import com.example.tradingagent.FixedPoint;
+
+import java.math.BigDecimal;
+
+/**
+ * Общий счет бэктеста для нескольких тикеров (single-writer, без синхронизации).
+ * Используется портфельным бэктестом, где все тикеры проигрываются в одном цикле по времени.
+ * Общий баланс = свободные + заблокированные + сумма unrealized PnL по всем открытым позициям.
+ * Суммы хранятся в фиксированной точке (FixedPoint, нано-единицы): обновления на каждой свече без аллокаций.
+ * Unrealized PnL каждой позиции хранит сам вызывающий и передает прежнее значение при обновлении.
+ * Для доступа из нескольких потоков - SharedBacktestBalance.
+ */
+public class BacktestLedger {
+
+    // 0.0001 в нано-единицах: проценты просадки округляются до 4 знаков доли, как раньше в BigDecimal
+    private static final long DRAWDOWN_RATIO_STEP = 100_000L;
+
+    private final long initialBalance;
+    private long availableBalance;
+    private long lockedBalance;
+    private long unrealizedTotal;
+    private long totalBalance;
+    private long peakBalance;
+    private long maxDrawdown;
+    private long maxDrawdownPercent;
+
+    public BacktestLedger(BigDecimal initialBalance) {
+        this(FixedPoint.fromBigDecimal(initialBalance));
+    }
+
+    public BacktestLedger(long initialBalanceNanos) {
+        this.initialBalance = initialBalanceNanos;
+        this.availableBalance = initialBalanceNanos;
+        this.totalBalance = initialBalanceNanos;
+        this.peakBalance = initialBalanceNanos;
+    }
+
+    /**
+     * Открытие позиции: блокирует сумму сделки и списывает комиссию за вход.
+     *
+     * @return false, если недостаточно средств
+     */
+    public boolean openPosition(long tradeAmount, long entryCommission) {
+        if (availableBalance < tradeAmount + entryCommission) {
+            return false; // Недостаточно средств
+        }
+        availableBalance -= tradeAmount + entryCommission;
+        lockedBalance += tradeAmount;
+        recalculateTotal();
+        return true;
+    }
+
+    /**
+     * Закрытие позиции: возвращает заблокированные средства + Net PnL
+     * и убирает последнюю переоценку позиции из общего баланса.
+     */
+    public void closePosition(long lockedAmount, long netPnL, long lastUnrealizedPnL) {
+        availableBalance += lockedAmount + netPnL;
+        lockedBalance -= lockedAmount;
+        unrealizedTotal -= lastUnrealizedPnL;
+        recalculateTotal();
+    }
+
+    /**
+     * Переоценка открытой позиции по текущей цене.
+     *
+     * @param previousUnrealizedPnL прежняя переоценка этой позиции (0 сразу после открытия)
+     */
+    public void updateUnrealizedPnL(long previousUnrealizedPnL, long unrealizedPnL) {
+        unrealizedTotal += unrealizedPnL - previousUnrealizedPnL;
+        recalculateTotal();
+    }
+
+    public long getInitialBalanceNanos() {
+        return initialBalance;
+    }
+
+    public long getAvailableBalanceNanos() {
+        return availableBalance;
+    }
+
+    public long getTotalBalanceNanos() {
+        return totalBalance;
+    }
+
+    public BigDecimal getAvailableBalance() {
+        return FixedPoint.toBigDecimal(getAvailableBalanceNanos());
+    }
+
+    public BigDecimal getLockedBalance() {
+        return FixedPoint.toBigDecimal(lockedBalance);
+    }
+
+    public BigDecimal getTotalBalance() {
+        return FixedPoint.toBigDecimal(getTotalBalanceNanos());
+    }
+
+    public BigDecimal getPeakBalance() {
+        return FixedPoint.toBigDecimal(peakBalance);
+    }
+
+    public BigDecimal getMaxDrawdown() {
+        return FixedPoint.toBigDecimal(maxDrawdown);
+    }
+
+    public BigDecimal getMaxDrawdownPercent() {
+        return FixedPoint.toBigDecimal(maxDrawdownPercent);
+    }
+
+    /**
+     * Пересчет общего баланса, пика и просадки.
+     */
+    private void recalculateTotal() {
+        totalBalance = availableBalance + lockedBalance + unrealizedTotal;
+        if (totalBalance > peakBalance) {
+            peakBalance = totalBalance;
+        }
+        long drawdown = peakBalance - totalBalance;
+        if (drawdown > maxDrawdown) {
+            maxDrawdown = drawdown;
+            if (peakBalance > 0) {
+                // Новый максимум просадки бывает редко, деление здесь не влияет на цикл по свечам
+                long ratio = FixedPoint.roundToStep(FixedPoint.divide(drawdown, peakBalance), DRAWDOWN_RATIO_STEP);
+                maxDrawdownPercent = FixedPoint.times(ratio, 100);
+            }
+        }
+    }
+}
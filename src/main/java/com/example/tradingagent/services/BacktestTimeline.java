@@ -0,0 +1,97 @@
+package com.example.tradingagent.services;
+
+import com.example.tradingagent.FixedPoint;
+import ru.tinkoff.piapi.contract.v1.Instrument;
+
+import java.time.Instant;
+
+/**
+ * Предрассчитанная "лента" бэктеста по одному тикеру: для каждой M15 свечи - время, цена закрытия,
+ * признак валидности индикаторов, ATR с H1 и сигнал на вход.
+ * Цены закрытия дополнительно хранятся в фиксированной точке (FixedPoint) для денежных расчетов прогона.
+ * Ни одно из этих значений не зависит от множителей ATR, поэтому лента строится один раз,
+ * а перебор параметров только повторно проигрывает по ней логику выхода/трейлинга.
+ * После построения не изменяется и может безопасно читаться из нескольких потоков.
+ */
+public final class BacktestTimeline {
+
+    public static final byte SIGNAL_NONE = 0;
+    public static final byte SIGNAL_BUY = 1;
+    public static final byte SIGNAL_SELL = -1;
+
+    private final String figi;
+    private final String ticker;
+    private final Instrument instrument;
+    private final Instant startDate;
+    private final Instant endDate;
+    private final long[] times;
+    private final double[] close;
+    private final long[] closeNanos;
+    private final boolean[] tradable;
+    private final double[] atrH1;
+    private final byte[] signals;
+
+    BacktestTimeline(String figi, String ticker, Instrument instrument, Instant startDate, Instant endDate,
+                     long[] times, double[] close, boolean[] tradable, double[] atrH1, byte[] signals) {
+        this.figi = figi;
+        this.ticker = ticker;
+        this.instrument = instrument;
+        this.startDate = startDate;
+        this.endDate = endDate;
+        this.times = times;
+        this.close = close;
+        this.closeNanos = new long[close.length];
+        for (int i = 0; i < close.length; i++) {
+            closeNanos[i] = FixedPoint.fromDouble(close[i]);
+        }
+        this.tradable = tradable;
+        this.atrH1 = atrH1;
+        this.signals = signals;
+    }
+
+    public String getFigi() { return figi; }
+    public String getTicker() { return ticker; }
+    public Instrument getInstrument() { return instrument; }
+    public Instant getStartDate() { return startDate; }
+    public Instant getEndDate() { return endDate; }
+
+    public int size() {
+        return times.length;
+    }
+
+    public long getTime(int index) {
+        return times[index];
+    }
+
+    public double getClose(int index) {
+        return close[index];
+    }
+
+    /**
+     * Цена закрытия в нано-единицах (FixedPoint).
+     */
+    public long getCloseNanos(int index) {
+        return closeNanos[index];
+    }
+
+    /**
+     * true, если на этой свече рассчитаны и H1, и M15 индикаторы (иначе свеча пропускается целиком).
+     */
+    public boolean isTradable(int index) {
+        return tradable[index];
+    }
+
+    /**
+     * ATR-14 с H1 на момент свечи (0.0, если не рассчитан).
+     */
+    public double getAtrH1(int index) {
+        return atrH1[index];
+    }
+
+    /**
+     * Исполнимый сигнал на вход: SIGNAL_BUY, SIGNAL_SELL или SIGNAL_NONE.
+     */
+    public byte getSignal(int index) {
+        return signals[index];
+    }
+}
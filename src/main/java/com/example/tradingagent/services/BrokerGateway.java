@@ -0,0 +1,63 @@
+package com.example.tradingagent.services;
+
+import ru.tinkoff.piapi.contract.v1.Account;
+import ru.tinkoff.piapi.contract.v1.GetMarginAttributesResponse;
+import ru.tinkoff.piapi.contract.v1.Operation;
+import ru.tinkoff.piapi.contract.v1.OrderDirection;
+import ru.tinkoff.piapi.contract.v1.OrderTrades;
+import ru.tinkoff.piapi.contract.v1.OrderType;
+import ru.tinkoff.piapi.contract.v1.PostOrderResponse;
+import ru.tinkoff.piapi.contract.v1.Quotation;
+import ru.tinkoff.piapi.contract.v1.StopOrder;
+import ru.tinkoff.piapi.contract.v1.StopOrderDirection;
+import ru.tinkoff.piapi.contract.v1.StopOrderType;
+import ru.tinkoff.piapi.core.models.Portfolio;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Брокерские операции: счета, портфель, маржа, заявки и стоп-заявки.
+ * Реализация выбирается свойством market.provider вместе с MarketDataProvider.
+ */
+public interface BrokerGateway {
+
+    List<Account> getAccounts();
+
+    Portfolio getPortfolio(String accountId);
+
+    /**
+     * Подписка на поток портфеля: onUpdate получает полный портфель после каждого изменения.
+     */
+    MarketDataProvider.Subscription subscribePortfolio(String accountId, Consumer<Portfolio> onUpdate,
+                                                       Consumer<Throwable> onError);
+
+    GetMarginAttributesResponse getMarginAttributes(String accountId);
+
+    /**
+     * Исполненные операции по счету за период (для отчетов).
+     */
+    List<Operation> getExecutedOperations(String accountId, Instant from, Instant to);
+
+    /**
+     * Подписка на поток сделок по заявкам счета: onTrades получает исполнения (в том числе частичные) по orderId.
+     */
+    MarketDataProvider.Subscription subscribeOrderTrades(String accountId, Consumer<OrderTrades> onTrades,
+                                                         Consumer<Throwable> onError);
+
+    PostOrderResponse postOrder(String figi, long quantity, Quotation price, OrderDirection direction,
+                                String accountId, OrderType type, String orderId);
+
+    List<StopOrder> getStopOrders(String accountId);
+
+    void cancelStopOrder(String accountId, String stopOrderId);
+
+    /**
+     * Стоп-заявка GTC.
+     *
+     * @return идентификатор стоп-заявки
+     */
+    String postStopOrderGoodTillCancel(String figi, long quantity, Quotation price, Quotation stopPrice,
+                                       StopOrderDirection direction, String accountId, StopOrderType type);
+}
@@ -0,0 +1,156 @@
+package com.example.tradingagent.services;
+
+/**
+ * Кольцевой буфер свечей одного инструмента и одного интервала фиксированной емкости.
+ * Заполняется историей один раз (seed), дальше обновляется минутными свечами стрима:
+ * последняя свеча интервала собирается из минут, при переходе в новый интервал добавляется новая,
+ * самая старая при переполнении вытесняется. Данные хранятся в примитивных массивах,
+ * снимок отдается как CandleSeries для индикаторов. Все методы синхронизированы на буфере.
+ */
+public final class CandleRingBuffer {
+
+    private final long intervalSeconds;
+    private final int capacity;
+    private final long[] times;
+    private final double[] open;
+    private final double[] high;
+    private final double[] low;
+    private final double[] close;
+    private final double[] volume;
+    private int start;
+    private int size;
+
+    // Сборка последней свечи из минутных: base - уже закрытые минуты, currentMinute - время текущей минуты
+    private long currentMinute = -1;
+    private double baseHigh;
+    private double baseLow;
+    private double baseVolume;
+
+    public CandleRingBuffer(int capacity, long intervalSeconds) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Емкость буфера должна быть положительной");
+        }
+        this.capacity = capacity;
+        this.intervalSeconds = intervalSeconds;
+        this.times = new long[capacity];
+        this.open = new double[capacity];
+        this.high = new double[capacity];
+        this.low = new double[capacity];
+        this.close = new double[capacity];
+        this.volume = new double[capacity];
+    }
+
+    /**
+     * Заменяет содержимое историей (последние capacity свечей серии).
+     * Последняя свеча истории считается незавершенной и продолжает собираться из минут стрима;
+     * объем минуты, на которой была загружена история, может учесться дважды - для фильтра оборота это несущественно.
+     */
+    public synchronized void seed(CandleSeries series) {
+        start = 0;
+        size = 0;
+        for (int i = Math.max(0, series.size() - capacity); i < series.size(); i++) {
+            append(series.getTime(i), series.getOpen(i), series.getHigh(i), series.getLow(i),
+                    series.getClose(i), series.getVolume(i));
+        }
+        if (size > 0) {
+            int last = index(size - 1);
+            baseHigh = high[last];
+            baseLow = low[last];
+            baseVolume = volume[last];
+        }
+        currentMinute = -1;
+    }
+
+    /**
+     * Минутная свеча стрима (epoch seconds открытия минуты). Повторные обновления той же минуты заменяют предыдущие.
+     */
+    public synchronized void onMinuteCandle(long minuteTime, double o, double h, double l, double c, double v) {
+        long bucket = minuteTime - Math.floorMod(minuteTime, intervalSeconds);
+        int last = size == 0 ? -1 : index(size - 1);
+        if (last < 0 || bucket > times[last]) {
+            append(bucket, o, h, l, c, v);
+            baseHigh = Double.NEGATIVE_INFINITY;
+            baseLow = Double.POSITIVE_INFINITY;
+            baseVolume = 0;
+            currentMinute = minuteTime;
+            return;
+        }
+        if (bucket < times[last] || minuteTime < currentMinute) {
+            return; // Запоздавшее обновление уже закрытого интервала
+        }
+        if (minuteTime > currentMinute) {
+            // Предыдущая минута закрыта: ее значения уже в свече, фиксируем их как base
+            baseHigh = high[last];
+            baseLow = low[last];
+            baseVolume = volume[last];
+            currentMinute = minuteTime;
+        }
+        high[last] = Math.max(baseHigh, h);
+        low[last] = Math.min(baseLow, l);
+        close[last] = c;
+        volume[last] = baseVolume + v;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Копия свечей, открывшихся не раньше fromEpochSecond, в хронологическом порядке.
+     */
+    public synchronized CandleSeries snapshotSince(long fromEpochSecond) {
+        // Бинарный поиск первой свечи >= fromEpochSecond по логическим индексам
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[index(mid)] < fromEpochSecond) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int n = size - lo;
+        if (n == 0) {
+            return CandleSeries.empty();
+        }
+        long[] t = new long[n];
+        double[] o = new double[n];
+        double[] h = new double[n];
+        double[] l = new double[n];
+        double[] c = new double[n];
+        double[] v = new double[n];
+        for (int i = 0; i < n; i++) {
+            int idx = index(lo + i);
+            t[i] = times[idx];
+            o[i] = open[idx];
+            h[i] = high[idx];
+            l[i] = low[idx];
+            c[i] = close[idx];
+            v[i] = volume[idx];
+        }
+        return CandleSeries.of(t, o, h, l, c, v);
+    }
+
+    private void append(long time, double o, double h, double l, double c, double v) {
+        int idx;
+        if (size < capacity) {
+            idx = index(size);
+            size++;
+        } else {
+            // Буфер полон: перезаписываем самую старую свечу
+            idx = start;
+            start = (start + 1) % capacity;
+        }
+        times[idx] = time;
+        open[idx] = o;
+        high[idx] = h;
+        low[idx] = l;
+        close[idx] = c;
+        volume[idx] = v;
+    }
+
+    private int index(int logicalIndex) {
+        return (start + logicalIndex) % capacity;
+    }
+}
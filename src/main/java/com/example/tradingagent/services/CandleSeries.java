@@ -0,0 +1,136 @@
+package com.example.tradingagent.services;
+
+import com.example.tradingagent.TinkoffApiUtils;
+import ru.tinkoff.piapi.contract.v1.HistoricCandle;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Колоночное представление свечей: open/high/low/close/volume/time в параллельных примитивных массивах.
+ * Строится один раз на каждую загрузку свечей и дальше используется индикаторами и бэктестом
+ * без BigDecimal и без объектов на каждый бар.
+ * Время хранится в секундах epoch (время открытия свечи, как в HistoricCandle).
+ */
+public final class CandleSeries {
+
+    private static final CandleSeries EMPTY = new CandleSeries(new long[0], new double[0], new double[0],
+            new double[0], new double[0], new double[0], 0);
+
+    private final long[] times;
+    private final double[] open;
+    private final double[] high;
+    private final double[] low;
+    private final double[] close;
+    private final double[] volume;
+    private final int size;
+
+    private CandleSeries(long[] times, double[] open, double[] high, double[] low,
+                         double[] close, double[] volume, int size) {
+        this.times = times;
+        this.open = open;
+        this.high = high;
+        this.low = low;
+        this.close = close;
+        this.volume = volume;
+        this.size = size;
+    }
+
+    public static CandleSeries empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Конвертирует ответ API в колоночный вид (одна конвертация на загрузку).
+     */
+    public static CandleSeries fromCandles(List<HistoricCandle> candles) {
+        if (candles == null || candles.isEmpty()) {
+            return EMPTY;
+        }
+        int n = candles.size();
+        long[] times = new long[n];
+        double[] open = new double[n];
+        double[] high = new double[n];
+        double[] low = new double[n];
+        double[] close = new double[n];
+        double[] volume = new double[n];
+        for (int i = 0; i < n; i++) {
+            HistoricCandle candle = candles.get(i);
+            times[i] = candle.getTime().getSeconds();
+            open[i] = TinkoffApiUtils.quotationToDouble(candle.getOpen());
+            high[i] = TinkoffApiUtils.quotationToDouble(candle.getHigh());
+            low[i] = TinkoffApiUtils.quotationToDouble(candle.getLow());
+            close[i] = TinkoffApiUtils.quotationToDouble(candle.getClose());
+            volume[i] = candle.getVolume();
+        }
+        return new CandleSeries(times, open, high, low, close, volume, n);
+    }
+
+    /**
+     * Создает серию из готовых массивов (массивы не копируются).
+     */
+    public static CandleSeries of(long[] times, double[] open, double[] high, double[] low,
+                                  double[] close, double[] volume) {
+        int n = times.length;
+        if (open.length != n || high.length != n || low.length != n || close.length != n || volume.length != n) {
+            throw new IllegalArgumentException("Массивы свечей разной длины");
+        }
+        return new CandleSeries(times, open, high, low, close, volume, n);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long getTime(int index) {
+        return times[index];
+    }
+
+    public double getOpen(int index) {
+        return open[index];
+    }
+
+    public double getHigh(int index) {
+        return high[index];
+    }
+
+    public double getLow(int index) {
+        return low[index];
+    }
+
+    public double getClose(int index) {
+        return close[index];
+    }
+
+    public double getVolume(int index) {
+        return volume[index];
+    }
+
+    public double getLastClose() {
+        return close[size - 1];
+    }
+
+    public double getLastVolume() {
+        return volume[size - 1];
+    }
+
+    /**
+     * Количество свечей, открывшихся не позже указанного момента (epoch seconds).
+     * Бинарный поиск по отсортированному времени, без аллокаций.
+     */
+    public int countUntil(long epochSecond) {
+        int index = Arrays.binarySearch(times, 0, size, epochSecond);
+        if (index >= 0) {
+            // При дублях времени берем последнюю свечу с этим временем
+            while (index + 1 < size && times[index + 1] == epochSecond) {
+                index++;
+            }
+            return index + 1;
+        }
+        return -index - 1;
+    }
+}
@@ -1,6 +1,5 @@
 package com.example.tradingagent.services;
 
-import com.example.tradingagent.entities.PositionEntity;
 import com.example.tradingagent.repositories.PositionEntityRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,7 +10,6 @@ import java.math.BigDecimal;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneId;
-import java.util.List;
 
 /**
  * Сервис для генерации ежедневных отчетов и отправки в Telegram.
@@ -40,26 +38,13 @@ public class DailyReportService {
             Instant endOfDay = today.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant();
 
             // Получаем все закрытые позиции за сегодня
-            List<PositionEntity> allPositions = positionRepository.findByTimestampBetween(startOfDay, endOfDay);
-            List<PositionEntity> closedPositions = allPositions.stream()
-                .filter(p -> p.getExitOrder() != null)
-                .toList();
+            PositionEntityRepository.ClosedPositionSummary summary =
+                positionRepository.summarizeClosedBetween(startOfDay, endOfDay);
 
-            int totalTrades = closedPositions.size();
-            int profitableTrades = 0;
-            int losingTrades = 0;
-            BigDecimal totalPnL = BigDecimal.ZERO;
-
-            for (PositionEntity position : closedPositions) {
-                if (position.getPnlAbsolute() != null) {
-                    totalPnL = totalPnL.add(position.getPnlAbsolute());
-                    if (position.getPnlAbsolute().compareTo(BigDecimal.ZERO) > 0) {
-                        profitableTrades++;
-                    } else if (position.getPnlAbsolute().compareTo(BigDecimal.ZERO) < 0) {
-                        losingTrades++;
-                    }
-                }
-            }
+            int totalTrades = (int) summary.closedCount();
+            int profitableTrades = (int) summary.winCount();
+            int losingTrades = (int) summary.lossCount();
+            BigDecimal totalPnL = summary.pnlSum();
 
             // Отправляем отчет в Telegram
             telegramService.notifyDailyReport(totalPnL, totalTrades, profitableTrades, losingTrades);
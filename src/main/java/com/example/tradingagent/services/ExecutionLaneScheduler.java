@@ -0,0 +1,112 @@
+package com.example.tradingagent.services;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Очереди исполнения сигналов: одна последовательная очередь ("полоса") на инструмент поверх общего пула
+ * виртуальных потоков. Задачи одного FIGI выполняются строго по порядку поступления и никогда не параллельно,
+ * задачи разных FIGI - независимо друг от друга. Полоса существует, пока в ней есть задачи;
+ * глубина ожидающих задач ограничена trading.lanes.queue-capacity, сверх нее задача отклоняется.
+ */
+@Service
+public class ExecutionLaneScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExecutionLaneScheduler.class);
+
+    private final int queueCapacity;
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public ExecutionLaneScheduler(@Value("${trading.lanes.queue-capacity:8}") int queueCapacity) {
+        this.queueCapacity = Math.max(1, queueCapacity);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Ставит задачу в полосу инструмента.
+     *
+     * @throws RejectedExecutionException если в полосе уже queueCapacity ожидающих задач
+     */
+    public void submit(String figi, Runnable task) {
+        boolean[] startDrain = {false};
+        // compute атомарен по ключу: постановка и выборка (drain) не разойдутся с удалением пустой полосы
+        lanes.compute(figi, (key, lane) -> {
+            if (lane == null) {
+                lane = new Lane();
+            }
+            if (lane.pending.size() >= queueCapacity) {
+                throw new RejectedExecutionException(
+                        "Очередь сигналов по " + key + " переполнена (" + queueCapacity + ")");
+            }
+            lane.pending.add(task);
+            if (!lane.draining) {
+                lane.draining = true;
+                startDrain[0] = true;
+            }
+            return lane;
+        });
+        if (startDrain[0]) {
+            executor.execute(() -> drain(figi));
+        }
+    }
+
+    /**
+     * Ожидающих задач по инструменту (без выполняемой).
+     */
+    public int getQueueDepth(String figi) {
+        int[] depth = {0};
+        lanes.computeIfPresent(figi, (key, lane) -> {
+            depth[0] = lane.pending.size();
+            return lane;
+        });
+        return depth[0];
+    }
+
+    public int getActiveLanes() {
+        return lanes.size();
+    }
+
+    private void drain(String figi) {
+        Runnable task;
+        while ((task = next(figi)) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                logger.error("Ошибка задачи в очереди {}: ", figi, e);
+            }
+        }
+    }
+
+    /**
+     * Следующая задача полосы; если задач нет - полоса удаляется, и следующий submit запустит новую.
+     */
+    private Runnable next(String figi) {
+        Runnable[] next = {null};
+        lanes.computeIfPresent(figi, (key, lane) -> {
+            next[0] = lane.pending.poll();
+            return next[0] == null ? null : lane;
+        });
+        return next[0];
+    }
+
+    private static final class Lane {
+        // Изменяется только внутри compute/computeIfPresent по своему ключу
+        final ArrayDeque<Runnable> pending = new ArrayDeque<>();
+        boolean draining;
+    }
+}
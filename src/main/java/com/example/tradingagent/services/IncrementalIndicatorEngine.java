@@ -0,0 +1,278 @@
+package com.example.tradingagent.services;
+
+import com.example.tradingagent.TinkoffApiUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.tinkoff.piapi.contract.v1.HistoricCandle;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Потоковый (инкрементальный) расчет индикаторов: RSI-14, MACD(12,26,9), ATR-14, EMA-100, ADX-14.
+ * Каждый новый бар обновляет состояние за O(1), без пересборки BarSeries.
+ * Формулы повторяют ta4j (EMA/MMA со стартом от первого значения, TR/DM как в ta4j),
+ * поэтому значения совпадают с прежним расчетом через ta4j BarSeries на той же истории.
+ * Экземпляр не потокобезопасен: один движок на один тикер и один таймфрейм.
+ */
+public class IncrementalIndicatorEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(IncrementalIndicatorEngine.class);
+
+    // Минимум свечей для расчета (как в TechnicalIndicatorService)
+    public static final int MIN_BARS = 120;
+
+    private static final int RSI_PERIOD = 14;
+    private static final int MACD_SHORT = 12;
+    private static final int MACD_LONG = 26;
+    private static final int MACD_SIGNAL = 9;
+    private static final int ATR_PERIOD = 14;
+    private static final int EMA_PERIOD = 100;
+    private static final int ADX_PERIOD = 14;
+    // Первый валидный ADX в ta4j ищется начиная с индекса 2 * period
+    private static final int MIN_INDEX_FOR_ADX = 2 * ADX_PERIOD;
+    // Цены кратны 1e-9 (Quotation): движения +DM/-DM, различающиеся меньше, - ошибка округления double, а не разница
+    private static final double MOVE_EPSILON = 1e-10;
+
+    private final MovingAverage avgGain = MovingAverage.mma(RSI_PERIOD);
+    private final MovingAverage avgLoss = MovingAverage.mma(RSI_PERIOD);
+    private final MovingAverage emaShort = MovingAverage.ema(MACD_SHORT);
+    private final MovingAverage emaLong = MovingAverage.ema(MACD_LONG);
+    private final MovingAverage macdSignal = MovingAverage.ema(MACD_SIGNAL);
+    private final MovingAverage atr = MovingAverage.mma(ATR_PERIOD);
+    private final MovingAverage ema100 = MovingAverage.ema(EMA_PERIOD);
+    // ADX: сглаженные +DM/-DM, собственный ATR для DI и сглаженный DX
+    private final MovingAverage avgPlusDm = MovingAverage.mma(ADX_PERIOD);
+    private final MovingAverage avgMinusDm = MovingAverage.mma(ADX_PERIOD);
+    private final MovingAverage adxAtr = MovingAverage.mma(ADX_PERIOD);
+    private final MovingAverage adx = MovingAverage.mma(ADX_PERIOD);
+
+    private int barCount = 0;
+    private double prevHigh;
+    private double prevLow;
+    private double prevClose;
+    private double close;
+
+    private double rsi = Double.NaN;
+    private double rsiPrevious = Double.NaN;
+    private double macdLine = Double.NaN;
+    private double macdSignalValue = Double.NaN;
+    private double macdHist = Double.NaN;
+    private double macdHistPrevious = Double.NaN;
+    private double lastValidAdx = Double.NaN;
+
+    /**
+     * Добавляет свечу из API.
+     */
+    public void addBar(HistoricCandle candle) {
+        addBar(
+                TinkoffApiUtils.quotationToDouble(candle.getOpen()),
+                TinkoffApiUtils.quotationToDouble(candle.getHigh()),
+                TinkoffApiUtils.quotationToDouble(candle.getLow()),
+                TinkoffApiUtils.quotationToDouble(candle.getClose())
+        );
+    }
+
+    /**
+     * Добавляет бар из колоночной серии.
+     */
+    public void addBar(CandleSeries series, int index) {
+        addBar(series.getOpen(index), series.getHigh(index), series.getLow(index), series.getClose(index));
+    }
+
+    /**
+     * Добавляет бар и обновляет все индикаторы за O(1).
+     */
+    public void addBar(double open, double high, double low, double close) {
+        boolean first = barCount == 0;
+
+        // RSI: Gain/Loss относительно предыдущего закрытия, сглаживание MMA
+        double gain = first ? 0 : Math.max(close - prevClose, 0);
+        double loss = first ? 0 : Math.max(prevClose - close, 0);
+        double averageGain = avgGain.update(gain);
+        double averageLoss = avgLoss.update(loss);
+        rsiPrevious = rsi;
+        if (averageLoss == 0) {
+            rsi = averageGain == 0 ? 0 : 100;
+        } else {
+            rsi = 100 - 100 / (1 + averageGain / averageLoss);
+        }
+
+        // MACD и сигнальная линия
+        macdLine = emaShort.update(close) - emaLong.update(close);
+        macdSignalValue = macdSignal.update(macdLine);
+        macdHistPrevious = macdHist;
+        macdHist = macdLine - macdSignalValue;
+
+        // True Range (как TRIndicator в ta4j: для первого бара только High - Low)
+        double tr = Math.abs(high - low);
+        if (!first) {
+            tr = Math.max(tr, Math.max(Math.abs(high - prevClose), Math.abs(prevClose - low)));
+        }
+        atr.update(tr);
+        ema100.update(close);
+
+        // ADX: +DM/-DM -> +DI/-DI -> DX -> MMA(DX)
+        double plusDm = 0;
+        double minusDm = 0;
+        if (!first) {
+            double upMove = high - prevHigh;
+            double downMove = prevLow - low;
+            // Равные движения (в ta4j сравниваются точно) не дают ни +DM, ни -DM
+            if (upMove - downMove > MOVE_EPSILON && upMove > 0) {
+                plusDm = upMove;
+            }
+            if (downMove - upMove > MOVE_EPSILON && downMove > 0) {
+                minusDm = downMove;
+            }
+        }
+        double diAtr = adxAtr.update(tr);
+        double plusDi = divide(avgPlusDm.update(plusDm), diAtr) * 100;
+        double minusDi = divide(avgMinusDm.update(minusDm), diAtr) * 100;
+        double diSum = plusDi + minusDi;
+        double dx = diSum == 0 ? 0 : divide(Math.abs(plusDi - minusDi), diSum) * 100;
+        double adxValue = adx.update(dx);
+        if (barCount >= MIN_INDEX_FOR_ADX && isValidAdx(adxValue)) {
+            lastValidAdx = adxValue;
+        }
+
+        prevHigh = high;
+        prevLow = low;
+        prevClose = close;
+        this.close = close;
+        barCount++;
+    }
+
+    public int getBarCount() {
+        return barCount;
+    }
+
+    // Сырые значения на последнем баре (без валидации getIndicators) - для сверки с ta4j
+
+    public double getRsi() {
+        return rsi;
+    }
+
+    public double getMacd() {
+        return macdLine;
+    }
+
+    public double getMacdSignal() {
+        return macdSignalValue;
+    }
+
+    public double getMacdHist() {
+        return macdHist;
+    }
+
+    public double getAtr() {
+        return atr.value();
+    }
+
+    public double getEma100() {
+        return ema100.value();
+    }
+
+    public double getAdx() {
+        return adx.value();
+    }
+
+    /**
+     * Возвращает индикаторы в том же формате и с той же валидацией, что и
+     * TechnicalIndicatorService.calculateIndicators. Пустая карта - данных недостаточно.
+     */
+    public Map<String, Double> getIndicators(String ticker) {
+        Map<String, Double> indicators = new HashMap<>();
+        if (barCount < MIN_BARS) {
+            return indicators;
+        }
+
+        if (Double.isNaN(rsi) || Double.isInfinite(rsi) || rsi <= 0 || rsi >= 100) {
+            logger.debug("Невалидный RSI для {}: {}", ticker, rsi);
+            return indicators;
+        }
+        indicators.put("rsi_14", rsi);
+        indicators.put("rsi_14_previous", rsiPrevious);
+
+        if (Double.isNaN(macdHist) || Double.isInfinite(macdHist)) {
+            logger.debug("Невалидный MACD для {}: {}", ticker, macdHist);
+            return indicators;
+        }
+        indicators.put("macd_hist", macdHist);
+        indicators.put("macd_hist_previous", macdHistPrevious);
+
+        double atrValue = atr.value();
+        if (Double.isNaN(atrValue) || Double.isInfinite(atrValue) || atrValue <= 0) {
+            logger.debug("Невалидный ATR для {}: {}", ticker, atrValue);
+            return indicators;
+        }
+        indicators.put("atr_14", atrValue);
+
+        if (Double.isNaN(close) || Double.isInfinite(close) || close <= 0) {
+            logger.debug("Невалидная цена для {}: {}", ticker, close);
+            return indicators;
+        }
+        double emaValue = ema100.value();
+        if (!Double.isNaN(emaValue) && !Double.isInfinite(emaValue)) {
+            indicators.put("ema_100", emaValue);
+        }
+        indicators.put("current_price", close);
+
+        // ADX не добавляется, если не найдено ни одного валидного значения (плоский рынок)
+        if (!Double.isNaN(lastValidAdx)) {
+            indicators.put("adx_14", lastValidAdx);
+        }
+        return indicators;
+    }
+
+    private static boolean isValidAdx(double value) {
+        return !Double.isNaN(value) && !Double.isInfinite(value) && value >= 0 && value <= 100;
+    }
+
+    /**
+     * Деление с семантикой ta4j: деление на ноль дает NaN, а не Infinity.
+     */
+    private static double divide(double dividend, double divisor) {
+        if (divisor == 0 || Double.isNaN(divisor)) {
+            return Double.NaN;
+        }
+        return dividend / divisor;
+    }
+
+    /**
+     * Экспоненциальное сглаживание в стиле ta4j AbstractEMAIndicator:
+     * первое значение равно первому входу, далее prev + (x - prev) * multiplier.
+     * EMA: multiplier = 2 / (n + 1), MMA (Wilder): multiplier = 1 / n.
+     */
+    private static final class MovingAverage {
+        private final double multiplier;
+        private double value = Double.NaN;
+        private boolean initialized = false;
+
+        private MovingAverage(double multiplier) {
+            this.multiplier = multiplier;
+        }
+
+        static MovingAverage ema(int barCount) {
+            return new MovingAverage(2.0 / (barCount + 1));
+        }
+
+        static MovingAverage mma(int barCount) {
+            return new MovingAverage(1.0 / barCount);
+        }
+
+        double update(double input) {
+            if (!initialized) {
+                value = input;
+                initialized = true;
+            } else {
+                value = (input - value) * multiplier + value;
+            }
+            return value;
+        }
+
+        double value() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.tradingagent.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ru.tinkoff.piapi.contract.v1.Instrument;
+import ru.tinkoff.piapi.contract.v1.Share;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Общий справочник инструментов: список акций загружается один раз и индексируется по FIGI и тикеру,
+ * полные данные инструмента (лот, шаг цены, флаги шорта и маржи) кешируются при первом обращении.
+ * Справочник обновляется по расписанию (instruments.refresh-interval-ms), между обновлениями
+ * поиск - O(1) без обращений к API. Снимок индексов неизменяемый и подменяется целиком.
+ */
+@Service
+public class InstrumentRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(InstrumentRegistry.class);
+
+    private final MarketDataProvider marketDataProvider;
+    private final Map<String, Instrument> instrumentsByFigi = new ConcurrentHashMap<>();
+    private volatile Snapshot snapshot;
+
+    public InstrumentRegistry(MarketDataProvider marketDataProvider) {
+        this.marketDataProvider = marketDataProvider;
+    }
+
+    /**
+     * Все акции (базовый список), в порядке ответа API.
+     */
+    public List<Share> getShares() {
+        return snapshot().shares();
+    }
+
+    public Share getShareByFigi(String figi) {
+        return snapshot().sharesByFigi().get(figi);
+    }
+
+    /**
+     * Акция по тикеру (без учета регистра) или null.
+     */
+    public Share getShareByTicker(String ticker) {
+        return ticker == null ? null : snapshot().sharesByTicker().get(ticker.toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Полные данные инструмента. Первый запрос по FIGI идет в API, дальше - из кеша.
+     */
+    public Instrument getInstrument(String figi) {
+        Instrument instrument = instrumentsByFigi.get(figi);
+        if (instrument == null) {
+            instrument = marketDataProvider.getInstrumentByFigi(figi);
+            instrumentsByFigi.put(figi, instrument);
+        }
+        return instrument;
+    }
+
+    /**
+     * Тикер по FIGI; если инструмент неизвестен - сам FIGI.
+     */
+    public String getTicker(String figi) {
+        Share share = getShareByFigi(figi);
+        if (share != null) {
+            return share.getTicker();
+        }
+        try {
+            return getInstrument(figi).getTicker();
+        } catch (Exception e) {
+            return figi;
+        }
+    }
+
+    /**
+     * Перезагрузка справочника. При ошибке API остается предыдущий снимок.
+     */
+    @Scheduled(fixedDelayString = "${instruments.refresh-interval-ms:21600000}",
+            initialDelayString = "${instruments.refresh-interval-ms:21600000}")
+    public void refresh() {
+        try {
+            snapshot = load();
+            // Кешированные инструменты перечитываем, чтобы не терять O(1) на горячем пути
+            for (String figi : List.copyOf(instrumentsByFigi.keySet())) {
+                instrumentsByFigi.put(figi, marketDataProvider.getInstrumentByFigi(figi));
+            }
+            logger.info("Справочник инструментов обновлен: {} акций, {} инструментов в кеше",
+                    snapshot.shares().size(), instrumentsByFigi.size());
+        } catch (Exception e) {
+            logger.error("Не удалось обновить справочник инструментов: {}", e.getMessage());
+        }
+    }
+
+    private Snapshot snapshot() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            synchronized (this) {
+                current = snapshot;
+                if (current == null) {
+                    current = load();
+                    snapshot = current;
+                    logger.info("Справочник инструментов загружен: {} акций", current.shares().size());
+                }
+            }
+        }
+        return current;
+    }
+
+    private Snapshot load() {
+        List<Share> shares = List.copyOf(marketDataProvider.getShares());
+        Map<String, Share> byFigi = new HashMap<>(shares.size() * 2);
+        Map<String, Share> byTicker = new HashMap<>(shares.size() * 2);
+        for (Share share : shares) {
+            byFigi.put(share.getFigi(), share);
+            // При совпадении тикера на разных площадках оставляем первый (как findFirst раньше)
+            byTicker.putIfAbsent(share.getTicker().toUpperCase(Locale.ROOT), share);
+        }
+        return new Snapshot(shares, byFigi, byTicker);
+    }
+
+    private record Snapshot(List<Share> shares, Map<String, Share> sharesByFigi, Map<String, Share> sharesByTicker) {
+    }
+}
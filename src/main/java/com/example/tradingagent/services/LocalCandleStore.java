@@ -0,0 +1,432 @@
+package com.example.tradingagent.services;
+
+import com.google.protobuf.Timestamp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ru.tinkoff.piapi.contract.v1.CandleInterval;
+import ru.tinkoff.piapi.contract.v1.HistoricCandle;
+import ru.tinkoff.piapi.contract.v1.Quotation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Локальное хранилище свечей на диске с инкрементальной синхронизацией.
+ * Ключ - FIGI + интервал. Данные лежат в append-only сегментах (один файл на месяц)
+ * с записями фиксированной длины, чтение идет через memory-mapped файлы.
+ * При запросе из API догружается только недостающее - "хвост" после сохраненной истории или "голова" перед ней
+ * (голова дописывается в начало сегментов), остальное отдается с диска.
+ * В хранилище попадают только завершенные свечи (isComplete), текущая свеча всегда берется из API.
+ */
+@Service
+public class LocalCandleStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalCandleStore.class);
+
+    // time(8) + 4 x (units(8) + nano(4)) + volume(8) + резерв(8)
+    private static final int RECORD_SIZE = 72;
+    private static final int META_SIZE = 16;
+    private static final String META_FILE = "coverage.bin";
+    private static final String SEGMENT_PREFIX = "seg-";
+    private static final String SEGMENT_SUFFIX = ".bin";
+    private static final DateTimeFormatter SEGMENT_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+
+    /**
+     * Источник недостающих свечей (обычно - вызов API).
+     */
+    @FunctionalInterface
+    public interface CandleFetcher {
+        List<HistoricCandle> fetch(Instant from, Instant to);
+    }
+
+    private final boolean enabled;
+    private final Path rootDir;
+    private final ConcurrentHashMap<String, ReentrantLock> locks = new ConcurrentHashMap<>();
+
+    public LocalCandleStore(@Value("${candles.store.enabled:true}") boolean enabled,
+                            @Value("${candles.store.dir:data/candles}") String rootDir) {
+        this.enabled = enabled;
+        this.rootDir = Paths.get(rootDir);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Возвращает свечи за [from, to): с диска то, что уже есть, из API - только недостающее.
+     */
+    public List<HistoricCandle> getCandles(String figi, CandleInterval interval, Instant from, Instant to,
+                                           CandleFetcher fetcher) {
+        if (!enabled) {
+            return fetcher.fetch(from, to);
+        }
+        Path dir = rootDir.resolve(figi).resolve(interval.name());
+        ReentrantLock lock = locks.computeIfAbsent(dir.toString(), k -> new ReentrantLock());
+        lock.lock();
+        try {
+            return syncAndRead(dir, interval, from, to, fetcher);
+        } catch (IOException | UncheckedIOException e) {
+            logger.error("Ошибка локального хранилища свечей {} {}, запрос напрямую в API: {}",
+                    figi, interval, e.getMessage());
+            return fetcher.fetch(from, to);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Только чтение сохраненных свечей за [from, to), без обращения к API (для локального режима).
+     *
+     * @return свечи или null, если период не покрыт сохраненной историей целиком
+     */
+    public List<HistoricCandle> readStored(String figi, CandleInterval interval, Instant from, Instant to) {
+        if (!enabled) {
+            return null;
+        }
+        Path dir = rootDir.resolve(figi).resolve(interval.name());
+        ReentrantLock lock = locks.computeIfAbsent(dir.toString(), k -> new ReentrantLock());
+        lock.lock();
+        try {
+            long[] coverage = readCoverage(dir);
+            if (coverage == null || from.getEpochSecond() < coverage[0] || to.getEpochSecond() > coverage[1]) {
+                return null;
+            }
+            return readRange(dir, from.getEpochSecond(), to.getEpochSecond());
+        } catch (IOException | UncheckedIOException e) {
+            logger.warn("Ошибка чтения локального хранилища свечей {} {}: {}", figi, interval, e.getMessage());
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<HistoricCandle> syncAndRead(Path dir, CandleInterval interval, Instant from, Instant to,
+                                             CandleFetcher fetcher) throws IOException {
+        long fromSec = from.getEpochSecond();
+        long toSec = to.getEpochSecond();
+        long[] coverage = readCoverage(dir);
+
+        // Первая загрузка: грузим период целиком
+        if (coverage == null) {
+            List<HistoricCandle> candles = fetcher.fetch(from, to);
+            resetDir(dir);
+            long lastStored = appendComplete(dir, candles, Long.MIN_VALUE);
+            writeCoverage(dir, fromSec, coveredUntil(candles, interval, fromSec, toSec, lastStored));
+            return candles;
+        }
+
+        long coveredFrom = coverage[0];
+        long coveredTo = coverage[1];
+        // Запрос глубже сохраненной истории: догружаем только [from, coveredFrom), более новые свечи остаются
+        if (fromSec < coveredFrom) {
+            List<HistoricCandle> head = fetcher.fetch(from, Instant.ofEpochSecond(coveredFrom));
+            prependComplete(dir, head, Math.min(coveredFrom, firstStoredTime(dir)));
+            coveredFrom = fromSec;
+            writeCoverage(dir, coveredFrom, coveredTo);
+        }
+
+        List<HistoricCandle> tail = List.of();
+        if (toSec > coveredTo) {
+            try {
+                tail = fetcher.fetch(Instant.ofEpochSecond(coveredTo), to);
+                long lastStored = appendComplete(dir, tail, lastStoredTime(dir));
+                coveredTo = Math.max(coveredTo, coveredUntil(tail, interval, coveredTo, toSec, lastStored));
+                writeCoverage(dir, coveredFrom, coveredTo);
+            } catch (RuntimeException e) {
+                // Офлайн-режим: отдаем то, что есть на диске
+                logger.warn("Не удалось догрузить свечи из API, используются локальные данные: {}", e.getMessage());
+            }
+        }
+
+        List<HistoricCandle> result = readRange(dir, fromSec, Math.min(toSec, coveredTo));
+        long lastTime = result.isEmpty() ? Long.MIN_VALUE : result.get(result.size() - 1).getTime().getSeconds();
+        for (HistoricCandle candle : tail) {
+            long time = candle.getTime().getSeconds();
+            if (time > lastTime && time >= fromSec && time < toSec) {
+                result.add(candle);
+                lastTime = time;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Граница, до которой история гарантированно полная (epoch seconds, не включительно).
+     */
+    private long coveredUntil(List<HistoricCandle> candles, CandleInterval interval,
+                              long requestedFrom, long requestedTo, long lastStored) {
+        for (HistoricCandle candle : candles) {
+            if (!candle.getIsComplete()) {
+                return candle.getTime().getSeconds();
+            }
+        }
+        if (lastStored == Long.MIN_VALUE) {
+            return requestedFrom;
+        }
+        return Math.min(requestedTo, lastStored + intervalSeconds(interval));
+    }
+
+    private long appendComplete(Path dir, List<HistoricCandle> candles, long lastStored) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        String currentSegment = null;
+        FileChannel channel = null;
+        try {
+            for (HistoricCandle candle : candles) {
+                long time = candle.getTime().getSeconds();
+                if (!candle.getIsComplete() || time <= lastStored) {
+                    continue;
+                }
+                String segment = segmentName(time);
+                if (!segment.equals(currentSegment)) {
+                    if (channel != null) {
+                        channel.close();
+                    }
+                    channel = openForAppend(dir.resolve(segment));
+                    currentSegment = segment;
+                }
+                record.clear();
+                putRecord(record, candle);
+                record.flip();
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+                lastStored = time;
+            }
+        } finally {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+        return lastStored;
+    }
+
+    /**
+     * Дописывает завершенные свечи старше before в начало сегментов: сегмент переписывается целиком
+     * (новые записи + прежнее содержимое) через временный файл.
+     */
+    private void prependComplete(Path dir, List<HistoricCandle> candles, long before) throws IOException {
+        Files.createDirectories(dir);
+        String currentSegment = null;
+        ByteBuffer head = null;
+        for (HistoricCandle candle : candles) {
+            long time = candle.getTime().getSeconds();
+            if (!candle.getIsComplete() || time >= before) {
+                continue;
+            }
+            String segment = segmentName(time);
+            if (!segment.equals(currentSegment)) {
+                if (head != null) {
+                    prependSegment(dir.resolve(currentSegment), head);
+                }
+                head = ByteBuffer.allocate(candles.size() * RECORD_SIZE);
+                currentSegment = segment;
+            }
+            putRecord(head, candle);
+        }
+        if (head != null) {
+            prependSegment(dir.resolve(currentSegment), head);
+        }
+    }
+
+    private void prependSegment(Path segment, ByteBuffer head) throws IOException {
+        byte[] existing = Files.exists(segment) ? Files.readAllBytes(segment) : new byte[0];
+        int validSize = existing.length - existing.length % RECORD_SIZE;
+        Path tmp = segment.resolveSibling(segment.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            head.flip();
+            ByteBuffer tail = ByteBuffer.wrap(existing, 0, validSize);
+            while (head.hasRemaining() || tail.hasRemaining()) {
+                channel.write(new ByteBuffer[]{head, tail});
+            }
+        }
+        Files.move(tmp, segment, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private FileChannel openForAppend(Path segment) throws IOException {
+        FileChannel channel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // Обрезаем недописанную запись (например, после аварийного завершения)
+        long size = channel.size();
+        long validSize = size - size % RECORD_SIZE;
+        if (validSize != size) {
+            channel.truncate(validSize);
+        }
+        channel.position(validSize);
+        return channel;
+    }
+
+    private List<HistoricCandle> readRange(Path dir, long fromSec, long toSec) throws IOException {
+        List<HistoricCandle> result = new ArrayList<>();
+        if (toSec <= fromSec) {
+            return result;
+        }
+        String firstSegment = segmentName(fromSec);
+        String lastSegment = segmentName(toSec - 1);
+        for (Path segment : listSegments(dir)) {
+            String name = segment.getFileName().toString();
+            if (name.compareTo(firstSegment) < 0 || name.compareTo(lastSegment) > 0) {
+                continue;
+            }
+            MappedByteBuffer buffer = map(segment);
+            int count = buffer.capacity() / RECORD_SIZE;
+            for (int i = firstRecordAtOrAfter(buffer, count, fromSec); i < count; i++) {
+                int offset = i * RECORD_SIZE;
+                long time = buffer.getLong(offset);
+                if (time >= toSec) {
+                    break;
+                }
+                result.add(HistoricCandle.newBuilder()
+                        .setTime(Timestamp.newBuilder().setSeconds(time).build())
+                        .setOpen(getQuotation(buffer, offset + 8))
+                        .setHigh(getQuotation(buffer, offset + 20))
+                        .setLow(getQuotation(buffer, offset + 32))
+                        .setClose(getQuotation(buffer, offset + 44))
+                        .setVolume(buffer.getLong(offset + 56))
+                        .setIsComplete(true)
+                        .build());
+            }
+        }
+        return result;
+    }
+
+    private int firstRecordAtOrAfter(MappedByteBuffer buffer, int count, long time) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (buffer.getLong(mid * RECORD_SIZE) < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private long firstStoredTime(Path dir) throws IOException {
+        for (Path segment : listSegments(dir)) {
+            MappedByteBuffer buffer = map(segment);
+            if (buffer.capacity() >= RECORD_SIZE) {
+                return buffer.getLong(0);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private long lastStoredTime(Path dir) throws IOException {
+        List<Path> segments = listSegments(dir);
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            MappedByteBuffer buffer = map(segments.get(i));
+            int count = buffer.capacity() / RECORD_SIZE;
+            if (count > 0) {
+                return buffer.getLong((count - 1) * RECORD_SIZE);
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+
+    private MappedByteBuffer map(Path segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            long size = channel.size() - channel.size() % RECORD_SIZE;
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    private List<Path> listSegments(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            return files
+                    .filter(p -> {
+                        String name = p.getFileName().toString();
+                        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+                    })
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private long[] readCoverage(Path dir) throws IOException {
+        Path meta = dir.resolve(META_FILE);
+        if (!Files.exists(meta)) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(meta));
+        if (buffer.remaining() < META_SIZE) {
+            return null;
+        }
+        return new long[]{buffer.getLong(), buffer.getLong()};
+    }
+
+    private void writeCoverage(Path dir, long coveredFrom, long coveredTo) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(META_SIZE);
+        buffer.putLong(coveredFrom).putLong(coveredTo);
+        Path tmp = dir.resolve(META_FILE + ".tmp");
+        Files.write(tmp, buffer.array());
+        Files.move(tmp, dir.resolve(META_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void resetDir(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        for (Path segment : listSegments(dir)) {
+            Files.delete(segment);
+        }
+        Files.deleteIfExists(dir.resolve(META_FILE));
+    }
+
+    private static String segmentName(long epochSecond) {
+        YearMonth month = YearMonth.from(Instant.ofEpochSecond(epochSecond).atZone(ZoneOffset.UTC));
+        return SEGMENT_PREFIX + month.format(SEGMENT_FORMAT) + SEGMENT_SUFFIX;
+    }
+
+    private static void putRecord(ByteBuffer buffer, HistoricCandle candle) {
+        buffer.putLong(candle.getTime().getSeconds());
+        putQuotation(buffer, candle.getOpen());
+        putQuotation(buffer, candle.getHigh());
+        putQuotation(buffer, candle.getLow());
+        putQuotation(buffer, candle.getClose());
+        buffer.putLong(candle.getVolume());
+        buffer.putLong(0L);
+    }
+
+    private static void putQuotation(ByteBuffer buffer, Quotation quotation) {
+        buffer.putLong(quotation.getUnits());
+        buffer.putInt(quotation.getNano());
+    }
+
+    private static Quotation getQuotation(ByteBuffer buffer, int offset) {
+        return Quotation.newBuilder()
+                .setUnits(buffer.getLong(offset))
+                .setNano(buffer.getInt(offset + 8))
+                .build();
+    }
+
+    private static long intervalSeconds(CandleInterval interval) {
+        return switch (interval) {
+            case CANDLE_INTERVAL_1_MIN -> 60;
+            case CANDLE_INTERVAL_5_MIN -> 300;
+            case CANDLE_INTERVAL_15_MIN -> 900;
+            case CANDLE_INTERVAL_HOUR -> 3600;
+            case CANDLE_INTERVAL_DAY -> 86400;
+            // Для прочих интервалов берем минимальный шаг: лишний раз догрузим хвост, но не пропустим свечи
+            default -> 60;
+        };
+    }
+}
@@ -0,0 +1,567 @@
+package com.example.tradingagent.services;
+
+import com.example.tradingagent.FixedPoint;
+import com.example.tradingagent.TinkoffApiUtils;
+import com.google.protobuf.Timestamp;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.tinkoff.piapi.contract.v1.*;
+import ru.tinkoff.piapi.core.models.Portfolio;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Внутрипроцессная биржа и брокер для работы без сети и токена (market.provider=local).
+ * Свечи берутся из LocalCandleStore, если запрошенный период записан целиком (market.local.recorded=true),
+ * иначе генерируются детерминированно (SyntheticMarketData). Последняя цена и стакан всегда берутся из синтетической модели.
+ * Для нагрузочных тестов к списку добавляется синтетическая вселенная (market.local.synthetic-instruments=N).
+ * Брокер ведет один счет в памяти: рыночные заявки исполняются сразу по лучшей цене стакана,
+ * стоп-заявки срабатывают при запросе последних цен. Задержка каждого вызова настраивается,
+ * чтобы нагрузочно проверять конвейер scan -> signal -> order с реалистичными таймингами.
+ */
+@Component
+@ConditionalOnProperty(name = "market.provider", havingValue = "local")
+public class LocalMarketSimulator implements MarketDataProvider, BrokerGateway {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalMarketSimulator.class);
+
+    static final String ACCOUNT_ID = "local-account";
+    private static final String CURRENCY = "rub";
+    private static final String FIGI_PREFIX = "LOCAL_";
+    private static final String SYNTHETIC_FIGI_PREFIX = "SYNTH";
+    private static final String SYNTHETIC_TICKER_PREFIX = "SYN";
+    private static final long MIN_PRICE_INCREMENT = FixedPoint.fromDouble(0.01);
+    private static final long COMMISSION_RATE = FixedPoint.fromDouble(0.0005);
+
+    private final LocalCandleStore candleStore;
+    private final SyntheticMarketData syntheticData;
+    private final boolean useRecorded;
+    private final long latencyMillis;
+    private final long latencyJitterMillis;
+    private final long streamPeriodMillis;
+    private final ScheduledExecutorService streamScheduler;
+
+    private final Map<String, Instrument> instrumentsByFigi = new LinkedHashMap<>();
+
+    // Состояние счета (все изменения под this)
+    private long cash;
+    private final Map<String, LocalPosition> positions = new LinkedHashMap<>();
+    private final Map<String, StopOrder> stopOrders = new LinkedHashMap<>();
+    private final List<Operation> operations = new ArrayList<>();
+    private final List<Consumer<Portfolio>> portfolioListeners = new CopyOnWriteArrayList<>();
+    private final List<Consumer<OrderTrades>> tradeListeners = new CopyOnWriteArrayList<>();
+
+    public LocalMarketSimulator(LocalCandleStore candleStore,
+                                @Value("${market.local.seed:42}") long seed,
+                                @Value("${market.local.recorded:true}") boolean useRecorded,
+                                @Value("${market.local.latency-ms:0}") long latencyMillis,
+                                @Value("${market.local.latency-jitter-ms:0}") long latencyJitterMillis,
+                                @Value("${market.local.initial-cash:1000000}") long initialCash,
+                                @Value("${market.local.instruments:}") String instruments,
+                                @Value("${market.local.synthetic-instruments:0}") int syntheticInstruments,
+                                @Value("${market.local.stream-period-ms:1000}") long streamPeriodMillis) {
+        this.candleStore = candleStore;
+        this.syntheticData = new SyntheticMarketData(seed);
+        this.useRecorded = useRecorded;
+        this.latencyMillis = latencyMillis;
+        this.latencyJitterMillis = latencyJitterMillis;
+        this.streamPeriodMillis = streamPeriodMillis;
+        this.streamScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "local-market-stream");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.cash = FixedPoint.ofUnits(initialCash);
+        registerInstruments(instruments);
+        registerSyntheticInstruments(syntheticInstruments);
+        logger.info("Локальный рынок: {} инструментов, задержка {}±{} мс, записанные свечи: {}",
+                instrumentsByFigi.size(), latencyMillis, latencyJitterMillis, useRecorded);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        streamScheduler.shutdownNow();
+    }
+
+    /**
+     * Формат: TICKER или TICKER:FIGI через запятую (FIGI нужен, чтобы брать записанные свечи).
+     * По умолчанию - список blue chips из TinkoffInstrumentsService с FIGI вида LOCAL_TICKER.
+     */
+    private void registerInstruments(String instruments) {
+        List<String> entries = instruments == null || instruments.isBlank()
+                ? TinkoffInstrumentsService.BLUE_CHIPS_TICKERS
+                : Arrays.stream(instruments.split(",")).map(String::trim).filter(s -> !s.isEmpty()).toList();
+        for (String entry : entries) {
+            int separator = entry.indexOf(':');
+            String ticker = separator < 0 ? entry : entry.substring(0, separator);
+            String figi = separator < 0 ? FIGI_PREFIX + ticker : entry.substring(separator + 1);
+            registerInstrument(figi, ticker);
+        }
+    }
+
+    /**
+     * Дополнительная синтетическая вселенная для нагрузочных тестов: count инструментов
+     * с тикерами SYN00001... и FIGI SYNTH0000001... Свечи и стаканы по ним всегда синтетические.
+     */
+    private void registerSyntheticInstruments(int count) {
+        for (int i = 1; i <= count; i++) {
+            registerInstrument(String.format("%s%07d", SYNTHETIC_FIGI_PREFIX, i), String.format("%s%05d", SYNTHETIC_TICKER_PREFIX, i));
+        }
+    }
+
+    private void registerInstrument(String figi, String ticker) {
+        instrumentsByFigi.put(figi, Instrument.newBuilder()
+                .setFigi(figi)
+                .setTicker(ticker)
+                .setName(ticker)
+                .setClassCode("TQBR")
+                .setInstrumentType("share")
+                .setCurrency(CURRENCY)
+                .setLot(1)
+                .setMinPriceIncrement(TinkoffApiUtils.nanosToQuotation(MIN_PRICE_INCREMENT))
+                .setShortEnabledFlag(true)
+                .setApiTradeAvailableFlag(true)
+                .build());
+    }
+
+    // --- РЫНОЧНЫЕ ДАННЫЕ ---
+
+    @Override
+    public boolean isLive() {
+        return false;
+    }
+
+    @Override
+    public List<HistoricCandle> getCandles(String figi, Instant from, Instant to, CandleInterval interval) {
+        simulateLatency();
+        if (useRecorded) {
+            List<HistoricCandle> recorded = candleStore.readStored(figi, interval, from, to);
+            if (recorded != null && !recorded.isEmpty()) {
+                return recorded;
+            }
+        }
+        return syntheticData.getCandles(figi, interval, from, to);
+    }
+
+    @Override
+    public GetOrderBookResponse getOrderBook(String figi, int depth) {
+        simulateLatency();
+        return syntheticData.getOrderBook(figi, depth, Instant.now());
+    }
+
+    @Override
+    public List<LastPrice> getLastPrices(List<String> figis) {
+        simulateLatency();
+        Timestamp now = timestamp(Instant.now());
+        List<LastPrice> prices = new ArrayList<>(figis.size());
+        for (String figi : figis) {
+            long price = currentPrice(figi);
+            triggerStopOrders(figi, price);
+            prices.add(LastPrice.newBuilder()
+                    .setFigi(figi)
+                    .setPrice(TinkoffApiUtils.nanosToQuotation(price))
+                    .setTime(now)
+                    .build());
+        }
+        return prices;
+    }
+
+    /**
+     * Поток раз в market.local.stream-period-ms: текущая минутная свеча и последняя цена по каждому FIGI.
+     * Как и запрос последних цен, поток проверяет стоп-заявки.
+     */
+    @Override
+    public Subscription subscribe(List<String> figis, MarketDataStreamListener listener) {
+        List<String> subscribed = List.copyOf(figis);
+        ScheduledFuture<?> task = streamScheduler.scheduleAtFixedRate(() -> {
+            try {
+                Instant now = Instant.now();
+                long minute = now.getEpochSecond() - Math.floorMod(now.getEpochSecond(), 60);
+                for (String figi : subscribed) {
+                    List<HistoricCandle> candles = syntheticData.getCandles(figi, CandleInterval.CANDLE_INTERVAL_1_MIN,
+                            Instant.ofEpochSecond(minute), Instant.ofEpochSecond(minute + 60));
+                    if (!candles.isEmpty()) {
+                        HistoricCandle candle = candles.getFirst();
+                        listener.onCandle(Candle.newBuilder()
+                                .setFigi(figi)
+                                .setInterval(SubscriptionInterval.SUBSCRIPTION_INTERVAL_ONE_MINUTE)
+                                .setOpen(candle.getOpen())
+                                .setHigh(candle.getHigh())
+                                .setLow(candle.getLow())
+                                .setClose(candle.getClose())
+                                .setVolume(candle.getVolume())
+                                .setTime(candle.getTime())
+                                .build());
+                    }
+                    long price = currentPrice(figi);
+                    triggerStopOrders(figi, price);
+                    listener.onLastPrice(LastPrice.newBuilder()
+                            .setFigi(figi)
+                            .setPrice(TinkoffApiUtils.nanosToQuotation(price))
+                            .setTime(timestamp(now))
+                            .build());
+                }
+            } catch (Exception e) {
+                logger.error("Ошибка локального потока рыночных данных", e);
+                listener.onError(e);
+                throw e; // Останавливаем задачу: подписчик переподключится сам
+            }
+        }, 0, streamPeriodMillis, TimeUnit.MILLISECONDS);
+        return () -> task.cancel(false);
+    }
+
+    @Override
+    public Instrument getInstrumentByFigi(String figi) {
+        simulateLatency();
+        Instrument instrument = instrumentsByFigi.get(figi);
+        if (instrument == null) {
+            throw new IllegalArgumentException("Инструмент не найден в локальном рынке: " + figi);
+        }
+        return instrument;
+    }
+
+    @Override
+    public List<Share> getShares() {
+        simulateLatency();
+        List<Share> shares = new ArrayList<>(instrumentsByFigi.size());
+        for (Instrument instrument : instrumentsByFigi.values()) {
+            shares.add(Share.newBuilder()
+                    .setFigi(instrument.getFigi())
+                    .setTicker(instrument.getTicker())
+                    .setName(instrument.getName())
+                    .setClassCode(instrument.getClassCode())
+                    .setCurrency(instrument.getCurrency())
+                    .setLot(instrument.getLot())
+                    .setMinPriceIncrement(instrument.getMinPriceIncrement())
+                    .setShortEnabledFlag(instrument.getShortEnabledFlag())
+                    .setApiTradeAvailableFlag(instrument.getApiTradeAvailableFlag())
+                    .build());
+        }
+        return shares;
+    }
+
+    // --- БРОКЕР ---
+
+    @Override
+    public List<Account> getAccounts() {
+        simulateLatency();
+        return List.of(Account.newBuilder()
+                .setId(ACCOUNT_ID)
+                .setName("Локальный счет")
+                .setType(AccountType.ACCOUNT_TYPE_TINKOFF)
+                .setStatus(AccountStatus.ACCOUNT_STATUS_OPEN)
+                .build());
+    }
+
+    @Override
+    public Portfolio getPortfolio(String accountId) {
+        simulateLatency();
+        return snapshotPortfolio(accountId);
+    }
+
+    /**
+     * Поток портфеля: полный портфель после каждого исполнения (заявки или стоп-заявки).
+     */
+    @Override
+    public MarketDataProvider.Subscription subscribePortfolio(String accountId, Consumer<Portfolio> onUpdate,
+                                                              Consumer<Throwable> onError) {
+        portfolioListeners.add(onUpdate);
+        return () -> portfolioListeners.remove(onUpdate);
+    }
+
+    private Portfolio snapshotPortfolio(String accountId) {
+        PortfolioResponse.Builder response = PortfolioResponse.newBuilder().setAccountId(accountId);
+        long sharesValue = 0;
+        synchronized (this) {
+            for (Map.Entry<String, LocalPosition> entry : positions.entrySet()) {
+                LocalPosition position = entry.getValue();
+                long price = currentPrice(entry.getKey());
+                sharesValue += FixedPoint.times(price, position.quantity);
+                response.addPositions(PortfolioPosition.newBuilder()
+                        .setFigi(entry.getKey())
+                        .setInstrumentType("share")
+                        .setQuantity(TinkoffApiUtils.nanosToQuotation(FixedPoint.ofUnits(position.quantity)))
+                        .setAveragePositionPrice(money(position.averagePrice))
+                        .setCurrentPrice(money(price)));
+            }
+            response.setTotalAmountCurrencies(money(cash))
+                    .setTotalAmountShares(money(sharesValue))
+                    .setTotalAmountPortfolio(money(cash + sharesValue));
+        }
+        return Portfolio.fromResponse(response.build());
+    }
+
+    @Override
+    public GetMarginAttributesResponse getMarginAttributes(String accountId) {
+        simulateLatency();
+        long liquid;
+        long startingMargin = 0;
+        synchronized (this) {
+            liquid = cash;
+            for (Map.Entry<String, LocalPosition> entry : positions.entrySet()) {
+                long value = FixedPoint.times(currentPrice(entry.getKey()), entry.getValue().quantity);
+                liquid += value;
+                // Без плеча: под позицию блокируется ее полная стоимость
+                startingMargin += Math.abs(value);
+            }
+        }
+        // Свободно = ликвидный портфель - начальная маржа; для лонгов это остаток денег
+        return GetMarginAttributesResponse.newBuilder()
+                .setLiquidPortfolio(money(liquid))
+                .setStartingMargin(money(startingMargin))
+                .setMinimalMargin(money(startingMargin / 2))
+                .build();
+    }
+
+    @Override
+    public synchronized List<Operation> getExecutedOperations(String accountId, Instant from, Instant to) {
+        long fromSec = from.getEpochSecond();
+        long toSec = to.getEpochSecond();
+        return operations.stream()
+                .filter(o -> o.getDate().getSeconds() >= fromSec && o.getDate().getSeconds() < toSec)
+                .toList();
+    }
+
+    @Override
+    public PostOrderResponse postOrder(String figi, long quantity, Quotation price, OrderDirection direction,
+                                       String accountId, OrderType type, String orderId) {
+        simulateLatency();
+        Instrument instrument = instrumentsByFigi.get(figi);
+        if (instrument == null) {
+            throw new IllegalArgumentException("Инструмент не найден в локальном рынке: " + figi);
+        }
+        long executionPrice = type == OrderType.ORDER_TYPE_LIMIT
+                ? TinkoffApiUtils.quotationToNanos(price)
+                : bestPrice(figi, direction == OrderDirection.ORDER_DIRECTION_BUY);
+        long shares = quantity * instrument.getLot();
+        fill(figi, direction == OrderDirection.ORDER_DIRECTION_BUY ? shares : -shares, executionPrice);
+        publishTrade(orderId, figi, direction, executionPrice, shares);
+        publishPortfolio();
+        return PostOrderResponse.newBuilder()
+                .setOrderId(orderId)
+                .setFigi(figi)
+                .setDirection(direction)
+                .setOrderType(type)
+                .setLotsRequested(quantity)
+                .setLotsExecuted(quantity)
+                .setExecutionReportStatus(OrderExecutionReportStatus.EXECUTION_REPORT_STATUS_FILL)
+                .setExecutedOrderPrice(money(executionPrice))
+                .setTotalOrderAmount(money(FixedPoint.times(executionPrice, shares)))
+                .build();
+    }
+
+    @Override
+    public synchronized List<StopOrder> getStopOrders(String accountId) {
+        return new ArrayList<>(stopOrders.values());
+    }
+
+    @Override
+    public synchronized void cancelStopOrder(String accountId, String stopOrderId) {
+        if (stopOrders.remove(stopOrderId) == null) {
+            throw new IllegalArgumentException("Стоп-заявка не найдена: " + stopOrderId);
+        }
+    }
+
+    @Override
+    public String postStopOrderGoodTillCancel(String figi, long quantity, Quotation price, Quotation stopPrice,
+                                              StopOrderDirection direction, String accountId, StopOrderType type) {
+        simulateLatency();
+        String stopOrderId = UUID.randomUUID().toString();
+        StopOrder stopOrder = StopOrder.newBuilder()
+                .setStopOrderId(stopOrderId)
+                .setFigi(figi)
+                .setLotsRequested(quantity)
+                .setDirection(direction)
+                .setOrderType(type)
+                .setCurrency(CURRENCY)
+                .setPrice(money(TinkoffApiUtils.quotationToNanos(price)))
+                .setStopPrice(money(TinkoffApiUtils.quotationToNanos(stopPrice)))
+                .setCreateDate(timestamp(Instant.now()))
+                .build();
+        synchronized (this) {
+            stopOrders.put(stopOrderId, stopOrder);
+        }
+        return stopOrderId;
+    }
+
+    // --- ВНУТРЕННЯЯ ЛОГИКА ---
+
+    /**
+     * Срабатывание стоп-заявок по текущей цене: SL/TP на продажу - при пересечении цены вниз/вверх, на покупку - наоборот.
+     */
+    private void triggerStopOrders(String figi, long price) {
+        List<StopOrder> triggered = new ArrayList<>();
+        synchronized (this) {
+            Iterator<StopOrder> iterator = stopOrders.values().iterator();
+            while (iterator.hasNext()) {
+                StopOrder order = iterator.next();
+                if (!order.getFigi().equals(figi)) {
+                    continue;
+                }
+                long stop = TinkoffApiUtils.moneyValueToNanos(order.getStopPrice());
+                boolean sell = order.getDirection() == StopOrderDirection.STOP_ORDER_DIRECTION_SELL;
+                boolean stopLoss = order.getOrderType() != StopOrderType.STOP_ORDER_TYPE_TAKE_PROFIT;
+                boolean hit = sell == stopLoss ? price <= stop : price >= stop;
+                if (hit) {
+                    iterator.remove();
+                    triggered.add(order);
+                }
+            }
+        }
+        for (StopOrder order : triggered) {
+            Instrument instrument = instrumentsByFigi.get(figi);
+            long shares = order.getLotsRequested() * (instrument != null ? instrument.getLot() : 1);
+            boolean sell = order.getDirection() == StopOrderDirection.STOP_ORDER_DIRECTION_SELL;
+            long executionPrice = bestPrice(figi, !sell);
+            fill(figi, sell ? -shares : shares, executionPrice);
+            // Сработавшая стоп-заявка исполняется рыночной заявкой с идентификатором стоп-заявки
+            publishTrade(order.getStopOrderId(), figi,
+                    sell ? OrderDirection.ORDER_DIRECTION_SELL : OrderDirection.ORDER_DIRECTION_BUY, executionPrice, shares);
+            logger.info("Локальный рынок: сработала стоп-заявка {} {} по {}", order.getOrderType(), figi,
+                    FixedPoint.toBigDecimal(price));
+        }
+        if (!triggered.isEmpty()) {
+            publishPortfolio();
+        }
+    }
+
+    /**
+     * Поток сделок: заявки исполняются сразу и целиком, поэтому по каждой заявке ровно одна сделка.
+     * Сюда же попадают исполнения сработавших стоп-заявок.
+     */
+    @Override
+    public MarketDataProvider.Subscription subscribeOrderTrades(String accountId, Consumer<OrderTrades> onTrades,
+                                                                Consumer<Throwable> onError) {
+        tradeListeners.add(onTrades);
+        return () -> tradeListeners.remove(onTrades);
+    }
+
+    private void publishTrade(String orderId, String figi, OrderDirection direction, long price, long shares) {
+        if (tradeListeners.isEmpty()) {
+            return;
+        }
+        Timestamp now = timestamp(Instant.now());
+        OrderTrades trades = OrderTrades.newBuilder()
+                .setOrderId(orderId)
+                .setFigi(figi)
+                .setDirection(direction)
+                .setAccountId(ACCOUNT_ID)
+                .setCreatedAt(now)
+                .addTrades(OrderTrade.newBuilder()
+                        .setDateTime(now)
+                        .setPrice(TinkoffApiUtils.nanosToQuotation(price))
+                        .setQuantity(shares))
+                .build();
+        for (Consumer<OrderTrades> listener : tradeListeners) {
+            listener.accept(trades);
+        }
+    }
+
+    private void publishPortfolio() {
+        if (portfolioListeners.isEmpty()) {
+            return;
+        }
+        Portfolio portfolio = snapshotPortfolio(ACCOUNT_ID);
+        for (Consumer<Portfolio> listener : portfolioListeners) {
+            listener.accept(portfolio);
+        }
+    }
+
+    /**
+     * Исполнение сделки по счету: signedShares > 0 - покупка, < 0 - продажа.
+     */
+    private synchronized void fill(String figi, long signedShares, long price) {
+        long amount = FixedPoint.times(price, Math.abs(signedShares));
+        long commission = FixedPoint.multiply(amount, COMMISSION_RATE);
+        cash += signedShares > 0 ? -amount - commission : amount - commission;
+
+        LocalPosition position = positions.computeIfAbsent(figi, f -> new LocalPosition());
+        long newQuantity = position.quantity + signedShares;
+        if (newQuantity == 0) {
+            positions.remove(figi);
+        } else if (position.quantity == 0 || Long.signum(newQuantity) != Long.signum(position.quantity)) {
+            // Новая позиция или переворот - средняя цена равна цене сделки
+            position.averagePrice = price;
+        } else if (Math.abs(newQuantity) > Math.abs(position.quantity)) {
+            // Наращивание позиции - средневзвешенная цена
+            long total = FixedPoint.times(position.averagePrice, Math.abs(position.quantity)) + amount;
+            position.averagePrice = total / Math.abs(newQuantity);
+        }
+        position.quantity = newQuantity;
+
+        operations.add(Operation.newBuilder()
+                .setId(UUID.randomUUID().toString())
+                .setFigi(figi)
+                .setInstrumentType("share")
+                .setCurrency(CURRENCY)
+                .setState(OperationState.OPERATION_STATE_EXECUTED)
+                .setOperationType(signedShares > 0 ? OperationType.OPERATION_TYPE_BUY : OperationType.OPERATION_TYPE_SELL)
+                .setQuantity(Math.abs(signedShares))
+                .setPrice(money(price))
+                .setPayment(money(signedShares > 0 ? -amount : amount))
+                .setDate(timestamp(Instant.now()))
+                .build());
+        operations.add(Operation.newBuilder()
+                .setId(UUID.randomUUID().toString())
+                .setFigi(figi)
+                .setCurrency(CURRENCY)
+                .setState(OperationState.OPERATION_STATE_EXECUTED)
+                .setOperationType(OperationType.OPERATION_TYPE_BROKER_FEE)
+                .setPayment(money(-commission))
+                .setDate(timestamp(Instant.now()))
+                .build());
+    }
+
+    /**
+     * Лучшая цена стакана: ask для покупки, bid для продажи (спред - из синтетической модели стакана).
+     */
+    private long bestPrice(String figi, boolean buy) {
+        GetOrderBookResponse book = syntheticData.getOrderBook(figi, 1, Instant.now());
+        return TinkoffApiUtils.quotationToNanos(buy ? book.getAsks(0).getPrice() : book.getBids(0).getPrice());
+    }
+
+    private long currentPrice(String figi) {
+        return FixedPoint.fromDouble(syntheticData.priceAt(figi, Instant.now()));
+    }
+
+    private void simulateLatency() {
+        if (latencyMillis <= 0 && latencyJitterMillis <= 0) {
+            return;
+        }
+        long delay = latencyMillis + (latencyJitterMillis > 0 ? ThreadLocalRandom.current().nextLong(latencyJitterMillis + 1) : 0);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static MoneyValue money(long nanos) {
+        return MoneyValue.newBuilder()
+                .setCurrency(CURRENCY)
+                .setUnits(FixedPoint.units(nanos))
+                .setNano(FixedPoint.nano(nanos))
+                .build();
+    }
+
+    private static Timestamp timestamp(Instant instant) {
+        return Timestamp.newBuilder().setSeconds(instant.getEpochSecond()).setNanos(instant.getNano()).build();
+    }
+
+    private static class LocalPosition {
+        long quantity;      // В штуках, со знаком (short < 0)
+        long averagePrice;  // Нано-единицы
+    }
+}
@@ -0,0 +1,231 @@
+package com.example.tradingagent.services;
+
+import com.example.tradingagent.TinkoffApiUtils;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import ru.tinkoff.piapi.contract.v1.Candle;
+import ru.tinkoff.piapi.contract.v1.CandleInterval;
+import ru.tinkoff.piapi.contract.v1.LastPrice;
+import ru.tinkoff.piapi.contract.v1.Share;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Рыночные данные в памяти для сканера и исполнения сделок.
+ * При старте история по вселенной (getBlueChips) загружается один раз через TinkoffMarketDataService,
+ * дальше хаб подписывается на поток минутных свечей и последних цен и поддерживает кольцевые буферы
+ * M15 и H1 по каждому FIGI. Чтение буфера - копия массивов без сетевых запросов.
+ * Пока поток не подключен (старт, обрыв, переподключение), чтение прозрачно уходит в REST, как раньше.
+ */
+@Service
+public class MarketDataHub {
+
+    private static final Logger logger = LoggerFactory.getLogger(MarketDataHub.class);
+
+    // Интервалы буферов и глубина истории при загрузке (как у сканера)
+    private static final CandleInterval[] INTERVALS = {
+            CandleInterval.CANDLE_INTERVAL_15_MIN, CandleInterval.CANDLE_INTERVAL_HOUR};
+    private static final long[] INTERVAL_SECONDS = {900, 3_600};
+    private static final int[] BACKFILL_DAYS = {20, 30};
+    // Минимальная глубина запроса свечей - как в TinkoffMarketDataService
+    private static final int MIN_DAYS = 10;
+
+    private final MarketDataProvider marketDataProvider;
+    private final TinkoffMarketDataService marketDataService;
+    private final TinkoffInstrumentsService instrumentsService;
+    private final boolean enabled;
+    private final int capacity;
+    private final long reconnectDelayMillis;
+
+    private final Map<String, CandleRingBuffer[]> buffers = new ConcurrentHashMap<>();
+    private final Map<String, LastPrice> lastPrices = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor;
+    private volatile MarketDataProvider.Subscription subscription;
+    private volatile boolean streaming;
+
+    public MarketDataHub(MarketDataProvider marketDataProvider,
+                         TinkoffMarketDataService marketDataService,
+                         TinkoffInstrumentsService instrumentsService,
+                         @Value("${market.hub.enabled:true}") boolean enabled,
+                         @Value("${market.hub.capacity:2048}") int capacity,
+                         @Value("${market.hub.reconnect-delay-ms:5000}") long reconnectDelayMillis) {
+        this.marketDataProvider = marketDataProvider;
+        this.marketDataService = marketDataService;
+        this.instrumentsService = instrumentsService;
+        this.enabled = enabled;
+        this.capacity = capacity;
+        this.reconnectDelayMillis = reconnectDelayMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "market-data-hub");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Подключение в фоне после старта приложения: загрузка истории не задерживает старт.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            logger.info("Хаб рыночных данных выключен (market.hub.enabled=false), сканер работает через REST");
+            return;
+        }
+        executor.execute(this::connect);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        streaming = false;
+        cancelSubscription();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Свечи инструмента за последние days дней (не меньше 10, как в TinkoffMarketDataService).
+     * Из буфера, если поток подключен, иначе через REST.
+     */
+    public CandleSeries getCandleSeries(String figi, int days, CandleInterval interval) {
+        Instant now = Instant.now();
+        if (streaming) {
+            CandleRingBuffer buffer = buffer(figi, interval);
+            if (buffer != null) {
+                long from = now.minus(Math.max(days, MIN_DAYS), ChronoUnit.DAYS).getEpochSecond();
+                CandleSeries series = buffer.snapshotSince(from);
+                if (!series.isEmpty()) {
+                    return series;
+                }
+            }
+        }
+        return marketDataService.getCandleSeries(figi, days, interval, now);
+    }
+
+    /**
+     * Последняя цена из потока или null, если поток не подключен или цены по инструменту еще не было.
+     */
+    public BigDecimal getLastPrice(String figi) {
+        if (!streaming) {
+            return null;
+        }
+        LastPrice lastPrice = lastPrices.get(figi);
+        return lastPrice == null ? null : TinkoffApiUtils.quotationToBigDecimal(lastPrice.getPrice());
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    private void connect() {
+        try {
+            List<String> figis = instrumentsService.getBlueChips().stream().map(Share::getFigi).toList();
+            // Сначала история, потом подписка: минуты из потока продолжают последнюю загруженную свечу
+            backfill(figis);
+            subscription = marketDataProvider.subscribe(figis, new Listener());
+            streaming = true;
+            logger.info("Хаб рыночных данных подключен: {} инструментов, буферы по {} свечей", figis.size(), capacity);
+        } catch (Exception e) {
+            logger.error("Не удалось подключить хаб рыночных данных: {}", e.getMessage());
+            scheduleReconnect();
+        }
+    }
+
+    private void backfill(List<String> figis) {
+        Instant now = Instant.now();
+        for (String figi : figis) {
+            CandleRingBuffer[] figiBuffers = buffers.computeIfAbsent(figi, key -> newBuffers());
+            for (int i = 0; i < INTERVALS.length; i++) {
+                figiBuffers[i].seed(marketDataService.getCandleSeries(figi, BACKFILL_DAYS[i], INTERVALS[i], now));
+            }
+        }
+    }
+
+    private CandleRingBuffer[] newBuffers() {
+        CandleRingBuffer[] figiBuffers = new CandleRingBuffer[INTERVALS.length];
+        for (int i = 0; i < INTERVALS.length; i++) {
+            figiBuffers[i] = new CandleRingBuffer(capacity, INTERVAL_SECONDS[i]);
+        }
+        return figiBuffers;
+    }
+
+    private CandleRingBuffer buffer(String figi, CandleInterval interval) {
+        CandleRingBuffer[] figiBuffers = buffers.get(figi);
+        if (figiBuffers == null) {
+            return null;
+        }
+        for (int i = 0; i < INTERVALS.length; i++) {
+            if (INTERVALS[i] == interval) {
+                return figiBuffers[i];
+            }
+        }
+        return null;
+    }
+
+    private void scheduleReconnect() {
+        if (executor.isShutdown()) {
+            return;
+        }
+        executor.schedule(this::connect, reconnectDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelSubscription() {
+        MarketDataProvider.Subscription current = subscription;
+        subscription = null;
+        if (current != null) {
+            try {
+                current.cancel();
+            } catch (Exception e) {
+                logger.warn("Ошибка при отмене подписки: {}", e.getMessage());
+            }
+        }
+    }
+
+    private class Listener implements MarketDataStreamListener {
+
+        @Override
+        public void onCandle(Candle candle) {
+            CandleRingBuffer[] figiBuffers = buffers.get(candle.getFigi());
+            if (figiBuffers == null) {
+                return;
+            }
+            long minute = candle.getTime().getSeconds();
+            double o = TinkoffApiUtils.quotationToDouble(candle.getOpen());
+            double h = TinkoffApiUtils.quotationToDouble(candle.getHigh());
+            double l = TinkoffApiUtils.quotationToDouble(candle.getLow());
+            double c = TinkoffApiUtils.quotationToDouble(candle.getClose());
+            for (CandleRingBuffer buffer : figiBuffers) {
+                buffer.onMinuteCandle(minute, o, h, l, c, candle.getVolume());
+            }
+        }
+
+        @Override
+        public void onLastPrice(LastPrice lastPrice) {
+            lastPrices.put(lastPrice.getFigi(), lastPrice);
+        }
+
+        @Override
+        public synchronized void onError(Throwable error) {
+            if (!streaming) {
+                return; // Переподключение уже запланировано (ошибка пришла из нескольких стримов)
+            }
+            // Пропущенные минуты восстановит повторная загрузка истории при переподключении
+            logger.warn("Поток рыночных данных оборван: {}. Переподключение через {} мс",
+                    error.getMessage(), reconnectDelayMillis);
+            streaming = false;
+            cancelSubscription();
+            scheduleReconnect();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.tradingagent.services;
+
+import ru.tinkoff.piapi.contract.v1.CandleInterval;
+import ru.tinkoff.piapi.contract.v1.GetOrderBookResponse;
+import ru.tinkoff.piapi.contract.v1.HistoricCandle;
+import ru.tinkoff.piapi.contract.v1.Instrument;
+import ru.tinkoff.piapi.contract.v1.LastPrice;
+import ru.tinkoff.piapi.contract.v1.Share;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Источник рыночных данных: свечи, стакан, последние цены и справочник инструментов.
+ * Реализация выбирается свойством market.provider:
+ * tinkoff (по умолчанию) - Invest API, local - внутрипроцессный симулятор без сети (LocalMarketSimulator).
+ */
+public interface MarketDataProvider {
+
+    /**
+     * Исторические свечи за [from, to).
+     */
+    List<HistoricCandle> getCandles(String figi, Instant from, Instant to, CandleInterval interval);
+
+    /**
+     * Стакан указанной глубины.
+     */
+    GetOrderBookResponse getOrderBook(String figi, int depth);
+
+    /**
+     * Последние цены по списку FIGI.
+     */
+    List<LastPrice> getLastPrices(List<String> figis);
+
+    Instrument getInstrumentByFigi(String figi);
+
+    /**
+     * Все торгуемые акции (базовый список).
+     */
+    List<Share> getShares();
+
+    /**
+     * Подписка на минутные свечи и последние цены по списку FIGI.
+     * События приходят в listener до отмены подписки или до onError.
+     */
+    Subscription subscribe(List<String> figis, MarketDataStreamListener listener);
+
+    /**
+     * true, если данные приходят с биржи. Только такие свечи имеет смысл сохранять в LocalCandleStore.
+     */
+    default boolean isLive() {
+        return true;
+    }
+
+    /**
+     * Активная подписка на поток рыночных данных.
+     */
+    interface Subscription {
+        void cancel();
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.tradingagent.services;
+
+import ru.tinkoff.piapi.contract.v1.Candle;
+import ru.tinkoff.piapi.contract.v1.LastPrice;
+
+/**
+ * Получатель событий потока рыночных данных (см. MarketDataProvider#subscribe).
+ * Вызывается из потока провайдера, поэтому обработчики должны быть быстрыми и не блокироваться.
+ */
+public interface MarketDataStreamListener {
+
+    /**
+     * Минутная свеча. Пока минута не закрыта, одна и та же свеча приходит повторно с обновленными значениями.
+     */
+    void onCandle(Candle candle);
+
+    void onLastPrice(LastPrice lastPrice);
+
+    /**
+     * Поток оборван: подписку нужно создать заново.
+     */
+    void onError(Throwable error);
+}
@@ -0,0 +1,255 @@
+package com.example.tradingagent.services;
+
+import com.example.tradingagent.entities.MarketSnapshot;
+import com.example.tradingagent.entities.TradeDecision;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ru.tinkoff.piapi.contract.v1.CandleInterval;
+import ru.tinkoff.piapi.contract.v1.GetOrderBookResponse;
+import ru.tinkoff.piapi.contract.v1.Share;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Сканирование рынка для n8n: свечи H1/M15, индикаторы, фильтры оборота и ADX, стакан и новости по каждому тикеру.
+ * Тикеры обрабатываются параллельно на виртуальных потоках, каждый внешний ресурс (свечи, стакан, новости, БД)
+ * ограничен своим семафором, чтобы не превысить лимиты API и пул соединений.
+ * На каждый тикер отводится scan.ticker-timeout-ms от начала скана: не успевшие тикеры отменяются
+ * и не попадают в ответ, остальные возвращаются как есть. Время скана ~ время самого медленного тикера.
+ * Результат живого скана по каждому переданному в n8n тикеру (индикаторы M15 и снимок рынка) запоминается,
+ * чтобы сигналы того же цикла (POST /api/execute-trades) не пересчитывали их заново.
+ */
+@Service
+public class MarketScanService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MarketScanService.class);
+
+    private static final double MIN_TURNOVER_RUB = 500_000;
+    // Фильтр "Пилы" (Choppy Market): ADX < 25 запрещает вход по трендовым стратегиям
+    private static final double MIN_ADX_THRESHOLD = 25.0;
+    private static final int DAYS_TO_REQUEST_H1 = 30;
+    private static final int DAYS_TO_REQUEST_M15 = 20;
+
+    private final TinkoffMarketDataService marketDataService;
+    private final MarketDataHub marketDataHub;
+    private final TechnicalIndicatorService indicatorService;
+    private final NewsService newsService;
+    private final AuditService auditService;
+    private final Semaphore candlePermits;
+    private final Semaphore orderBookPermits;
+    private final Semaphore newsPermits;
+    private final Semaphore databasePermits;
+    private final long tickerTimeoutMillis;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, ScanResult> latestResults = new ConcurrentHashMap<>();
+
+    public MarketScanService(TinkoffMarketDataService marketDataService,
+                             MarketDataHub marketDataHub,
+                             TechnicalIndicatorService indicatorService,
+                             NewsService newsService,
+                             AuditService auditService,
+                             @Value("${scan.concurrency.candles:8}") int candleConcurrency,
+                             @Value("${scan.concurrency.order-book:4}") int orderBookConcurrency,
+                             @Value("${scan.concurrency.news:4}") int newsConcurrency,
+                             @Value("${scan.concurrency.db:4}") int databaseConcurrency,
+                             @Value("${scan.ticker-timeout-ms:20000}") long tickerTimeoutMillis) {
+        this.marketDataService = marketDataService;
+        this.marketDataHub = marketDataHub;
+        this.indicatorService = indicatorService;
+        this.newsService = newsService;
+        this.auditService = auditService;
+        this.candlePermits = new Semaphore(Math.max(1, candleConcurrency));
+        this.orderBookPermits = new Semaphore(Math.max(1, orderBookConcurrency));
+        this.newsPermits = new Semaphore(Math.max(1, newsConcurrency));
+        this.databasePermits = new Semaphore(Math.max(1, databaseConcurrency));
+        this.tickerTimeoutMillis = tickerTimeoutMillis;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Сканирует тикеры параллельно и возвращает данные для n8n в порядке списка shares.
+     *
+     * @param shares         Вселенная для сканирования.
+     * @param portfolioFigis FIGI с открытой позицией: для них фильтры оборота и ADX не применяются.
+     * @param to             Момент исторического скана; пусто - живой скан (буферы хаба, стакан и новости).
+     */
+    public List<Map<String, Object>> scan(List<Share> shares, Set<String> portfolioFigis, Optional<Instant> to) {
+        long started = System.nanoTime();
+        long deadline = started + TimeUnit.MILLISECONDS.toNanos(tickerTimeoutMillis);
+        Instant effectiveTimeTo = to.orElse(Instant.now());
+
+        List<Future<TickerScan>> futures = new ArrayList<>(shares.size());
+        for (Share share : shares) {
+            boolean hasPosition = portfolioFigis.contains(share.getFigi());
+            futures.add(executor.submit(() -> scanTicker(share, hasPosition, to.isEmpty(), effectiveTimeTo)));
+        }
+
+        List<Map<String, Object>> marketData = new ArrayList<>();
+        EnumMap<Outcome, Integer> outcomes = new EnumMap<>(Outcome.class);
+        for (int i = 0; i < futures.size(); i++) {
+            Future<TickerScan> future = futures.get(i);
+            Outcome outcome;
+            try {
+                TickerScan result = future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                outcome = result.outcome();
+                if (result.data() != null) {
+                    marketData.add(result.data());
+                }
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                outcome = Outcome.TIMED_OUT;
+                logger.warn("Скан {}: не уложился в {} мс, пропущен", shares.get(i).getTicker(), tickerTimeoutMillis);
+            } catch (ExecutionException e) {
+                outcome = Outcome.FAILED;
+                logger.error("Ошибка при анализе {}: {}", shares.get(i).getTicker(), e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(f -> f.cancel(true));
+                break;
+            }
+            outcomes.merge(outcome, 1, Integer::sum);
+        }
+
+        logger.info("Итоги: {} тикеров за {} мс. Скип: {} (объем), {} (ADX), {} (нет данных). Таймаут: {}, ошибки: {}",
+                marketData.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started),
+                outcomes.getOrDefault(Outcome.SKIPPED_TURNOVER, 0), outcomes.getOrDefault(Outcome.SKIPPED_ADX, 0),
+                outcomes.getOrDefault(Outcome.NO_DATA, 0), outcomes.getOrDefault(Outcome.TIMED_OUT, 0),
+                outcomes.getOrDefault(Outcome.FAILED, 0));
+        return marketData;
+    }
+
+    /**
+     * Результат последнего живого скана по FIGI, если он не старше maxAge.
+     */
+    public Optional<ScanResult> getRecentResult(String figi, Duration maxAge) {
+        ScanResult result = latestResults.get(figi);
+        if (result == null || result.scannedAt().isBefore(Instant.now().minus(maxAge))) {
+            return Optional.empty();
+        }
+        return Optional.of(result);
+    }
+
+    /**
+     * Полный анализ одного тикера (выполняется в своем виртуальном потоке).
+     */
+    private TickerScan scanTicker(Share share, boolean hasPosition, boolean live, Instant effectiveTimeTo) throws Exception {
+        // 1. Свечи H1: живой скан читает буферы хаба, исторический - REST
+        CandleSeries candlesH1 = limited(candlePermits, () -> live
+                ? marketDataHub.getCandleSeries(share.getFigi(), DAYS_TO_REQUEST_H1, CandleInterval.CANDLE_INTERVAL_HOUR)
+                : marketDataService.getCandleSeries(share.getFigi(), DAYS_TO_REQUEST_H1, CandleInterval.CANDLE_INTERVAL_HOUR, effectiveTimeTo));
+        if (candlesH1.isEmpty()) {
+            return TickerScan.of(Outcome.NO_DATA);
+        }
+
+        // --- ФИЛЬТРЫ (Применяем, только если НЕТ позиции) ---
+        if (!hasPosition) {
+            double turnover = candlesH1.getLastClose() * candlesH1.getLastVolume();
+            if (turnover < MIN_TURNOVER_RUB) {
+                return TickerScan.of(Outcome.SKIPPED_TURNOVER);
+            }
+        }
+
+        CandleSeries candlesM15 = limited(candlePermits, () -> live
+                ? marketDataHub.getCandleSeries(share.getFigi(), DAYS_TO_REQUEST_M15, CandleInterval.CANDLE_INTERVAL_15_MIN)
+                : marketDataService.getCandleSeries(share.getFigi(), DAYS_TO_REQUEST_M15, CandleInterval.CANDLE_INTERVAL_15_MIN, effectiveTimeTo));
+        if (candlesM15.isEmpty()) {
+            return TickerScan.of(Outcome.NO_DATA);
+        }
+
+        Map<String, Double> indicatorsH1 = indicatorService.calculateIndicators(candlesH1, share.getTicker(), share.getFigi());
+        Map<String, Double> indicatorsM15 = indicatorService.calculateIndicators(candlesM15, share.getTicker(), share.getFigi());
+
+        if (indicatorsH1.isEmpty() || indicatorsM15.isEmpty()) {
+            // ЛОГИРОВАНИЕ: Недостаточно данных
+            BigDecimal priceClose = BigDecimal.valueOf(candlesH1.getLastClose());
+            limited(databasePermits, () -> {
+                MarketSnapshot snapshot = auditService.saveMarketSnapshot(
+                        share.getTicker(), indicatorsH1.isEmpty() ? indicatorsM15 : indicatorsH1, priceClose);
+                if (snapshot != null) {
+                    auditService.saveTradeDecision(snapshot, TradeDecision.DecisionType.IGNORE,
+                            "INSUFFICIENT_DATA", "Недостаточно индикаторов для анализа");
+                }
+                return snapshot;
+            });
+            return TickerScan.of(Outcome.NO_DATA);
+        }
+
+        // ЛОГИРОВАНИЕ В БД: снимок рынка и решение (ADX-фильтр или HOLD по активной позиции)
+        double adx = indicatorsH1.getOrDefault("adx_14", 0.0);
+        boolean filteredByAdx = !hasPosition && adx < MIN_ADX_THRESHOLD;
+        BigDecimal priceClose = BigDecimal.valueOf(candlesH1.getLastClose());
+        MarketSnapshot savedSnapshot = limited(databasePermits, () -> {
+            MarketSnapshot snapshot = auditService.saveMarketSnapshot(share.getTicker(), indicatorsH1, priceClose);
+            if (snapshot != null && filteredByAdx) {
+                // ЛОГИРОВАНИЕ РЕШЕНИЯ: Почему не торгуем
+                auditService.saveTradeDecision(snapshot, TradeDecision.DecisionType.IGNORE,
+                        "FILTERED_BY_ADX",
+                        String.format("ADX=%.1f < %.1f (слабый тренд, флет)", adx, MIN_ADX_THRESHOLD));
+            } else if (snapshot != null && hasPosition) {
+                auditService.saveTradeDecision(snapshot, TradeDecision.DecisionType.HOLD,
+                        "POSITION_ACTIVE", "Позиция уже открыта, мониторим SL/TP");
+            }
+            return snapshot;
+        });
+        if (filteredByAdx) {
+            return TickerScan.of(Outcome.SKIPPED_ADX);
+        }
+
+        Map<String, Object> instrumentData = new HashMap<>();
+        instrumentData.put("instrument_figi", share.getFigi());
+        instrumentData.put("ticker", share.getTicker());
+        instrumentData.put("indicators_h1", indicatorsH1);
+        instrumentData.put("indicators_m15", indicatorsM15);
+
+        if (live) {
+            GetOrderBookResponse orderBookResponse = limited(orderBookPermits,
+                    () -> marketDataService.getOrderBook(share.getFigi()));
+            Map<String, Object> serializableOrderBook = new HashMap<>();
+            serializableOrderBook.put("bids_volume", orderBookResponse.getBidsList().stream().mapToLong(o -> o.getQuantity()).sum());
+            serializableOrderBook.put("asks_volume", orderBookResponse.getAsksList().stream().mapToLong(o -> o.getQuantity()).sum());
+            instrumentData.put("order_book", serializableOrderBook);
+
+            List<String> tickerNews = limited(newsPermits, () -> newsService.getRecentNewsHeadlines(share.getTicker()));
+            instrumentData.put("ticker_news", tickerNews);
+            latestResults.put(share.getFigi(), new ScanResult(indicatorsM15, savedSnapshot, Instant.now()));
+        }
+        return new TickerScan(instrumentData, Outcome.INCLUDED);
+    }
+
+    /**
+     * Вызов внешнего ресурса под его семафором. Ожидание прерывается при отмене тикера по таймауту.
+     */
+    private static <T> T limited(Semaphore permits, Callable<T> call) throws Exception {
+        permits.acquire();
+        try {
+            return call.call();
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Индикаторы M15 и снимок рынка (может быть null, если запись в БД не удалась) из живого скана.
+     */
+    public record ScanResult(Map<String, Double> indicatorsM15, MarketSnapshot snapshot, Instant scannedAt) {
+    }
+
+    private enum Outcome { INCLUDED, SKIPPED_TURNOVER, SKIPPED_ADX, NO_DATA, TIMED_OUT, FAILED }
+
+    private record TickerScan(Map<String, Object> data, Outcome outcome) {
+        static TickerScan of(Outcome outcome) {
+            return new TickerScan(null, outcome);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.tradingagent.services;
+
+import ru.tinkoff.piapi.contract.v1.CandleInterval;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Выравнивание нескольких таймфреймов относительно базового (например, M5/M15 -> H1/D1).
+ * Для каждого дополнительного таймфрейма один раз строится индексная карта
+ * "индекс базовой свечи -> количество свечей старшего ТФ, открывшихся не позже нее".
+ * Карта строится монотонным курсором за O(n + m), дальше каждый шаг бэктеста - O(1) без аллокаций.
+ */
+public class MultiTimeframeAligner {
+
+    private final CandleSeries base;
+    private final Map<CandleInterval, CandleSeries> seriesByInterval = new EnumMap<>(CandleInterval.class);
+    private final Map<CandleInterval, int[]> indexMaps = new EnumMap<>(CandleInterval.class);
+
+    public MultiTimeframeAligner(CandleSeries base) {
+        this.base = base;
+    }
+
+    /**
+     * Регистрирует таймфрейм и строит для него индексную карту.
+     */
+    public MultiTimeframeAligner addTimeframe(CandleInterval interval, CandleSeries series) {
+        int[] available = new int[base.size()];
+        int cursor = 0;
+        for (int i = 0; i < base.size(); i++) {
+            long baseTime = base.getTime(i);
+            // Курсор только движется вперед: время базовой серии монотонно
+            while (cursor < series.size() && series.getTime(cursor) <= baseTime) {
+                cursor++;
+            }
+            available[i] = cursor;
+        }
+        seriesByInterval.put(interval, series);
+        indexMaps.put(interval, available);
+        return this;
+    }
+
+    public CandleSeries getBase() {
+        return base;
+    }
+
+    public CandleSeries getSeries(CandleInterval interval) {
+        return seriesByInterval.get(interval);
+    }
+
+    /**
+     * Количество свечей таймфрейма, доступных на момент базовой свечи baseIndex. O(1).
+     */
+    public int availableBars(CandleInterval interval, int baseIndex) {
+        int[] available = indexMaps.get(interval);
+        if (available == null) {
+            throw new IllegalArgumentException("Таймфрейм не зарегистрирован: " + interval);
+        }
+        return available[baseIndex];
+    }
+
+    /**
+     * Индекс последней доступной свечи таймфрейма на момент базовой свечи или -1, если таких нет.
+     */
+    public int lastIndex(CandleInterval interval, int baseIndex) {
+        return availableBars(interval, baseIndex) - 1;
+    }
+
+    /**
+     * Количество свечей таймфрейма на произвольный момент (для времени вне базовой серии).
+     */
+    public int availableBarsAt(CandleInterval interval, long epochSecond) {
+        CandleSeries series = seriesByInterval.get(interval);
+        if (series == null) {
+            throw new IllegalArgumentException("Таймфрейм не зарегистрирован: " + interval);
+        }
+        return series.countUntil(epochSecond);
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.tradingagent.services;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Дескриптор обработки торгового сигнала: возвращается из /api/execute-trade сразу,
+ * дальше статус меняется событиями (анализ, отправка заявки, исполнение, отказ).
+ */
+public class OrderHandle {
+
+    public enum Status {
+        ACCEPTED,           // Сигнал принят, идет анализ
+        SUBMITTED,          // Заявка отправлена брокеру
+        PARTIALLY_FILLED,   // Заявка исполнена частично
+        FILLED,             // Заявка исполнена, защитные ордера выставлены (или попытки исчерпаны)
+        COMPLETED,          // Сигнал обработан без новой заявки (сопровождение открытой позиции)
+        SKIPPED,            // Сделка отменена проверками (риск, спред, экономика)
+        REJECTED,           // Заявка отклонена или не исполнилась
+        FAILED              // Ошибка обработки
+    }
+
+    private final String id = UUID.randomUUID().toString();
+    private final String figi;
+    private final String ticker;
+    private final String action;
+    private final Instant createdAt = Instant.now();
+    private final CompletableFuture<OrderHandle> completion = new CompletableFuture<>();
+    private final CompletableFuture<OrderHandle> decision = new CompletableFuture<>();
+
+    private volatile Status status = Status.ACCEPTED;
+    private volatile Instant updatedAt = createdAt;
+    private volatile String brokerOrderId;
+    private volatile long lotsRequested;
+    private volatile long lotsExecuted;
+    private volatile BigDecimal executedPrice;
+    private volatile String message;
+
+    public OrderHandle(String figi, String ticker, String action) {
+        this.figi = figi;
+        this.ticker = ticker;
+        this.action = action;
+    }
+
+    public String getId() { return id; }
+    public String getFigi() { return figi; }
+    public String getTicker() { return ticker; }
+    public String getAction() { return action; }
+    public Instant getCreatedAt() { return createdAt; }
+    public Instant getUpdatedAt() { return updatedAt; }
+    public Status getStatus() { return status; }
+    public String getBrokerOrderId() { return brokerOrderId; }
+    public long getLotsRequested() { return lotsRequested; }
+    public long getLotsExecuted() { return lotsExecuted; }
+    public BigDecimal getExecutedPrice() { return executedPrice; }
+    public String getMessage() { return message; }
+
+    /**
+     * Завершается, когда сигнал обработан (исполнение, отказ или пропуск).
+     */
+    public CompletableFuture<OrderHandle> getCompletion() { return completion; }
+
+    /**
+     * Завершается, когда проверки сигнала пройдены и заявка отправлена, либо сигнал уже обработан.
+     */
+    public CompletableFuture<OrderHandle> getDecision() { return decision; }
+
+    public boolean isFinished() {
+        return status != Status.ACCEPTED && status != Status.SUBMITTED && status != Status.PARTIALLY_FILLED;
+    }
+
+    synchronized void submitted(String brokerOrderId, long lotsRequested) {
+        this.brokerOrderId = brokerOrderId;
+        this.lotsRequested = lotsRequested;
+        // Сделки потока могли прийти раньше ответа PostOrder - статус назад не откатываем
+        if (status == Status.ACCEPTED) {
+            update(Status.SUBMITTED, null);
+        }
+        decision.complete(this);
+    }
+
+    synchronized void partiallyFilled(long lotsExecuted, BigDecimal executedPrice) {
+        if (isFinished()) {
+            return;
+        }
+        this.lotsExecuted = lotsExecuted;
+        this.executedPrice = executedPrice;
+        update(Status.PARTIALLY_FILLED, null);
+    }
+
+    synchronized void filled(long lotsExecuted, BigDecimal executedPrice, String message) {
+        if (isFinished()) {
+            return;
+        }
+        this.lotsExecuted = lotsExecuted;
+        this.executedPrice = executedPrice;
+        finish(Status.FILLED, message);
+    }
+
+    synchronized void complete(String message) {
+        if (!isFinished()) {
+            finish(Status.COMPLETED, message);
+        }
+    }
+
+    synchronized void skip(String message) {
+        if (!isFinished()) {
+            finish(Status.SKIPPED, message);
+        }
+    }
+
+    synchronized void reject(String message) {
+        if (!isFinished()) {
+            finish(Status.REJECTED, message);
+        }
+    }
+
+    synchronized void fail(String message) {
+        if (!isFinished()) {
+            finish(Status.FAILED, message);
+        }
+    }
+
+    private void update(Status newStatus, String newMessage) {
+        this.status = newStatus;
+        if (newMessage != null) {
+            this.message = newMessage;
+        }
+        this.updatedAt = Instant.now();
+    }
+
+    private void finish(Status finalStatus, String newMessage) {
+        update(finalStatus, newMessage);
+        decision.complete(this);
+        completion.complete(this);
+    }
+
+    /**
+     * Статус для REST-ответа.
+     */
+    public Map<String, Object> toStatusMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("handleId", id);
+        map.put("figi", figi);
+        map.put("ticker", ticker);
+        map.put("action", action);
+        map.put("status", status);
+        map.put("createdAt", createdAt.toString());
+        map.put("updatedAt", updatedAt.toString());
+        if (brokerOrderId != null) {
+            map.put("orderId", brokerOrderId);
+            map.put("lotsRequested", lotsRequested);
+            map.put("lotsExecuted", lotsExecuted);
+        }
+        if (executedPrice != null) {
+            map.put("executedPrice", executedPrice);
+        }
+        if (message != null) {
+            map.put("message", message);
+        }
+        return map;
+    }
+}
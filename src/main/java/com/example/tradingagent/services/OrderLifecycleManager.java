@@ -0,0 +1,416 @@
+package com.example.tradingagent.services;
+
+import com.example.tradingagent.TinkoffApiUtils;
+import com.example.tradingagent.entities.OrderEntity;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import ru.tinkoff.piapi.contract.v1.OrderTrade;
+import ru.tinkoff.piapi.contract.v1.OrderTrades;
+import ru.tinkoff.piapi.contract.v1.PostOrderResponse;
+import ru.tinkoff.piapi.core.models.Position;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Жизненный цикл рыночных заявок на вход: после отправки заявка отслеживается по событиям,
+ * а не ожиданием в потоке запроса. Источники событий: ответ PostOrder, поток сделок по счету
+ * (частичные и полные исполнения), появление позиции в PortfolioMirror (если поток сделок недоступен)
+ * и таймаут исполнения (orders.fill-timeout-ms). Исполнение и отказ переводят TradingStateMachine
+ * и статус ордера в AuditService, после исполнения вызывается обработчик (выставление SL/TP).
+ * Здесь же - асинхронные повторы вызовов брокера с экспоненциальной задержкой вместо Thread.sleep.
+ */
+@Service
+public class OrderLifecycleManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(OrderLifecycleManager.class);
+
+    // Дескрипторы завершенных сигналов хранятся час, затем удаляются
+    private static final Duration FINISHED_HANDLE_RETENTION = Duration.ofHours(1);
+
+    private final BrokerGateway brokerGateway;
+    private final String accountId;
+    private final AuditService auditService;
+    private final TradingStateMachine stateMachine;
+    private final PortfolioMirror portfolioMirror;
+    private final long fillTimeoutMillis;
+    private final int retryMaxAttempts;
+    private final long retryInitialDelayMillis;
+    private final long retryMaxDelayMillis;
+    private final long reconnectDelayMillis;
+
+    private final Map<String, OrderHandle> handles = new ConcurrentHashMap<>();
+    private final Map<String, TrackedOrder> trackedOrders = new ConcurrentHashMap<>();
+    // Таймеры (таймауты, задержки повторов) - один платформенный поток; сами действия - на виртуальных потоках
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+    private volatile boolean streaming;
+
+    public OrderLifecycleManager(BrokerGateway brokerGateway,
+                                 TinkoffAccountService accountService,
+                                 AuditService auditService,
+                                 TradingStateMachine stateMachine,
+                                 PortfolioMirror portfolioMirror,
+                                 @Value("${orders.fill-timeout-ms:15000}") long fillTimeoutMillis,
+                                 @Value("${orders.retry.max-attempts:10}") int retryMaxAttempts,
+                                 @Value("${orders.retry.initial-delay-ms:500}") long retryInitialDelayMillis,
+                                 @Value("${orders.retry.max-delay-ms:30000}") long retryMaxDelayMillis,
+                                 @Value("${orders.stream.reconnect-delay-ms:5000}") long reconnectDelayMillis) {
+        this.brokerGateway = brokerGateway;
+        this.accountId = accountService.getSandboxAccountId();
+        this.auditService = auditService;
+        this.stateMachine = stateMachine;
+        this.portfolioMirror = portfolioMirror;
+        this.fillTimeoutMillis = fillTimeoutMillis;
+        this.retryMaxAttempts = Math.max(1, retryMaxAttempts);
+        this.retryInitialDelayMillis = retryInitialDelayMillis;
+        this.retryMaxDelayMillis = retryMaxDelayMillis;
+        this.reconnectDelayMillis = reconnectDelayMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "order-lifecycle");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PostConstruct
+    public void subscribe() {
+        portfolioMirror.addListener(this::onPositionChanged);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        scheduler.execute(this::connect);
+        scheduler.scheduleWithFixedDelay(this::evictFinishedHandles, 10, 10, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        streaming = false;
+        scheduler.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    /**
+     * Новый дескриптор сигнала (статус ACCEPTED).
+     */
+    public OrderHandle newHandle(String figi, String ticker, String action) {
+        OrderHandle handle = new OrderHandle(figi, ticker, action);
+        handles.put(handle.getId(), handle);
+        return handle;
+    }
+
+    public OrderHandle getHandle(String handleId) {
+        return handles.get(handleId);
+    }
+
+    /**
+     * Начинает отслеживание рыночной заявки на вход. Вызывается до отправки заявки брокеру:
+     * сделки потока могут прийти раньше ответа PostOrder и иначе были бы потеряны.
+     * После отправки - {@link #sent}, при ошибке отправки - {@link #untrack}.
+     *
+     * @param requestedPrice цена на момент решения: используется как цена исполнения, если брокер ее не сообщил
+     * @param onFilled       вызывается один раз после исполнения (полного или частичного по таймауту);
+     *                       дескриптор завершается, когда завершится возвращенный им future
+     */
+    public void track(OrderHandle handle, String orderId, String figi, long lotsRequested, int lotSize,
+                      BigDecimal requestedPrice, FillHandler onFilled) {
+        TrackedOrder order = new TrackedOrder(handle, orderId, figi, lotsRequested, Math.max(1, lotSize),
+                requestedPrice, onFilled);
+        trackedOrders.put(orderId, order);
+    }
+
+    /**
+     * Заявка отправлена: учитывает ответ PostOrder и запускает таймаут исполнения.
+     */
+    public void sent(OrderHandle handle, String orderId, long lotsRequested, PostOrderResponse response) {
+        handle.submitted(orderId, lotsRequested);
+        TrackedOrder order = trackedOrders.get(orderId);
+        if (order == null) {
+            return; // Уже исполнена по событиям потока
+        }
+        order.timeout = scheduler.schedule(() -> workers.execute(() -> onTimeout(order)),
+                fillTimeoutMillis, TimeUnit.MILLISECONDS);
+        if (response != null) {
+            onPostOrderResponse(order, response);
+        }
+    }
+
+    /**
+     * Заявка не отправлена: снимает ее с отслеживания без переходов состояния (их делает вызывающий).
+     */
+    public void untrack(String orderId) {
+        TrackedOrder order = trackedOrders.get(orderId);
+        if (order != null) {
+            order.finish();
+        }
+    }
+
+    /**
+     * Асинхронный повтор вызова брокера: задержка растет вдвое с каждой попыткой
+     * (orders.retry.initial-delay-ms ... orders.retry.max-delay-ms), не более orders.retry.max-attempts попыток.
+     * Поток вызывающего не блокируется.
+     */
+    public CompletableFuture<Void> retryAsync(String description, Runnable action) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        workers.execute(() -> attempt(description, action, 1, result));
+        return result;
+    }
+
+    private void attempt(String description, Runnable action, int attemptNumber, CompletableFuture<Void> result) {
+        try {
+            action.run();
+            result.complete(null);
+        } catch (Exception e) {
+            if (attemptNumber >= retryMaxAttempts || scheduler.isShutdown()) {
+                logger.error("FAIL: {} - попытки исчерпаны ({}): {}", description, attemptNumber, e.getMessage());
+                result.completeExceptionally(e);
+                return;
+            }
+            long delay = Math.min(retryMaxDelayMillis, retryInitialDelayMillis << Math.min(attemptNumber - 1, 20));
+            logger.warn("{}: попытка {} не удалась ({}), повтор через {} мс",
+                    description, attemptNumber, e.getMessage(), delay);
+            scheduler.schedule(() -> workers.execute(() -> attempt(description, action, attemptNumber + 1, result)),
+                    delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // --- СОБЫТИЯ ---
+
+    private void onPostOrderResponse(TrackedOrder order, PostOrderResponse response) {
+        switch (response.getExecutionReportStatus()) {
+            case EXECUTION_REPORT_STATUS_FILL, EXECUTION_REPORT_STATUS_PARTIALLYFILL -> {
+                BigDecimal price = TinkoffApiUtils.moneyValueToBigDecimal(response.getExecutedOrderPrice());
+                order.onReportedLots(response.getLotsExecuted(), price.signum() > 0 ? price : null);
+                evaluate(order);
+            }
+            case EXECUTION_REPORT_STATUS_REJECTED, EXECUTION_REPORT_STATUS_CANCELLED ->
+                    reject(order, "Заявка отклонена брокером: " + response.getExecutionReportStatus());
+            default -> {
+                // NEW и прочие - ждем событий потока
+            }
+        }
+    }
+
+    private void onOrderTrades(OrderTrades trades) {
+        TrackedOrder order = trackedOrders.get(trades.getOrderId());
+        if (order == null) {
+            return; // Не наша заявка (стоп-заявки, ручные сделки)
+        }
+        for (OrderTrade trade : trades.getTradesList()) {
+            order.onTrade(trade.getQuantity(), TinkoffApiUtils.quotationToBigDecimal(trade.getPrice()));
+        }
+        evaluate(order);
+    }
+
+    /**
+     * Позиция появилась в портфеле - подтверждение исполнения, если поток сделок молчит.
+     */
+    private void onPositionChanged(String figi, Position before, Position after) {
+        if (before != null || after == null) {
+            return;
+        }
+        for (TrackedOrder order : trackedOrders.values()) {
+            if (order.figi.equals(figi)) {
+                BigDecimal averagePrice = after.getAveragePositionPrice() != null
+                        ? after.getAveragePositionPrice().getValue() : null;
+                long lots = after.getQuantity().abs().longValue() / order.lotSize;
+                order.onReportedLots(Math.min(lots, order.lotsRequested), averagePrice);
+                evaluate(order);
+            }
+        }
+    }
+
+    private void onTimeout(TrackedOrder order) {
+        if (order.executedLots() > 0) {
+            // Позиция частично открыта - защищаем то, что есть
+            fill(order, "Исполнено частично: " + order.executedLots() + " из " + order.lotsRequested + " лотов");
+        } else {
+            reject(order, "Позиция не появилась на балансе");
+        }
+    }
+
+    private void evaluate(TrackedOrder order) {
+        long lots = order.executedLots();
+        if (lots >= order.lotsRequested) {
+            fill(order, null);
+        } else if (lots > 0) {
+            order.handle.partiallyFilled(lots, order.averagePrice());
+            logger.info("Заявка {} по {}: исполнено {} из {} лотов", order.orderId, order.figi, lots, order.lotsRequested);
+        }
+    }
+
+    private void fill(TrackedOrder order, String message) {
+        if (!order.finish()) {
+            return;
+        }
+        long lots = order.executedLots();
+        BigDecimal price = order.averagePrice();
+        logger.info("Заявка {} по {} исполнена: {} лотов по {}", order.orderId, order.figi, lots, price);
+
+        // STATE MACHINE: Переход в ACTIVE
+        stateMachine.setActive(order.figi);
+        // ЛОГИРОВАНИЕ: Статус ордера и позиция для отслеживания PnL
+        auditService.updateOrderStatus(order.orderId, OrderEntity.OrderStatus.FILLED, price, null, message);
+        auditService.getOrderRepository().findByBrokerOrderId(order.orderId)
+                .ifPresent(saved -> auditService.createPosition(saved, price));
+
+        // Дескриптор завершается после обработчика (выставления SL/TP): до этого полоса FIGI занята,
+        // и следующий сигнал не видит позицию без стопов
+        workers.execute(() -> {
+            CompletableFuture<?> protection = null;
+            try {
+                protection = order.onFilled.onFilled(lots, price);
+            } catch (Exception e) {
+                logger.error("Ошибка обработки исполнения заявки {}: ", order.orderId, e);
+            }
+            if (protection == null) {
+                protection = CompletableFuture.completedFuture(null);
+            }
+            protection.whenComplete((ignored, error) -> order.handle.filled(lots, price, message));
+        });
+    }
+
+    private void reject(TrackedOrder order, String reason) {
+        if (!order.finish()) {
+            return;
+        }
+        logger.error("Заявка {} по {} не исполнена: {}", order.orderId, order.figi, reason);
+        // STATE MACHINE: Возврат к SCANNING
+        stateMachine.resetToScanning(order.figi);
+        // ЛОГИРОВАНИЕ: Обновляем статус ордера как REJECTED
+        auditService.updateOrderStatus(order.orderId, OrderEntity.OrderStatus.REJECTED, null, null, reason);
+        order.handle.reject(reason);
+    }
+
+    // --- ПОТОК СДЕЛОК ---
+
+    private void connect() {
+        try {
+            brokerGateway.subscribeOrderTrades(accountId, this::onOrderTrades, this::onStreamError);
+            streaming = true;
+            logger.info("Подписка на поток сделок по счету активна");
+        } catch (Exception e) {
+            logger.error("Не удалось подписаться на поток сделок: {}", e.getMessage());
+            scheduleReconnect();
+        }
+    }
+
+    private void onStreamError(Throwable error) {
+        if (!streaming) {
+            return;
+        }
+        // Пока потока нет, исполнение подтверждается по портфелю или по таймауту
+        logger.warn("Поток сделок оборван: {}. Переподключение через {} мс", error.getMessage(), reconnectDelayMillis);
+        streaming = false;
+        scheduleReconnect();
+    }
+
+    private void scheduleReconnect() {
+        if (!scheduler.isShutdown()) {
+            scheduler.schedule(this::connect, reconnectDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void evictFinishedHandles() {
+        Instant threshold = Instant.now().minus(FINISHED_HANDLE_RETENTION);
+        handles.values().removeIf(handle -> handle.isFinished() && handle.getUpdatedAt().isBefore(threshold));
+    }
+
+    /**
+     * Обработчик исполнения заявки на вход. Возвращает завершение защитных действий (выставления SL/TP):
+     * дескриптор переходит в FILLED после него.
+     */
+    @FunctionalInterface
+    public interface FillHandler {
+        CompletableFuture<?> onFilled(long lotsExecuted, BigDecimal averagePrice);
+    }
+
+    /**
+     * Отслеживаемая заявка. Исполненный объем - максимум из сообщенного брокером (ответ PostOrder, портфель)
+     * и накопленного по сделкам потока: источники пересекаются, складывать их нельзя.
+     */
+    private final class TrackedOrder {
+        final OrderHandle handle;
+        final String orderId;
+        final String figi;
+        final long lotsRequested;
+        final int lotSize;
+        final BigDecimal requestedPrice;
+        final FillHandler onFilled;
+        volatile ScheduledFuture<?> timeout;
+
+        private long reportedLots;
+        private BigDecimal reportedPrice;
+        private long tradedShares;
+        private BigDecimal tradedAmount = BigDecimal.ZERO;
+        private boolean finished;
+
+        TrackedOrder(OrderHandle handle, String orderId, String figi, long lotsRequested, int lotSize,
+                     BigDecimal requestedPrice, FillHandler onFilled) {
+            this.handle = handle;
+            this.orderId = orderId;
+            this.figi = figi;
+            this.lotsRequested = lotsRequested;
+            this.lotSize = lotSize;
+            this.requestedPrice = requestedPrice;
+            this.onFilled = onFilled;
+        }
+
+        synchronized void onReportedLots(long lots, BigDecimal price) {
+            if (lots > reportedLots) {
+                reportedLots = lots;
+            }
+            if (price != null) {
+                reportedPrice = price;
+            }
+        }
+
+        synchronized void onTrade(long shares, BigDecimal price) {
+            tradedShares += shares;
+            tradedAmount = tradedAmount.add(price.multiply(BigDecimal.valueOf(shares)));
+        }
+
+        synchronized long executedLots() {
+            return Math.max(reportedLots, tradedShares / lotSize);
+        }
+
+        synchronized BigDecimal averagePrice() {
+            if (tradedShares > 0) {
+                return tradedAmount.divide(BigDecimal.valueOf(tradedShares), 9, RoundingMode.HALF_UP).stripTrailingZeros();
+            }
+            return reportedPrice != null ? reportedPrice : requestedPrice;
+        }
+
+        /**
+         * Переводит заявку в конечное состояние один раз; повторные события игнорируются.
+         */
+        synchronized boolean finish() {
+            if (finished) {
+                return false;
+            }
+            finished = true;
+            trackedOrders.remove(orderId);
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            return true;
+        }
+    }
+}
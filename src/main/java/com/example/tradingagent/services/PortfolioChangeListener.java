@@ -0,0 +1,26 @@
+package com.example.tradingagent.services;
+
+import ru.tinkoff.piapi.core.models.Position;
+
+/**
+ * Получатель изменений позиций из PortfolioMirror.
+ * Вызывается последовательно в отдельном потоке зеркала, а не в потоке брокера.
+ */
+@FunctionalInterface
+public interface PortfolioChangeListener {
+
+    /**
+     * Количество бумаг по FIGI изменилось.
+     *
+     * @param before позиция до изменения или null, если ее не было
+     * @param after  позиция после изменения или null, если позиция закрыта
+     */
+    void onPositionChanged(String figi, Position before, Position after);
+
+    /**
+     * Портфель загружен целиком: первая загрузка или переподключение потока. Изменения, случившиеся
+     * до загрузки (пока приложение было остановлено или поток оборван), событиями не приходят.
+     */
+    default void onPortfolioLoaded() {
+    }
+}
@@ -0,0 +1,221 @@
+package com.example.tradingagent.services;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import ru.tinkoff.piapi.core.models.Portfolio;
+import ru.tinkoff.piapi.core.models.Position;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Зеркало портфеля счета в памяти. Портфель загружается один раз, дальше обновляется потоком портфеля брокера.
+ * Потребители (сканер, исполнение сделок, мониторинг позиций) читают локальное состояние вместо getPortfolio.
+ * Изменения количества по FIGI рассылаются слушателям (открытие позиции - событие, без опроса),
+ * после первой загрузки и каждого переподключения потока слушатели получают onPortfolioLoaded.
+ * Пока поток не подключен, чтение обновляет состояние запросом к брокеру, как раньше.
+ */
+@Service
+public class PortfolioMirror {
+
+    private static final Logger logger = LoggerFactory.getLogger(PortfolioMirror.class);
+
+    private final BrokerGateway brokerGateway;
+    private final String accountId;
+    private final boolean enabled;
+    private final long reconnectDelayMillis;
+    private final List<PortfolioChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService executor;
+
+    // Состояние: последний портфель и открытые позиции по FIGI (заменяются целиком под this)
+    private Portfolio portfolio;
+    private Map<String, Position> openPositions = Map.of();
+    private volatile boolean streaming;
+    // Портфель уже загружался опросом (только поток зеркала, при выключенном потоке портфеля)
+    private boolean polled;
+
+    public PortfolioMirror(BrokerGateway brokerGateway,
+                           TinkoffAccountService accountService,
+                           @Value("${portfolio.mirror.enabled:true}") boolean enabled,
+                           @Value("${portfolio.mirror.reconnect-delay-ms:5000}") long reconnectDelayMillis) {
+        this.brokerGateway = brokerGateway;
+        this.accountId = accountService.getSandboxAccountId();
+        this.enabled = enabled;
+        this.reconnectDelayMillis = reconnectDelayMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "portfolio-mirror");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            // Без потока изменения позиций находятся опросом раз в минуту, как раньше в PositionMonitoringService
+            logger.info("Поток портфеля выключен (portfolio.mirror.enabled=false), опрос брокера раз в минуту");
+            executor.scheduleWithFixedDelay(this::poll, 0, 1, TimeUnit.MINUTES);
+            return;
+        }
+        executor.execute(this::connect);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        streaming = false;
+        executor.shutdownNow();
+    }
+
+    public void addListener(PortfolioChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Текущий портфель: из зеркала, если поток подключен, иначе запросом к брокеру.
+     */
+    public Portfolio getPortfolio() {
+        if (!streaming) {
+            return refresh();
+        }
+        synchronized (this) {
+            return portfolio;
+        }
+    }
+
+    /**
+     * Открытая позиция (ненулевое количество) по FIGI.
+     */
+    public Optional<Position> getPosition(String figi) {
+        if (!streaming) {
+            refresh();
+        }
+        synchronized (this) {
+            return Optional.ofNullable(openPositions.get(figi));
+        }
+    }
+
+    /**
+     * FIGI всех открытых позиций.
+     */
+    public Set<String> getOpenFigis() {
+        if (!streaming) {
+            refresh();
+        }
+        synchronized (this) {
+            return Set.copyOf(openPositions.keySet());
+        }
+    }
+
+    private Portfolio refresh() {
+        Portfolio fresh = brokerGateway.getPortfolio(accountId);
+        apply(fresh);
+        return fresh;
+    }
+
+    private void poll() {
+        try {
+            refresh();
+            if (!polled) {
+                polled = true;
+                notifyLoaded();
+            }
+        } catch (Exception e) {
+            logger.error("Ошибка получения портфеля: {}", e.getMessage());
+        }
+    }
+
+    private void connect() {
+        try {
+            refresh();
+            brokerGateway.subscribePortfolio(accountId, this::apply, this::onStreamError);
+            streaming = true;
+            logger.info("Зеркало портфеля подключено к потоку, открытых позиций: {}", getOpenFigis().size());
+            notifyLoaded();
+        } catch (Exception e) {
+            logger.error("Не удалось подключить зеркало портфеля: {}", e.getMessage());
+            scheduleReconnect();
+        }
+    }
+
+    private void onStreamError(Throwable error) {
+        if (!streaming) {
+            return;
+        }
+        logger.warn("Поток портфеля оборван: {}. Переподключение через {} мс", error.getMessage(), reconnectDelayMillis);
+        streaming = false;
+        scheduleReconnect();
+    }
+
+    private void scheduleReconnect() {
+        if (!executor.isShutdown()) {
+            executor.schedule(this::connect, reconnectDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Сообщает слушателям о загрузке портфеля целиком (в потоке зеркала).
+     */
+    private void notifyLoaded() {
+        for (PortfolioChangeListener listener : listeners) {
+            try {
+                listener.onPortfolioLoaded();
+            } catch (Exception e) {
+                logger.error("Ошибка слушателя портфеля при загрузке: ", e);
+            }
+        }
+    }
+
+    /**
+     * Применяет новый портфель: заменяет состояние, будит ожидающих и рассылает изменения количества.
+     */
+    private void apply(Portfolio fresh) {
+        Map<String, Position> positions = new HashMap<>();
+        for (Position position : fresh.getPositions()) {
+            if (position.getQuantity().compareTo(BigDecimal.ZERO) != 0) {
+                positions.put(position.getFigi(), position);
+            }
+        }
+        Map<String, Position> previous;
+        synchronized (this) {
+            previous = openPositions;
+            portfolio = fresh;
+            openPositions = Map.copyOf(positions);
+        }
+        if (listeners.isEmpty()) {
+            return;
+        }
+        Set<String> figis = new HashSet<>(previous.keySet());
+        figis.addAll(positions.keySet());
+        for (String figi : figis) {
+            Position before = previous.get(figi);
+            Position after = positions.get(figi);
+            if (before != null && after != null && before.getQuantity().compareTo(after.getQuantity()) == 0) {
+                continue; // Изменились только цены
+            }
+            // Слушатели работают в потоке зеркала, чтобы не задерживать поток брокера
+            executor.execute(() -> {
+                for (PortfolioChangeListener listener : listeners) {
+                    try {
+                        listener.onPositionChanged(figi, before, after);
+                    } catch (Exception e) {
+                        logger.error("Ошибка слушателя портфеля по {}: ", figi, e);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -1,16 +1,13 @@
 package com.example.tradingagent.services;
 
-import com.example.tradingagent.TinkoffApi;
 import com.example.tradingagent.entities.OrderEntity;
 import com.example.tradingagent.entities.PositionEntity;
 import com.example.tradingagent.repositories.OrderEntityRepository;
 import com.example.tradingagent.repositories.PositionEntityRepository;
+import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import ru.tinkoff.piapi.core.InvestApi;
-import ru.tinkoff.piapi.core.models.Portfolio;
 import ru.tinkoff.piapi.core.models.Position;
 
 import java.math.BigDecimal;
@@ -19,27 +16,27 @@ import java.util.List;
 /**
  * Сервис для мониторинга позиций и обработки закрытия через SL/TP.
  * Проверяет закрытые позиции и логирует их в БД.
+ * Проверка запускается событием PortfolioMirror об изменении позиции, а не опросом портфеля,
+ * и после загрузки портфеля (старт, переподключение потока) - для позиций, закрытых без событий.
  */
 @Service
-public class PositionMonitoringService {
+public class PositionMonitoringService implements PortfolioChangeListener {
 
     private static final Logger logger = LoggerFactory.getLogger(PositionMonitoringService.class);
-    private final InvestApi api;
-    private final String accountId;
+    private final PortfolioMirror portfolioMirror;
     private final PositionEntityRepository positionRepository;
     private final OrderEntityRepository orderRepository;
     private final AuditService auditService;
     private final TradingStateMachine stateMachine;
     private final TelegramNotificationService telegramService;
 
-    public PositionMonitoringService(TinkoffAccountService accountService,
+    public PositionMonitoringService(PortfolioMirror portfolioMirror,
                                      PositionEntityRepository positionRepository,
                                      OrderEntityRepository orderRepository,
                                      AuditService auditService,
                                      TradingStateMachine stateMachine,
                                      TelegramNotificationService telegramService) {
-        this.api = TinkoffApi.getApi();
-        this.accountId = accountService.getSandboxAccountId();
+        this.portfolioMirror = portfolioMirror;
         this.positionRepository = positionRepository;
         this.orderRepository = orderRepository;
         this.auditService = auditService;
@@ -47,15 +44,36 @@ public class PositionMonitoringService {
         this.telegramService = telegramService;
     }
 
+    @PostConstruct
+    public void subscribe() {
+        portfolioMirror.addListener(this);
+    }
+
+    /**
+     * Позиция исчезла из портфеля (сработал SL/TP или закрыта вручную) - проверяем позиции в БД.
+     */
+    @Override
+    public void onPositionChanged(String figi, Position before, Position after) {
+        if (before != null && after == null) {
+            checkClosedPositions();
+        }
+    }
+
+    /**
+     * Портфель загружен заново: позиция могла закрыться, пока приложение было остановлено или поток оборван.
+     */
+    @Override
+    public void onPortfolioLoaded() {
+        checkClosedPositions();
+    }
+
     /**
      * Проверяет закрытые позиции и логирует их в БД.
-     * Вызывается периодически через @Scheduled.
+     * Вызывается при закрытии позиции в портфеле и после загрузки портфеля (PortfolioMirror).
      */
-    @Scheduled(fixedRate = 60000) // Каждую минуту
     public void checkClosedPositions() {
         try {
-            Portfolio portfolio = api.getOperationsService().getPortfolioSync(accountId);
-            List<Position> currentPositions = portfolio.getPositions();
+            List<Position> currentPositions = portfolioMirror.getPortfolio().getPositions();
             
             // Получаем все активные позиции из БД (без exit order)
             List<PositionEntity> dbPositions = positionRepository.findByExitOrderIsNull();
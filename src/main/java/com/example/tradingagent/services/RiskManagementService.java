@@ -1,5 +1,6 @@
 package com.example.tradingagent.services;
 
+import com.example.tradingagent.FixedPoint;
 import org.springframework.stereotype.Service;
 import ru.tinkoff.piapi.contract.v1.Instrument;
 
@@ -27,16 +28,31 @@ public class RiskManagementService {
         if (balance == null || balance.compareTo(BigDecimal.ZERO) <= 0) {
             return 0;
         }
+        return calculateSafeLotSize(FixedPoint.fromBigDecimal(balance), FixedPoint.fromBigDecimal(entryPrice),
+                instrument.getLot());
+    }
+
+    /**
+     * То же правило в фиксированной точке (FixedPoint, нано-единицы) - для бэктеста, без аллокаций.
+     *
+     * @param balanceNanos    Текущий свободный баланс.
+     * @param entryPriceNanos Цена входа.
+     * @param lotSize         Размер лота инструмента.
+     * @return 1, если хватает средств, иначе 0.
+     */
+    public long calculateSafeLotSize(long balanceNanos, long entryPriceNanos, int lotSize) {
+        if (balanceNanos <= 0) {
+            return 0;
+        }
 
-        int lotSize = instrument.getLot();
-        BigDecimal lotPrice = entryPrice.multiply(BigDecimal.valueOf(lotSize));
+        long lotPrice = FixedPoint.times(entryPriceNanos, lotSize);
 
         // Простая логика: если денег хватает на 1 лот — берем 1 лот.
-        if (balance.compareTo(lotPrice) >= 0) {
+        if (balanceNanos >= lotPrice) {
             return 1;
         } else {
             // Если денег не хватает даже на 1 лот
             return 0;
         }
     }
-}
\ No newline at end of file
+}
@@ -1,136 +1,69 @@
 package com.example.tradingagent.services;
 
 import java.math.BigDecimal;
-import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Потокобезопасный общий баланс для бэктеста всех тикеров.
+ * Та же логика, что и в BacktestLedger, но все операции синхронизированы -
+ * для случая, когда тикеры проигрываются в разных потоках.
  */
-public class SharedBacktestBalance {
-    
-    private final AtomicReference<BigDecimal> availableBalance;
-    private final AtomicReference<BigDecimal> lockedBalance;
-    private final AtomicReference<BigDecimal> totalBalance;
-    private final AtomicReference<BigDecimal> peakBalance;
-    private final AtomicReference<BigDecimal> maxDrawdown;
-    private final AtomicReference<BigDecimal> maxDrawdownPercent;
-    
+public class SharedBacktestBalance extends BacktestLedger {
+
     public SharedBacktestBalance(BigDecimal initialBalance) {
-        this.availableBalance = new AtomicReference<>(initialBalance);
-        this.lockedBalance = new AtomicReference<>(BigDecimal.ZERO);
-        this.totalBalance = new AtomicReference<>(initialBalance);
-        this.peakBalance = new AtomicReference<>(initialBalance);
-        this.maxDrawdown = new AtomicReference<>(BigDecimal.ZERO);
-        this.maxDrawdownPercent = new AtomicReference<>(BigDecimal.ZERO);
+        super(initialBalance);
     }
-    
+
     /**
      * Синхронизированное открытие позиции
      */
-    public synchronized boolean openPosition(BigDecimal tradeAmount, BigDecimal entryCommission) {
-        BigDecimal currentAvailable = availableBalance.get();
-        if (currentAvailable.compareTo(tradeAmount.add(entryCommission)) < 0) {
-            return false; // Недостаточно средств
-        }
-        
-        BigDecimal newAvailable = currentAvailable.subtract(tradeAmount).subtract(entryCommission);
-        BigDecimal newLocked = lockedBalance.get().add(tradeAmount);
-        BigDecimal newTotal = newAvailable.add(newLocked);
-        
-        availableBalance.set(newAvailable);
-        lockedBalance.set(newLocked);
-        totalBalance.set(newTotal);
-        
-        updatePeakAndDrawdown(newTotal);
-        return true;
+    @Override
+    public synchronized boolean openPosition(long tradeAmount, long entryCommission) {
+        return super.openPosition(tradeAmount, entryCommission);
     }
-    
+
     /**
      * Синхронизированное закрытие позиции
      */
-    public synchronized void closePosition(BigDecimal lockedAmount, BigDecimal netPnL) {
-        BigDecimal newAvailable = availableBalance.get().add(lockedAmount).add(netPnL);
-        BigDecimal newLocked = lockedBalance.get().subtract(lockedAmount);
-        BigDecimal newTotal = newAvailable.add(newLocked);
-        
-        availableBalance.set(newAvailable);
-        lockedBalance.set(newLocked);
-        totalBalance.set(newTotal);
-        
-        updatePeakAndDrawdown(newTotal);
+    @Override
+    public synchronized void closePosition(long lockedAmount, long netPnL, long lastUnrealizedPnL) {
+        super.closePosition(lockedAmount, netPnL, lastUnrealizedPnL);
     }
-    
+
     /**
      * Синхронизированное обновление unrealized PnL
      */
-    public synchronized void updateUnrealizedPnL(BigDecimal lockedAmount, BigDecimal unrealizedPnL) {
-        BigDecimal currentAvailable = availableBalance.get();
-        BigDecimal newTotal = currentAvailable.add(lockedAmount).add(unrealizedPnL);
-        totalBalance.set(newTotal);
-        updatePeakAndDrawdown(newTotal);
-    }
-    
-    /**
-     * Получить текущий доступный баланс
-     */
-    public BigDecimal getAvailableBalance() {
-        return availableBalance.get();
+    @Override
+    public synchronized void updateUnrealizedPnL(long previousUnrealizedPnL, long unrealizedPnL) {
+        super.updateUnrealizedPnL(previousUnrealizedPnL, unrealizedPnL);
     }
-    
-    /**
-     * Получить текущий заблокированный баланс
-     */
-    public BigDecimal getLockedBalance() {
-        return lockedBalance.get();
+
+    @Override
+    public synchronized long getAvailableBalanceNanos() {
+        return super.getAvailableBalanceNanos();
     }
-    
-    /**
-     * Получить общий баланс
-     */
-    public BigDecimal getTotalBalance() {
-        return totalBalance.get();
+
+    @Override
+    public synchronized long getTotalBalanceNanos() {
+        return super.getTotalBalanceNanos();
     }
-    
-    /**
-     * Получить пиковый баланс
-     */
-    public BigDecimal getPeakBalance() {
-        return peakBalance.get();
+
+    @Override
+    public synchronized BigDecimal getLockedBalance() {
+        return super.getLockedBalance();
     }
-    
-    /**
-     * Получить максимальную просадку
-     */
-    public BigDecimal getMaxDrawdown() {
-        return maxDrawdown.get();
+
+    @Override
+    public synchronized BigDecimal getPeakBalance() {
+        return super.getPeakBalance();
     }
-    
-    /**
-     * Получить максимальную просадку в процентах
-     */
-    public BigDecimal getMaxDrawdownPercent() {
-        return maxDrawdownPercent.get();
+
+    @Override
+    public synchronized BigDecimal getMaxDrawdown() {
+        return super.getMaxDrawdown();
     }
-    
-    /**
-     * Обновить пик и просадку
-     */
-    private void updatePeakAndDrawdown(BigDecimal currentTotal) {
-        BigDecimal currentPeak = peakBalance.get();
-        if (currentTotal.compareTo(currentPeak) > 0) {
-            peakBalance.set(currentTotal);
-            currentPeak = currentTotal;
-        }
-        
-        BigDecimal drawdown = currentPeak.subtract(currentTotal);
-        BigDecimal currentMaxDrawdown = maxDrawdown.get();
-        if (drawdown.compareTo(currentMaxDrawdown) > 0) {
-            maxDrawdown.set(drawdown);
-            if (currentPeak.compareTo(BigDecimal.ZERO) > 0) {
-                BigDecimal drawdownPercent = drawdown.divide(currentPeak, 4, java.math.RoundingMode.HALF_UP)
-                        .multiply(BigDecimal.valueOf(100));
-                maxDrawdownPercent.set(drawdownPercent);
-            }
-        }
+
+    @Override
+    public synchronized BigDecimal getMaxDrawdownPercent() {
+        return super.getMaxDrawdownPercent();
     }
 }
@@ -0,0 +1,45 @@
+package com.example.tradingagent.services;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+/**
+ * Часы бэктеста: показывают время текущей свечи, а не системное.
+ * Бэктест сдвигает их вперед на каждой свече через advanceTo().
+ * Один экземпляр на прогон; назад время не идет.
+ */
+public class SimulatedClock extends Clock {
+
+    private volatile Instant now;
+
+    public SimulatedClock(Instant start) {
+        this.now = start;
+    }
+
+    /**
+     * Переводит часы на момент свечи. Более ранний момент игнорируется.
+     */
+    public void advanceTo(Instant instant) {
+        if (instant.isAfter(now)) {
+            now = instant;
+        }
+    }
+
+    @Override
+    public Instant instant() {
+        return now;
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        // Симулированное время не зависит от зоны
+        return this;
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.tradingagent.services;
+
+import com.example.tradingagent.dto.SnapshotFeedItem;
+import com.example.tradingagent.entities.MarketSnapshotHourly;
+import com.example.tradingagent.entities.RollupGranularity;
+import com.example.tradingagent.repositories.MarketSnapshotHourlyRepository;
+import com.example.tradingagent.repositories.MarketSnapshotRepository;
+import com.example.tradingagent.repositories.TradeDecisionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * Сжатие старой истории market_snapshot: снимки старше audit.compaction.retain-days сворачиваются в часовые
+ * агрегаты по тикеру (market_snapshot_hourly: OHLC цены закрытия, средние RSI/ADX/ATR), после чего снимки и
+ * ссылающиеся на них решения удаляются. Счетчики решений при этом не теряются - они уже в decision_rollup.
+ * Обрабатывается по одним суткам UTC в транзакции (агрегаты и удаление вместе), удаление - диапазоном
+ * по индексу timestamp, поэтому объем таблиц и время вставки/запросов не растут с возрастом бота.
+ * Выключено по умолчанию (audit.compaction.enabled): удаляет исходные строки.
+ */
+@Service
+public class SnapshotCompactionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotCompactionService.class);
+
+    private static final long DAY_SECONDS = Duration.ofDays(1).toSeconds();
+
+    // Сутки сжимаются целиком в одной транзакции, поэтому час пишется один раз; при повторе значения сливаются
+    private static final String HOURLY_UPSERT =
+            "INSERT INTO market_snapshot_hourly (ticker, bucket_epoch, price_open, price_high, price_low, price_close, " +
+            "rsi_avg, adx_avg, atr_avg, sample_count) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE price_high = GREATEST(COALESCE(price_high, VALUES(price_high)), " +
+            "COALESCE(VALUES(price_high), price_high)), " +
+            "price_low = LEAST(COALESCE(price_low, VALUES(price_low)), COALESCE(VALUES(price_low), price_low)), " +
+            "price_close = COALESCE(VALUES(price_close), price_close), " +
+            "rsi_avg = COALESCE(VALUES(rsi_avg), rsi_avg), adx_avg = COALESCE(VALUES(adx_avg), adx_avg), " +
+            "atr_avg = COALESCE(VALUES(atr_avg), atr_avg), sample_count = sample_count + VALUES(sample_count)";
+
+    private final MarketSnapshotRepository marketSnapshotRepository;
+    private final TradeDecisionRepository tradeDecisionRepository;
+    private final MarketSnapshotHourlyRepository hourlyRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int retainDays;
+    private final int maxDaysPerRun;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    public SnapshotCompactionService(MarketSnapshotRepository marketSnapshotRepository,
+                                     TradeDecisionRepository tradeDecisionRepository,
+                                     MarketSnapshotHourlyRepository hourlyRepository,
+                                     JdbcTemplate jdbcTemplate,
+                                     PlatformTransactionManager transactionManager,
+                                     @Value("${audit.compaction.enabled:false}") boolean enabled,
+                                     @Value("${audit.compaction.retain-days:30}") int retainDays,
+                                     @Value("${audit.compaction.max-days-per-run:7}") int maxDaysPerRun) {
+        this.marketSnapshotRepository = marketSnapshotRepository;
+        this.tradeDecisionRepository = tradeDecisionRepository;
+        this.hourlyRepository = hourlyRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.retainDays = Math.max(1, retainDays);
+        this.maxDaysPerRun = Math.max(1, maxDaysPerRun);
+    }
+
+    /**
+     * Ночной прогон: сжимает самые старые сутки, вышедшие за срок хранения, не больше max-days-per-run за раз
+     * (первый запуск на накопленной истории растягивается на несколько ночей, а не блокирует БД).
+     */
+    @Scheduled(cron = "${audit.compaction.cron:0 30 3 * * *}")
+    public void compact() {
+        if (!enabled || !running.compareAndSet(false, true)) {
+            return;
+        }
+        long started = System.currentTimeMillis();
+        try {
+            Instant cutoff = Instant.now().truncatedTo(ChronoUnit.DAYS).minus(retainDays, ChronoUnit.DAYS);
+            Instant oldest = marketSnapshotRepository.findOldestTimestamp();
+            if (oldest == null || !oldest.isBefore(cutoff)) {
+                return;
+            }
+            Instant day = oldest.truncatedTo(ChronoUnit.DAYS);
+            int days = 0;
+            while (day.isBefore(cutoff) && days < maxDaysPerRun) {
+                compactDay(day);
+                day = day.plus(1, ChronoUnit.DAYS);
+                days++;
+            }
+            logger.info("Сжатие снимков: {} сут. до {} за {} мс", days, day, System.currentTimeMillis() - started);
+        } catch (Exception e) {
+            logger.error("Ошибка сжатия снимков рынка: ", e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * Часовые агрегаты тикера за [from, to).
+     */
+    public List<MarketSnapshotHourly> getHourly(String ticker, Instant from, Instant to) {
+        return hourlyRepository.findByTickerAndBucketEpochGreaterThanEqualAndBucketEpochLessThanOrderByBucketEpoch(
+                ticker, from.getEpochSecond(), to.getEpochSecond());
+    }
+
+    private void compactDay(Instant day) {
+        Instant next = day.plusSeconds(DAY_SECONDS);
+        transactionTemplate.executeWithoutResult(status -> {
+            Map<HourKey, HourAggregate> hours = new LinkedHashMap<>();
+            try (Stream<SnapshotFeedItem> rows = marketSnapshotRepository.streamFeed(day, next)) {
+                // Строки по возрастанию времени: первая в часе - open, последняя - close
+                rows.forEach(row -> hours.computeIfAbsent(
+                        new HourKey(row.ticker(), RollupGranularity.HOUR.bucketOf(row.timestamp().getEpochSecond())),
+                        key -> new HourAggregate()).add(row));
+            }
+            upsertHours(hours);
+            int decisions = tradeDecisionRepository.deleteBySnapshotTimestampRange(day, next);
+            int snapshots = marketSnapshotRepository.deleteByTimestampRange(day, next);
+            logger.info("Сутки {}: {} снимков -> {} часовых агрегатов, удалено решений: {}",
+                    day, snapshots, hours.size(), decisions);
+        });
+    }
+
+    private void upsertHours(Map<HourKey, HourAggregate> hours) {
+        if (hours.isEmpty()) {
+            return;
+        }
+        List<Object[]> rows = new ArrayList<>(hours.size());
+        hours.forEach((key, hour) -> rows.add(new Object[]{
+                key.ticker(), key.bucketEpoch(), hour.open, hour.high, hour.low, hour.close,
+                hour.rsi.average(), hour.adx.average(), hour.atr.average(), hour.samples}));
+        jdbcTemplate.batchUpdate(HOURLY_UPSERT, rows);
+    }
+
+    private record HourKey(String ticker, long bucketEpoch) {
+    }
+
+    private static final class HourAggregate {
+        BigDecimal open;
+        BigDecimal high;
+        BigDecimal low;
+        BigDecimal close;
+        final Average rsi = new Average();
+        final Average adx = new Average();
+        final Average atr = new Average();
+        long samples;
+
+        void add(SnapshotFeedItem row) {
+            samples++;
+            BigDecimal price = row.priceClose();
+            if (price != null) {
+                if (open == null) {
+                    open = price;
+                }
+                high = high == null || price.compareTo(high) > 0 ? price : high;
+                low = low == null || price.compareTo(low) < 0 ? price : low;
+                close = price;
+            }
+            rsi.add(row.rsiValue());
+            adx.add(row.adxValue());
+            atr.add(row.atrValue());
+        }
+    }
+
+    private static final class Average {
+        BigDecimal sum = BigDecimal.ZERO;
+        long count;
+
+        void add(BigDecimal value) {
+            if (value != null) {
+                sum = sum.add(value);
+                count++;
+            }
+        }
+
+        BigDecimal average() {
+            return count == 0 ? null : sum.divide(BigDecimal.valueOf(count), 4, RoundingMode.HALF_UP);
+        }
+    }
+}
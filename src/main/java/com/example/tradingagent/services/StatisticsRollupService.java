@@ -0,0 +1,424 @@
+package com.example.tradingagent.services;
+
+import com.example.tradingagent.entities.*;
+import com.example.tradingagent.repositories.DecisionRollupRepository;
+import com.example.tradingagent.repositories.OrderEntityRepository;
+import com.example.tradingagent.repositories.PositionEntityRepository;
+import com.example.tradingagent.repositories.PositionRollupRepository;
+import com.example.tradingagent.repositories.TradeDecisionRepository;
+import jakarta.annotation.PostConstruct;
+import org.hibernate.Hibernate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Часовые и суточные агрегаты решений и позиций (таблицы decision_rollup, position_rollup).
+ * Агрегаты увеличиваются атомарным upsert (INSERT ... ON DUPLICATE KEY UPDATE) в той же транзакции,
+ * что и запись решений/позиций, поэтому статистика читает десятки строк агрегатов вместо всех записей периода.
+ * Период раскладывается на целые сутки (DAY) и часы по краям (HOUR); точность - до часа:
+ * час на границе периода учитывается целиком.
+ * При первом запуске (агрегаты пусты) они строятся по накопленной истории в фоне.
+ */
+@Service
+public class StatisticsRollupService {
+
+    private static final Logger logger = LoggerFactory.getLogger(StatisticsRollupService.class);
+
+    private static final RollupGranularity[] GRANULARITIES = RollupGranularity.values();
+    private static final int REBUILD_PAGE_SIZE = 5_000;
+
+    private static final String DECISION_UPSERT =
+            "INSERT INTO decision_rollup (granularity, bucket_epoch, ticker, decision, reason_code, decision_count) " +
+            "VALUES (?, ?, ?, ?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE decision_count = decision_count + VALUES(decision_count)";
+
+    private static final String POSITION_UPSERT =
+            "INSERT INTO position_rollup (granularity, bucket_epoch, ticker, opened_count, closed_count, win_count, " +
+            "loss_count, pnl_sum, profit_sum, loss_sum) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE opened_count = opened_count + VALUES(opened_count), " +
+            "closed_count = closed_count + VALUES(closed_count), win_count = win_count + VALUES(win_count), " +
+            "loss_count = loss_count + VALUES(loss_count), pnl_sum = pnl_sum + VALUES(pnl_sum), " +
+            "profit_sum = profit_sum + VALUES(profit_sum), loss_sum = loss_sum + VALUES(loss_sum)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final DecisionRollupRepository decisionRollupRepository;
+    private final PositionRollupRepository positionRollupRepository;
+    private final TradeDecisionRepository tradeDecisionRepository;
+    private final PositionEntityRepository positionRepository;
+    private final OrderEntityRepository orderRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean rebuildOnStart;
+    private volatile boolean rebuildNeeded;
+    // Записи раньше этого момента учитывает первичное построение, позже - инкрементальные upsert
+    private volatile Instant rebuildCutoff;
+
+    public StatisticsRollupService(JdbcTemplate jdbcTemplate,
+                                   DecisionRollupRepository decisionRollupRepository,
+                                   PositionRollupRepository positionRollupRepository,
+                                   TradeDecisionRepository tradeDecisionRepository,
+                                   PositionEntityRepository positionRepository,
+                                   OrderEntityRepository orderRepository,
+                                   PlatformTransactionManager transactionManager,
+                                   @Value("${statistics.rollups.rebuild-on-start:true}") boolean rebuildOnStart) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.decisionRollupRepository = decisionRollupRepository;
+        this.positionRollupRepository = positionRollupRepository;
+        this.tradeDecisionRepository = tradeDecisionRepository;
+        this.positionRepository = positionRepository;
+        this.orderRepository = orderRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.rebuildOnStart = rebuildOnStart;
+    }
+
+    /**
+     * Проверка до того, как AuditWriter начнет писать: пустые агрегаты - первый запуск.
+     */
+    @PostConstruct
+    public void checkRollups() {
+        rebuildCutoff = Instant.now();
+        rebuildNeeded = rebuildOnStart
+                && decisionRollupRepository.count() == 0 && positionRollupRepository.count() == 0;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (rebuildNeeded) {
+            Thread thread = new Thread(this::rebuild, "rollup-rebuild");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    // --- ИНКРЕМЕНТЫ (вызываются внутри транзакции записи) ---
+
+    /**
+     * Учитывает записанные решения. Решения пачки сначала суммируются в памяти, затем один JDBC-батч upsert.
+     */
+    public void recordDecisions(Collection<TradeDecision> decisions) {
+        Map<DecisionKey, Long> counts = new HashMap<>();
+        for (TradeDecision decision : decisions) {
+            if (decision.getSnapshot() == null || decision.getTimestamp() == null) {
+                continue;
+            }
+            addDecision(counts, decision.getSnapshot().getTicker(), decision.getDecision(),
+                    decision.getReasonCode(), decision.getTimestamp());
+        }
+        upsertDecisions(counts);
+    }
+
+    public void recordPositionOpened(PositionEntity position) {
+        String ticker = tickerOf(position);
+        PositionDelta delta = new PositionDelta();
+        delta.opened = 1;
+        upsertPositions(deltas(ticker, position.getTimestamp(), delta));
+    }
+
+    public void recordPositionClosed(PositionEntity position) {
+        String ticker = tickerOf(position);
+        PositionDelta delta = new PositionDelta();
+        delta.addClosed(position.getPnlAbsolute());
+        upsertPositions(deltas(ticker, position.getTimestamp(), delta));
+    }
+
+    // --- ЧТЕНИЕ ---
+
+    /**
+     * Решения за период: всего, по типам и причины IGNORE.
+     */
+    public DecisionTotals getDecisionTotals(Instant from, Instant to) {
+        DecisionTotals totals = new DecisionTotals();
+        for (Range range : split(from, to)) {
+            for (DecisionRollup rollup : decisionRollupRepository
+                    .findByGranularityAndBucketEpochGreaterThanEqualAndBucketEpochLessThan(
+                            range.granularity(), range.fromEpoch(), range.toEpoch())) {
+                totals.add(rollup);
+            }
+        }
+        return totals;
+    }
+
+    /**
+     * Позиции за период (по времени входа): открытые, закрытые, прибыльные/убыточные, суммы PnL.
+     */
+    public PositionTotals getPositionTotals(Instant from, Instant to) {
+        PositionTotals totals = new PositionTotals();
+        for (Range range : split(from, to)) {
+            for (PositionRollup rollup : positionRollupRepository
+                    .findByGranularityAndBucketEpochGreaterThanEqualAndBucketEpochLessThan(
+                            range.granularity(), range.fromEpoch(), range.toEpoch())) {
+                totals.add(rollup);
+            }
+        }
+        return totals;
+    }
+
+    /**
+     * Период [from, to) в интервалах агрегатов: часы до первой полночи UTC, целые сутки, часы после последней.
+     */
+    static List<Range> split(Instant from, Instant to) {
+        long start = RollupGranularity.HOUR.bucketOf(from.getEpochSecond());
+        long end = RollupGranularity.HOUR.bucketOf(to.getEpochSecond() - 1) + RollupGranularity.HOUR.getSeconds();
+        List<Range> ranges = new ArrayList<>(3);
+        if (end <= start) {
+            return ranges;
+        }
+        long day = RollupGranularity.DAY.getSeconds();
+        long firstDay = RollupGranularity.DAY.bucketOf(start + day - 1);
+        long lastDay = RollupGranularity.DAY.bucketOf(end);
+        if (firstDay >= lastDay) {
+            ranges.add(new Range(RollupGranularity.HOUR, start, end));
+            return ranges;
+        }
+        if (start < firstDay) {
+            ranges.add(new Range(RollupGranularity.HOUR, start, firstDay));
+        }
+        ranges.add(new Range(RollupGranularity.DAY, firstDay, lastDay));
+        if (lastDay < end) {
+            ranges.add(new Range(RollupGranularity.HOUR, lastDay, end));
+        }
+        return ranges;
+    }
+
+    // --- ПЕРВИЧНОЕ ПОСТРОЕНИЕ ---
+
+    private void rebuild() {
+        Instant cutoff = rebuildCutoff;
+        long started = System.currentTimeMillis();
+        try {
+            long decisions = 0;
+            Pageable page = PageRequest.of(0, REBUILD_PAGE_SIZE);
+            while (true) {
+                Slice<TradeDecisionRepository.DecisionRollupSource> slice =
+                        tradeDecisionRepository.findRollupSourceBefore(cutoff, page);
+                Map<DecisionKey, Long> counts = new HashMap<>();
+                for (TradeDecisionRepository.DecisionRollupSource source : slice) {
+                    addDecision(counts, source.getTicker(), source.getDecision(), source.getReasonCode(), source.getTimestamp());
+                }
+                transactionTemplate.executeWithoutResult(status -> upsertDecisions(counts));
+                decisions += slice.getNumberOfElements();
+                if (!slice.hasNext()) {
+                    break;
+                }
+                page = slice.nextPageable();
+            }
+
+            long positions = 0;
+            // Страницы по (timestamp, id) до cutoff, как у решений: без ORDER BY OFFSET не гарантирует,
+            // что строки не повторятся и не пропадут между страницами
+            page = PageRequest.of(0, REBUILD_PAGE_SIZE, Sort.by("timestamp", "id"));
+            while (true) {
+                Slice<PositionEntity> slice = positionRepository.findByTimestampBefore(cutoff, page);
+                Map<PositionKey, PositionDelta> deltas = new HashMap<>();
+                transactionTemplate.executeWithoutResult(status -> {
+                    for (PositionEntity position : slice) {
+                        rebuildPosition(position, cutoff, deltas);
+                    }
+                    upsertPositions(deltas);
+                });
+                positions += slice.getNumberOfElements();
+                if (!slice.hasNext()) {
+                    break;
+                }
+                page = slice.nextPageable();
+            }
+            logger.info("Агрегаты статистики построены: {} решений, {} позиций за {} мс",
+                    decisions, positions, System.currentTimeMillis() - started);
+        } catch (Exception e) {
+            logger.error("Ошибка построения агрегатов статистики (очистите decision_rollup и position_rollup " +
+                    "для повторного построения): ", e);
+        }
+    }
+
+    private void rebuildPosition(PositionEntity position, Instant cutoff, Map<PositionKey, PositionDelta> deltas) {
+        if (position.getTimestamp() == null || !position.getTimestamp().isBefore(cutoff)) {
+            return;
+        }
+        PositionDelta delta = new PositionDelta();
+        delta.opened = 1;
+        // Закрытие после cutoff уже учтено инкрементом в closePosition
+        if (position.getExitOrder() != null && position.getDurationSeconds() != null
+                && position.getTimestamp().plusSeconds(position.getDurationSeconds()).isBefore(cutoff)) {
+            delta.addClosed(position.getPnlAbsolute());
+        }
+        deltas(tickerOf(position), position.getTimestamp(), delta).forEach(
+                (key, value) -> deltas.merge(key, value, PositionDelta::merge));
+    }
+
+    // --- UPSERT ---
+
+    private static void addDecision(Map<DecisionKey, Long> counts, String ticker, TradeDecision.DecisionType decision,
+                                    String reasonCode, Instant timestamp) {
+        String reason = decision == TradeDecision.DecisionType.IGNORE && reasonCode != null ? reasonCode : "";
+        long epoch = timestamp.getEpochSecond();
+        for (RollupGranularity granularity : GRANULARITIES) {
+            counts.merge(new DecisionKey(granularity, granularity.bucketOf(epoch), ticker, decision, reason), 1L, Long::sum);
+        }
+    }
+
+    private void upsertDecisions(Map<DecisionKey, Long> counts) {
+        if (counts.isEmpty()) {
+            return;
+        }
+        List<Object[]> rows = new ArrayList<>(counts.size());
+        counts.forEach((key, count) -> rows.add(new Object[]{
+                key.granularity().name(), key.bucketEpoch(), key.ticker(), key.decision().name(), key.reasonCode(), count}));
+        jdbcTemplate.batchUpdate(DECISION_UPSERT, rows);
+    }
+
+    private static Map<PositionKey, PositionDelta> deltas(String ticker, Instant entryTime, PositionDelta delta) {
+        Map<PositionKey, PositionDelta> deltas = new HashMap<>();
+        long epoch = entryTime.getEpochSecond();
+        for (RollupGranularity granularity : GRANULARITIES) {
+            deltas.put(new PositionKey(granularity, granularity.bucketOf(epoch), ticker), delta);
+        }
+        return deltas;
+    }
+
+    private void upsertPositions(Map<PositionKey, PositionDelta> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        List<Object[]> rows = new ArrayList<>(deltas.size());
+        deltas.forEach((key, delta) -> rows.add(new Object[]{
+                key.granularity().name(), key.bucketEpoch(), key.ticker(), delta.opened, delta.closed,
+                delta.wins, delta.losses, delta.pnl, delta.profit, delta.loss}));
+        jdbcTemplate.batchUpdate(POSITION_UPSERT, rows);
+    }
+
+    /**
+     * Тикер позиции без инициализации ленивого прокси вне сессии.
+     */
+    private String tickerOf(PositionEntity position) {
+        OrderEntity entryOrder = position.getEntryOrder();
+        if (entryOrder == null) {
+            return "UNKNOWN";
+        }
+        if (Hibernate.isInitialized(entryOrder)) {
+            return entryOrder.getTicker();
+        }
+        return orderRepository.findById(entryOrder.getId()).map(OrderEntity::getTicker).orElse("UNKNOWN");
+    }
+
+    // --- ТИПЫ ---
+
+    record Range(RollupGranularity granularity, long fromEpoch, long toEpoch) {
+    }
+
+    private record DecisionKey(RollupGranularity granularity, long bucketEpoch, String ticker,
+                               TradeDecision.DecisionType decision, String reasonCode) {
+    }
+
+    private record PositionKey(RollupGranularity granularity, long bucketEpoch, String ticker) {
+    }
+
+    private static final class PositionDelta {
+        long opened;
+        long closed;
+        long wins;
+        long losses;
+        BigDecimal pnl = BigDecimal.ZERO;
+        BigDecimal profit = BigDecimal.ZERO;
+        BigDecimal loss = BigDecimal.ZERO;
+
+        void addClosed(BigDecimal pnlAbsolute) {
+            closed++;
+            if (pnlAbsolute == null) {
+                return;
+            }
+            pnl = pnl.add(pnlAbsolute);
+            if (pnlAbsolute.signum() > 0) {
+                wins++;
+                profit = profit.add(pnlAbsolute);
+            } else if (pnlAbsolute.signum() < 0) {
+                losses++;
+                loss = loss.add(pnlAbsolute);
+            }
+        }
+
+        PositionDelta merge(PositionDelta other) {
+            PositionDelta sum = new PositionDelta();
+            sum.opened = opened + other.opened;
+            sum.closed = closed + other.closed;
+            sum.wins = wins + other.wins;
+            sum.losses = losses + other.losses;
+            sum.pnl = pnl.add(other.pnl);
+            sum.profit = profit.add(other.profit);
+            sum.loss = loss.add(other.loss);
+            return sum;
+        }
+    }
+
+    /**
+     * Сумма агрегатов решений за период.
+     */
+    public static final class DecisionTotals {
+        private long total;
+        private final Map<TradeDecision.DecisionType, Long> byDecision = new EnumMap<>(TradeDecision.DecisionType.class);
+        private final Map<String, Long> ignoreReasons = new LinkedHashMap<>();
+
+        void add(DecisionRollup rollup) {
+            total += rollup.getDecisionCount();
+            byDecision.merge(rollup.getDecision(), rollup.getDecisionCount(), Long::sum);
+            if (rollup.getDecision() == TradeDecision.DecisionType.IGNORE) {
+                String reason = rollup.getReasonCode().isEmpty() ? "UNKNOWN" : rollup.getReasonCode();
+                ignoreReasons.merge(reason, rollup.getDecisionCount(), Long::sum);
+            }
+        }
+
+        public long getTotal() { return total; }
+        public long getCount(TradeDecision.DecisionType decision) { return byDecision.getOrDefault(decision, 0L); }
+        public Map<String, Long> getIgnoreReasons() { return ignoreReasons; }
+    }
+
+    /**
+     * Сумма агрегатов позиций за период.
+     */
+    public static final class PositionTotals {
+        private long opened;
+        private long closed;
+        private long wins;
+        private long losses;
+        private BigDecimal pnl = BigDecimal.ZERO;
+        private BigDecimal profit = BigDecimal.ZERO;
+        private BigDecimal loss = BigDecimal.ZERO;
+
+        void add(PositionRollup rollup) {
+            opened += rollup.getOpenedCount();
+            closed += rollup.getClosedCount();
+            wins += rollup.getWinCount();
+            losses += rollup.getLossCount();
+            pnl = pnl.add(rollup.getPnlSum());
+            profit = profit.add(rollup.getProfitSum());
+            loss = loss.add(rollup.getLossSum());
+        }
+
+        public long getOpened() { return opened; }
+        public long getClosed() { return closed; }
+        public long getWins() { return wins; }
+        public long getLosses() { return losses; }
+        public BigDecimal getPnl() { return pnl; }
+        public BigDecimal getProfit() { return profit; }
+        public BigDecimal getLoss() { return loss; }
+    }
+}
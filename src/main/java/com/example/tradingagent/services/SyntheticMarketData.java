@@ -0,0 +1,420 @@
+package com.example.tradingagent.services;
+
+import com.example.tradingagent.FixedPoint;
+import com.example.tradingagent.TinkoffApiUtils;
+import com.google.protobuf.Timestamp;
+import ru.tinkoff.piapi.contract.v1.CandleInterval;
+import ru.tinkoff.piapi.contract.v1.GetOrderBookResponse;
+import ru.tinkoff.piapi.contract.v1.HistoricCandle;
+import ru.tinkoff.piapi.contract.v1.Order;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Детерминированный генератор рыночных данных для локального режима и нагрузочных тестов.
+ * <p>
+ * Дневные закрытия - геометрическое броуновское движение с переключением режимов
+ * (флэт, рост, падение, высокая волатильность) и редкими гэпами на открытии.
+ * Путь строится от фиксированной даты начала и кешируется по FIGI (несколько массивов на инструмент),
+ * поэтому тысячи инструментов и годы истории помещаются в память.
+ * Внутри дня генерируются только минутные свечи - броуновский мост между открытием (закрытие прошлого дня + гэп)
+ * и закрытием дня, с барами нулевого диапазона (нет сделок) и всплесками объема. Свечи M5/M15/H1/D1 - агрегаты
+ * этих минут, поэтому сигналы на старших интервалах и исполнение по минутной цене видят один и тот же рынок.
+ * <p>
+ * Любая свеча и любой снимок стакана зависят только от seed, FIGI и времени:
+ * перекрывающиеся запросы возвращают одинаковые данные, генерируются только дни запрошенного диапазона.
+ */
+public class SyntheticMarketData {
+
+    // Начало синтетической истории
+    private static final long ORIGIN_EPOCH_SECOND = Instant.parse("2015-01-01T00:00:00Z").getEpochSecond();
+    private static final long DAY_SECONDS = 86_400L;
+    private static final long MINUTE_SECONDS = 60L;
+    private static final int MINUTES_PER_DAY = (int) (DAY_SECONDS / MINUTE_SECONDS);
+    // Сколько прошлых минутных дней (любых FIGI) держать в кеше истории, сверх текущего дня каждого FIGI
+    private static final int MINUTE_HISTORY_CACHE_SIZE = 256;
+    private static final double PRICE_STEP = 0.01;
+
+    // Режимы рынка: дневной дрейф и волатильность
+    private static final double[] REGIME_DRIFT = {0.0, 0.0015, -0.0015, 0.0};
+    private static final double[] REGIME_VOLATILITY = {0.010, 0.018, 0.022, 0.040};
+    // Вероятность сменить режим в конкретный день (средняя длина режима ~ 30 дней)
+    private static final double REGIME_SWITCH_PROBABILITY = 0.033;
+    // Гэп на открытии: вероятность и размер в дневных сигмах
+    private static final double GAP_PROBABILITY = 0.04;
+    private static final double GAP_SIGMAS = 2.0;
+    // Внутридневные особенности
+    private static final double ZERO_RANGE_PROBABILITY = 0.02;
+    private static final double VOLUME_SPIKE_PROBABILITY = 0.01;
+    private static final double VOLUME_SPIKE_MAX_MULTIPLIER = 30.0;
+
+    private final long seed;
+    private final Map<String, DailyPath> dailyPaths = new ConcurrentHashMap<>();
+    // Самый поздний запрошенный день минутных свечей по FIGI (текущий день): priceAt и стакан вызываются
+    // по каждому FIGI на каждом тике симулятора, поэтому этот день не вытесняется и занимает один день на инструмент
+    private final Map<String, MinuteDay> latestMinuteDays = new ConcurrentHashMap<>();
+    // Прошлые дни (исторические запросы свечей): LRU по (FIGI, день), доступ под самой картой
+    private final Map<MinuteDayKey, MinuteDay> historyMinuteDays =
+            new LinkedHashMap<>(MINUTE_HISTORY_CACHE_SIZE * 2, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<MinuteDayKey, MinuteDay> eldest) {
+                    return size() > MINUTE_HISTORY_CACHE_SIZE;
+                }
+            };
+    private final AtomicLong generatedMinuteDays = new AtomicLong();
+
+    public SyntheticMarketData(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Свечи за [from, to) с шагом интервала. Последняя свеча, попавшая на текущий момент, помечается незавершенной.
+     */
+    public List<HistoricCandle> getCandles(String figi, CandleInterval interval, Instant from, Instant to) {
+        long step = intervalSeconds(interval);
+        long fromSec = Math.max(ORIGIN_EPOCH_SECOND, ceilToStep(from.getEpochSecond(), step));
+        long toSec = to.getEpochSecond();
+        long nowSec = Instant.now().getEpochSecond();
+        List<HistoricCandle> candles = new ArrayList<>((int) Math.max(0, (toSec - fromSec) / step));
+
+        int minutesPerBar = (int) (step / MINUTE_SECONDS);
+        MinuteDay minutes = null;
+        for (long time = fromSec; time < toSec; time += step) {
+            long day = (time - ORIGIN_EPOCH_SECOND) / DAY_SECONDS;
+            if (minutes == null || minutes.day != day) {
+                minutes = minuteDay(figi, day);
+            }
+            int firstMinute = (int) ((time - ORIGIN_EPOCH_SECOND - day * DAY_SECONDS) / MINUTE_SECONDS);
+            candles.add(aggregate(minutes, firstMinute, minutesPerBar, time, time + step > nowSec));
+        }
+        return candles;
+    }
+
+    /**
+     * Цена на момент времени (закрытие минутной свечи, содержащей instant).
+     */
+    public double priceAt(String figi, Instant instant) {
+        long time = Math.max(ORIGIN_EPOCH_SECOND, instant.getEpochSecond());
+        long day = (time - ORIGIN_EPOCH_SECOND) / DAY_SECONDS;
+        int minute = (int) ((time - ORIGIN_EPOCH_SECOND - day * DAY_SECONDS) / MINUTE_SECONDS);
+        return minuteDay(figi, day).close[minute];
+    }
+
+    /**
+     * Снимок стакана на момент времени: лучшие цены вокруг текущей цены, спред растет с волатильностью режима,
+     * объемы убывают вглубь стакана, иногда одна из сторон заметно перевешивает.
+     * Снимок детерминирован в пределах минуты.
+     */
+    public GetOrderBookResponse getOrderBook(String figi, int depth, Instant instant) {
+        long time = Math.max(ORIGIN_EPOCH_SECOND, instant.getEpochSecond());
+        long day = (time - ORIGIN_EPOCH_SECOND) / DAY_SECONDS;
+        long minute = time / 60;
+        SplittableRandom random = new SplittableRandom(mix(seedFor(figi), minute ^ 0x0B00CL));
+
+        long step = FixedPoint.fromDouble(PRICE_STEP);
+        long mid = FixedPoint.fromDouble(priceAt(figi, instant));
+        double volatility = dailyPath(figi, day).volatility[(int) day];
+        // Полуспред в шагах цены: 1 шаг в спокойном рынке, до нескольких - в волатильном
+        int halfSpreadSteps = 1 + (int) (random.nextDouble() * volatility / REGIME_VOLATILITY[0] * 1.5);
+        double baseQuantity = baseVolume(figi) / 20.0;
+        double bidBias = 1.0;
+        double askBias = 1.0;
+        if (random.nextDouble() < 0.1) {
+            // Перекос стакана
+            if (random.nextBoolean()) {
+                bidBias = 3.0;
+            } else {
+                askBias = 3.0;
+            }
+        }
+
+        GetOrderBookResponse.Builder book = GetOrderBookResponse.newBuilder()
+                .setFigi(figi)
+                .setDepth(depth)
+                .setLastPrice(TinkoffApiUtils.nanosToQuotation(mid))
+                .setOrderbookTs(Timestamp.newBuilder().setSeconds(time).build());
+        for (int level = 0; level < depth; level++) {
+            long offset = FixedPoint.times(step, halfSpreadSteps + level);
+            double decay = Math.exp(-0.15 * level);
+            book.addBids(Order.newBuilder()
+                    .setPrice(TinkoffApiUtils.nanosToQuotation(Math.max(step, mid - offset)))
+                    .setQuantity(1 + (long) (baseQuantity * bidBias * decay * (0.5 + random.nextDouble()))));
+            book.addAsks(Order.newBuilder()
+                    .setPrice(TinkoffApiUtils.nanosToQuotation(mid + offset))
+                    .setQuantity(1 + (long) (baseQuantity * askBias * decay * (0.5 + random.nextDouble()))));
+        }
+        return book.build();
+    }
+
+    /**
+     * Сколько раз генерировались минутные дни (промахи кеша).
+     */
+    long getGeneratedMinuteDays() {
+        return generatedMinuteDays.get();
+    }
+
+    /**
+     * Минутные свечи дня day (из кеша или сгенерированные). Самый поздний день FIGI закреплен отдельно от истории:
+     * исторические запросы его не вытесняют, а при переходе на новый день он уходит в кеш истории.
+     */
+    private MinuteDay minuteDay(String figi, long day) {
+        MinuteDay latest = latestMinuteDays.get(figi);
+        if (latest != null && latest.day == day) {
+            return latest;
+        }
+        if (latest != null && day < latest.day) {
+            MinuteDayKey key = new MinuteDayKey(figi, day);
+            synchronized (historyMinuteDays) {
+                MinuteDay cached = historyMinuteDays.get(key);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+            MinuteDay generated = generateMinuteDay(figi, day);
+            remember(figi, generated);
+            return generated;
+        }
+
+        MinuteDay generated = generateMinuteDay(figi, day);
+        MinuteDay[] displaced = new MinuteDay[1];
+        latestMinuteDays.merge(figi, generated, (current, fresh) -> {
+            if (fresh.day > current.day) {
+                displaced[0] = current;
+                return fresh;
+            }
+            // Параллельный вызов уже закрепил этот или более поздний день
+            if (fresh.day < current.day) {
+                displaced[0] = fresh;
+            }
+            return current;
+        });
+        if (displaced[0] != null) {
+            remember(figi, displaced[0]);
+        }
+        return generated;
+    }
+
+    private void remember(String figi, MinuteDay minutes) {
+        synchronized (historyMinuteDays) {
+            historyMinuteDays.put(new MinuteDayKey(figi, minutes.day), minutes);
+        }
+    }
+
+    /**
+     * Минутные свечи дня: логарифм цены на границах минут - броуновский мост от открытия
+     * (закрытие прошлого дня + гэп) к закрытию дня, затем OHLCV каждой минуты. Весь день - один генератор,
+     * поэтому результат зависит только от seed, FIGI и дня.
+     */
+    private MinuteDay generateMinuteDay(String figi, long day) {
+        generatedMinuteDays.incrementAndGet();
+        DailyPath daily = dailyPath(figi, day);
+        double start = (day == 0 ? daily.startLog : daily.logClose[(int) day - 1]) + daily.gap[(int) day];
+        double end = daily.logClose[(int) day];
+        SplittableRandom random = new SplittableRandom(mix(seedFor(figi), day));
+        double[] walk = new double[MINUTES_PER_DAY + 1];
+        double barVolatility = daily.volatility[(int) day] / Math.sqrt(MINUTES_PER_DAY);
+        for (int i = 1; i <= MINUTES_PER_DAY; i++) {
+            walk[i] = walk[i - 1] + gaussian(random) * barVolatility;
+        }
+        // Броуновский мост: путь начинается в start и приходит ровно в end
+        double[] path = new double[MINUTES_PER_DAY + 1];
+        for (int i = 0; i <= MINUTES_PER_DAY; i++) {
+            double t = (double) i / MINUTES_PER_DAY;
+            path[i] = start + (end - start) * t + (walk[i] - t * walk[MINUTES_PER_DAY]);
+        }
+
+        MinuteDay minutes = new MinuteDay(day);
+        double minuteVolume = baseVolume(figi) * MINUTE_SECONDS / DAY_SECONDS;
+        for (int bar = 0; bar < MINUTES_PER_DAY; bar++) {
+            double open = roundToStep(Math.exp(path[bar]));
+            double close = roundToStep(Math.exp(path[bar + 1]));
+            double high;
+            double low;
+            double barVolume = minuteVolume * (0.3 + 1.4 * random.nextDouble());
+
+            if (random.nextDouble() < ZERO_RANGE_PROBABILITY) {
+                // Бар без сделок: нулевой диапазон и почти нулевой объем
+                close = open;
+                high = open;
+                low = open;
+                barVolume = random.nextInt(3);
+            } else {
+                double wick = Math.abs(Math.exp(path[bar + 1]) - Math.exp(path[bar])) * random.nextDouble()
+                        + open * REGIME_VOLATILITY[0] * 0.05 * random.nextDouble();
+                high = roundToStep(Math.max(open, close) + wick);
+                low = roundToStep(Math.max(PRICE_STEP, Math.min(open, close) - wick));
+                if (random.nextDouble() < VOLUME_SPIKE_PROBABILITY) {
+                    barVolume *= 2.0 + random.nextDouble() * (VOLUME_SPIKE_MAX_MULTIPLIER - 2.0);
+                }
+            }
+            minutes.open[bar] = open;
+            minutes.high[bar] = high;
+            minutes.low[bar] = low;
+            minutes.close[bar] = close;
+            minutes.volume[bar] = (long) barVolume;
+        }
+        return minutes;
+    }
+
+    /**
+     * Свеча из count минут дня начиная с firstMinute: open первой, close последней, экстремумы и сумма объема.
+     */
+    private static HistoricCandle aggregate(MinuteDay minutes, int firstMinute, int count, long time, boolean inProgress) {
+        int last = firstMinute + count - 1;
+        double high = minutes.high[firstMinute];
+        double low = minutes.low[firstMinute];
+        long volume = 0;
+        for (int minute = firstMinute; minute <= last; minute++) {
+            high = Math.max(high, minutes.high[minute]);
+            low = Math.min(low, minutes.low[minute]);
+            volume += minutes.volume[minute];
+        }
+        return HistoricCandle.newBuilder()
+                .setTime(Timestamp.newBuilder().setSeconds(time).build())
+                .setOpen(TinkoffApiUtils.nanosToQuotation(FixedPoint.fromDouble(minutes.open[firstMinute])))
+                .setHigh(TinkoffApiUtils.nanosToQuotation(FixedPoint.fromDouble(high)))
+                .setLow(TinkoffApiUtils.nanosToQuotation(FixedPoint.fromDouble(low)))
+                .setClose(TinkoffApiUtils.nanosToQuotation(FixedPoint.fromDouble(minutes.close[last])))
+                .setVolume(volume)
+                .setIsComplete(!inProgress)
+                .build();
+    }
+
+    /**
+     * Дневной путь инструмента, покрывающий как минимум день day.
+     */
+    private DailyPath dailyPath(String figi, long day) {
+        DailyPath path = dailyPaths.get(figi);
+        if (path == null || path.logClose.length <= day) {
+            path = extendDailyPath(figi, (int) day + 1);
+        }
+        return path;
+    }
+
+    private synchronized DailyPath extendDailyPath(String figi, int days) {
+        DailyPath path = dailyPaths.get(figi);
+        if (path != null && path.logClose.length >= days) {
+            return path;
+        }
+        // Растим с запасом, чтобы не пересчитывать на каждом новом дне
+        int size = Math.max(days, path == null ? 0 : path.logClose.length * 2);
+        DailyPath extended = new DailyPath(size, Math.log(basePrice(figi)));
+        // Путь всегда генерируется с начала одним генератором - результат не зависит от порядка запросов
+        SplittableRandom random = new SplittableRandom(seedFor(figi));
+        int regime = random.nextInt(REGIME_DRIFT.length);
+        double logPrice = extended.startLog;
+        for (int i = 0; i < size; i++) {
+            if (random.nextDouble() < REGIME_SWITCH_PROBABILITY) {
+                regime = (regime + 1 + random.nextInt(REGIME_DRIFT.length - 1)) % REGIME_DRIFT.length;
+            }
+            double sigma = REGIME_VOLATILITY[regime];
+            double gap = random.nextDouble() < GAP_PROBABILITY ? gaussian(random) * sigma * GAP_SIGMAS : 0.0;
+            // GBM в логарифмах: дрейф с поправкой Ито
+            logPrice += gap + (REGIME_DRIFT[regime] - sigma * sigma / 2) + gaussian(random) * sigma;
+            // Не даем цене уйти ниже пары шагов цены
+            logPrice = Math.max(logPrice, Math.log(PRICE_STEP * 2));
+            extended.logClose[i] = logPrice;
+            extended.gap[i] = gap;
+            extended.volatility[i] = sigma;
+            extended.regime[i] = (byte) regime;
+        }
+        dailyPaths.put(figi, extended);
+        return extended;
+    }
+
+    /**
+     * Начальная цена инструмента: от 10 до 5000 рублей, зависит от FIGI.
+     */
+    public double basePrice(String figi) {
+        SplittableRandom random = new SplittableRandom(seedFor(figi) ^ 0x5DEECE66DL);
+        return roundToStep(Math.exp(Math.log(10) + random.nextDouble() * Math.log(500)));
+    }
+
+    /**
+     * Средний дневной объем инструмента в штуках (от 10 тыс. до 10 млн, зависит от FIGI).
+     */
+    private double baseVolume(String figi) {
+        SplittableRandom random = new SplittableRandom(seedFor(figi) ^ 0x7F4A7C15L);
+        return Math.exp(Math.log(10_000) + random.nextDouble() * Math.log(1_000));
+    }
+
+    private long seedFor(String figi) {
+        return mix(seed, figi.hashCode());
+    }
+
+    private static long mix(long a, long b) {
+        return new SplittableRandom(a * 0x9E3779B97F4A7C15L + b).nextLong();
+    }
+
+    private static double gaussian(SplittableRandom random) {
+        // Бокс-Мюллер: SplittableRandom не умеет nextGaussian
+        double u1 = 1.0 - random.nextDouble();
+        double u2 = random.nextDouble();
+        return Math.sqrt(-2.0 * Math.log(u1)) * Math.cos(2.0 * Math.PI * u2);
+    }
+
+    private static double roundToStep(double price) {
+        return Math.max(PRICE_STEP, Math.round(price / PRICE_STEP) * PRICE_STEP);
+    }
+
+    private static long ceilToStep(long epochSecond, long step) {
+        long offset = Math.floorMod(epochSecond - ORIGIN_EPOCH_SECOND, step);
+        return offset == 0 ? epochSecond : epochSecond + (step - offset);
+    }
+
+    static long intervalSeconds(CandleInterval interval) {
+        return switch (interval) {
+            case CANDLE_INTERVAL_1_MIN -> 60;
+            case CANDLE_INTERVAL_5_MIN -> 300;
+            case CANDLE_INTERVAL_15_MIN -> 900;
+            case CANDLE_INTERVAL_HOUR -> 3_600;
+            case CANDLE_INTERVAL_DAY -> DAY_SECONDS;
+            default -> throw new IllegalArgumentException("Интервал не поддерживается синтетическими данными: " + interval);
+        };
+    }
+
+    private record MinuteDayKey(String figi, long day) {
+    }
+
+    /**
+     * Минутные свечи одного дня (цены уже округлены до шага).
+     */
+    private static final class MinuteDay {
+        final long day;
+        final double[] open = new double[MINUTES_PER_DAY];
+        final double[] high = new double[MINUTES_PER_DAY];
+        final double[] low = new double[MINUTES_PER_DAY];
+        final double[] close = new double[MINUTES_PER_DAY];
+        final long[] volume = new long[MINUTES_PER_DAY];
+
+        MinuteDay(long day) {
+            this.day = day;
+        }
+    }
+
+    /**
+     * Дневная история инструмента: закрытия (логарифм), гэп на открытии, волатильность и режим по дням.
+     */
+    private static final class DailyPath {
+        final double startLog;
+        final double[] logClose;
+        final double[] gap;
+        final double[] volatility;
+        final byte[] regime;
+
+        DailyPath(int days, double startLog) {
+            this.startLog = startLog;
+            this.logClose = new double[days];
+            this.gap = new double[days];
+            this.volatility = new double[days];
+            this.regime = new byte[days];
+        }
+    }
+}
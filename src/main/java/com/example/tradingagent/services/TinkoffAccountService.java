@@ -1,18 +1,16 @@
 package com.example.tradingagent.services;
 
-import com.example.tradingagent.TinkoffApi;
 import org.springframework.stereotype.Service;
 import ru.tinkoff.piapi.contract.v1.Account;
-import ru.tinkoff.piapi.core.InvestApi;
 
 import java.util.List;
 
 @Service
 public class TinkoffAccountService {
-    private final InvestApi api;
+    private final BrokerGateway brokerGateway;
 
-    public TinkoffAccountService() {
-        this.api = TinkoffApi.getApi();
+    public TinkoffAccountService(BrokerGateway brokerGateway) {
+        this.brokerGateway = brokerGateway;
     }
 
     /**
@@ -20,7 +18,7 @@ public class TinkoffAccountService {
      * @return List<UserAccount>
      */
     public List<Account> getAccounts() {
-        return api.getUserService().getAccountsSync();
+        return brokerGateway.getAccounts();
     }
 
     /**
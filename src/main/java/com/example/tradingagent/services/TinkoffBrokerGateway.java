@@ -0,0 +1,116 @@
+package com.example.tradingagent.services;
+
+import com.example.tradingagent.TinkoffApi;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.tinkoff.piapi.contract.v1.Account;
+import ru.tinkoff.piapi.contract.v1.GetMarginAttributesResponse;
+import ru.tinkoff.piapi.contract.v1.Operation;
+import ru.tinkoff.piapi.contract.v1.OrderDirection;
+import ru.tinkoff.piapi.contract.v1.OrderTrades;
+import ru.tinkoff.piapi.contract.v1.OrderType;
+import ru.tinkoff.piapi.contract.v1.PostOrderResponse;
+import ru.tinkoff.piapi.contract.v1.Quotation;
+import ru.tinkoff.piapi.contract.v1.StopOrder;
+import ru.tinkoff.piapi.contract.v1.StopOrderDirection;
+import ru.tinkoff.piapi.contract.v1.StopOrderType;
+import ru.tinkoff.piapi.core.InvestApi;
+import ru.tinkoff.piapi.core.models.Portfolio;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Брокерские операции через Tinkoff Invest API (режим по умолчанию).
+ */
+@Component
+@ConditionalOnProperty(name = "market.provider", havingValue = "tinkoff", matchIfMissing = true)
+public class TinkoffBrokerGateway implements BrokerGateway {
+
+    private final InvestApi api;
+
+    public TinkoffBrokerGateway() {
+        this.api = TinkoffApi.getApi();
+    }
+
+    @Override
+    public List<Account> getAccounts() {
+        return api.getUserService().getAccountsSync();
+    }
+
+    @Override
+    public Portfolio getPortfolio(String accountId) {
+        return api.getOperationsService().getPortfolioSync(accountId);
+    }
+
+    /**
+     * PortfolioStream из OperationsStreamService. SDK не позволяет отменить отдельную подписку:
+     * поток живет до закрытия InvestApi, после обрыва подписка создается заново.
+     */
+    @Override
+    public MarketDataProvider.Subscription subscribePortfolio(String accountId, Consumer<Portfolio> onUpdate,
+                                                              Consumer<Throwable> onError) {
+        api.getOperationsStreamService().subscribePortfolio(
+                response -> {
+                    if (response.hasPortfolio()) {
+                        onUpdate.accept(Portfolio.fromResponse(response.getPortfolio()));
+                    }
+                },
+                onError::accept,
+                List.of(accountId));
+        return () -> {
+        };
+    }
+
+    @Override
+    public GetMarginAttributesResponse getMarginAttributes(String accountId) {
+        return api.getUserService().getMarginAttributesSync(accountId);
+    }
+
+    @Override
+    public List<Operation> getExecutedOperations(String accountId, Instant from, Instant to) {
+        return api.getOperationsService().getExecutedOperationsSync(accountId, from, to);
+    }
+
+    /**
+     * TradesStream из OrdersStreamService (отмена отдельной подписки в SDK недоступна, как и у портфеля).
+     */
+    @Override
+    public MarketDataProvider.Subscription subscribeOrderTrades(String accountId, Consumer<OrderTrades> onTrades,
+                                                                Consumer<Throwable> onError) {
+        api.getOrdersStreamService().subscribeTrades(
+                response -> {
+                    if (response.hasOrderTrades()) {
+                        onTrades.accept(response.getOrderTrades());
+                    }
+                },
+                onError::accept,
+                List.of(accountId));
+        return () -> {
+        };
+    }
+
+    @Override
+    public PostOrderResponse postOrder(String figi, long quantity, Quotation price, OrderDirection direction,
+                                       String accountId, OrderType type, String orderId) {
+        return api.getOrdersService().postOrderSync(figi, quantity, price, direction, accountId, type, orderId);
+    }
+
+    @Override
+    public List<StopOrder> getStopOrders(String accountId) {
+        return api.getStopOrdersService().getStopOrdersSync(accountId);
+    }
+
+    @Override
+    public void cancelStopOrder(String accountId, String stopOrderId) {
+        api.getStopOrdersService().cancelStopOrderSync(accountId, stopOrderId);
+    }
+
+    @Override
+    public String postStopOrderGoodTillCancel(String figi, long quantity, Quotation price, Quotation stopPrice,
+                                              StopOrderDirection direction, String accountId, StopOrderType type) {
+        return api.getStopOrdersService().postStopOrderGoodTillCancelSync(
+                figi, quantity, price, stopPrice, direction, accountId, type);
+    }
+}
@@ -1,21 +1,20 @@
 package com.example.tradingagent.services;
 
-import com.example.tradingagent.TinkoffApi;
 import org.springframework.stereotype.Service;
-import ru.tinkoff.piapi.contract.v1.InstrumentStatus;
 import ru.tinkoff.piapi.contract.v1.Share;
-import ru.tinkoff.piapi.core.InvestApi;
 
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Service
 public class TinkoffInstrumentsService {
 
-    private final InvestApi api;
+    private final MarketDataProvider marketDataProvider;
+    private final InstrumentRegistry instrumentRegistry;
 
     // ИЗМЕНЕНО: Список расширен до 15 инструментов
-    private final List<String> blueChipsTickers = List.of(
+    public static final List<String> BLUE_CHIPS_TICKERS = List.of(
             // Старые
             "GAZP",
             "SBER",
@@ -54,18 +53,26 @@ public class TinkoffInstrumentsService {
 //            "EUTR"
     );
 
-    public TinkoffInstrumentsService() {
-        this.api = TinkoffApi.getApi();
+    private static final Set<String> BLUE_CHIPS_SET = Set.copyOf(BLUE_CHIPS_TICKERS);
+
+    public TinkoffInstrumentsService(MarketDataProvider marketDataProvider, InstrumentRegistry instrumentRegistry) {
+        this.marketDataProvider = marketDataProvider;
+        this.instrumentRegistry = instrumentRegistry;
     }
 
     /**
-     * Возвращает полные данные по инструментам для нашего списка.
+     * Возвращает полные данные по инструментам для нашего списка (из InstrumentRegistry, без запроса к API).
+     * На локальном рынке вселенная уже задана настройками (market.local.*, включая синтетические инструменты),
+     * поэтому возвращаются все его инструменты.
      * @return Список объектов Share.
      */
     public List<Share> getBlueChips() {
-        return api.getInstrumentsService().getSharesSync(InstrumentStatus.INSTRUMENT_STATUS_BASE)
+        if (!marketDataProvider.isLive()) {
+            return instrumentRegistry.getShares();
+        }
+        return instrumentRegistry.getShares()
                 .stream()
-                .filter(share -> blueChipsTickers.contains(share.getTicker()))
+                .filter(share -> BLUE_CHIPS_SET.contains(share.getTicker()))
                 .collect(Collectors.toList());
     }
 }
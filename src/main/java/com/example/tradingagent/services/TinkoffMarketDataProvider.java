@@ -0,0 +1,87 @@
+package com.example.tradingagent.services;
+
+import com.example.tradingagent.TinkoffApi;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.tinkoff.piapi.contract.v1.CandleInterval;
+import ru.tinkoff.piapi.contract.v1.GetOrderBookResponse;
+import ru.tinkoff.piapi.contract.v1.HistoricCandle;
+import ru.tinkoff.piapi.contract.v1.Instrument;
+import ru.tinkoff.piapi.contract.v1.InstrumentStatus;
+import ru.tinkoff.piapi.contract.v1.LastPrice;
+import ru.tinkoff.piapi.contract.v1.Share;
+import ru.tinkoff.piapi.core.InvestApi;
+import ru.tinkoff.piapi.core.stream.MarketDataSubscriptionService;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Рыночные данные из Tinkoff Invest API (режим по умолчанию).
+ */
+@Component
+@ConditionalOnProperty(name = "market.provider", havingValue = "tinkoff", matchIfMissing = true)
+public class TinkoffMarketDataProvider implements MarketDataProvider {
+
+    // Лимит подписок на один стрим - 300; на инструмент нужно две (свечи и последняя цена)
+    private static final int INSTRUMENTS_PER_STREAM = 150;
+
+    private final InvestApi api;
+
+    public TinkoffMarketDataProvider() {
+        this.api = TinkoffApi.getApi();
+    }
+
+    @Override
+    public List<HistoricCandle> getCandles(String figi, Instant from, Instant to, CandleInterval interval) {
+        return api.getMarketDataService().getCandlesSync(figi, from, to, interval);
+    }
+
+    @Override
+    public GetOrderBookResponse getOrderBook(String figi, int depth) {
+        return api.getMarketDataService().getOrderBookSync(figi, depth);
+    }
+
+    @Override
+    public List<LastPrice> getLastPrices(List<String> figis) {
+        return api.getMarketDataService().getLastPricesSync(figis);
+    }
+
+    @Override
+    public Instrument getInstrumentByFigi(String figi) {
+        return api.getInstrumentsService().getInstrumentByFigiSync(figi);
+    }
+
+    @Override
+    public List<Share> getShares() {
+        return api.getInstrumentsService().getSharesSync(InstrumentStatus.INSTRUMENT_STATUS_BASE);
+    }
+
+    /**
+     * Подписка через MarketDataStream: минутные свечи и последние цены.
+     * Большая вселенная делится на несколько стримов, чтобы не упереться в лимит подписок.
+     */
+    @Override
+    public Subscription subscribe(List<String> figis, MarketDataStreamListener listener) {
+        List<MarketDataSubscriptionService> streams = new ArrayList<>();
+        for (int from = 0; from < figis.size(); from += INSTRUMENTS_PER_STREAM) {
+            List<String> chunk = figis.subList(from, Math.min(figis.size(), from + INSTRUMENTS_PER_STREAM));
+            MarketDataSubscriptionService stream = api.getMarketDataStreamService().newStream(
+                    "market-data-" + UUID.randomUUID(),
+                    response -> {
+                        if (response.hasCandle()) {
+                            listener.onCandle(response.getCandle());
+                        } else if (response.hasLastPrice()) {
+                            listener.onLastPrice(response.getLastPrice());
+                        }
+                    },
+                    listener::onError);
+            stream.subscribeCandles(chunk);
+            stream.subscribeLastPrices(chunk);
+            streams.add(stream);
+        }
+        return () -> streams.forEach(MarketDataSubscriptionService::cancel);
+    }
+}
@@ -1,11 +1,9 @@
 package com.example.tradingagent.services;
 
-import com.example.tradingagent.TinkoffApi;
 import org.springframework.stereotype.Service;
 import ru.tinkoff.piapi.contract.v1.CandleInterval;
 import ru.tinkoff.piapi.contract.v1.GetOrderBookResponse;
 import ru.tinkoff.piapi.contract.v1.HistoricCandle;
-import ru.tinkoff.piapi.core.InvestApi;
 
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
@@ -14,14 +12,17 @@ import java.util.List;
 /**
  * Сервис для взаимодействия с MarketDataService Tinkoff API.
  * Отвечает за получение рыночных данных, таких как исторические свечи.
+ * Источник данных - MarketDataProvider (Invest API или локальный симулятор).
  */
 @Service
 public class TinkoffMarketDataService {
 
-    private final InvestApi api;
+    private final MarketDataProvider marketDataProvider;
+    private final LocalCandleStore candleStore;
 
-    public TinkoffMarketDataService() {
-        this.api = TinkoffApi.getApi();
+    public TinkoffMarketDataService(MarketDataProvider marketDataProvider, LocalCandleStore candleStore) {
+        this.marketDataProvider = marketDataProvider;
+        this.candleStore = candleStore;
     }
 
     /**
@@ -39,10 +40,13 @@ public class TinkoffMarketDataService {
         Instant from = to.minus(extendedDays, ChronoUnit.DAYS);
 
         try {
-            // Используем синхронный вызов для простоты
-            List<HistoricCandle> candles = api.getMarketDataService()
-                    .getCandlesSync(instrumentFigi, from, to, interval);
-            return candles;
+            // Синтетические/записанные данные не кешируем - хранилище только для свечей с биржи
+            if (!marketDataProvider.isLive()) {
+                return marketDataProvider.getCandles(instrumentFigi, from, to, interval);
+            }
+            // История берется из локального хранилища, из API догружается только недостающий хвост
+            return candleStore.getCandles(instrumentFigi, interval, from, to,
+                    (fetchFrom, fetchTo) -> marketDataProvider.getCandles(instrumentFigi, fetchFrom, fetchTo, interval));
         } catch (Exception e) {
             System.err.println("Ошибка при получении исторических свечей: " + e.getMessage());
             e.printStackTrace();
@@ -51,6 +55,15 @@ public class TinkoffMarketDataService {
         }
     }
 
+    /**
+     * Получает исторические свечи сразу в колоночном виде (одна конвертация на загрузку).
+     *
+     * @see #getHistoricCandles(String, int, CandleInterval, Instant)
+     */
+    public CandleSeries getCandleSeries(String instrumentFigi, int days, CandleInterval interval, Instant to) {
+        return CandleSeries.fromCandles(getHistoricCandles(instrumentFigi, days, interval, to));
+    }
+
     /**
      * Получает данные биржевого стакана для инструмента.
      * @param instrumentFigi FIGI инструмента.
@@ -58,6 +71,6 @@ public class TinkoffMarketDataService {
      */
     public GetOrderBookResponse getOrderBook(String instrumentFigi) {
         // Запрашиваем стакан глубиной 10 (10 лучших заявок на покупку и продажу)
-        return api.getMarketDataService().getOrderBookSync(instrumentFigi, 10);
+        return marketDataProvider.getOrderBook(instrumentFigi, 10);
     }
 }
@@ -1,13 +1,10 @@
 package com.example.tradingagent.services;
 
-import com.example.tradingagent.TinkoffApi;
 import com.example.tradingagent.TinkoffApiUtils;
 import com.example.tradingagent.dto.TradeRequest;
 import org.springframework.stereotype.Service;
 import ru.tinkoff.piapi.contract.v1.*;
 import ru.tinkoff.piapi.contract.v1.GetOrderBookResponse;
-import ru.tinkoff.piapi.core.InvestApi;
-import ru.tinkoff.piapi.core.models.Portfolio;
 import ru.tinkoff.piapi.core.models.Position;
 
 import java.math.BigDecimal;
@@ -19,18 +16,25 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 
 @Service
 public class TinkoffOrderService {
 
-    private final InvestApi api;
+    private final MarketDataProvider marketDataProvider;
+    private final BrokerGateway brokerGateway;
     private final String accountId;
     private final RiskManagementService riskManagementService;
     private final AuditService auditService;
     private final TradingStateMachine stateMachine;
     private final TelegramNotificationService telegramService;
+    private final MarketDataHub marketDataHub;
+    private final InstrumentRegistry instrumentRegistry;
+    private final PortfolioMirror portfolioMirror;
+    private final OrderLifecycleManager orderLifecycle;
+    private final ExecutionLaneScheduler executionLanes;
 
     // --- НАСТРОЙКИ СТРАТЕГИИ (Улучшенные) ---
     // Динамический риск-менеджмент на основе ATR согласно roadmap:
@@ -48,17 +52,30 @@ public class TinkoffOrderService {
     // ВАЖНО: Если у вас тариф "Инвестор", поменяйте на 0.003!
     private static final BigDecimal ESTIMATED_COMMISSION_RATE = new BigDecimal("0.0005");
 
-    public TinkoffOrderService(TinkoffAccountService accountService, 
+    public TinkoffOrderService(MarketDataProvider marketDataProvider,
+                               BrokerGateway brokerGateway,
+                               TinkoffAccountService accountService, 
                                RiskManagementService riskManagementService,
                                AuditService auditService,
                                TradingStateMachine stateMachine,
-                               TelegramNotificationService telegramService) {
-        this.api = TinkoffApi.getApi();
+                               TelegramNotificationService telegramService,
+                               MarketDataHub marketDataHub,
+                               InstrumentRegistry instrumentRegistry,
+                               PortfolioMirror portfolioMirror,
+                               OrderLifecycleManager orderLifecycle,
+                               ExecutionLaneScheduler executionLanes) {
+        this.marketDataProvider = marketDataProvider;
+        this.brokerGateway = brokerGateway;
         this.accountId = accountService.getSandboxAccountId();
         this.riskManagementService = riskManagementService;
         this.auditService = auditService;
         this.stateMachine = stateMachine;
         this.telegramService = telegramService;
+        this.marketDataHub = marketDataHub;
+        this.instrumentRegistry = instrumentRegistry;
+        this.portfolioMirror = portfolioMirror;
+        this.orderLifecycle = orderLifecycle;
+        this.executionLanes = executionLanes;
     }
 
     private void log(String message) {
@@ -69,16 +86,53 @@ public class TinkoffOrderService {
         System.err.println("[EXECUTION " + LocalDateTime.now().format(DateTimeFormatter.ofPattern("HH:mm:ss")) + "] ERROR: " + message);
     }
 
-    public void executeTrade(TradeRequest tradeRequest, Map<String, Double> indicators) {
+    /**
+     * Принимает сигнал и сразу возвращает дескриптор: анализ, отправка заявки и выставление SL/TP
+     * идут в фоне, статус дескриптора меняется по событиям (см. OrderLifecycleManager).
+     * Сигналы одного FIGI обрабатываются строго по очереди (ExecutionLaneScheduler): следующий начинается,
+     * когда заявка предыдущего отклонена или исполнена и защищена SL/TP, поэтому он уже видит открытую позицию со стопами.
+     * Если очередь инструмента переполнена, дескриптор сразу возвращается в статусе REJECTED.
+     */
+    public OrderHandle submitTrade(TradeRequest tradeRequest, Map<String, Double> indicators) {
+        OrderHandle handle = orderLifecycle.newHandle(
+                tradeRequest.getInstrumentFigi(), tradeRequest.getTicker(), tradeRequest.getAction());
+        try {
+            executionLanes.submit(tradeRequest.getInstrumentFigi(), () -> runInLane(tradeRequest, indicators, handle));
+        } catch (RejectedExecutionException e) {
+            logError(e.getMessage());
+            handle.reject(e.getMessage());
+        }
+        return handle;
+    }
+
+    private void runInLane(TradeRequest tradeRequest, Map<String, Double> indicators, OrderHandle handle) {
+        try {
+            executeTrade(tradeRequest, indicators, handle);
+        } catch (Exception e) {
+            logError("Ошибка обработки сигнала " + tradeRequest.getTicker() + ": " + e.getMessage());
+            handle.fail(e.getMessage());
+        }
+        if (handle.getStatus() == OrderHandle.Status.ACCEPTED) {
+            handle.complete(null); // Путь без явного итога - не держим очередь инструмента
+        }
+        // Полоса занята до отказа заявки или до выставления SL/TP после исполнения:
+        // иначе следующий сигнал увидит позицию без стопов и выставит их второй раз
+        handle.getCompletion().join();
+    }
+
+    public OrderHandle getOrderHandle(String handleId) {
+        return orderLifecycle.getHandle(handleId);
+    }
+
+    private void executeTrade(TradeRequest tradeRequest, Map<String, Double> indicators, OrderHandle handle) {
         String requestedFigi = tradeRequest.getInstrumentFigi();
-        Instrument instrument = api.getInstrumentsService().getInstrumentByFigiSync(requestedFigi);
+        Instrument instrument = instrumentRegistry.getInstrument(requestedFigi);
         String ticker = instrument.getTicker();
 
         log(">>> АНАЛИЗ СИГНАЛА: " + tradeRequest.getAction() + " по " + ticker + " (Score: " + tradeRequest.getConfidenceScore() + ")");
 
-        // Получаем портфель (Portfolio, а не Positions, чтобы была средняя цена)
-        Portfolio portfolio = api.getOperationsService().getPortfolioSync(accountId);
-        Optional<Position> existingPositionOpt = findPositionByFigi(portfolio, requestedFigi);
+        // Позиция из зеркала портфеля (Portfolio, а не Positions, чтобы была средняя цена)
+        Optional<Position> existingPositionOpt = portfolioMirror.getPosition(requestedFigi);
 
         if (existingPositionOpt.isPresent()) {
             Position position = existingPositionOpt.get();
@@ -98,13 +152,20 @@ public class TinkoffOrderService {
             }
 
             handleExistingPosition(position, tradeRequest, indicators, instrument);
+            handle.complete("Позиция уже открыта, сопровождение SL/TP");
+        } else if (!stateMachine.canTrade(requestedFigi)) {
+            // Пока сигнал ждал в очереди, предыдущий по этому FIGI изменил состояние (вход, кулдаун)
+            String state = String.valueOf(stateMachine.getState(requestedFigi));
+            log("BLOCK: Инструмент " + ticker + " в состоянии " + state);
+            handle.skip("Торговля заблокирована: инструмент в состоянии " + state);
         } else {
             if ("BUY".equalsIgnoreCase(tradeRequest.getAction())) {
-                openNewPosition(tradeRequest, indicators, instrument, PositionType.LONG);
+                openNewPosition(tradeRequest, indicators, instrument, PositionType.LONG, handle);
             } else if ("SELL".equalsIgnoreCase(tradeRequest.getAction())) {
-                openNewPosition(tradeRequest, indicators, instrument, PositionType.SHORT);
+                openNewPosition(tradeRequest, indicators, instrument, PositionType.SHORT, handle);
             } else {
                 log("Сигнал " + tradeRequest.getAction() + " пропущен (нет позиции).");
+                handle.skip("Сигнал " + tradeRequest.getAction() + " без позиции");
             }
         }
     }
@@ -112,8 +173,12 @@ public class TinkoffOrderService {
     private enum PositionType { LONG, SHORT }
 
     private BigDecimal getRealTimePrice(String figi) {
+        BigDecimal streamed = marketDataHub.getLastPrice(figi);
+        if (streamed != null) {
+            return streamed;
+        }
         try {
-            var lastPrices = api.getMarketDataService().getLastPricesSync(Collections.singletonList(figi));
+            var lastPrices = marketDataProvider.getLastPrices(Collections.singletonList(figi));
             if (!lastPrices.isEmpty()) {
                 return TinkoffApiUtils.quotationToBigDecimal(lastPrices.getFirst().getPrice());
             }
@@ -162,16 +227,17 @@ public class TinkoffOrderService {
 
     private void handleExistingPosition(Position position, TradeRequest tradeRequest, Map<String, Double> indicators, Instrument instrument) {
         String ticker = instrument.getTicker();
-        var activeStopOrders = api.getStopOrdersService().getStopOrdersSync(accountId);
+        var activeStopOrders = brokerGateway.getStopOrders(accountId);
 
         // 1. Миграция (удаление старых типов ордеров)
         Optional<StopOrder> legacyLimitSl = findStopOrder(activeStopOrders, position.getFigi(), StopOrderType.STOP_ORDER_TYPE_STOP_LIMIT);
         if (legacyLimitSl.isPresent()) {
             log("MIGRATION: Удаление устаревшего Stop-Limit...");
+            String legacyId = legacyLimitSl.get().getStopOrderId();
             try {
-                api.getStopOrdersService().cancelStopOrderSync(accountId, legacyLimitSl.get().getStopOrderId());
-                Thread.sleep(1000);
-                activeStopOrders = api.getStopOrdersService().getStopOrdersSync(accountId);
+                brokerGateway.cancelStopOrder(accountId, legacyId);
+                // Отмененная заявка просто выпадает из списка, перечитывать его не нужно
+                activeStopOrders = activeStopOrders.stream().filter(o -> !o.getStopOrderId().equals(legacyId)).toList();
             } catch (Exception e) { logError("Ошибка миграции: " + e.getMessage()); }
         }
 
@@ -296,21 +362,22 @@ public class TinkoffOrderService {
 
     private void updateStopLossOrder(StopOrder existingStopOrder, BigDecimal newStopLossPrice, Instrument instrument) {
         try {
-            api.getStopOrdersService().cancelStopOrderSync(accountId, existingStopOrder.getStopOrderId());
-            Thread.sleep(1000);
+            brokerGateway.cancelStopOrder(accountId, existingStopOrder.getStopOrderId());
+            // Пока брокер не освободил лоты старого стопа, новый отклоняется - его повторит retryAsync
             postMarketStopLossOrder(existingStopOrder.getFigi(), existingStopOrder.getLotsRequested(), newStopLossPrice, existingStopOrder.getDirection(), instrument.getTicker());
         } catch (Exception e) {
             logError("Ошибка обновления SL: " + e.getMessage());
         }
     }
 
-    private void openNewPosition(TradeRequest tradeRequest, Map<String, Double> indicators, Instrument instrument, PositionType positionType) {
+    private void openNewPosition(TradeRequest tradeRequest, Map<String, Double> indicators, Instrument instrument,
+                                 PositionType positionType, OrderHandle handle) {
         String ticker = instrument.getTicker();
         log("--- ПОПЫТКА ВХОДА: " + ticker + " (" + positionType + ") ---");
 
         try {
             // ПРОВЕРКА БАЛАНСА ПЕРЕД ОРДЕРОМ (Pre-flight Check)
-            var marginAttributes = api.getUserService().getMarginAttributesSync(accountId);
+            var marginAttributes = brokerGateway.getMarginAttributes(accountId);
             BigDecimal availableMargin = TinkoffApiUtils.moneyValueToBigDecimal(marginAttributes.getLiquidPortfolio())
                     .subtract(TinkoffApiUtils.moneyValueToBigDecimal(marginAttributes.getStartingMargin()));
 
@@ -322,12 +389,13 @@ public class TinkoffOrderService {
             double atrValue = indicators.getOrDefault("atr_14", 0.0);
             if (atrValue == 0.0) {
                 logError("ОТКАЗ: ATR = 0.");
+                handle.skip("ATR = 0");
                 return;
             }
 
             // ФИЛЬТР СПРЕДА: Если спред > 0.05%, комиссия съест прибыль
             try {
-                GetOrderBookResponse orderBook = api.getMarketDataService().getOrderBookSync(instrument.getFigi(), 10);
+                GetOrderBookResponse orderBook = marketDataProvider.getOrderBook(instrument.getFigi(), 10);
                 if (!orderBook.getBidsList().isEmpty() && !orderBook.getAsksList().isEmpty()) {
                     BigDecimal bestBid = TinkoffApiUtils.quotationToBigDecimal(orderBook.getBidsList().get(0).getPrice());
                     BigDecimal bestAsk = TinkoffApiUtils.quotationToBigDecimal(orderBook.getAsksList().get(0).getPrice());
@@ -338,6 +406,7 @@ public class TinkoffOrderService {
                     if (spreadPercent.compareTo(MAX_SPREAD_PERCENT) > 0) {
                         logError(String.format("ОТКАЗ: Большой спред %.4f%% > %.4f%% для %s (комиссия съест прибыль)", 
                             spreadPercent, MAX_SPREAD_PERCENT, ticker));
+                        handle.skip(String.format("Большой спред %.4f%%", spreadPercent));
                         return;
                     }
                     log(String.format("Спред для %s: %.4f%% (OK)", ticker, spreadPercent));
@@ -355,6 +424,7 @@ public class TinkoffOrderService {
             if (lotsToTrade == 0) {
                 logError("ОТКАЗ: Risk-менеджер (lots=0).");
                 telegramService.notifyRejection(ticker, "Risk-менеджер вернул 0 лотов");
+                handle.skip("Risk-менеджер вернул 0 лотов");
                 return;
             }
 
@@ -365,6 +435,7 @@ public class TinkoffOrderService {
                     tradeAmount, availableMargin);
                 logError("ОТКАЗ: " + errorMsg);
                 telegramService.notifyError(errorMsg);
+                handle.skip(errorMsg);
                 return;
             }
 
@@ -373,6 +444,7 @@ public class TinkoffOrderService {
             BigDecimal takeProfitPrice = (positionType == PositionType.LONG) ? currentPrice.add(takeProfitOffset) : currentPrice.subtract(takeProfitOffset);
 
             if (!isEconomicallyViable(ticker, currentPrice, takeProfitPrice, lotsToTrade, instrument.getLot())) {
+                handle.skip("Нерентабельно: комиссия съест прибыль");
                 return;
             }
 
@@ -390,13 +462,22 @@ public class TinkoffOrderService {
                     ? com.example.tradingagent.entities.OrderEntity.Direction.BUY 
                     : com.example.tradingagent.entities.OrderEntity.Direction.SELL;
             auditService.saveOrder(ticker, direction, currentPrice, lotsToTrade, orderId);
-            
+
+            // Дальше - по событиям: исполнение переведет позицию в ACTIVE и выставит стопы, отказ или таймаут - в SCANNING.
+            // Отслеживание начинается до отправки, чтобы не потерять сделки, пришедшие раньше ответа
+            BigDecimal entryPrice = currentPrice;
+            orderLifecycle.track(handle, orderId, instrument.getFigi(), lotsToTrade, instrument.getLot(), currentPrice,
+                    (lotsExecuted, fillPrice) -> onEntryFilled(tradeRequest, instrument, positionType, lotsExecuted, fillPrice,
+                            entryPrice, stopLossPrice, takeProfitPrice));
+
+            PostOrderResponse response;
             try {
-                api.getOrdersService().postOrderSync(
+                response = brokerGateway.postOrder(
                         instrument.getFigi(), lotsToTrade, Quotation.newBuilder().build(), orderDirection,
                         accountId, OrderType.ORDER_TYPE_MARKET, orderId
                 );
             } catch (Exception e) {
+                orderLifecycle.untrack(orderId);
                 logError("ОШИБКА ОТПРАВКИ ОРДЕРА: " + e.getMessage());
                 // ЛОГИРОВАНИЕ: Обновляем статус ордера как REJECTED
                 auditService.updateOrderStatus(orderId, 
@@ -406,113 +487,80 @@ public class TinkoffOrderService {
                 stateMachine.resetToScanning(instrument.getFigi());
                 // TELEGRAM: Уведомление об ошибке
                 telegramService.notifyError("Ошибка отправки ордера для " + ticker + ": " + e.getMessage());
+                handle.reject(e.getMessage());
                 return;
             }
 
-            log("Ордер отправлен. Ожидание позиции...");
-            boolean positionOpened = waitForPosition(instrument.getFigi(), 15, 1000);
-
-            if (positionOpened) {
-                log("ПОЗИЦИЯ ОТКРЫТА. Выставляем стопы.");
-                
-                // STATE MACHINE: Переход в ACTIVE
-                stateMachine.setActive(instrument.getFigi());
-                
-                // ЛОГИРОВАНИЕ: Обновляем статус ордера
-                auditService.updateOrderStatus(orderId, 
-                    com.example.tradingagent.entities.OrderEntity.OrderStatus.FILLED,
-                    currentPrice, null, null);
-                
-                // ЛОГИРОВАНИЕ: Создаем позицию для отслеживания PnL
-                var savedOrderOpt = auditService.getOrderRepository().findByBrokerOrderId(orderId);
-                if (savedOrderOpt.isPresent()) {
-                    auditService.createPosition(savedOrderOpt.get(), currentPrice);
-                    log("Позиция создана в БД для отслеживания PnL");
-                }
-                
-                // TELEGRAM: Уведомление о покупке
-                telegramService.notifyTrade(tradeRequest.getAction(), ticker, currentPrice, lotsToTrade);
-                
-                StopOrderDirection stopDir = (positionType == PositionType.LONG) ? StopOrderDirection.STOP_ORDER_DIRECTION_SELL : StopOrderDirection.STOP_ORDER_DIRECTION_BUY;
-                BigDecimal minStep = TinkoffApiUtils.quotationToBigDecimal(instrument.getMinPriceIncrement());
-
-                BigDecimal roundedSl = TinkoffApiUtils.roundToStep(stopLossPrice, minStep);
-                BigDecimal roundedTp = TinkoffApiUtils.roundToStep(takeProfitPrice, minStep);
-                
-                postMarketStopLossOrder(instrument.getFigi(), lotsToTrade, roundedSl, stopDir, ticker);
-
-                BigDecimal slippage = minStep.multiply(BigDecimal.valueOf(20));
-                BigDecimal executionPrice = (positionType == PositionType.LONG) ? roundedTp.subtract(slippage) : roundedTp.add(slippage);
-
-                postLimitTakeProfitOrder(instrument.getFigi(), lotsToTrade, roundedTp, TinkoffApiUtils.roundToStep(executionPrice, minStep), stopDir, ticker);
-                
-                // TELEGRAM: Уведомление об открытии позиции со стопами
-                telegramService.notifyPositionOpened(ticker, currentPrice, roundedSl, roundedTp);
-            } else {
-                logError("CRITICAL: Позиция не появилась на балансе!");
-                // STATE MACHINE: Возврат к SCANNING
-                stateMachine.resetToScanning(instrument.getFigi());
-                // ЛОГИРОВАНИЕ: Обновляем статус ордера как REJECTED
-                auditService.updateOrderStatus(orderId, 
-                    com.example.tradingagent.entities.OrderEntity.OrderStatus.REJECTED,
-                    null, null, "Позиция не появилась на балансе");
-            }
+            log("Ордер отправлен: " + orderId);
+            orderLifecycle.sent(handle, orderId, lotsToTrade, response);
 
         } catch (Exception e) {
             logError("Исключение при открытии: " + e.getMessage());
             e.printStackTrace();
+            handle.fail(e.getMessage());
         }
     }
 
-    private void postMarketStopLossOrder(String figi, long quantity, BigDecimal stopPrice, StopOrderDirection direction, String ticker) {
-        if (quantity <= 0) return;
-        int maxRetries = 10;
-        for (int i = 0; i < maxRetries; i++) {
-            try {
-                Quotation marketPrice = Quotation.newBuilder().setUnits(0).setNano(0).build();
-                api.getStopOrdersService().postStopOrderGoodTillCancelSync(
-                        figi, quantity, marketPrice, TinkoffApiUtils.bigDecimalToQuotation(stopPrice),
-                        direction, accountId, StopOrderType.STOP_ORDER_TYPE_STOP_LOSS
-                );
-                log("SL установлен: " + ticker + " @ " + stopPrice);
-                return;
-            } catch (Exception e) {
-                try { Thread.sleep(1500); } catch (InterruptedException ignored) {}
-            }
-        }
-        logError("FAIL: Не удалось выставить SL для " + ticker);
-    }
+    /**
+     * Заявка на вход исполнена (полностью или частично): защищаем исполненный объем стопами.
+     * Возвращает завершение выставления SL и TP (успешного или с исчерпанными попытками).
+     */
+    private CompletableFuture<Void> onEntryFilled(TradeRequest tradeRequest, Instrument instrument, PositionType positionType, long lotsExecuted,
+                               BigDecimal fillPrice, BigDecimal entryPrice, BigDecimal stopLossPrice, BigDecimal takeProfitPrice) {
+        String ticker = instrument.getTicker();
+        log("ПОЗИЦИЯ ОТКРЫТА. Выставляем стопы.");
 
-    private void postLimitTakeProfitOrder(String figi, long quantity, BigDecimal triggerPrice, BigDecimal limitPrice, StopOrderDirection direction, String ticker) {
-        if (quantity <= 0) return;
-        int maxRetries = 10;
-        for (int i = 0; i < maxRetries; i++) {
-            try {
-                api.getStopOrdersService().postStopOrderGoodTillCancelSync(
-                        figi, quantity, TinkoffApiUtils.bigDecimalToQuotation(limitPrice),
-                        TinkoffApiUtils.bigDecimalToQuotation(triggerPrice), direction, accountId,
-                        StopOrderType.STOP_ORDER_TYPE_TAKE_PROFIT
-                );
-                log("TP установлен: " + ticker + " Trigger: " + triggerPrice);
-                return;
-            } catch (Exception e) {
-                try { Thread.sleep(1500); } catch (InterruptedException ignored) {}
-            }
-        }
-        logError("FAIL: Не удалось выставить TP для " + ticker);
+        // TELEGRAM: Уведомление о покупке
+        telegramService.notifyTrade(tradeRequest.getAction(), ticker, fillPrice, lotsExecuted);
+
+        // Уровни рассчитаны от цены решения (как раньше), чтобы проскальзывание не сдвигало риск на сделку
+        StopOrderDirection stopDir = (positionType == PositionType.LONG) ? StopOrderDirection.STOP_ORDER_DIRECTION_SELL : StopOrderDirection.STOP_ORDER_DIRECTION_BUY;
+        BigDecimal minStep = TinkoffApiUtils.quotationToBigDecimal(instrument.getMinPriceIncrement());
+
+        BigDecimal roundedSl = TinkoffApiUtils.roundToStep(stopLossPrice, minStep);
+        BigDecimal roundedTp = TinkoffApiUtils.roundToStep(takeProfitPrice, minStep);
+
+        CompletableFuture<Void> stopLoss = postMarketStopLossOrder(instrument.getFigi(), lotsExecuted, roundedSl, stopDir, ticker);
+
+        BigDecimal slippage = minStep.multiply(BigDecimal.valueOf(20));
+        BigDecimal executionPrice = (positionType == PositionType.LONG) ? roundedTp.subtract(slippage) : roundedTp.add(slippage);
+
+        CompletableFuture<Void> takeProfit = postLimitTakeProfitOrder(instrument.getFigi(), lotsExecuted, roundedTp,
+                TinkoffApiUtils.roundToStep(executionPrice, minStep), stopDir, ticker);
+
+        // TELEGRAM: Уведомление об открытии позиции со стопами
+        return CompletableFuture.allOf(stopLoss, takeProfit).whenComplete((ignored, error) ->
+                telegramService.notifyPositionOpened(ticker, entryPrice, roundedSl, roundedTp));
     }
 
-    private boolean waitForPosition(String figi, int maxRetries, long delayMillis) throws InterruptedException {
-        for (int i = 0; i < maxRetries; i++) {
-            var portfolio = api.getOperationsService().getPortfolioSync(accountId);
-            if (findPositionByFigi(portfolio, figi).isPresent()) return true;
-            TimeUnit.MILLISECONDS.sleep(delayMillis);
-        }
-        return false;
+    private CompletableFuture<Void> postMarketStopLossOrder(String figi, long quantity, BigDecimal stopPrice, StopOrderDirection direction, String ticker) {
+        if (quantity <= 0) return CompletableFuture.completedFuture(null);
+        return orderLifecycle.retryAsync("SL для " + ticker, () -> {
+            Quotation marketPrice = Quotation.newBuilder().setUnits(0).setNano(0).build();
+            brokerGateway.postStopOrderGoodTillCancel(
+                    figi, quantity, marketPrice, TinkoffApiUtils.bigDecimalToQuotation(stopPrice),
+                    direction, accountId, StopOrderType.STOP_ORDER_TYPE_STOP_LOSS
+            );
+            log("SL установлен: " + ticker + " @ " + stopPrice);
+        }).exceptionally(e -> {
+            logError("FAIL: Не удалось выставить SL для " + ticker);
+            return null;
+        });
     }
 
-    private Optional<Position> findPositionByFigi(Portfolio portfolio, String figi) {
-        return portfolio.getPositions().stream().filter(p -> p.getFigi().equals(figi) && p.getQuantity().compareTo(BigDecimal.ZERO) != 0).findFirst();
+    private CompletableFuture<Void> postLimitTakeProfitOrder(String figi, long quantity, BigDecimal triggerPrice, BigDecimal limitPrice, StopOrderDirection direction, String ticker) {
+        if (quantity <= 0) return CompletableFuture.completedFuture(null);
+        return orderLifecycle.retryAsync("TP для " + ticker, () -> {
+            brokerGateway.postStopOrderGoodTillCancel(
+                    figi, quantity, TinkoffApiUtils.bigDecimalToQuotation(limitPrice),
+                    TinkoffApiUtils.bigDecimalToQuotation(triggerPrice), direction, accountId,
+                    StopOrderType.STOP_ORDER_TYPE_TAKE_PROFIT
+            );
+            log("TP установлен: " + ticker + " Trigger: " + triggerPrice);
+        }).exceptionally(e -> {
+            logError("FAIL: Не удалось выставить TP для " + ticker);
+            return null;
+        });
     }
 
     private Optional<StopOrder> findStopOrder(List<StopOrder> orders, String figi, StopOrderType type) {
@@ -1,13 +1,11 @@
 package com.example.tradingagent.services;
 
-import com.example.tradingagent.TinkoffApi;
 import com.example.tradingagent.TinkoffApiUtils;
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.springframework.stereotype.Service;
 import ru.tinkoff.piapi.contract.v1.Operation;
 import ru.tinkoff.piapi.contract.v1.OperationType;
-import ru.tinkoff.piapi.core.InvestApi;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -24,11 +22,15 @@ import java.util.stream.Collectors;
 @Service
 public class TinkoffReportService {
 
-    private final InvestApi api;
+    private final BrokerGateway brokerGateway;
+    private final InstrumentRegistry instrumentRegistry;
     private final String accountId;
 
-    public TinkoffReportService(TinkoffAccountService accountService) {
-        this.api = TinkoffApi.getApi();
+    public TinkoffReportService(BrokerGateway brokerGateway,
+                                InstrumentRegistry instrumentRegistry,
+                                TinkoffAccountService accountService) {
+        this.brokerGateway = brokerGateway;
+        this.instrumentRegistry = instrumentRegistry;
         this.accountId = accountService.getSandboxAccountId();
     }
 
@@ -95,9 +97,7 @@ public class TinkoffReportService {
     // --- ОСНОВНОЙ МЕТОД ---
 
     public ByteArrayInputStream generateOperationsReport(Instant from, Instant to) throws IOException {
-        List<Operation> operations = api.getOperationsService().getExecutedOperationsSync(
-                accountId, from, to
-        );
+        List<Operation> operations = brokerGateway.getExecutedOperations(accountId, from, to);
 
         List<RawOperation> rawOps = processAndMergeFees(operations);
         List<ReportItem> allItems = reconstructHistory(rawOps);
@@ -439,7 +439,7 @@ public class TinkoffReportService {
 
     private String getTickerByFigi(String figi) {
         if (figi == null || figi.isEmpty()) return "-";
-        try { return api.getInstrumentsService().getInstrumentByFigiSync(figi).getTicker(); } catch (Exception e) { return figi; }
+        return instrumentRegistry.getTicker(figi);
     }
 
     private CellStyle createHeaderStyle(Workbook wb) {
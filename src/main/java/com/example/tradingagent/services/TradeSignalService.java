@@ -0,0 +1,203 @@
+package com.example.tradingagent.services;
+
+import com.example.tradingagent.dto.TradeRequest;
+import com.example.tradingagent.entities.MarketSnapshot;
+import com.example.tradingagent.entities.TradeDecision;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ru.tinkoff.piapi.contract.v1.CandleInterval;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пакетное исполнение сигналов n8n (POST /api/execute-trades): один запрос на цикл вместо запроса на сигнал.
+ * Индикаторы M15 и снимок рынка берутся из последнего живого скана (MarketScanService), если он свежее
+ * trading.batch.indicator-max-age-ms; иначе считаются как в /api/execute-trade. Сигналы разбираются
+ * параллельно, проверки риска и экономики идут в очередях инструментов (ExecutionLaneScheduler).
+ * Ответ ждет решения по каждому сигналу (отправлена заявка или отказ) не дольше trading.batch.decision-timeout-ms.
+ */
+@Service
+public class TradeSignalService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TradeSignalService.class);
+
+    // Глубина свечей M15 для расчета индикаторов, если скана нет (как в /api/execute-trade)
+    private static final int DAYS_TO_REQUEST_M15 = 7;
+
+    private final MarketScanService marketScanService;
+    private final MarketDataHub marketDataHub;
+    private final TechnicalIndicatorService indicatorService;
+    private final AuditService auditService;
+    private final TradingStateMachine stateMachine;
+    private final TinkoffOrderService orderService;
+    private final Duration indicatorMaxAge;
+    private final long decisionTimeoutMillis;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public TradeSignalService(MarketScanService marketScanService,
+                              MarketDataHub marketDataHub,
+                              TechnicalIndicatorService indicatorService,
+                              AuditService auditService,
+                              TradingStateMachine stateMachine,
+                              TinkoffOrderService orderService,
+                              @Value("${trading.batch.indicator-max-age-ms:1200000}") long indicatorMaxAgeMillis,
+                              @Value("${trading.batch.decision-timeout-ms:10000}") long decisionTimeoutMillis) {
+        this.marketScanService = marketScanService;
+        this.marketDataHub = marketDataHub;
+        this.indicatorService = indicatorService;
+        this.auditService = auditService;
+        this.stateMachine = stateMachine;
+        this.orderService = orderService;
+        this.indicatorMaxAge = Duration.ofMillis(indicatorMaxAgeMillis);
+        this.decisionTimeoutMillis = decisionTimeoutMillis;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Разбирает сигналы параллельно и возвращает результат по каждому в порядке запроса.
+     */
+    public List<Map<String, Object>> executeBatch(List<TradeRequest> requests) {
+        long started = System.nanoTime();
+        List<CompletableFuture<SignalResult>> futures = new ArrayList<>(requests.size());
+        for (TradeRequest request : requests) {
+            futures.add(CompletableFuture.supplyAsync(() -> submit(request), executor));
+        }
+
+        // Ждем решения (заявка отправлена или отказ) по всем сигналам с общим лимитом времени
+        CompletableFuture<?>[] decisions = futures.stream()
+                .map(future -> future.thenCompose(SignalResult::decision))
+                .toArray(CompletableFuture[]::new);
+        try {
+            CompletableFuture.allOf(decisions).get(decisionTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.warn("Пакет сигналов: не все решения получены за {} мс, возвращаем текущие статусы", decisionTimeoutMillis);
+        }
+
+        List<Map<String, Object>> results = new ArrayList<>(requests.size());
+        for (int i = 0; i < futures.size(); i++) {
+            SignalResult result = futures.get(i).getNow(null);
+            results.add(result != null ? result.toMap() : pending(requests.get(i)));
+        }
+        logger.info("Пакет из {} сигналов обработан за {} мс", requests.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        return results;
+    }
+
+    /**
+     * ЛОГИРОВАНИЕ РЕШЕНИЯ: решение n8n по снимку рынка.
+     */
+    public void saveSignalDecision(MarketSnapshot snapshot, TradeRequest tradeRequest) {
+        if (snapshot == null) {
+            return;
+        }
+        TradeDecision.DecisionType decisionType = "BUY".equalsIgnoreCase(tradeRequest.getAction())
+            ? TradeDecision.DecisionType.BUY
+            : "SELL".equalsIgnoreCase(tradeRequest.getAction())
+                ? TradeDecision.DecisionType.SELL
+                : TradeDecision.DecisionType.HOLD;
+
+        String reasonCode = tradeRequest.getReason() != null
+            ? tradeRequest.getReason().substring(0, Math.min(100, tradeRequest.getReason().length()))
+            : "TRADING_SIGNAL";
+        String reasonDetails = String.format("Score: %.2f, Reason: %s",
+            tradeRequest.getConfidenceScore(),
+            tradeRequest.getReason() != null ? tradeRequest.getReason() : "No reason provided");
+
+        auditService.saveTradeDecision(snapshot, decisionType, reasonCode, reasonDetails);
+    }
+
+    private SignalResult submit(TradeRequest request) {
+        String figi = request.getInstrumentFigi();
+        if (figi == null || request.getAction() == null) {
+            return SignalResult.of(request, "INVALID", "Не указаны instrument_figi или action");
+        }
+        try {
+            Optional<MarketScanService.ScanResult> scanned = marketScanService.getRecentResult(figi, indicatorMaxAge);
+            Map<String, Double> indicators;
+            MarketSnapshot snapshot;
+            if (scanned.isPresent()) {
+                // Индикаторы и снимок этого цикла уже посчитаны и записаны сканером
+                indicators = scanned.get().indicatorsM15();
+                snapshot = scanned.get().snapshot();
+            } else {
+                CandleSeries candles = marketDataHub.getCandleSeries(figi, DAYS_TO_REQUEST_M15, CandleInterval.CANDLE_INTERVAL_15_MIN);
+                if (candles.isEmpty()) {
+                    return SignalResult.of(request, "NO_DATA", "Нет данных");
+                }
+                indicators = indicatorService.calculateIndicators(candles, request.getTicker(), figi);
+                if (indicators.isEmpty()) {
+                    return SignalResult.of(request, "NO_DATA", "Не удалось рассчитать индикаторы");
+                }
+                snapshot = auditService.saveMarketSnapshot(request.getTicker(), indicators,
+                        BigDecimal.valueOf(candles.getLastClose()));
+            }
+            saveSignalDecision(snapshot, request);
+
+            // Проверка State Machine: можно ли торговать?
+            if (!stateMachine.canTrade(figi)) {
+                String state = String.valueOf(stateMachine.getState(figi));
+                return SignalResult.of(request, "BLOCKED", "Торговля заблокирована: инструмент в состоянии " + state);
+            }
+
+            OrderHandle handle = orderService.submitTrade(request, indicators);
+            return new SignalResult(request, handle, null, null, scanned.isPresent());
+        } catch (Exception e) {
+            logger.error("Ошибка обработки сигнала {}: {}", request.getTicker(), e.getMessage());
+            return SignalResult.of(request, "ERROR", e.getMessage());
+        }
+    }
+
+    private static Map<String, Object> pending(TradeRequest request) {
+        return SignalResult.of(request, "PENDING", "Сигнал еще обрабатывается").toMap();
+    }
+
+    /**
+     * Итог разбора сигнала: дескриптор заявки или статус отказа до отправки в очередь.
+     */
+    private record SignalResult(TradeRequest request, OrderHandle handle, String status, String message,
+                                boolean fromScan) {
+
+        static SignalResult of(TradeRequest request, String status, String message) {
+            return new SignalResult(request, null, status, message, false);
+        }
+
+        CompletableFuture<OrderHandle> decision() {
+            return handle != null ? handle.getDecision() : CompletableFuture.completedFuture(null);
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map;
+            if (handle != null) {
+                map = handle.toStatusMap();
+                map.put("indicators_source", fromScan ? "scan" : "candles");
+            } else {
+                map = new HashMap<>();
+                map.put("figi", request.getInstrumentFigi());
+                map.put("ticker", request.getTicker());
+                map.put("action", request.getAction());
+                map.put("status", status);
+                map.put("message", message);
+            }
+            return map;
+        }
+    }
+}
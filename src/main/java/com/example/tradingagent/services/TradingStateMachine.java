@@ -4,8 +4,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
+import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
-import java.time.temporal.ChronoUnit;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -16,6 +17,9 @@ import java.util.concurrent.ConcurrentHashMap;
  * - ACTIVE: В позиции. Мониторим SL/TP
  * - EXIT_PENDING: Ордер на выход отправлен
  * - COOLDOWN: После убытка или сделки не торгуем этот тикер N минут
+ *
+ * Время берется из Clock: Spring-бин живой торговли работает по системным часам,
+ * бэктест создает собственный экземпляр на прогон с SimulatedClock, который двигается по свечам.
  */
 @Service
 public class TradingStateMachine {
@@ -24,6 +28,23 @@ public class TradingStateMachine {
     private static final long COOLDOWN_MINUTES = 60; // 1 час после сделки
 
     private final ConcurrentHashMap<String, TradingState> stateMap = new ConcurrentHashMap<>();
+    private final Clock clock;
+    private final Duration cooldown;
+
+    /**
+     * Экземпляр для живой торговли: системные часы и стандартный коулдаун.
+     */
+    public TradingStateMachine() {
+        this(Clock.systemUTC(), Duration.ofMinutes(COOLDOWN_MINUTES));
+    }
+
+    /**
+     * Экземпляр с заданными часами и длительностью коулдауна (для бэктеста).
+     */
+    public TradingStateMachine(Clock clock, Duration cooldown) {
+        this.clock = clock;
+        this.cooldown = cooldown;
+    }
 
     public enum TradingStateType {
         SCANNING,           // Ищем точку входа
@@ -49,6 +70,12 @@ public class TradingStateMachine {
             this.additionalInfo = additionalInfo;
         }
 
+        public TradingState(TradingStateType state, String additionalInfo, Instant timestamp) {
+            this.state = state;
+            this.timestamp = timestamp;
+            this.additionalInfo = additionalInfo;
+        }
+
         // Getters and Setters
         public TradingStateType getState() {
             return state;
@@ -87,10 +114,11 @@ public class TradingStateMachine {
 
         // Проверка коулдауна
         if (state.getState() == TradingStateType.COOLDOWN) {
-            long minutesSinceCooldown = ChronoUnit.MINUTES.between(state.getTimestamp(), Instant.now());
-            if (minutesSinceCooldown >= COOLDOWN_MINUTES) {
+            Instant now = clock.instant();
+            if (!now.isBefore(state.getTimestamp().plus(cooldown))) {
                 // Коулдаун истек, возвращаемся к сканированию
                 state.setState(TradingStateType.SCANNING);
+                state.setTimestamp(now);
                 logger.info("Коулдаун истек для {}, возврат к SCANNING", figi);
             }
         }
@@ -102,7 +130,7 @@ public class TradingStateMachine {
      * Переход в состояние ожидания входа.
      */
     public void setEntryPending(String figi, String orderId) {
-        TradingState state = new TradingState(TradingStateType.ENTRY_PENDING, orderId);
+        TradingState state = new TradingState(TradingStateType.ENTRY_PENDING, orderId, clock.instant());
         stateMap.put(figi, state);
         logger.info("Переход {} в состояние ENTRY_PENDING (orderId: {})", figi, orderId);
     }
@@ -111,7 +139,7 @@ public class TradingStateMachine {
      * Переход в активное состояние (позиция открыта).
      */
     public void setActive(String figi) {
-        TradingState state = new TradingState(TradingStateType.ACTIVE);
+        TradingState state = new TradingState(TradingStateType.ACTIVE, null, clock.instant());
         stateMap.put(figi, state);
         logger.info("Переход {} в состояние ACTIVE", figi);
     }
@@ -120,7 +148,7 @@ public class TradingStateMachine {
      * Переход в состояние ожидания выхода.
      */
     public void setExitPending(String figi, String orderId) {
-        TradingState state = new TradingState(TradingStateType.EXIT_PENDING, orderId);
+        TradingState state = new TradingState(TradingStateType.EXIT_PENDING, orderId, clock.instant());
         stateMap.put(figi, state);
         logger.info("Переход {} в состояние EXIT_PENDING (orderId: {})", figi, orderId);
     }
@@ -130,17 +158,17 @@ public class TradingStateMachine {
      */
     public void setCooldown(String figi, boolean wasLoss) {
         TradingState state = new TradingState(TradingStateType.COOLDOWN, 
-            wasLoss ? "LOSS" : "PROFIT");
+            wasLoss ? "LOSS" : "PROFIT", clock.instant());
         stateMap.put(figi, state);
         logger.info("Переход {} в состояние COOLDOWN ({}), длительность {} минут", 
-            figi, wasLoss ? "убыток" : "прибыль", COOLDOWN_MINUTES);
+            figi, wasLoss ? "убыток" : "прибыль", cooldown.toMinutes());
     }
 
     /**
      * Сброс состояния в SCANNING.
      */
     public void resetToScanning(String figi) {
-        TradingState state = new TradingState(TradingStateType.SCANNING);
+        TradingState state = new TradingState(TradingStateType.SCANNING, null, clock.instant());
         stateMap.put(figi, state);
         logger.info("Сброс {} в состояние SCANNING", figi);
     }
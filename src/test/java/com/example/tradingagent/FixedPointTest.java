@@ -0,0 +1,140 @@
+package com.example.tradingagent;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Сверка арифметики FixedPoint с BigDecimal (HALF_UP, 9 знаков), в том числе на суммах,
+ * при которых промежуточный результат не помещается в 64 бита.
+ */
+class FixedPointTest {
+
+    private static final BigDecimal SCALE = BigDecimal.valueOf(FixedPoint.SCALE);
+    private static final int ITERATIONS = 200_000;
+
+    @Test
+    void divideMatchesBigDecimal() {
+        Random random = new Random(42);
+        for (int i = 0; i < ITERATIONS; i++) {
+            long dividend = randomAmount(random);
+            long divisor = randomAmount(random);
+            if (divisor == 0) {
+                continue;
+            }
+            BigDecimal expected = BigDecimal.valueOf(dividend).multiply(SCALE)
+                    .divide(BigDecimal.valueOf(divisor), 0, RoundingMode.HALF_UP);
+            if (expected.toBigInteger().bitLength() >= 64) {
+                assertThatThrownBy(() -> FixedPoint.divide(dividend, divisor)).isInstanceOf(ArithmeticException.class);
+            } else {
+                assertThat(FixedPoint.divide(dividend, divisor))
+                        .as("%d / %d", dividend, divisor).isEqualTo(expected.longValueExact());
+            }
+        }
+    }
+
+    @Test
+    void divideReportRatiosOfLargeAmounts() {
+        // P&L 12 345.678 RUB на вход 987 654.321 RUB: числитель * 10^9 выходит за 64 бита
+        long pnl = fp("12345.678");
+        long entry = fp("987654.321");
+        assertThat(FixedPoint.divide(pnl, entry)).isEqualTo(expectedDivide(pnl, entry));
+        assertThat(FixedPoint.divide(-pnl, entry)).isEqualTo(expectedDivide(-pnl, entry));
+        assertThat(FixedPoint.divide(Long.MAX_VALUE, Long.MAX_VALUE)).isEqualTo(FixedPoint.SCALE);
+        assertThat(FixedPoint.divide(Long.MIN_VALUE, Long.MIN_VALUE)).isEqualTo(FixedPoint.SCALE);
+        assertThat(FixedPoint.divide(Long.MIN_VALUE, Long.MAX_VALUE)).isEqualTo(expectedDivide(Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    @Test
+    void divideRoundsHalfAwayFromZero() {
+        // 5e-9 / 10 = 0.5e-9 -> 1e-9
+        assertThat(FixedPoint.divide(5, FixedPoint.ofUnits(10))).isEqualTo(1);
+        assertThat(FixedPoint.divide(-5, FixedPoint.ofUnits(10))).isEqualTo(-1);
+        assertThat(FixedPoint.divide(5, FixedPoint.ofUnits(-10))).isEqualTo(-1);
+        // То же на 128-битном пути: 15.000000001 / 2 = 7.5000000005 -> 7.500000001
+        assertThat(FixedPoint.divide(FixedPoint.ofUnits(15) + 1, FixedPoint.ofUnits(2))).isEqualTo(7_500_000_001L);
+        assertThat(FixedPoint.divide(-(FixedPoint.ofUnits(15) + 1), FixedPoint.ofUnits(2))).isEqualTo(-7_500_000_001L);
+    }
+
+    @Test
+    void divideRejectsZeroAndOverflow() {
+        assertThatThrownBy(() -> FixedPoint.divide(1, 0)).isInstanceOf(ArithmeticException.class);
+        assertThatThrownBy(() -> FixedPoint.divide(Long.MAX_VALUE, 1)).isInstanceOf(ArithmeticException.class);
+        assertThatThrownBy(() -> FixedPoint.divide(Long.MIN_VALUE, -FixedPoint.SCALE / 2))
+                .isInstanceOf(ArithmeticException.class);
+    }
+
+    @Test
+    void multiplyMatchesBigDecimal() {
+        Random random = new Random(7);
+        for (int i = 0; i < ITERATIONS; i++) {
+            long a = randomAmount(random);
+            long b = randomAmount(random);
+            BigDecimal expected = BigDecimal.valueOf(a).multiply(BigDecimal.valueOf(b))
+                    .divide(SCALE, 0, RoundingMode.HALF_UP);
+            if (expected.toBigInteger().bitLength() >= 64) {
+                assertThatThrownBy(() -> FixedPoint.multiply(a, b)).isInstanceOf(ArithmeticException.class);
+            } else {
+                assertThat(FixedPoint.multiply(a, b)).as("%d * %d", a, b).isEqualTo(expected.longValueExact());
+            }
+        }
+    }
+
+    @Test
+    void multiplyLargeAmountByCommissionRate() {
+        // 250 000 RUB * 0.05%: произведение нано-единиц за пределами 64 бит
+        long amount = fp("250000.123456789");
+        long rate = fp("0.0005");
+        assertThat(FixedPoint.multiply(amount, rate)).isEqualTo(FixedPoint.fromBigDecimal(
+                new BigDecimal("250000.123456789").multiply(new BigDecimal("0.0005"))));
+        assertThat(FixedPoint.multiply(-amount, rate)).isEqualTo(-FixedPoint.multiply(amount, rate));
+        // Половина нано-единицы округляется от нуля
+        assertThat(FixedPoint.multiply(5, FixedPoint.SCALE / 10)).isEqualTo(1);
+        assertThat(FixedPoint.multiply(-5, FixedPoint.SCALE / 10)).isEqualTo(-1);
+    }
+
+    @Test
+    void roundToStepMatchesTinkoffApiUtils() {
+        Random random = new Random(11);
+        long[] steps = {1, 10_000_000, fp("0.01"), fp("0.05"), fp("0.5"), FixedPoint.ofUnits(1),
+                fp("0.0025")};
+        for (int i = 0; i < ITERATIONS; i++) {
+            long price = random.nextLong(-FixedPoint.ofUnits(100_000), FixedPoint.ofUnits(100_000));
+            long step = steps[random.nextInt(steps.length)];
+            BigDecimal expected = TinkoffApiUtils.roundToStep(FixedPoint.toBigDecimal(price), FixedPoint.toBigDecimal(step));
+            assertThat(FixedPoint.roundToStep(price, step))
+                    .as("%d / %d", price, step).isEqualTo(FixedPoint.fromBigDecimal(expected));
+        }
+        // Ровно половина шага
+        assertThat(FixedPoint.roundToStep(fp("100.005"), fp("0.01"))).isEqualTo(fp("100.01"));
+        assertThat(FixedPoint.roundToStep(fp("-100.005"), fp("0.01"))).isEqualTo(fp("-100.01"));
+        assertThat(FixedPoint.roundToStep(fp("123.456"), 0)).isEqualTo(fp("123.456"));
+    }
+
+    /**
+     * Значения от нано-единиц до десятков миллионов рублей, с обоими знаками.
+     */
+    private static long randomAmount(Random random) {
+        long bound = switch (random.nextInt(4)) {
+            case 0 -> 1_000L;
+            case 1 -> FixedPoint.ofUnits(10);
+            case 2 -> FixedPoint.ofUnits(100_000);
+            default -> FixedPoint.ofUnits(50_000_000);
+        };
+        return random.nextLong(-bound, bound + 1);
+    }
+
+    private static long fp(String value) {
+        return FixedPoint.fromBigDecimal(new BigDecimal(value));
+    }
+
+    private static long expectedDivide(long dividend, long divisor) {
+        return BigDecimal.valueOf(dividend).multiply(SCALE)
+                .divide(BigDecimal.valueOf(divisor), 0, RoundingMode.HALF_UP).longValueExact();
+    }
+}
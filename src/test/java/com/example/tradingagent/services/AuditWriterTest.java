@@ -0,0 +1,157 @@
+package com.example.tradingagent.services;
+
+import com.example.tradingagent.entities.MarketSnapshot;
+import com.example.tradingagent.entities.TradeDecision;
+import com.example.tradingagent.repositories.MarketSnapshotRepository;
+import com.example.tradingagent.repositories.TradeDecisionRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Порядок записи AuditWriter при переполненной очереди и при остановке: решение не пишется раньше своего снимка.
+ * Репозитории-заглушки ведут себя как Hibernate: снимок получает id при сохранении, решение со ссылкой
+ * на несохраненный снимок не сохраняется.
+ */
+class AuditWriterTest {
+
+    private final MarketSnapshotRepository snapshotRepository = mock(MarketSnapshotRepository.class);
+    private final TradeDecisionRepository decisionRepository = mock(TradeDecisionRepository.class);
+    private final List<String> saved = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch writerBlocked = new CountDownLatch(1);
+    private final CountDownLatch releaseWriter = new CountDownLatch(1);
+    private AuditWriter writer;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        when(snapshotRepository.saveAll(any())).then(invocation -> {
+            Iterable<MarketSnapshot> snapshots = invocation.getArgument(0);
+            snapshots.forEach(this::saveSnapshot);
+            return snapshots;
+        });
+        when(snapshotRepository.save(any())).then(invocation -> saveSnapshot(invocation.getArgument(0)));
+        when(decisionRepository.saveAll(any())).then(invocation -> {
+            Iterable<TradeDecision> decisions = invocation.getArgument(0);
+            decisions.forEach(this::saveDecision);
+            return decisions;
+        });
+        when(decisionRepository.save(any())).then(invocation -> saveDecision(invocation.getArgument(0)));
+
+        // Очередь на одну запись, переполнение - через 20 мс
+        writer = new AuditWriter(snapshotRepository, decisionRepository, mock(StatisticsRollupService.class),
+                mock(PlatformTransactionManager.class), true, 1, 100, 10, 20);
+    }
+
+    @AfterEach
+    void tearDown() {
+        releaseWriter.countDown();
+        writer.shutdown();
+    }
+
+    @Test
+    void decisionWrittenAfterQueuedSnapshotWhenQueueIsFull() throws Exception {
+        MarketSnapshot slow = snapshot("SLOW");
+        MarketSnapshot snapshot = snapshot("SBER");
+        TradeDecision decision = decision(snapshot);
+
+        // Поток записи занят первой пачкой, снимок ждет в полной очереди
+        writer.enqueue(slow);
+        assertThat(writerBlocked.await(5, TimeUnit.SECONDS)).isTrue();
+        writer.enqueue(snapshot);
+        releaseLater();
+        // Очередь полна: решение пишется синхронно, но только после снимка
+        writer.enqueue(decision);
+
+        assertThat(saved).containsExactly("snapshot SLOW", "snapshot SBER", "decision SBER");
+        assertThat(writer.getMetrics())
+                .containsEntry("failed", 0L)
+                .containsEntry("written", 3L)
+                .containsEntry("synchronousWrites", 1L);
+    }
+
+    @Test
+    void writesDuringShutdownWaitForQueueToDrain() throws Exception {
+        MarketSnapshot slow = snapshot("SLOW");
+        MarketSnapshot snapshot = snapshot("SBER");
+        TradeDecision decision = decision(snapshot);
+
+        writer.enqueue(slow);
+        assertThat(writerBlocked.await(5, TimeUnit.SECONDS)).isTrue();
+        writer.enqueue(snapshot);
+
+        Thread shutdown = new Thread(writer::shutdown);
+        shutdown.start();
+        // Остановка уже не принимает в очередь: решение пишется синхронно, но после дописанной очереди
+        Thread.sleep(50);
+        releaseLater();
+        writer.enqueue(decision);
+        shutdown.join(TimeUnit.SECONDS.toMillis(10));
+
+        assertThat(saved).containsExactly("snapshot SLOW", "snapshot SBER", "decision SBER");
+        assertThat(writer.getMetrics()).containsEntry("failed", 0L).containsEntry("written", 3L);
+    }
+
+    private MarketSnapshot saveSnapshot(MarketSnapshot snapshot) {
+        if ("SLOW".equals(snapshot.getTicker())) {
+            writerBlocked.countDown();
+            try {
+                releaseWriter.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        snapshot.setId(UUID.randomUUID());
+        saved.add("snapshot " + snapshot.getTicker());
+        return snapshot;
+    }
+
+    private TradeDecision saveDecision(TradeDecision decision) {
+        if (decision.getSnapshot().getId() == null) {
+            // Как TransientPropertyValueException у Hibernate
+            throw new IllegalStateException("Снимок решения еще не сохранен");
+        }
+        decision.setId(UUID.randomUUID());
+        saved.add("decision " + decision.getSnapshot().getTicker());
+        return decision;
+    }
+
+    private void releaseLater() {
+        // Отпускаем поток записи, когда вызывающий уже ждет
+        Thread release = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            releaseWriter.countDown();
+        });
+        release.setDaemon(true);
+        release.start();
+    }
+
+    private static MarketSnapshot snapshot(String ticker) {
+        MarketSnapshot snapshot = new MarketSnapshot();
+        snapshot.setTicker(ticker);
+        return snapshot;
+    }
+
+    private static TradeDecision decision(MarketSnapshot snapshot) {
+        TradeDecision decision = new TradeDecision();
+        decision.setSnapshot(snapshot);
+        return decision;
+    }
+}
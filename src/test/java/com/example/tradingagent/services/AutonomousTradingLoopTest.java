@@ -0,0 +1,58 @@
+package com.example.tradingagent.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Цикл не занимает поток планировщика и не запускается поверх незавершенного.
+ */
+class AutonomousTradingLoopTest {
+
+    private final TinkoffInstrumentsService instrumentsService = mock(TinkoffInstrumentsService.class);
+    private final AutonomousTradingLoop loop = new AutonomousTradingLoop(true, "", 1_000, false,
+            instrumentsService, mock(PortfolioMirror.class), mock(MarketScanService.class),
+            mock(N8nSignalService.class), mock(TradeSignalService.class));
+
+    @AfterEach
+    void tearDown() {
+        loop.shutdown();
+    }
+
+    @Test
+    void slowCycleDoesNotBlockSchedulerAndSkipsOverlappingBars() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(instrumentsService.getBlueChips()).then(invocation -> {
+            started.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return List.of();
+        });
+
+        long before = System.nanoTime();
+        loop.scheduleCycle();
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        // Следующие бары, пока идет цикл, пропускаются и возвращают поток сразу
+        loop.scheduleCycle();
+        loop.scheduleCycle();
+        assertThat(System.nanoTime() - before).isLessThan(TimeUnit.SECONDS.toNanos(5));
+
+        release.countDown();
+        verify(instrumentsService, timeout(5_000).times(1)).getBlueChips();
+
+        // После завершения цикла следующий бар запускается снова
+        Thread.sleep(100);
+        loop.scheduleCycle();
+        verify(instrumentsService, timeout(5_000).times(2)).getBlueChips();
+    }
+}
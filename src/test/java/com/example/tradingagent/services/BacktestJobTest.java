@@ -0,0 +1,72 @@
+package com.example.tradingagent.services;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Конечный статус задачи бэктеста ставится один раз: отмена, гоняющаяся с завершением, не дает двух переходов.
+ */
+class BacktestJobTest {
+
+    @Test
+    void cancelRacingWithCompleteAppliesOnlyFirstTransition() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 2_000; i++) {
+                BacktestJob job = new BacktestJob(BacktestJob.Type.RUN, Map.of());
+                job.setFuture(new CompletableFuture<>());
+                SseEmitter emitter = mock(SseEmitter.class);
+                job.subscribe(emitter);
+                job.markRunning();
+
+                CyclicBarrier start = new CyclicBarrier(2);
+                Future<?> worker = executor.submit(() -> {
+                    start.await();
+                    job.complete(Map.of("profit", 1));
+                    return null;
+                });
+                Future<Boolean> cancel = executor.submit(() -> {
+                    start.await();
+                    return job.cancel();
+                });
+                worker.get(5, TimeUnit.SECONDS);
+                boolean cancelled = cancel.get(5, TimeUnit.SECONDS);
+
+                assertThat(job.getStatus())
+                        .isEqualTo(cancelled ? BacktestJob.Status.CANCELLED : BacktestJob.Status.COMPLETED);
+                assertThat(job.getResult() == null).isEqualTo(cancelled);
+                // Статус при подписке и один итоговый
+                verify(emitter, times(2)).send(any(SseEmitter.SseEventBuilder.class));
+                verify(emitter, times(1)).complete();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void cancelBeforeStartIsNotOverwrittenByRunning() {
+        BacktestJob job = new BacktestJob(BacktestJob.Type.OPTIMIZE, Map.of());
+        assertThat(job.cancel()).isTrue();
+        job.markRunning();
+        job.fail("ошибка", false);
+
+        assertThat(job.getStatus()).isEqualTo(BacktestJob.Status.CANCELLED);
+        assertThat(job.getError()).isNull();
+        assertThat(job.cancel()).isFalse();
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.tradingagent.services;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Сборка свечей интервала из минут стрима и кольцевое вытеснение в CandleRingBuffer.
+ */
+class CandleRingBufferTest {
+
+    private static final long M15 = 900;
+    private static final long T0 = 1_704_700_800L; // 2024-01-08T08:00Z, граница M15
+
+    @Test
+    void repeatedUpdatesOfSameMinuteReplacePreviousOnes() {
+        CandleRingBuffer buffer = new CandleRingBuffer(10, M15);
+        buffer.onMinuteCandle(T0, 100, 101, 99, 100, 10);
+        buffer.onMinuteCandle(T0, 100, 103, 99, 102, 25);
+        assertCandle(buffer.snapshotSince(T0), 0, T0, 100, 103, 99, 102, 25);
+
+        // Вторая минута: первое обновление шире итогового - в свече остается только итоговое
+        buffer.onMinuteCandle(T0 + 60, 102, 104, 98, 101, 5);
+        buffer.onMinuteCandle(T0 + 60, 102, 102.5, 97.5, 101.5, 7);
+        assertCandle(buffer.snapshotSince(T0), 0, T0, 100, 103, 97.5, 101.5, 32);
+        assertThat(buffer.size()).isEqualTo(1);
+    }
+
+    @Test
+    void lateMinuteIsIgnored() {
+        CandleRingBuffer buffer = new CandleRingBuffer(10, M15);
+        buffer.onMinuteCandle(T0, 100, 101, 99, 100, 10);
+        buffer.onMinuteCandle(T0 + 120, 100, 102, 99.5, 101, 10);
+        // Минута раньше текущей в том же интервале
+        buffer.onMinuteCandle(T0 + 60, 100, 150, 50, 120, 1_000);
+        assertCandle(buffer.snapshotSince(T0), 0, T0, 100, 102, 99, 101, 20);
+
+        buffer.onMinuteCandle(T0 + M15, 101, 101, 100, 100.5, 3);
+        // Минута интервала, который уже закрыт
+        buffer.onMinuteCandle(T0 + M15 - 60, 101, 150, 50, 120, 1_000);
+        CandleSeries series = buffer.snapshotSince(T0);
+        assertThat(series.size()).isEqualTo(2);
+        assertCandle(series, 0, T0, 100, 102, 99, 101, 20);
+        assertCandle(series, 1, T0 + M15, 101, 101, 100, 100.5, 3);
+    }
+
+    @Test
+    void oldestCandlesAreEvictedAtCapacity() {
+        CandleRingBuffer buffer = new CandleRingBuffer(3, M15);
+        for (int i = 0; i < 5; i++) {
+            buffer.onMinuteCandle(T0 + i * M15, 100 + i, 101 + i, 99 + i, 100.5 + i, i + 1);
+        }
+        assertThat(buffer.size()).isEqualTo(3);
+        CandleSeries series = buffer.snapshotSince(0);
+        assertThat(series.size()).isEqualTo(3);
+        for (int i = 0; i < 3; i++) {
+            int bar = i + 2;
+            assertCandle(series, i, T0 + bar * M15, 100 + bar, 101 + bar, 99 + bar, 100.5 + bar, bar + 1);
+        }
+        // Последняя свеча после вытеснения продолжает собираться из минут
+        buffer.onMinuteCandle(T0 + 4 * M15 + 60, 104.5, 110, 90, 105, 2);
+        assertCandle(buffer.snapshotSince(T0 + 4 * M15), 0, T0 + 4 * M15, 104, 110, 90, 105, 7);
+    }
+
+    @Test
+    void snapshotSinceSpansWrapPoint() {
+        CandleRingBuffer buffer = new CandleRingBuffer(4, M15);
+        // 6 свечей в буфере на 4: логическое начало на физическом индексе 2
+        for (int i = 0; i < 6; i++) {
+            buffer.onMinuteCandle(T0 + i * M15, 100 + i, 100 + i, 100 + i, 100 + i, 1);
+        }
+        CandleSeries series = buffer.snapshotSince(T0 + 3 * M15);
+        assertThat(series.size()).isEqualTo(3);
+        for (int i = 0; i < 3; i++) {
+            assertThat(series.getTime(i)).isEqualTo(T0 + (i + 3) * M15);
+            assertThat(series.getClose(i)).isEqualTo(103 + i);
+        }
+        // Граница между свечами - с первой открывшейся после нее
+        assertThat(buffer.snapshotSince(T0 + 2 * M15 + 1).getTime(0)).isEqualTo(T0 + 3 * M15);
+        assertThat(buffer.snapshotSince(0).getTime(0)).isEqualTo(T0 + 2 * M15);
+        assertThat(buffer.snapshotSince(T0 + 6 * M15).size()).isZero();
+    }
+
+    @Test
+    void seedKeepsLatestCandlesAndContinuesLastOne() {
+        CandleRingBuffer buffer = new CandleRingBuffer(3, M15);
+        long[] times = new long[5];
+        double[] prices = new double[5];
+        double[] volumes = new double[5];
+        for (int i = 0; i < 5; i++) {
+            times[i] = T0 + i * M15;
+            prices[i] = 100 + i;
+            volumes[i] = 10;
+        }
+        buffer.seed(CandleSeries.of(times, prices, prices, prices, prices, volumes));
+        assertThat(buffer.size()).isEqualTo(3);
+        assertThat(buffer.snapshotSince(0).getTime(0)).isEqualTo(T0 + 2 * M15);
+
+        // Минута внутри последней свечи истории дополняет ее, а не открывает новую
+        buffer.onMinuteCandle(T0 + 4 * M15 + 300, 104, 106, 103, 105, 4);
+        assertThat(buffer.size()).isEqualTo(3);
+        assertCandle(buffer.snapshotSince(T0 + 4 * M15), 0, T0 + 4 * M15, 104, 106, 103, 105, 14);
+    }
+
+    private static void assertCandle(CandleSeries series, int i, long time,
+                                     double open, double high, double low, double close, double volume) {
+        assertThat(series.getTime(i)).isEqualTo(time);
+        assertThat(series.getOpen(i)).isEqualTo(open);
+        assertThat(series.getHigh(i)).isEqualTo(high);
+        assertThat(series.getLow(i)).isEqualTo(low);
+        assertThat(series.getClose(i)).isEqualTo(close);
+        assertThat(series.getVolume(i)).isEqualTo(volume);
+    }
+}
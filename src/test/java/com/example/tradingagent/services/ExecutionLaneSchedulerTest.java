@@ -0,0 +1,145 @@
+package com.example.tradingagent.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Полосы исполнения: порядок и отсутствие параллелизма внутри FIGI, независимость разных FIGI,
+ * ограничение глубины и удаление пустой полосы.
+ */
+class ExecutionLaneSchedulerTest {
+
+    private static final String SBER = "BBG004730N88";
+    private static final String GAZP = "BBG004730RP0";
+
+    private ExecutionLaneScheduler scheduler;
+
+    @AfterEach
+    void tearDown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    void tasksOfOneFigiRunInOrderWithoutOverlap() throws Exception {
+        scheduler = new ExecutionLaneScheduler(1_000);
+        int tasks = 300;
+        List<Integer> executed = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(tasks);
+
+        for (int i = 0; i < tasks; i++) {
+            int number = i;
+            scheduler.submit(SBER, () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                Thread.yield();
+                executed.add(number);
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(executed).containsExactlyElementsOf(IntStream.range(0, tasks).boxed().toList());
+        assertThat(maxRunning.get()).isEqualTo(1);
+    }
+
+    @Test
+    void differentFigisRunConcurrently() throws Exception {
+        scheduler = new ExecutionLaneScheduler(8);
+        // Каждая задача ждет, пока стартует задача другого FIGI: последовательно они бы не завершились
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        CountDownLatch done = new CountDownLatch(2);
+        Runnable task = () -> {
+            bothStarted.countDown();
+            try {
+                if (bothStarted.await(5, TimeUnit.SECONDS)) {
+                    done.countDown();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+
+        scheduler.submit(SBER, task);
+        scheduler.submit(GAZP, task);
+
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void taskBeyondCapacityIsRejected() throws Exception {
+        int capacity = 3;
+        scheduler = new ExecutionLaneScheduler(capacity);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.submit(SBER, () -> {
+            started.countDown();
+            awaitQuietly(release);
+        });
+        // Выполняемая задача не считается ожидающей
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        for (int i = 0; i < capacity; i++) {
+            scheduler.submit(SBER, () -> { });
+        }
+        assertThat(scheduler.getQueueDepth(SBER)).isEqualTo(capacity);
+        assertThatThrownBy(() -> scheduler.submit(SBER, () -> { }))
+                .isInstanceOf(RejectedExecutionException.class);
+        // Переполнение одной полосы не мешает другим
+        CountDownLatch other = new CountDownLatch(1);
+        scheduler.submit(GAZP, other::countDown);
+        assertThat(other.await(5, TimeUnit.SECONDS)).isTrue();
+
+        release.countDown();
+    }
+
+    @Test
+    void laneIsRemovedAfterDraining() throws Exception {
+        scheduler = new ExecutionLaneScheduler(8);
+        CountDownLatch done = new CountDownLatch(2);
+        scheduler.submit(SBER, done::countDown);
+        scheduler.submit(SBER, done::countDown);
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+
+        awaitNoLanes();
+        assertThat(scheduler.getQueueDepth(SBER)).isZero();
+
+        // Следующая задача заводит новую полосу
+        CountDownLatch again = new CountDownLatch(1);
+        scheduler.submit(SBER, again::countDown);
+        assertThat(again.await(5, TimeUnit.SECONDS)).isTrue();
+        awaitNoLanes();
+    }
+
+    private void awaitNoLanes() throws InterruptedException {
+        // Полоса удаляется потоком выборки сразу после последней задачи
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (scheduler.getActiveLanes() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertThat(scheduler.getActiveLanes()).isZero();
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
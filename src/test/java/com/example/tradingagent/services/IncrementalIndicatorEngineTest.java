@@ -0,0 +1,75 @@
+package com.example.tradingagent.services;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.ta4j.core.BarSeries;
+import org.ta4j.core.Indicator;
+import org.ta4j.core.indicators.ATRIndicator;
+import org.ta4j.core.indicators.EMAIndicator;
+import org.ta4j.core.indicators.MACDIndicator;
+import org.ta4j.core.indicators.RSIIndicator;
+import org.ta4j.core.indicators.adx.ADXIndicator;
+import org.ta4j.core.indicators.helpers.ClosePriceIndicator;
+import org.ta4j.core.num.Num;
+
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Сверка IncrementalIndicatorEngine с индикаторами ta4j 0.15 на каждом баре фиксированных наборов свечей.
+ */
+class IncrementalIndicatorEngineTest {
+
+    private static final double TOLERANCE = 1e-6;
+
+    static Stream<Arguments> candleSets() {
+        return Stream.of(
+                Arguments.of("random walk 120", TestCandles.randomWalk(120, 1)),
+                Arguments.of("random walk 500", TestCandles.randomWalk(500, 2)),
+                Arguments.of("random walk 2000", TestCandles.randomWalk(2000, 3)),
+                Arguments.of("flat", TestCandles.flat(150, 100.0)),
+                Arguments.of("zero loss", TestCandles.rising(150))
+        );
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("candleSets")
+    void matchesTa4jOnEveryBar(String name, CandleSeries candles) {
+        BarSeries series = TestCandles.toBarSeries(candles);
+        ClosePriceIndicator closePrice = new ClosePriceIndicator(series);
+        RSIIndicator rsi = new RSIIndicator(closePrice, 14);
+        MACDIndicator macd = new MACDIndicator(closePrice, 12, 26);
+        EMAIndicator macdSignal = new EMAIndicator(macd, 9);
+        ATRIndicator atr = new ATRIndicator(series, 14);
+        EMAIndicator ema100 = new EMAIndicator(closePrice, 100);
+        ADXIndicator adx = new ADXIndicator(series, 14);
+
+        IncrementalIndicatorEngine engine = new IncrementalIndicatorEngine();
+        for (int i = 0; i < candles.size(); i++) {
+            engine.addBar(candles, i);
+            String at = name + " #" + i;
+            assertClose(at + " RSI", engine.getRsi(), value(rsi, i));
+            assertClose(at + " MACD", engine.getMacd(), value(macd, i));
+            assertClose(at + " MACD signal", engine.getMacdSignal(), value(macdSignal, i));
+            assertClose(at + " MACD hist", engine.getMacdHist(), value(macd, i) - value(macdSignal, i));
+            assertClose(at + " ATR", engine.getAtr(), value(atr, i));
+            assertClose(at + " EMA100", engine.getEma100(), value(ema100, i));
+            assertClose(at + " ADX", engine.getAdx(), value(adx, i));
+        }
+    }
+
+    private static double value(Indicator<Num> indicator, int index) {
+        return indicator.getValue(index).doubleValue();
+    }
+
+    private static void assertClose(String description, double actual, double expected) {
+        if (Double.isNaN(expected)) {
+            assertThat(actual).as(description).isNaN();
+            return;
+        }
+        assertThat(actual).as(description).isCloseTo(expected, within(TOLERANCE * Math.max(1, Math.abs(expected))));
+    }
+}
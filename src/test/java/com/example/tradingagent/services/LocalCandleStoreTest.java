@@ -0,0 +1,148 @@
+package com.example.tradingagent.services;
+
+import com.google.protobuf.Timestamp;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.tinkoff.piapi.contract.v1.CandleInterval;
+import ru.tinkoff.piapi.contract.v1.HistoricCandle;
+import ru.tinkoff.piapi.contract.v1.Quotation;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LocalCandleStoreTest {
+
+    private static final String FIGI = "BBG004730N88";
+    private static final long M15 = 15 * 60;
+    private static final long H1 = 60 * 60;
+    // Сутки до конца месяца: часовые свечи заходят в два сегмента
+    private static final long MONTH_EDGE = Instant.parse("2024-01-31T00:00:00Z").getEpochSecond();
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTripsCandlesAcrossSegments() {
+        LocalCandleStore store = new LocalCandleStore(true, dir.toString());
+        List<HistoricCandle> candles = candles(MONTH_EDGE, H1, 0, 48);
+        Instant from = Instant.ofEpochSecond(MONTH_EDGE);
+        Instant to = Instant.ofEpochSecond(MONTH_EDGE + 48 * H1);
+
+        List<HistoricCandle> loaded = store.getCandles(FIGI, CandleInterval.CANDLE_INTERVAL_HOUR, from, to,
+                (f, t) -> candles);
+        assertThat(loaded).isEqualTo(candles);
+
+        // Второй запрос целиком с диска
+        List<HistoricCandle> stored = store.getCandles(FIGI, CandleInterval.CANDLE_INTERVAL_HOUR, from, to,
+                failingFetcher());
+        assertThat(stored).isEqualTo(candles);
+        assertThat(store.readStored(FIGI, CandleInterval.CANDLE_INTERVAL_HOUR, from, to)).isEqualTo(candles);
+    }
+
+    @Test
+    void fetchesOnlyMissingTail() {
+        LocalCandleStore store = new LocalCandleStore(true, dir.toString());
+        RecordingFetcher fetcher = new RecordingFetcher(MONTH_EDGE, M15);
+
+        store.getCandles(FIGI, CandleInterval.CANDLE_INTERVAL_15_MIN, at(0), at(100), fetcher);
+        List<HistoricCandle> result = store.getCandles(FIGI, CandleInterval.CANDLE_INTERVAL_15_MIN, at(0), at(150), fetcher);
+
+        assertThat(fetcher.requests).containsExactly(new long[]{at(0).getEpochSecond(), at(100).getEpochSecond()},
+                new long[]{at(100).getEpochSecond(), at(150).getEpochSecond()});
+        assertThat(result).isEqualTo(candles(MONTH_EDGE, M15, 0, 150));
+    }
+
+    @Test
+    void fetchesOnlyMissingHeadAndKeepsNewerCandles() {
+        LocalCandleStore store = new LocalCandleStore(true, dir.toString());
+        RecordingFetcher fetcher = new RecordingFetcher(MONTH_EDGE, M15);
+
+        store.getCandles(FIGI, CandleInterval.CANDLE_INTERVAL_15_MIN, at(50), at(150), fetcher);
+        // Исторический запрос: раньше сохраненного и с концом внутри покрытия
+        List<HistoricCandle> head = store.getCandles(FIGI, CandleInterval.CANDLE_INTERVAL_15_MIN, at(0), at(100), fetcher);
+
+        assertThat(fetcher.requests).hasSize(2);
+        assertThat(fetcher.requests.get(1)).containsExactly(at(0).getEpochSecond(), at(50).getEpochSecond());
+        assertThat(head).isEqualTo(candles(MONTH_EDGE, M15, 0, 100));
+
+        // Более новые свечи не потеряны и покрытие не сузилось: весь период отдается с диска
+        List<HistoricCandle> all = store.getCandles(FIGI, CandleInterval.CANDLE_INTERVAL_15_MIN, at(0), at(150),
+                failingFetcher());
+        assertThat(all).isEqualTo(candles(MONTH_EDGE, M15, 0, 150));
+    }
+
+    @Test
+    void prependsHeadIntoEarlierSegment() {
+        LocalCandleStore store = new LocalCandleStore(true, dir.toString());
+        long start = MONTH_EDGE - 10 * H1;
+        RecordingFetcher fetcher = new RecordingFetcher(start, H1);
+        Instant from = Instant.ofEpochSecond(start);
+
+        // Сначала - только февраль, затем январь дописывается перед ним
+        store.getCandles(FIGI, CandleInterval.CANDLE_INTERVAL_HOUR, from.plusSeconds(34 * H1), from.plusSeconds(40 * H1), fetcher);
+        store.getCandles(FIGI, CandleInterval.CANDLE_INTERVAL_HOUR, from, from.plusSeconds(40 * H1), fetcher);
+
+        assertThat(store.readStored(FIGI, CandleInterval.CANDLE_INTERVAL_HOUR, from, from.plusSeconds(40 * H1)))
+                .isEqualTo(candles(start, H1, 0, 40));
+    }
+
+    private static Instant at(int index) {
+        return Instant.ofEpochSecond(MONTH_EDGE + index * M15);
+    }
+
+    private static LocalCandleStore.CandleFetcher failingFetcher() {
+        return (from, to) -> {
+            throw new AssertionError("Запрос в API не ожидался: " + from + " - " + to);
+        };
+    }
+
+    private static List<HistoricCandle> candles(long start, long step, int fromIndex, int toIndex) {
+        List<HistoricCandle> candles = new ArrayList<>();
+        for (int i = fromIndex; i < toIndex; i++) {
+            candles.add(candle(start + i * step, i));
+        }
+        return candles;
+    }
+
+    private static HistoricCandle candle(long time, int i) {
+        return HistoricCandle.newBuilder()
+                .setTime(Timestamp.newBuilder().setSeconds(time).build())
+                .setOpen(quotation(100 + i, 250_000_000))
+                .setHigh(quotation(101 + i, 0))
+                .setLow(quotation(99 + i, 990_000_000))
+                .setClose(quotation(100 + i, 500_000_000))
+                .setVolume(1000L + i)
+                .setIsComplete(true)
+                .build();
+    }
+
+    private static Quotation quotation(long units, int nano) {
+        return Quotation.newBuilder().setUnits(units).setNano(nano).build();
+    }
+
+    /**
+     * "API" с непрерывной историей от start с шагом step; запоминает запрошенные периоды.
+     */
+    private static final class RecordingFetcher implements LocalCandleStore.CandleFetcher {
+        final List<long[]> requests = new ArrayList<>();
+        private final long start;
+        private final long step;
+
+        RecordingFetcher(long start, long step) {
+            this.start = start;
+            this.step = step;
+        }
+
+        @Override
+        public List<HistoricCandle> fetch(Instant from, Instant to) {
+            requests.add(new long[]{from.getEpochSecond(), to.getEpochSecond()});
+            int fromIndex = (int) Math.max(0, (from.getEpochSecond() - start + step - 1) / step);
+            int toIndex = (int) ((to.getEpochSecond() - start + step - 1) / step);
+            return candles(start, step, fromIndex, toIndex);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.tradingagent.services;
+
+import com.example.tradingagent.TinkoffApiUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import ru.tinkoff.piapi.contract.v1.OrderDirection;
+import ru.tinkoff.piapi.contract.v1.OrderTrades;
+import ru.tinkoff.piapi.contract.v1.OrderType;
+import ru.tinkoff.piapi.contract.v1.Quotation;
+import ru.tinkoff.piapi.contract.v1.StopOrderDirection;
+import ru.tinkoff.piapi.contract.v1.StopOrderType;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Исполнение сработавшей стоп-заявки попадает в поток сделок так же, как исполнение рыночной заявки.
+ */
+class LocalMarketSimulatorTest {
+
+    private static final String FIGI = "LOCAL_SBER";
+    private static final String ACCOUNT = LocalMarketSimulator.ACCOUNT_ID;
+
+    private final LocalMarketSimulator simulator = new LocalMarketSimulator(mock(LocalCandleStore.class),
+            42, false, 0, 0, 1_000_000, "SBER", 0, 1_000);
+
+    @AfterEach
+    void tearDown() {
+        simulator.shutdown();
+    }
+
+    @Test
+    void triggeredStopOrderPublishesTrade() {
+        List<OrderTrades> trades = new CopyOnWriteArrayList<>();
+        simulator.subscribeOrderTrades(ACCOUNT, trades::add, error -> { });
+
+        simulator.postOrder(FIGI, 5, Quotation.getDefaultInstance(), OrderDirection.ORDER_DIRECTION_BUY,
+                ACCOUNT, OrderType.ORDER_TYPE_MARKET, "entry");
+        BigDecimal price = TinkoffApiUtils.quotationToBigDecimal(simulator.getLastPrices(List.of(FIGI)).getFirst().getPrice());
+        // Стоп выше текущей цены - срабатывает при следующем запросе цен
+        String stopOrderId = simulator.postStopOrderGoodTillCancel(FIGI, 5, Quotation.getDefaultInstance(),
+                TinkoffApiUtils.bigDecimalToQuotation(price.multiply(BigDecimal.TWO)),
+                StopOrderDirection.STOP_ORDER_DIRECTION_SELL, ACCOUNT, StopOrderType.STOP_ORDER_TYPE_STOP_LOSS);
+        simulator.getLastPrices(List.of(FIGI));
+
+        assertThat(simulator.getStopOrders(ACCOUNT)).isEmpty();
+        assertThat(trades).extracting(OrderTrades::getOrderId).containsExactly("entry", stopOrderId);
+        OrderTrades stopTrade = trades.get(1);
+        assertThat(stopTrade.getFigi()).isEqualTo(FIGI);
+        assertThat(stopTrade.getDirection()).isEqualTo(OrderDirection.ORDER_DIRECTION_SELL);
+        assertThat(stopTrade.getTradesList()).singleElement()
+                .satisfies(trade -> assertThat(trade.getQuantity()).isEqualTo(5));
+        assertThat(simulator.getPortfolio(ACCOUNT).getPositions()).isEmpty();
+    }
+}
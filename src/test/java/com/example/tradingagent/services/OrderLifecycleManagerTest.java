@@ -0,0 +1,151 @@
+package com.example.tradingagent.services;
+
+import com.example.tradingagent.TinkoffApiUtils;
+import com.example.tradingagent.entities.OrderEntity;
+import com.example.tradingagent.repositories.OrderEntityRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import ru.tinkoff.piapi.contract.v1.OrderExecutionReportStatus;
+import ru.tinkoff.piapi.contract.v1.OrderTrade;
+import ru.tinkoff.piapi.contract.v1.OrderTrades;
+import ru.tinkoff.piapi.contract.v1.PostOrderResponse;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Заявка отслеживается до отправки: сделки потока, пришедшие раньше ответа PostOrder, не теряются.
+ */
+class OrderLifecycleManagerTest {
+
+    private static final String FIGI = "BBG004730N88";
+    private static final String ORDER_ID = "order-1";
+    private static final OrderLifecycleManager.FillHandler NO_PROTECTION =
+            (lots, price) -> CompletableFuture.completedFuture(null);
+
+    private final BrokerGateway brokerGateway = mock(BrokerGateway.class);
+    private final AuditService auditService = mock(AuditService.class);
+    private final TradingStateMachine stateMachine = mock(TradingStateMachine.class);
+    private OrderLifecycleManager manager;
+    private Consumer<OrderTrades> tradesStream;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        TinkoffAccountService accountService = mock(TinkoffAccountService.class);
+        when(accountService.getSandboxAccountId()).thenReturn("account");
+        when(auditService.getOrderRepository()).thenReturn(mock(OrderEntityRepository.class));
+        manager = new OrderLifecycleManager(brokerGateway, accountService, auditService, stateMachine,
+                mock(PortfolioMirror.class), 60_000, 3, 10, 100, 1_000);
+        manager.start();
+
+        ArgumentCaptor<Consumer<OrderTrades>> captor = ArgumentCaptor.forClass(Consumer.class);
+        verify(brokerGateway, timeout(5_000)).subscribeOrderTrades(eq("account"), captor.capture(), any());
+        tradesStream = captor.getValue();
+    }
+
+    @AfterEach
+    void tearDown() {
+        manager.shutdown();
+    }
+
+    @Test
+    void tradesBeforePostOrderResponseFillOrder() throws Exception {
+        OrderHandle handle = manager.newHandle(FIGI, "SBER", "BUY");
+        CompletableFuture<Long> filledLots = new CompletableFuture<>();
+        manager.track(handle, ORDER_ID, FIGI, 2, 10, new BigDecimal("250"),
+                (lots, price) -> {
+                    filledLots.complete(lots);
+                    return CompletableFuture.completedFuture(null);
+                });
+
+        // Обе сделки приходят, пока postOrder еще не вернулся
+        tradesStream.accept(trades(10, "250.10"));
+        tradesStream.accept(trades(10, "250.30"));
+        manager.sent(handle, ORDER_ID, 2, PostOrderResponse.newBuilder()
+                .setExecutionReportStatus(OrderExecutionReportStatus.EXECUTION_REPORT_STATUS_NEW).build());
+
+        assertThat(filledLots.get(5, TimeUnit.SECONDS)).isEqualTo(2);
+        handle.getCompletion().get(5, TimeUnit.SECONDS);
+        assertThat(handle.getStatus()).isEqualTo(OrderHandle.Status.FILLED);
+        assertThat(handle.getBrokerOrderId()).isEqualTo(ORDER_ID);
+        assertThat(handle.getExecutedPrice()).isEqualByComparingTo("250.2");
+        verify(stateMachine).setActive(FIGI);
+        verify(auditService).updateOrderStatus(eq(ORDER_ID), eq(OrderEntity.OrderStatus.FILLED),
+                eq(new BigDecimal("250.2")), isNull(), isNull());
+    }
+
+    @Test
+    void handleIsFilledOnlyAfterStopsArePlaced() throws Exception {
+        OrderHandle handle = manager.newHandle(FIGI, "SBER", "BUY");
+        CompletableFuture<Void> stops = new CompletableFuture<>();
+        manager.track(handle, ORDER_ID, FIGI, 1, 10, new BigDecimal("250"), (lots, price) -> stops);
+
+        manager.sent(handle, ORDER_ID, 1, PostOrderResponse.newBuilder()
+                .setExecutionReportStatus(OrderExecutionReportStatus.EXECUTION_REPORT_STATUS_FILL)
+                .setLotsExecuted(1)
+                .build());
+
+        // Исполнение учтено, но полоса FIGI занята, пока SL/TP не выставлены
+        verify(stateMachine, timeout(5_000)).setActive(FIGI);
+        Thread.sleep(50);
+        assertThat(handle.getCompletion()).isNotDone();
+
+        stops.complete(null);
+        handle.getCompletion().get(5, TimeUnit.SECONDS);
+        assertThat(handle.getStatus()).isEqualTo(OrderHandle.Status.FILLED);
+        assertThat(handle.getLotsExecuted()).isEqualTo(1);
+    }
+
+    @Test
+    void partialTradeBeforeResponseIsKept() {
+        OrderHandle handle = manager.newHandle(FIGI, "SBER", "BUY");
+        manager.track(handle, ORDER_ID, FIGI, 3, 10, new BigDecimal("250"), NO_PROTECTION);
+
+        tradesStream.accept(trades(10, "250"));
+        manager.sent(handle, ORDER_ID, 3, PostOrderResponse.newBuilder()
+                .setExecutionReportStatus(OrderExecutionReportStatus.EXECUTION_REPORT_STATUS_NEW).build());
+
+        // Ответ PostOrder не откатывает статус частичного исполнения
+        assertThat(handle.getStatus()).isEqualTo(OrderHandle.Status.PARTIALLY_FILLED);
+        assertThat(handle.getLotsExecuted()).isEqualTo(1);
+    }
+
+    @Test
+    void untrackedOrderIgnoresLaterTrades() {
+        OrderHandle handle = manager.newHandle(FIGI, "SBER", "BUY");
+        manager.track(handle, ORDER_ID, FIGI, 1, 10, new BigDecimal("250"), NO_PROTECTION);
+        manager.untrack(ORDER_ID);
+
+        tradesStream.accept(trades(10, "250"));
+
+        assertThat(handle.getStatus()).isEqualTo(OrderHandle.Status.ACCEPTED);
+        verify(stateMachine, never()).setActive(anyString());
+        verify(auditService, never()).updateOrderStatus(anyString(), any(), any(), any(), any());
+    }
+
+    private static OrderTrades trades(long quantity, String price) {
+        return OrderTrades.newBuilder()
+                .setOrderId(ORDER_ID)
+                .setFigi(FIGI)
+                .addTrades(OrderTrade.newBuilder()
+                        .setQuantity(quantity)
+                        .setPrice(TinkoffApiUtils.bigDecimalToQuotation(new BigDecimal(price))))
+                .build();
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.tradingagent.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import ru.tinkoff.piapi.contract.v1.PortfolioResponse;
+import ru.tinkoff.piapi.core.models.Portfolio;
+
+import java.util.function.Consumer;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Слушатели зеркала узнают о загрузке портфеля целиком: при старте и после переподключения потока.
+ */
+class PortfolioMirrorTest {
+
+    private final BrokerGateway brokerGateway = mock(BrokerGateway.class);
+    private final PortfolioChangeListener listener = mock(PortfolioChangeListener.class);
+    private PortfolioMirror mirror;
+
+    @BeforeEach
+    void setUp() {
+        TinkoffAccountService accountService = mock(TinkoffAccountService.class);
+        when(accountService.getSandboxAccountId()).thenReturn("account");
+        when(brokerGateway.getPortfolio("account")).thenReturn(Portfolio.fromResponse(PortfolioResponse.getDefaultInstance()));
+        mirror = new PortfolioMirror(brokerGateway, accountService, true, 10);
+        mirror.addListener(listener);
+    }
+
+    @AfterEach
+    void tearDown() {
+        mirror.shutdown();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void listenersAreNotifiedOnStartAndAfterReconnect() {
+        mirror.start();
+        verify(listener, timeout(5_000).times(1)).onPortfolioLoaded();
+
+        ArgumentCaptor<Consumer<Throwable>> onError = ArgumentCaptor.forClass(Consumer.class);
+        verify(brokerGateway).subscribePortfolio(eq("account"), any(), onError.capture());
+        onError.getValue().accept(new IllegalStateException("поток оборван"));
+
+        verify(listener, timeout(5_000).times(2)).onPortfolioLoaded();
+        verify(brokerGateway, times(2)).getPortfolio("account");
+    }
+
+    @Test
+    void failedConnectDoesNotNotify() {
+        when(brokerGateway.getPortfolio("account")).thenThrow(new IllegalStateException("брокер недоступен"));
+        mirror.start();
+
+        verify(brokerGateway, timeout(5_000).atLeast(2)).getPortfolio("account");
+        verify(listener, never()).onPortfolioLoaded();
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.tradingagent.services;
+
+import com.example.tradingagent.entities.RollupGranularity;
+import com.example.tradingagent.services.StatisticsRollupService.Range;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Random;
+
+import static com.example.tradingagent.entities.RollupGranularity.DAY;
+import static com.example.tradingagent.entities.RollupGranularity.HOUR;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Раскладка периода статистики на часы по краям и целые сутки (StatisticsRollupService.split).
+ */
+class StatisticsRollupServiceTest {
+
+    @Test
+    void emptyPeriodHasNoRanges() {
+        assertThat(split("2024-03-04T10:00:00Z", "2024-03-04T10:00:00Z")).isEmpty();
+        assertThat(split("2024-03-04T12:00:00Z", "2024-03-04T10:00:00Z")).isEmpty();
+    }
+
+    @Test
+    void partialHourCountsWholeHour() {
+        assertThat(split("2024-03-04T10:15:00Z", "2024-03-04T10:45:00Z"))
+                .containsExactly(range(HOUR, "2024-03-04T10:00:00Z", "2024-03-04T11:00:00Z"));
+        // Одна секунда в начале часа - тоже весь час
+        assertThat(split("2024-03-04T10:59:59Z", "2024-03-04T11:00:01Z"))
+                .containsExactly(range(HOUR, "2024-03-04T10:00:00Z", "2024-03-04T12:00:00Z"));
+    }
+
+    @Test
+    void boundaryOnHourIsExclusive() {
+        assertThat(split("2024-03-04T10:00:00Z", "2024-03-04T12:00:00Z"))
+                .containsExactly(range(HOUR, "2024-03-04T10:00:00Z", "2024-03-04T12:00:00Z"));
+    }
+
+    @Test
+    void periodWithoutWholeDayStaysInHours() {
+        assertThat(split("2024-03-04T23:10:00Z", "2024-03-05T00:50:00Z"))
+                .containsExactly(range(HOUR, "2024-03-04T23:00:00Z", "2024-03-05T01:00:00Z"));
+        // Почти двое суток, но целого дня внутри нет
+        assertThat(split("2024-03-04T01:00:00Z", "2024-03-05T23:00:00Z"))
+                .containsExactly(range(HOUR, "2024-03-04T01:00:00Z", "2024-03-05T23:00:00Z"));
+    }
+
+    @Test
+    void startInsideFirstHourOfDayRoundsToWholeDay() {
+        // Точность - до часа: 00:30 учитывается с 00:00, и сутки целые
+        assertThat(split("2024-03-04T00:30:00Z", "2024-03-05T00:00:00Z"))
+                .containsExactly(range(DAY, "2024-03-04T00:00:00Z", "2024-03-05T00:00:00Z"));
+    }
+
+    @Test
+    void alignedDaysUseOnlyDayRange() {
+        assertThat(split("2024-03-04T00:00:00Z", "2024-03-05T00:00:00Z"))
+                .containsExactly(range(DAY, "2024-03-04T00:00:00Z", "2024-03-05T00:00:00Z"));
+        assertThat(split("2024-03-01T00:00:00Z", "2024-03-31T00:00:00Z"))
+                .containsExactly(range(DAY, "2024-03-01T00:00:00Z", "2024-03-31T00:00:00Z"));
+    }
+
+    @Test
+    void hoursOnEitherSideOfWholeDays() {
+        assertThat(split("2024-03-04T22:30:00Z", "2024-03-07T02:10:00Z")).containsExactly(
+                range(HOUR, "2024-03-04T22:00:00Z", "2024-03-05T00:00:00Z"),
+                range(DAY, "2024-03-05T00:00:00Z", "2024-03-07T00:00:00Z"),
+                range(HOUR, "2024-03-07T00:00:00Z", "2024-03-07T03:00:00Z"));
+        // Край только с одной стороны
+        assertThat(split("2024-03-04T00:00:00Z", "2024-03-05T01:00:00Z")).containsExactly(
+                range(DAY, "2024-03-04T00:00:00Z", "2024-03-05T00:00:00Z"),
+                range(HOUR, "2024-03-05T00:00:00Z", "2024-03-05T01:00:00Z"));
+        assertThat(split("2024-03-03T23:59:59Z", "2024-03-05T00:00:00Z")).containsExactly(
+                range(HOUR, "2024-03-03T23:00:00Z", "2024-03-04T00:00:00Z"),
+                range(DAY, "2024-03-04T00:00:00Z", "2024-03-05T00:00:00Z"));
+    }
+
+    @Test
+    void rangesTileHourAlignedPeriodWithoutGapsOrOverlaps() {
+        Random random = new Random(5);
+        long base = Instant.parse("2024-01-01T00:00:00Z").getEpochSecond();
+        for (int i = 0; i < 10_000; i++) {
+            long from = base + random.nextInt(90 * 86_400);
+            long to = from + 1 + random.nextInt(random.nextBoolean() ? 3 * 3_600 : 10 * 86_400);
+            List<Range> ranges = StatisticsRollupService.split(Instant.ofEpochSecond(from), Instant.ofEpochSecond(to));
+
+            long expectedStart = HOUR.bucketOf(from);
+            long expectedEnd = HOUR.bucketOf(to - 1) + HOUR.getSeconds();
+            assertThat(ranges).isNotEmpty().hasSizeLessThanOrEqualTo(3);
+            assertThat(ranges.get(0).fromEpoch()).isEqualTo(expectedStart);
+            assertThat(ranges.get(ranges.size() - 1).toEpoch()).isEqualTo(expectedEnd);
+            for (int r = 0; r < ranges.size(); r++) {
+                Range range = ranges.get(r);
+                assertThat(range.toEpoch()).isGreaterThan(range.fromEpoch());
+                if (r > 0) {
+                    assertThat(range.fromEpoch()).isEqualTo(ranges.get(r - 1).toEpoch());
+                }
+                if (range.granularity() == DAY) {
+                    assertThat(DAY.bucketOf(range.fromEpoch())).isEqualTo(range.fromEpoch());
+                    assertThat(DAY.bucketOf(range.toEpoch())).isEqualTo(range.toEpoch());
+                } else {
+                    // В часовом интервале нет целых суток - они были бы взяты из DAY
+                    long firstWholeDay = DAY.bucketOf(range.fromEpoch() + DAY.getSeconds() - 1);
+                    assertThat(firstWholeDay + DAY.getSeconds()).isGreaterThan(range.toEpoch());
+                }
+            }
+        }
+    }
+
+    private static List<Range> split(String from, String to) {
+        return StatisticsRollupService.split(Instant.parse(from), Instant.parse(to));
+    }
+
+    private static Range range(RollupGranularity granularity, String from, String to) {
+        return new Range(granularity, Instant.parse(from).getEpochSecond(), Instant.parse(to).getEpochSecond());
+    }
+}
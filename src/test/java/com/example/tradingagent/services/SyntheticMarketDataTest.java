@@ -0,0 +1,113 @@
+package com.example.tradingagent.services;
+
+import com.example.tradingagent.FixedPoint;
+import com.example.tradingagent.TinkoffApiUtils;
+import org.junit.jupiter.api.Test;
+import ru.tinkoff.piapi.contract.v1.CandleInterval;
+import ru.tinkoff.piapi.contract.v1.HistoricCandle;
+import ru.tinkoff.piapi.contract.v1.Quotation;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Свечи старших интервалов синтетических данных - агрегаты той же минутной траектории,
+ * по которой симулятор исполняет заявки.
+ */
+class SyntheticMarketDataTest {
+
+    private static final String FIGI = "BBG004730N88";
+    private static final Instant DAY_START = Instant.parse("2024-03-04T00:00:00Z");
+
+    private final SyntheticMarketData data = new SyntheticMarketData(42);
+
+    @Test
+    void fifteenMinuteBarAggregatesItsMinutes() {
+        assertAggregates(CandleInterval.CANDLE_INTERVAL_15_MIN, DAY_START.plus(Duration.ofHours(10)), 8);
+    }
+
+    @Test
+    void hourAndDayBarsAggregateTheirMinutes() {
+        assertAggregates(CandleInterval.CANDLE_INTERVAL_HOUR, DAY_START.plus(Duration.ofHours(6)), 4);
+        assertAggregates(CandleInterval.CANDLE_INTERVAL_DAY, DAY_START, 2);
+    }
+
+    @Test
+    void priceAtIsCloseOfMinuteCandle() {
+        Instant from = DAY_START.plus(Duration.ofHours(12));
+        List<HistoricCandle> minutes = data.getCandles(FIGI, CandleInterval.CANDLE_INTERVAL_1_MIN, from, from.plus(Duration.ofMinutes(30)));
+        for (HistoricCandle minute : minutes) {
+            Instant inside = Instant.ofEpochSecond(minute.getTime().getSeconds() + 59);
+            assertThat(FixedPoint.fromDouble(data.priceAt(FIGI, inside)))
+                    .isEqualTo(TinkoffApiUtils.quotationToNanos(minute.getClose()));
+        }
+    }
+
+    @Test
+    void overlappingRequestsReturnSameCandles() {
+        Instant from = DAY_START.plus(Duration.ofHours(23));
+        List<HistoricCandle> wide = data.getCandles(FIGI, CandleInterval.CANDLE_INTERVAL_15_MIN, from, from.plus(Duration.ofHours(3)));
+        // Запрос другого инструмента между ними не должен влиять на свечи
+        data.getCandles("BBG000B9XRY4", CandleInterval.CANDLE_INTERVAL_1_MIN, from, from.plus(Duration.ofHours(1)));
+        List<HistoricCandle> narrow = data.getCandles(FIGI, CandleInterval.CANDLE_INTERVAL_15_MIN,
+                from.plus(Duration.ofHours(1)), from.plus(Duration.ofHours(2)));
+        assertThat(narrow).containsExactlyElementsOf(wide.subList(4, 8));
+    }
+
+    @Test
+    void currentDaysOfLargeUniverseStayCachedAlongsideHistory() {
+        Instant now = DAY_START.plus(Duration.ofDays(30)).plus(Duration.ofHours(11));
+        List<String> universe = IntStream.rangeClosed(1, 1_000).mapToObj(i -> String.format("SYNTH%07d", i)).toList();
+        universe.forEach(figi -> data.priceAt(figi, now));
+        assertThat(data.getGeneratedMinuteDays()).isEqualTo(universe.size());
+
+        // Исторический запрос не вытесняет текущий день
+        data.getCandles(universe.get(0), CandleInterval.CANDLE_INTERVAL_HOUR, DAY_START, DAY_START.plus(Duration.ofDays(3)));
+        long afterHistory = data.getGeneratedMinuteDays();
+        assertThat(afterHistory).isEqualTo(universe.size() + 3);
+
+        // Следующие тики по всей вселенной и повтор истории - без повторной генерации
+        for (String figi : universe) {
+            data.priceAt(figi, now.plus(Duration.ofMinutes(5)));
+            data.getOrderBook(figi, 5, now.plus(Duration.ofMinutes(6)));
+        }
+        data.getCandles(universe.get(0), CandleInterval.CANDLE_INTERVAL_HOUR, DAY_START, DAY_START.plus(Duration.ofDays(3)));
+        assertThat(data.getGeneratedMinuteDays()).isEqualTo(afterHistory);
+
+        // Смена дня: прошлый текущий день уходит в историю и не генерируется заново
+        data.priceAt(universe.get(1), now.plus(Duration.ofDays(1)));
+        data.priceAt(universe.get(1), now);
+        assertThat(data.getGeneratedMinuteDays()).isEqualTo(afterHistory + 1);
+    }
+
+    private void assertAggregates(CandleInterval interval, Instant from, int bars) {
+        long step = SyntheticMarketData.intervalSeconds(interval);
+        List<HistoricCandle> candles = data.getCandles(FIGI, interval, from, from.plusSeconds(step * bars));
+        assertThat(candles).hasSize(bars);
+        for (HistoricCandle candle : candles) {
+            Instant start = Instant.ofEpochSecond(candle.getTime().getSeconds());
+            List<HistoricCandle> minutes = data.getCandles(FIGI, CandleInterval.CANDLE_INTERVAL_1_MIN, start, start.plusSeconds(step));
+            assertThat(minutes).hasSize((int) (step / 60));
+
+            assertThat(price(candle, HistoricCandle::getOpen)).isEqualByComparingTo(price(minutes.get(0), HistoricCandle::getOpen));
+            assertThat(price(candle, HistoricCandle::getClose))
+                    .isEqualByComparingTo(price(minutes.get(minutes.size() - 1), HistoricCandle::getClose));
+            assertThat(price(candle, HistoricCandle::getHigh)).isEqualByComparingTo(minutes.stream()
+                    .map(minute -> price(minute, HistoricCandle::getHigh)).max(Comparator.naturalOrder()).orElseThrow());
+            assertThat(price(candle, HistoricCandle::getLow)).isEqualByComparingTo(minutes.stream()
+                    .map(minute -> price(minute, HistoricCandle::getLow)).min(Comparator.naturalOrder()).orElseThrow());
+            assertThat(candle.getVolume()).isEqualTo(minutes.stream().mapToLong(HistoricCandle::getVolume).sum());
+        }
+    }
+
+    private static BigDecimal price(HistoricCandle candle, Function<HistoricCandle, Quotation> field) {
+        return TinkoffApiUtils.quotationToBigDecimal(field.apply(candle));
+    }
+}
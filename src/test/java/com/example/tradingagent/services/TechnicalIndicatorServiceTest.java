@@ -0,0 +1,148 @@
+package com.example.tradingagent.services;
+
+import com.example.tradingagent.TinkoffApiUtils;
+import com.google.protobuf.Timestamp;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.ta4j.core.BarSeries;
+import org.ta4j.core.BaseBarSeries;
+import org.ta4j.core.indicators.ATRIndicator;
+import org.ta4j.core.indicators.EMAIndicator;
+import org.ta4j.core.indicators.MACDIndicator;
+import org.ta4j.core.indicators.RSIIndicator;
+import org.ta4j.core.indicators.adx.ADXIndicator;
+import org.ta4j.core.indicators.helpers.ClosePriceIndicator;
+import ru.tinkoff.piapi.contract.v1.HistoricCandle;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Карта индикаторов TechnicalIndicatorService (фильтры стратегии, входы SL/TP: atr_14, current_price)
+ * против прежнего расчета через ta4j BarSeries на тех же свечах из API.
+ */
+class TechnicalIndicatorServiceTest {
+
+    private static final double TOLERANCE = 1e-6;
+
+    private final TechnicalIndicatorService service = new TechnicalIndicatorService();
+
+    static Stream<Arguments> candleSets() {
+        return Stream.of(
+                Arguments.of("random walk 120", TestCandles.randomWalk(120, 1)),
+                Arguments.of("random walk 500", TestCandles.randomWalk(500, 2)),
+                Arguments.of("random walk 2000", TestCandles.randomWalk(2000, 3)),
+                Arguments.of("too short", TestCandles.randomWalk(119, 4)),
+                Arguments.of("flat", TestCandles.flat(150, 100.0)),
+                Arguments.of("zero loss", TestCandles.rising(150))
+        );
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("candleSets")
+    void matchesTa4jImplementation(String name, CandleSeries series) {
+        List<HistoricCandle> candles = toHistoricCandles(series);
+
+        Map<String, Double> expected = ta4jIndicators(candles);
+        Map<String, Double> actual = service.calculateIndicators(candles, "TEST", "FIGI_TEST");
+
+        assertThat(actual.keySet()).as(name).isEqualTo(expected.keySet());
+        expected.forEach((key, value) -> assertThat(actual.get(key)).as(name + " " + key)
+                .isCloseTo(value, within(TOLERANCE * Math.max(1, Math.abs(value)))));
+    }
+
+    private static List<HistoricCandle> toHistoricCandles(CandleSeries series) {
+        List<HistoricCandle> candles = new ArrayList<>(series.size());
+        for (int i = 0; i < series.size(); i++) {
+            candles.add(HistoricCandle.newBuilder()
+                    .setTime(Timestamp.newBuilder().setSeconds(series.getTime(i)))
+                    .setOpen(TinkoffApiUtils.bigDecimalToQuotation(BigDecimal.valueOf(series.getOpen(i))))
+                    .setHigh(TinkoffApiUtils.bigDecimalToQuotation(BigDecimal.valueOf(series.getHigh(i))))
+                    .setLow(TinkoffApiUtils.bigDecimalToQuotation(BigDecimal.valueOf(series.getLow(i))))
+                    .setClose(TinkoffApiUtils.bigDecimalToQuotation(BigDecimal.valueOf(series.getClose(i))))
+                    .setVolume((long) series.getVolume(i))
+                    .setIsComplete(true)
+                    .build());
+        }
+        return candles;
+    }
+
+    /**
+     * Прежний TechnicalIndicatorService.calculateIndicators на ta4j (без логирования и диагностики).
+     */
+    private static Map<String, Double> ta4jIndicators(List<HistoricCandle> candles) {
+        Map<String, Double> indicators = new HashMap<>();
+        if (candles.size() < 120) {
+            return indicators;
+        }
+        BarSeries series = new BaseBarSeries("candles");
+        for (HistoricCandle candle : candles) {
+            series.addBar(
+                    ZonedDateTime.ofInstant(Instant.ofEpochSecond(candle.getTime().getSeconds()), ZoneId.systemDefault()),
+                    TinkoffApiUtils.quotationToBigDecimal(candle.getOpen()),
+                    TinkoffApiUtils.quotationToBigDecimal(candle.getHigh()),
+                    TinkoffApiUtils.quotationToBigDecimal(candle.getLow()),
+                    TinkoffApiUtils.quotationToBigDecimal(candle.getClose()),
+                    BigDecimal.valueOf(candle.getVolume())
+            );
+        }
+        ClosePriceIndicator closePrice = new ClosePriceIndicator(series);
+        int lastIndex = series.getEndIndex();
+
+        RSIIndicator rsi = new RSIIndicator(closePrice, 14);
+        double rsiValue = rsi.getValue(lastIndex).doubleValue();
+        if (Double.isNaN(rsiValue) || Double.isInfinite(rsiValue) || rsiValue <= 0 || rsiValue >= 100) {
+            return indicators;
+        }
+        indicators.put("rsi_14", rsiValue);
+        indicators.put("rsi_14_previous", rsi.getValue(lastIndex - 1).doubleValue());
+
+        MACDIndicator macd = new MACDIndicator(closePrice, 12, 26);
+        EMAIndicator macdSignal = new EMAIndicator(macd, 9);
+        double macdHist = macd.getValue(lastIndex).doubleValue() - macdSignal.getValue(lastIndex).doubleValue();
+        if (Double.isNaN(macdHist) || Double.isInfinite(macdHist)) {
+            return indicators;
+        }
+        indicators.put("macd_hist", macdHist);
+        indicators.put("macd_hist_previous",
+                macd.getValue(lastIndex - 1).doubleValue() - macdSignal.getValue(lastIndex - 1).doubleValue());
+
+        double atrValue = new ATRIndicator(series, 14).getValue(lastIndex).doubleValue();
+        if (Double.isNaN(atrValue) || Double.isInfinite(atrValue) || atrValue <= 0) {
+            return indicators;
+        }
+        indicators.put("atr_14", atrValue);
+
+        double emaValue = new EMAIndicator(closePrice, 100).getValue(lastIndex).doubleValue();
+        double currentPrice = closePrice.getValue(lastIndex).doubleValue();
+        if (Double.isNaN(currentPrice) || Double.isInfinite(currentPrice) || currentPrice <= 0) {
+            return indicators;
+        }
+        if (!Double.isNaN(emaValue) && !Double.isInfinite(emaValue)) {
+            indicators.put("ema_100", emaValue);
+        }
+        indicators.put("current_price", currentPrice);
+
+        // Последнее валидное значение ADX, начиная с индекса 2 * period
+        ADXIndicator adx = new ADXIndicator(series, 14);
+        for (int i = lastIndex; i >= 28; i--) {
+            double value = adx.getValue(i).doubleValue();
+            if (!Double.isNaN(value) && !Double.isInfinite(value) && value >= 0 && value <= 100) {
+                indicators.put("adx_14", value);
+                break;
+            }
+        }
+        return indicators;
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.tradingagent.services;
+
+import org.ta4j.core.BarSeries;
+import org.ta4j.core.BaseBarSeries;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Random;
+
+/**
+ * Фиксированные наборы свечей M15 для тестов индикаторов.
+ */
+final class TestCandles {
+
+    static final long START_EPOCH = Instant.parse("2024-01-08T07:00:00Z").getEpochSecond();
+    static final long STEP_SECONDS = 15 * 60;
+
+    private TestCandles() {
+    }
+
+    /**
+     * Случайное блуждание с фиксированным зерном: одинаковый набор на каждом запуске.
+     */
+    static CandleSeries randomWalk(int size, long seed) {
+        Random random = new Random(seed);
+        double[] open = new double[size];
+        double[] high = new double[size];
+        double[] low = new double[size];
+        double[] close = new double[size];
+        double price = 250;
+        for (int i = 0; i < size; i++) {
+            double next = Math.max(1, price * (1 + random.nextGaussian() * 0.004));
+            open[i] = round(price);
+            close[i] = round(next);
+            high[i] = round(Math.max(price, next) * (1 + random.nextDouble() * 0.002));
+            low[i] = round(Math.min(price, next) * (1 - random.nextDouble() * 0.002));
+            price = next;
+        }
+        return series(open, high, low, close);
+    }
+
+    /**
+     * Все свечи одинаковые (High == Low == Close): ATR = 0, ADX не определен.
+     */
+    static CandleSeries flat(int size, double price) {
+        double[] values = new double[size];
+        java.util.Arrays.fill(values, price);
+        return series(values, values.clone(), values.clone(), values.clone());
+    }
+
+    /**
+     * Закрытие только растет: нулевые потери, RSI = 100.
+     */
+    static CandleSeries rising(int size) {
+        double[] open = new double[size];
+        double[] high = new double[size];
+        double[] low = new double[size];
+        double[] close = new double[size];
+        for (int i = 0; i < size; i++) {
+            open[i] = round(100 + i * 0.5);
+            close[i] = round(100 + (i + 1) * 0.5);
+            high[i] = close[i] + 0.1;
+            low[i] = open[i] - 0.1;
+        }
+        return series(open, high, low, close);
+    }
+
+    /**
+     * Та же история как ta4j BarSeries (как строил прежний TechnicalIndicatorService).
+     */
+    static BarSeries toBarSeries(CandleSeries candles) {
+        BarSeries series = new BaseBarSeries("candles");
+        for (int i = 0; i < candles.size(); i++) {
+            series.addBar(
+                    ZonedDateTime.ofInstant(Instant.ofEpochSecond(candles.getTime(i) + STEP_SECONDS), ZoneOffset.UTC),
+                    BigDecimal.valueOf(candles.getOpen(i)),
+                    BigDecimal.valueOf(candles.getHigh(i)),
+                    BigDecimal.valueOf(candles.getLow(i)),
+                    BigDecimal.valueOf(candles.getClose(i)),
+                    BigDecimal.valueOf(candles.getVolume(i))
+            );
+        }
+        return series;
+    }
+
+    private static CandleSeries series(double[] open, double[] high, double[] low, double[] close) {
+        int size = close.length;
+        long[] times = new long[size];
+        double[] volume = new double[size];
+        for (int i = 0; i < size; i++) {
+            times[i] = START_EPOCH + i * STEP_SECONDS;
+            volume[i] = 1000 + i % 7 * 100;
+        }
+        return CandleSeries.of(times, open, high, low, close, volume);
+    }
+
+    private static double round(double price) {
+        return Math.round(price * 100) / 100.0;
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.tradingagent.services;
+
+import com.example.tradingagent.dto.TradeRequest;
+import com.example.tradingagent.repositories.OrderEntityRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.tinkoff.piapi.contract.v1.GetMarginAttributesResponse;
+import ru.tinkoff.piapi.contract.v1.GetOrderBookResponse;
+import ru.tinkoff.piapi.contract.v1.Instrument;
+import ru.tinkoff.piapi.contract.v1.MoneyValue;
+import ru.tinkoff.piapi.contract.v1.OrderExecutionReportStatus;
+import ru.tinkoff.piapi.contract.v1.PostOrderResponse;
+import ru.tinkoff.piapi.contract.v1.Quotation;
+import ru.tinkoff.piapi.contract.v1.StopOrder;
+import ru.tinkoff.piapi.contract.v1.StopOrderDirection;
+import ru.tinkoff.piapi.contract.v1.StopOrderType;
+import ru.tinkoff.piapi.core.models.Position;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Полоса FIGI занята до выставления SL/TP: следующий сигнал по инструменту видит позицию уже со стопами
+ * и не выставляет их второй раз.
+ */
+class TinkoffOrderServiceTest {
+
+    private static final String FIGI = "BBG004730N88";
+    private static final Map<String, Double> INDICATORS = Map.of("atr_14", 2.0, "current_price", 250.0);
+
+    private final BrokerGateway brokerGateway = mock(BrokerGateway.class);
+    private final PortfolioMirror portfolioMirror = mock(PortfolioMirror.class);
+    private final AtomicReference<Position> position = new AtomicReference<>();
+    private final List<StopOrder> stopOrders = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean firstStopLoss = new AtomicBoolean(true);
+    private final CountDownLatch releaseStopLoss = new CountDownLatch(1);
+    private OrderLifecycleManager orderLifecycle;
+    private ExecutionLaneScheduler executionLanes;
+    private TinkoffOrderService orderService;
+
+    @BeforeEach
+    void setUp() {
+        TinkoffAccountService accountService = mock(TinkoffAccountService.class);
+        when(accountService.getSandboxAccountId()).thenReturn("account");
+        AuditService auditService = mock(AuditService.class);
+        when(auditService.getOrderRepository()).thenReturn(mock(OrderEntityRepository.class));
+        TradingStateMachine stateMachine = mock(TradingStateMachine.class);
+        when(stateMachine.canTrade(FIGI)).thenReturn(true);
+        MarketDataHub marketDataHub = mock(MarketDataHub.class);
+        when(marketDataHub.getLastPrice(FIGI)).thenReturn(new BigDecimal("250"));
+        MarketDataProvider marketDataProvider = mock(MarketDataProvider.class);
+        when(marketDataProvider.getOrderBook(eq(FIGI), anyInt())).thenReturn(GetOrderBookResponse.getDefaultInstance());
+        RiskManagementService riskManagementService = mock(RiskManagementService.class);
+        when(riskManagementService.calculateSafeLotSize(any(), any(), any(), any())).thenReturn(2L);
+        InstrumentRegistry instrumentRegistry = mock(InstrumentRegistry.class);
+        when(instrumentRegistry.getInstrument(FIGI)).thenReturn(Instrument.newBuilder()
+                .setFigi(FIGI)
+                .setTicker("SBER")
+                .setLot(10)
+                .setMinPriceIncrement(Quotation.newBuilder().setNano(10_000_000))
+                .build());
+
+        when(brokerGateway.getMarginAttributes("account")).thenReturn(GetMarginAttributesResponse.newBuilder()
+                .setLiquidPortfolio(MoneyValue.newBuilder().setCurrency("rub").setUnits(1_000_000))
+                .setStartingMargin(MoneyValue.newBuilder().setCurrency("rub"))
+                .build());
+        when(portfolioMirror.getPosition(FIGI)).then(invocation -> Optional.ofNullable(position.get()));
+        // Рыночная заявка исполняется сразу, и позиция тут же видна в зеркале портфеля
+        when(brokerGateway.postOrder(eq(FIGI), anyLong(), any(), any(), eq("account"), any(), anyString()))
+                .then(invocation -> {
+                    position.set(Position.builder().figi(FIGI).quantity(BigDecimal.valueOf(20)).build());
+                    return PostOrderResponse.newBuilder()
+                            .setExecutionReportStatus(OrderExecutionReportStatus.EXECUTION_REPORT_STATUS_FILL)
+                            .setLotsExecuted(2)
+                            .build();
+                });
+        when(brokerGateway.getStopOrders("account")).thenReturn(stopOrders);
+        when(brokerGateway.postStopOrderGoodTillCancel(eq(FIGI), anyLong(), any(), any(), any(), eq("account"), any()))
+                .then(invocation -> postStopOrder(invocation.getArgument(1), invocation.getArgument(3),
+                        invocation.getArgument(4), invocation.getArgument(6)));
+
+        orderLifecycle = new OrderLifecycleManager(brokerGateway, accountService, auditService, stateMachine,
+                portfolioMirror, 60_000, 3, 10, 100, 1_000);
+        executionLanes = new ExecutionLaneScheduler(8);
+        orderService = new TinkoffOrderService(marketDataProvider, brokerGateway, accountService, riskManagementService,
+                auditService, stateMachine, mock(TelegramNotificationService.class), marketDataHub, instrumentRegistry,
+                portfolioMirror, orderLifecycle, executionLanes);
+    }
+
+    @AfterEach
+    void tearDown() {
+        releaseStopLoss.countDown();
+        executionLanes.shutdown();
+        orderLifecycle.shutdown();
+    }
+
+    @Test
+    void nextSignalWaitsForStopsOfFilledEntry() throws Exception {
+        OrderHandle entry = orderService.submitTrade(request(), INDICATORS);
+        OrderHandle next = orderService.submitTrade(request(), INDICATORS);
+
+        // Заявка исполнена, SL еще выставляется: следующий сигнал ждет в полосе
+        assertThat(entry.getDecision().get(5, TimeUnit.SECONDS).getBrokerOrderId()).isNotNull();
+        Thread.sleep(100);
+        assertThat(next.getStatus()).isEqualTo(OrderHandle.Status.ACCEPTED);
+
+        releaseStopLoss.countDown();
+        next.getCompletion().get(10, TimeUnit.SECONDS);
+
+        assertThat(entry.getStatus()).isEqualTo(OrderHandle.Status.FILLED);
+        assertThat(next.getStatus()).isEqualTo(OrderHandle.Status.COMPLETED);
+        verify(brokerGateway, times(1)).postStopOrderGoodTillCancel(eq(FIGI), anyLong(), any(), any(), any(),
+                eq("account"), eq(StopOrderType.STOP_ORDER_TYPE_STOP_LOSS));
+        verify(brokerGateway, times(1)).postStopOrderGoodTillCancel(eq(FIGI), anyLong(), any(), any(), any(),
+                eq("account"), eq(StopOrderType.STOP_ORDER_TYPE_TAKE_PROFIT));
+    }
+
+    private String postStopOrder(long lots, Quotation stopPrice, StopOrderDirection direction, StopOrderType type)
+            throws InterruptedException {
+        if (type == StopOrderType.STOP_ORDER_TYPE_STOP_LOSS && firstStopLoss.getAndSet(false)) {
+            // Брокер отвечает на первый SL с задержкой
+            releaseStopLoss.await(10, TimeUnit.SECONDS);
+        }
+        String stopOrderId = UUID.randomUUID().toString();
+        stopOrders.add(StopOrder.newBuilder()
+                .setStopOrderId(stopOrderId)
+                .setFigi(FIGI)
+                .setLotsRequested(lots)
+                .setDirection(direction)
+                .setOrderType(type)
+                .setStopPrice(MoneyValue.newBuilder().setCurrency("rub")
+                        .setUnits(stopPrice.getUnits()).setNano(stopPrice.getNano()))
+                .build());
+        return stopOrderId;
+    }
+
+    private static TradeRequest request() {
+        TradeRequest request = new TradeRequest();
+        request.setAction("BUY");
+        request.setInstrumentFigi(FIGI);
+        request.setTicker("SBER");
+        request.setConfidenceScore(0.9);
+        return request;
+    }
+}